@@ -0,0 +1,113 @@
+package benchmarks;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkMain runs the benchmarks like JMH's own main, with the same options, but by default
+ * writes the results as JSON to jmh-result.json and runs the GC profiler:
+ * <pre>
+ *   java -jar benchmarks/target/benchmarks.jar                    all benchmarks
+ *   java -jar benchmarks/target/benchmarks.jar FrontEnd -p copies=16
+ *   java -jar benchmarks/target/benchmarks.jar -rff before.json   results to another file
+ * </pre>
+ * Two result files of the same benchmarks can be compared with any JMH result viewer. After the
+ * run, the allocation per token of the front-end benchmarks is printed, and the parallel lex
+ * threshold that {@link LexerBenchmark} suggests.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResult().hasValue()) {
+            builder.result("jmh-result.json");
+        }
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (options.getProfilers().isEmpty()) {
+            builder.addProfiler(GCProfiler.class);
+        }
+        Collection<RunResult> results = new Runner(builder.build()).run();
+        printAllocationPerToken(results);
+        printParallelLexThreshold(results, "sequential", "parallel", "Interpreter.lexer");
+        printParallelLexThreshold(results, "compactSequential", "compactParallel", "Interpreter.lexCompact");
+    }
+
+    // Bytes allocated per token by the front-end benchmarks, from the GC profiler's bytes per operation.
+    private static void printAllocationPerToken(Collection<RunResult> results) {
+        boolean header = true;
+        for (RunResult run : results) {
+            String benchmark = run.getParams().getBenchmark();
+            Result<?> perOperation = run.getSecondaryResults().get("gc.alloc.rate.norm");
+            if (!benchmark.startsWith(FrontEndBenchmark.class.getName()) || perOperation == null) {
+                continue;
+            }
+            int copies = Integer.parseInt(run.getParams().getParam("copies"));
+            List<?> tokens = Translator.lex(Corpus.of(copies));
+            if (header) {
+                System.out.printf("%n%-45s %8s %10s %14s%n", "Benchmark", "copies", "tokens", "bytes/token");
+                header = false;
+            }
+            int count = FrontEndBenchmark.count(tokens);
+            System.out.printf("%-45s %8d %10d %14.1f%n", benchmark, copies, count, perOperation.getScore() / count);
+        }
+    }
+
+    // The smallest size from which the parallel benchmark of a LexerBenchmark pair is faster than
+    // the sequential one and stays faster: the value for -Dtranslator.parallelLexThreshold.
+    private static void printParallelLexThreshold(Collection<RunResult> results, String sequential,
+                                                  String parallel, String lexer) {
+        Map<Integer, Double> sequentialTimes = new TreeMap<>();
+        Map<Integer, Double> parallelTimes = new TreeMap<>();
+        for (RunResult run : results) {
+            String benchmark = run.getParams().getBenchmark();
+            String prefix = LexerBenchmark.class.getName() + ".";
+            if (!benchmark.startsWith(prefix)) {
+                continue;
+            }
+            int chars = Integer.parseInt(run.getParams().getParam("chars"));
+            String method = benchmark.substring(prefix.length());
+            if (method.equals(sequential)) {
+                sequentialTimes.put(chars, run.getPrimaryResult().getScore());
+            } else if (method.equals(parallel)) {
+                parallelTimes.put(chars, run.getPrimaryResult().getScore());
+            }
+        }
+        if (sequentialTimes.isEmpty() || !sequentialTimes.keySet().equals(parallelTimes.keySet())) {
+            return;
+        }
+
+        int threshold = -1;
+        for (Map.Entry<Integer, Double> size : sequentialTimes.entrySet()) {
+            if (parallelTimes.get(size.getKey()) < size.getValue()) {
+                if (threshold < 0) {
+                    threshold = size.getKey();
+                }
+            } else {
+                threshold = -1;
+            }
+        }
+        System.out.println(threshold < 0
+                ? lexer + ": the parallel lexer is not faster on this machine at any size."
+                : lexer + ": suggested -Dtranslator.parallelLexThreshold=" + threshold);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the step after conversion, per backend, on an already converted script:
+ * <ul>
+ *   <li>bytecode: the class file from BytecodeGenerator;</li>
+ *   <li>javac: the Java class compiled in memory, with the javac file managers already warm,
+ *       as in a long-running JVM;</li>
+ *   <li>interpreter: the instruction tree of ScriptInterpreter, which is what tiered runs start with.</li>
+ * </ul>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompileBenchmark {
+
+    private static final String CLASS_NAME = "TranslatedJavaCode_benchmark";
+
+    @Param({"bytecode", "javac", "interpreter"})
+    public String backend;
+
+    @Param({"1", "16"})
+    public int copies;
+
+    private Object converter;
+    private Object javac;
+    private String javaSource;
+
+    @Setup
+    public void setUp() {
+        converter = Translator.converter(Translator.lex(Corpus.of(copies)));
+        String javaCode = Translator.convert(converter);
+        javaSource = Translator.javaSource(converter, CLASS_NAME, javaCode);
+        javac = Translator.javac();
+    }
+
+    @Benchmark
+    public Object compile() {
+        return switch (backend) {
+            case "bytecode" -> Translator.compileBytecode(converter, CLASS_NAME);
+            case "javac" -> Translator.compileJava(javac, CLASS_NAME, javaSource);
+            case "interpreter" -> Translator.interpreter(converter);
+            default -> throw new IllegalArgumentException("Unknown backend: " + backend);
+        };
+    }
+}
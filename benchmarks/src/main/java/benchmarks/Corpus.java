@@ -0,0 +1,87 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Corpus generates scripts of any size from the sample programs in Copy_This_For_Algorithms.
+ * A corpus of n copies is the sample n times over; in copy k every variable the sample assigns
+ * is renamed to name_k, so the copies do not share variables and the converter sees n times as
+ * many of them, as in a long script written by hand. Names inside string literals are left alone.
+ */
+final class Corpus {
+
+    // The sample programs, as shipped with the project.
+    static final String SAMPLE = read("/Copy_This_For_Algorithms");
+
+    private static final Pattern ASSIGNED = Pattern.compile("(?m)^\\s*(?:for\\s+)?([A-Za-z_]\\w*)\\s*(?:=[^=]|in\\b)");
+    private static final Pattern NAME = Pattern.compile("[A-Za-z_]\\w*");
+
+    private Corpus() {
+    }
+
+    /**
+     * @param copies How many copies of the sample the script holds.
+     * @return The script.
+     */
+    static String of(int copies) {
+        Set<String> assigned = new LinkedHashSet<>();
+        Matcher m = ASSIGNED.matcher(SAMPLE);
+        while (m.find()) {
+            assigned.add(m.group(1));
+        }
+        StringBuilder script = new StringBuilder(SAMPLE.length() * copies + copies * 64);
+        for (int k = 0; k < copies; k++) {
+            rename(SAMPLE, assigned, "_" + k, script);
+            script.append('\n');
+        }
+        return script.toString();
+    }
+
+    // Appends text with the given names suffixed, outside of string literals.
+    private static void rename(String text, Set<String> names, String suffix, StringBuilder out) {
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = text.indexOf(c, i + 1);
+                end = end < 0 ? text.length() : end + 1;
+                out.append(text, i, end);
+                i = end;
+            } else if (c == '#') {
+                int end = text.indexOf('\n', i);
+                end = end < 0 ? text.length() : end;
+                out.append(text, i, end);
+                i = end;
+            } else if (Character.isLetter(c) || c == '_') {
+                Matcher m = NAME.matcher(text).region(i, text.length());
+                m.lookingAt();
+                out.append(m.group());
+                if (names.contains(m.group())) {
+                    out.append(suffix);
+                }
+                i = m.end();
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+    }
+
+    private static String read(String resource) {
+        try (InputStream in = Corpus.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException(resource + " is not on the class path");
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
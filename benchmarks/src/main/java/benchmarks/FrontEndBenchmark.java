@@ -0,0 +1,102 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the front end on the synthetic corpus ({@link Corpus}): lexing into Token lists
+ * (Interpreter.lexer) and into a TokenBuffer (Interpreter.lexCompact, as Main does), and
+ * conversion of either to Java (PythonToJavaConverter.convert).
+ * Besides scripts per second, every benchmark reports the tokens it went through per second;
+ * with the GC profiler, gc.alloc.rate.norm divided by the tokens of the corpus is the allocation
+ * per token, which {@link BenchmarkMain} prints after the run.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FrontEndBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int copies;
+
+    private String source;
+    private char[] chars;
+    private List<?> tokens;
+    private Object buffer;
+    private int tokenCount;
+
+    /**
+     * The tokens processed, reported by JMH as a rate next to the primary result.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Tokens {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        source = Corpus.of(copies);
+        chars = source.toCharArray();
+        tokens = Translator.lex(source);
+        buffer = Translator.lexCompact(chars);
+        tokenCount = count(tokens);
+    }
+
+    @Benchmark
+    public List<?> lex(Tokens counter) {
+        counter.tokens += tokenCount;
+        return Translator.lex(source);
+    }
+
+    @Benchmark
+    public Object lexCompact(Tokens counter) {
+        counter.tokens += tokenCount;
+        return Translator.lexCompact(chars);
+    }
+
+    @Benchmark
+    public String convert(Tokens counter) {
+        counter.tokens += tokenCount;
+        return Translator.convert(Translator.converter(tokens));
+    }
+
+    @Benchmark
+    public String convertCompact(Tokens counter) {
+        counter.tokens += tokenCount;
+        return Translator.convert(Translator.compactConverter(buffer));
+    }
+
+    /**
+     * @return The number of tokens in lines of tokens.
+     */
+    static int count(List<?> lines) {
+        int n = 0;
+        for (Object line : lines) {
+            n += ((List<?>) line).size();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,91 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time of the sequential and the parallel lexer on generated scripts of growing size, to find
+ * the value of -Dtranslator.parallelLexThreshold for a machine: the smallest size from which the
+ * parallel lexer is faster, which {@link BenchmarkMain} prints after the run.
+ * <p>
+ * The Token-list lexer is measured through Interpreter.lexSequential and lexParallel. The
+ * TokenBuffer lexer that Main uses (Interpreter.lexCompact) chooses by the threshold itself, so
+ * its two benchmarks run in forks with the threshold set out of reach and to 0.
+ * <p>
+ * Every setup checks that the lexer measured gives the same tokens as the sequential one, line numbers included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LexerBenchmark {
+
+    @Param({"16384", "65536", "262144", "1048576", "4194304", "16777216"})
+    public int chars;
+
+    private String text;
+    private char[] source;
+
+    @Setup
+    public void setUp() {
+        text = script(chars);
+        source = text.toCharArray();
+        List<?> expected = Translator.lexSequential(text);
+        if (!Translator.sameTokens(expected, Translator.lexParallel(text))) {
+            throw new IllegalStateException("The parallel lexer differs from the sequential one at " + chars + " chars");
+        }
+        if (!Translator.sameTokens(expected, Translator.lines(Translator.lexCompact(source)))) {
+            throw new IllegalStateException("lexCompact differs from the sequential lexer at " + chars + " chars");
+        }
+    }
+
+    @Benchmark
+    public List<?> sequential() {
+        return Translator.lexSequential(text);
+    }
+
+    @Benchmark
+    public List<?> parallel() {
+        return Translator.lexParallel(text);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dtranslator.parallelLexThreshold=2147483647")
+    public Object compactSequential() {
+        return Translator.lexCompact(source);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dtranslator.parallelLexThreshold=0")
+    public Object compactParallel() {
+        return Translator.lexCompact(source);
+    }
+
+    // A machine-generated-looking script of about the given number of chars.
+    private static String script(int chars) {
+        StringBuilder text = new StringBuilder(chars + 100);
+        int n = 0;
+        while (text.length() < chars) {
+            text.append("total_").append(n % 50).append(" = ").append(n).append(" * 3 + 2.5e1 # step ").append(n).append('\n');
+            text.append("if total_").append(n % 50).append(" >= 100 and not done:\n");
+            text.append("    print(\"value:\", total_").append(n % 50).append(" // 7, 'x\\'y')\n");
+            text.append('\n');
+            n++;
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * End-to-end latency of a script, from source to exit, through ScriptRunner.run (output captured):
+ * <ul>
+ *   <li>cold: the first script of a new JVM, translator classes not loaded and nothing JIT-compiled;
+ *       every measurement is a fork of its own;</li>
+ *   <li>uncached: a script not seen before, in a warm JVM: the whole pipeline runs;</li>
+ *   <li>warm: the same script again, in a warm JVM: compiled runs come from the compilation cache.</li>
+ * </ul>
+ * The execution mode (tiered or compiled, see -Dtranslator.execution) is set before the translator
+ * is first used in the fork.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScriptLatencyBenchmark {
+
+    @Param({"tiered", "compiled"})
+    public String execution;
+
+    @Param({"1"})
+    public int copies;
+
+    private String source;
+    private long runs;
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        System.setProperty("translator.execution", execution);
+        source = Corpus.of(copies);
+        // Fail up front if the script does not run, instead of timing its error path. A cold run
+        // must be the first, so it is not checked.
+        if (!params.getBenchmark().endsWith(".cold")) {
+            Translator.check(source);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Fork(10)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public Object cold() {
+        return Translator.run(source);
+    }
+
+    @Benchmark
+    public Object uncached() {
+        // A comment makes the source, and so its cache key, new.
+        return Translator.run(source + "# run " + runs++ + "\n");
+    }
+
+    @Benchmark
+    public Object warm() {
+        return Translator.run(source);
+    }
+}
@@ -0,0 +1,311 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Translator is how the benchmarks call the translator. Its classes are in the unnamed package,
+ * which code in a named package cannot import, so they are looked up by name and called through
+ * MethodHandles. The handles are static finals, which the JIT treats as constants and inlines
+ * like direct calls, so they add nothing to what is measured.
+ * <p>
+ * Main's entry points are package-private; the unnamed module is open to everything on the class
+ * path, so a private lookup in Main reaches them.
+ */
+final class Translator {
+
+    private static final MethodHandle LEXER;
+    private static final MethodHandle LEX_SEQUENTIAL;
+    private static final MethodHandle LEX_PARALLEL;
+    private static final MethodHandle LEX_COMPACT;
+    private static final MethodHandle BUFFER_LINES;
+    private static final MethodHandle TOKEN_VALUE;
+    private static final MethodHandle TOKEN_KIND;
+    private static final MethodHandle TOKEN_INDENT;
+    private static final MethodHandle TOKEN_LINE;
+    private static final MethodHandle NEW_CONVERTER;
+    private static final MethodHandle NEW_BUFFER_CONVERTER;
+    private static final MethodHandle SET_ARITHMETIC;
+    private static final Object EXACT;
+    private static final MethodHandle CONVERT;
+    private static final MethodHandle METHODS;
+    private static final MethodHandle COMPILE;
+    private static final MethodHandle INTERPRETER;
+    private static final MethodHandle BUILD_JAVA_SOURCE;
+    private static final MethodHandle NEW_COMPILER;
+    private static final MethodHandle JAVAC;
+    private static final MethodHandle RUN;
+    private static final MethodHandle EXIT_STATUS;
+    private static final MethodHandle STDERR;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            Class<?> interpreter = Class.forName("Interpreter");
+            Class<?> converter = Class.forName("PythonToJavaConverter");
+            Class<?> main = Class.forName("Main");
+            Class<?> compiler = Class.forName("InMemoryCompiler");
+            Class<?> runner = Class.forName("ScriptRunner");
+
+            LEXER = lookup.findStatic(interpreter, "lexer", MethodType.methodType(List.class, String.class));
+            LEX_SEQUENTIAL = lookup.findStatic(interpreter, "lexSequential", MethodType.methodType(List.class, String.class));
+            LEX_PARALLEL = lookup.findStatic(interpreter, "lexParallel", MethodType.methodType(List.class, String.class));
+            Class<?> buffer = Class.forName("TokenBuffer");
+            LEX_COMPACT = lookup.findStatic(interpreter, "lexCompact", MethodType.methodType(buffer, char[].class));
+            BUFFER_LINES = lookup.findVirtual(buffer, "lines", MethodType.methodType(List.class));
+            Class<?> token = Class.forName("Interpreter$Token");
+            TOKEN_VALUE = lookup.findGetter(token, "value", String.class);
+            TOKEN_KIND = lookup.findGetter(token, "kind", Class.forName("Interpreter$Kind"));
+            TOKEN_INDENT = lookup.findGetter(token, "indentLevel", int.class);
+            TOKEN_LINE = lookup.findGetter(token, "line", int.class);
+            NEW_CONVERTER = lookup.findConstructor(converter, MethodType.methodType(void.class, List.class));
+            NEW_BUFFER_CONVERTER = lookup.findConstructor(converter, MethodType.methodType(void.class, buffer));
+            Class<?> arithmetic = Class.forName("PythonToJavaConverter$Arithmetic");
+            SET_ARITHMETIC = lookup.findVirtual(converter, "setArithmetic", MethodType.methodType(converter, arithmetic));
+            EXACT = arithmetic.getField("EXACT").get(null);
+            CONVERT = lookup.findVirtual(converter, "convert", MethodType.methodType(String.class));
+            METHODS = lookup.findVirtual(converter, "methods", MethodType.methodType(String.class));
+            COMPILE = lookup.findVirtual(converter, "compile", MethodType.methodType(byte[].class, String.class));
+            INTERPRETER = lookup.findVirtual(converter, "interpreter",
+                    MethodType.methodType(Class.forName("ScriptInterpreter")));
+            BUILD_JAVA_SOURCE = MethodHandles.privateLookupIn(main, lookup).findStatic(main, "buildJavaSource",
+                    MethodType.methodType(String.class, String.class, String.class, String.class));
+            NEW_COMPILER = lookup.findConstructor(compiler, MethodType.methodType(void.class, JavaCompiler.class));
+            JAVAC = lookup.findVirtual(compiler, "compile",
+                    MethodType.methodType(Map.class, String.class, String.class, DiagnosticCollector.class));
+            Class<?> result = Class.forName("ScriptRunner$Result");
+            RUN = lookup.findStatic(runner, "run", MethodType.methodType(result, String.class));
+            EXIT_STATUS = lookup.findVirtual(result, "exitStatus", MethodType.methodType(int.class));
+            STDERR = lookup.findVirtual(result, "stderr", MethodType.methodType(String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Translator() {
+    }
+
+    /**
+     * @return The tokens of the source, one list per line (Interpreter.lexer).
+     */
+    static List<?> lex(String source) {
+        try {
+            return (List<?>) LEXER.invoke(source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The tokens of the source, lexed on the calling thread (Interpreter.lexSequential).
+     */
+    static List<?> lexSequential(String source) {
+        try {
+            return (List<?>) LEX_SEQUENTIAL.invoke(source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The tokens of the source, lexed in parallel chunks (Interpreter.lexParallel).
+     */
+    static List<?> lexParallel(String source) {
+        try {
+            return (List<?>) LEX_PARALLEL.invoke(source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The TokenBuffer of the source (Interpreter.lexCompact), as Main lexes.
+     */
+    static Object lexCompact(char[] source) {
+        try {
+            return LEX_COMPACT.invoke(source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The tokens of a TokenBuffer, one list per line (TokenBuffer.lines).
+     */
+    static List<?> lines(Object buffer) {
+        try {
+            return (List<?>) BUFFER_LINES.invoke(buffer);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return True if both are the same lines of tokens: the same text, kind, indentation and source line.
+     */
+    static boolean sameTokens(List<?> expected, List<?> actual) {
+        if (expected.size() != actual.size()) {
+            return false;
+        }
+        try {
+            for (int i = 0; i < expected.size(); i++) {
+                List<?> x = (List<?>) expected.get(i);
+                List<?> y = (List<?>) actual.get(i);
+                if (x.size() != y.size()) {
+                    return false;
+                }
+                for (int j = 0; j < x.size(); j++) {
+                    Object s = x.get(j);
+                    Object t = y.get(j);
+                    if (!TOKEN_VALUE.invoke(s).equals(TOKEN_VALUE.invoke(t)) || TOKEN_KIND.invoke(s) != TOKEN_KIND.invoke(t)
+                            || (int) TOKEN_INDENT.invoke(s) != (int) TOKEN_INDENT.invoke(t)
+                            || (int) TOKEN_LINE.invoke(s) != (int) TOKEN_LINE.invoke(t)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return A new PythonToJavaConverter of the tokens, with exact arithmetic like Main's.
+     */
+    static Object converter(List<?> tokens) {
+        try {
+            return SET_ARITHMETIC.invoke(NEW_CONVERTER.invoke(tokens), EXACT);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return A new PythonToJavaConverter of a TokenBuffer, with exact arithmetic like Main's.
+     */
+    static Object compactConverter(Object buffer) {
+        try {
+            return SET_ARITHMETIC.invoke(NEW_BUFFER_CONVERTER.invoke(buffer), EXACT);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The Java code of the converter's script (PythonToJavaConverter.convert).
+     */
+    static String convert(Object converter) {
+        try {
+            return (String) CONVERT.invoke(converter);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The class file generated for a converted script by the bytecode backend.
+     */
+    static byte[] compileBytecode(Object converter, String className) {
+        try {
+            return (byte[]) COMPILE.invoke(converter, className);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The ScriptInterpreter of a converted script.
+     */
+    static Object interpreter(Object converter) {
+        try {
+            return INTERPRETER.invoke(converter);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The Java class javac compiles for a converted script (Main.buildJavaSource).
+     */
+    static String javaSource(Object converter, String className, String javaCode) {
+        try {
+            return (String) BUILD_JAVA_SOURCE.invoke(className, (String) METHODS.invoke(converter), javaCode);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return A new InMemoryCompiler on the system Java compiler.
+     */
+    static Object javac() {
+        try {
+            return NEW_COMPILER.invoke(ToolProvider.getSystemJavaCompiler());
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return The class files javac compiled from the source (InMemoryCompiler.compile).
+     * @throws IllegalStateException If the source does not compile.
+     */
+    static Map<?, ?> compileJava(Object javac, String className, String source) {
+        try {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            Map<?, ?> classes = (Map<?, ?>) JAVAC.invoke(javac, className, source, diagnostics);
+            if (classes == null) {
+                throw new IllegalStateException("javac failed: " + diagnostics.getDiagnostics());
+            }
+            return classes;
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Translates, compiles and runs a script with its output captured (ScriptRunner.run).
+     * @return The ScriptRunner.Result.
+     */
+    static Object run(String source) {
+        try {
+            return RUN.invoke(source);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Runs a script once and checks that it ran to completion, before it is benchmarked.
+     * @throws IllegalStateException If the run failed.
+     */
+    static void check(String source) {
+        try {
+            Object result = run(source);
+            if ((int) EXIT_STATUS.invoke(result) != 0) {
+                throw new IllegalStateException("The script failed: " + (String) STDERR.invoke(result));
+            }
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException r) {
+            return r;
+        }
+        if (e instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(e);
+    }
+}
@@ -0,0 +1,311 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * BatchCompiler translates and compiles many scripts in one go, e.g. to fill the compilation
+ * cache (with -Dtranslator.cacheDir, for later runs) or to write the class files to a directory.
+ * <p>
+ * Files are lexed and converted in parallel on a fork-join pool; every file gets its own
+ * converter, so the translations share nothing. Scripts the bytecode generator can compile are
+ * compiled right there. The rest are compiled by javac together, in a single compilation task,
+ * so javac starts up and builds its symbol tables once per batch instead of once per file.
+ * Every javac diagnostic is reported against the script its class was generated from.
+ * <p>
+ * With -Dtranslator.metrics the {@link Metrics} of every script are reported, and the
+ * {@link MetricsSummary} of the batch; the single javac task is timed once, for the batch.
+ */
+public class BatchCompiler {
+
+    // Threads that lex and convert. Set -Dtranslator.batchParallelism=<n> to change it.
+    private static final int PARALLELISM = Integer.getInteger("translator.batchParallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    /**
+     * One script of a batch and what became of it.
+     */
+    static class Unit {
+        final Path file;
+        String key;
+        String className;
+        // The generated Java class, if the script is compiled by javac, and its Python lines.
+        String javaSource;
+        SourceMap sourceMap;
+        // "cached", "bytecode" or "javac", once the script is compiled.
+        String compiledBy;
+        CompiledScript script;
+        final List<String> errors = new ArrayList<>();
+        final Metrics metrics;
+
+        Unit(Path file) {
+            this.file = file;
+            this.metrics = new Metrics(file.toString());
+        }
+    }
+
+    /**
+     * Compiles the scripts named on the command line.
+     * @param args "-d dir" to write the class files to dir, followed by scripts and directories of
+     *             scripts (files ending in .py or .txt).
+     */
+    public static void main(String[] args) {
+        Path outputDir = null;
+        List<Path> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if ("-d".equals(args[i]) && i + 1 < args.length) {
+                    outputDir = Path.of(args[++i]);
+                } else {
+                    files.addAll(collect(Path.of(args[i])));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error listing scripts: " + e.getMessage());
+            return;
+        }
+
+        long start = System.nanoTime();
+        MetricsSummary summary = new MetricsSummary();
+        List<Unit> units = compile(files, summary);
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        int compiled = 0;
+        for (Unit unit : units) {
+            if (unit.script == null) {
+                for (String error : unit.errors) {
+                    System.err.println(unit.file + ": " + error);
+                }
+                continue;
+            }
+            compiled++;
+            System.out.println(unit.file + " -> " + unit.className + " (" + unit.compiledBy + ")");
+            if (outputDir != null) {
+                write(unit.script, outputDir);
+            }
+        }
+        System.out.println("Compiled " + compiled + " of " + units.size() + " scripts in " + millis + " ms");
+
+        if (Metrics.DESTINATION != null) {
+            for (Unit unit : units) {
+                Metrics.report(unit.metrics.toJson());
+            }
+            Metrics.report(summary.toJson());
+        }
+    }
+
+    /**
+     * Translates and compiles scripts, and puts the compiled ones in the compilation cache.
+     * @param files The Python scripts.
+     * @return One unit per file, in the same order; units that failed hold their errors.
+     */
+    public static List<Unit> compile(List<Path> files) {
+        return compile(files, new MetricsSummary());
+    }
+
+    /**
+     * Translates and compiles scripts, and puts the compiled ones in the compilation cache.
+     * @param files   The Python scripts.
+     * @param summary Receives the metrics of every script and the time of the javac task.
+     * @return One unit per file, in the same order; units that failed hold their errors.
+     */
+    static List<Unit> compile(List<Path> files, MetricsSummary summary) {
+        // 1) + 2) Lex and convert every file in parallel.
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        List<Unit> units;
+        try {
+            units = pool.submit(() -> files.parallelStream().map(BatchCompiler::translate).toList()).join();
+        } finally {
+            pool.shutdown();
+        }
+
+        // 3) Compile everything the bytecode generator did not in one javac run.
+        // Identical scripts have the same class, which is compiled once.
+        Map<String, List<Unit>> byClass = new LinkedHashMap<>();
+        for (Unit unit : units) {
+            if (unit.javaSource != null) {
+                byClass.computeIfAbsent(unit.className, c -> new ArrayList<>()).add(unit);
+            }
+        }
+        if (!byClass.isEmpty()) {
+            long start = System.nanoTime();
+            compileJava(byClass);
+            summary.add(Metrics.Phase.JAVAC, System.nanoTime() - start);
+        }
+
+        for (Unit unit : units) {
+            if (unit.script != null && !"cached".equals(unit.compiledBy)) {
+                Main.CACHE.put(unit.key, unit.script);
+            }
+            if (unit.script != null) {
+                unit.metrics.compiled(unit.compiledBy, unit.script.byteSize());
+            }
+            unit.metrics.finish(unit.script != null ? 0 : 1);
+            summary.add(unit.metrics);
+        }
+        return units;
+    }
+
+    // Lists the scripts at path: the file itself, or the .py and .txt files in the directory tree.
+    private static List<Path> collect(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return List.of(path);
+        }
+        try (Stream<Path> tree = Files.walk(path)) {
+            return tree.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".py") || p.toString().endsWith(".txt"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    // Lexes and converts one script, and compiles it if the bytecode generator can. The file is
+    // read once into its text, which is keyed and lexed as in Main.runFile.
+    private static Unit translate(Path file) {
+        Unit unit = new Unit(file);
+        String text;
+        try {
+            text = Interpreter.readText(file);
+        } catch (IOException e) {
+            unit.errors.add("Cannot read the file: " + e.getMessage());
+            return unit;
+        }
+        unit.key = Main.cacheKey(text);
+        unit.className = Main.className(unit.key);
+
+        CompiledScript cached = Main.CACHE.get(unit.key);
+        if (cached != null) {
+            unit.script = cached;
+            unit.compiledBy = "cached";
+            return unit;
+        }
+
+        Metrics.Span lex = unit.metrics.start(Metrics.Phase.LEX);
+        TokenBuffer tokens = Interpreter.lexCompact(text.toCharArray());
+        lex.end();
+        unit.metrics.translated(text, tokens);
+
+        PythonToJavaConverter converter = Main.newConverter(tokens);
+        String javaCode;
+        Metrics.Span convert = unit.metrics.start(Metrics.Phase.CONVERT);
+        try {
+            javaCode = converter.convert();
+        } catch (IllegalArgumentException e) {
+            unit.errors.add("Translation failed: " + e.getMessage());
+            return unit;
+        } finally {
+            convert.end();
+        }
+        unit.metrics.converted(javaCode, converter.methods());
+
+        if (!"javac".equals(Main.BACKEND)) {
+            Metrics.Span span = unit.metrics.start(Metrics.Phase.BYTECODE);
+            try {
+                byte[] bytecode = converter.compile(unit.className);
+                unit.script = new CompiledScript(unit.className, Map.of(unit.className, bytecode));
+                unit.compiledBy = "bytecode";
+                return unit;
+            } catch (UnsupportedOperationException e) {
+                // Left to javac.
+            } finally {
+                span.end();
+            }
+        }
+        unit.javaSource = Main.buildJavaSource(unit.className, converter.methods(), javaCode);
+        unit.sourceMap = Main.sourceMap(converter);
+        return unit;
+    }
+
+    // Compiles the given classes in one javac run. If some of them have errors, javac writes no
+    // classes at all, so the ones without errors are compiled again, without the others.
+    private static void compileJava(Map<String, List<Unit>> byClass) {
+        InMemoryCompiler compiler = Main.JavaCompilerHolder.COMPILER;
+        if (compiler == null) {
+            for (List<Unit> units : byClass.values()) {
+                units.forEach(u -> u.errors.add("No Java compiler found. Make sure you're running with a JDK, not just a JRE."));
+            }
+            return;
+        }
+
+        Map<String, String> sources = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Unit>> e : byClass.entrySet()) {
+            sources.put(e.getKey(), e.getValue().get(0).javaSource);
+        }
+
+        while (!sources.isEmpty()) {
+            DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+            Map<String, byte[]> classes = compiler.compile(sources, diagnostics);
+            if (classes != null) {
+                for (String className : sources.keySet()) {
+                    Map<String, byte[]> compiled = classesOf(className, classes);
+                    compiled.replaceAll((name, bytes) -> byClass.get(className).get(0).sourceMap.apply(bytes));
+                    CompiledScript script = new CompiledScript(className, compiled);
+                    for (Unit unit : byClass.get(className)) {
+                        unit.script = script;
+                        unit.compiledBy = "javac";
+                    }
+                }
+                return;
+            }
+
+            // Report each error to the scripts of the class it is in, and leave those classes out.
+            boolean attributed = false;
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getKind() != Diagnostic.Kind.ERROR) {
+                    continue;
+                }
+                if (d.getSource() instanceof InMemoryCompiler.SourceFile file && byClass.containsKey(file.className)) {
+                    for (Unit unit : byClass.get(file.className)) {
+                        unit.errors.add("Compilation failed: Line " + unit.sourceMap.pythonLine((int) d.getLineNumber())
+                                + " (Java line " + d.getLineNumber() + "): " + d.getMessage(null));
+                    }
+                    sources.remove(file.className);
+                    attributed = true;
+                } else {
+                    System.err.println("javac: " + d.getMessage(null));
+                }
+            }
+            if (!attributed) {
+                break;
+            }
+        }
+        for (String className : sources.keySet()) {
+            for (Unit unit : byClass.get(className)) {
+                if (unit.script == null && unit.errors.isEmpty()) {
+                    unit.errors.add("Compilation failed.");
+                }
+            }
+        }
+    }
+
+    // The classes javac generated for one script: its class and any nested classes.
+    private static Map<String, byte[]> classesOf(String className, Map<String, byte[]> classes) {
+        Map<String, byte[]> result = new HashMap<>();
+        for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+            if (e.getKey().equals(className) || e.getKey().startsWith(className + "$")) {
+                result.put(e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    private static void write(CompiledScript script, Path outputDir) {
+        try {
+            Files.createDirectories(outputDir);
+            for (Map.Entry<String, byte[]> e : script.classes.entrySet()) {
+                Files.write(outputDir.resolve(e.getKey() + ".class"), e.getValue());
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing " + script.className + ": " + e.getMessage());
+        }
+    }
+}
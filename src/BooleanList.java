@@ -0,0 +1,113 @@
+import java.util.Arrays;
+
+/**
+ * BooleanList is a Python list of bools, kept in a growable boolean array (see {@link IntList}).
+ * Its elements print as true and false, like every bool the translator prints.
+ */
+public final class BooleanList extends PySequence {
+
+    private static final boolean[] EMPTY = {};
+
+    private boolean[] data;
+
+    public BooleanList() {
+        data = EMPTY;
+    }
+
+    private BooleanList(boolean[] data, int size) {
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * @return A list holding the given values, for a list literal such as [True, False].
+     */
+    public static BooleanList of(boolean... values) {
+        return new BooleanList(values, values.length);
+    }
+
+    @Override
+    protected Object boxed(int i) {
+        return data[i];
+    }
+
+    public boolean get(long index) {
+        return data[index(index)];
+    }
+
+    public void set(long index, boolean value) {
+        data[index(index)] = value;
+    }
+
+    public void append(boolean value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, grown(size));
+        }
+        data[size++] = value;
+    }
+
+    public boolean contains(boolean value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The slice [start:stop:step] as a new list; an omitted bound is {@link #NONE}.
+     */
+    public BooleanList slice(long start, long stop, long step) {
+        int first = sliceStart(start, step);
+        boolean[] values = new boolean[sliceLength(first, stop, step)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data[(int) (first + i * step)];
+        }
+        return of(values);
+    }
+
+    /**
+     * @return A new list with the elements of this list followed by those of other (Python's +).
+     */
+    public BooleanList concat(BooleanList other) {
+        boolean[] values = Arrays.copyOf(data, size + other.size);
+        System.arraycopy(other.data, 0, values, size, other.size);
+        return of(values);
+    }
+
+    /**
+     * @return A new list with the elements of this list n times over (Python's *).
+     */
+    public BooleanList repeat(long n) {
+        boolean[] values = new boolean[repeatedSize(n)];
+        for (int i = 0; i < values.length; i += size) {
+            System.arraycopy(data, 0, values, i, size);
+        }
+        return of(values);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BooleanList other && Arrays.equals(data, 0, size, other.data, 0, other.size);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + Boolean.hashCode(data[i]);
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(data[i] ? "True" : "False");
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,1686 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+
+/**
+ * BytecodeGenerator compiles the optimized statement tree of a script straight to a class file,
+ * without going through Java source and javac. The class has a
+ * public static void main(String[]) holding the script, the same as the class built around the
+ * output of {@link PythonToJavaConverter#convert()}, and computes the same values: expressions
+ * are typed by {@link ExprEmitter#typeOf}, and every operation is compiled to the instructions
+ * javac produces for the Java code ExprEmitter emits for it.
+ * <p>
+ * Every Java variable chosen by {@link TypeInference} gets its own local variable slot, and all
+ * of them are initialized at the start of their method, so every branch target sees the same locals.
+ * <p>
+ * The script's functions become static methods next to main, as in the Java translation.
+ * Scripts that need BigIntegers are not compiled here; {@link #generate} throws
+ * UnsupportedOperationException and they go through javac.
+ */
+public class BytecodeGenerator {
+
+    private static final String STRING = "java/lang/String";
+    private static final String BUILDER = "java/lang/StringBuilder";
+    private static final String PRINT = "PyPrint";
+    private static final String PYMATH = "PyMath";
+    private static final String MEMO = "PyMemo";
+    private static final String INT_LIST = "IntList";
+    private static final String DOUBLE_LIST = "DoubleList";
+
+    // Parameters of a compiled loop: the interpreter's variable arrays (see generateLoop).
+    private static final List<String> LOOP_ARRAYS = List.of("[J", "[D", "[Z", "[Ljava/lang/Object;");
+    private static final int[] ARRAY_LOAD = {ClassFileWriter.LALOAD, ClassFileWriter.DALOAD, ClassFileWriter.BALOAD, ClassFileWriter.AALOAD};
+    private static final int[] ARRAY_STORE = {ClassFileWriter.LASTORE, ClassFileWriter.DASTORE, ClassFileWriter.BASTORE, ClassFileWriter.AASTORE};
+
+    // The local counting loop iterations for PyBudget, as in the Java translation.
+    private static final String COUNTER = "loops$";
+
+    // The local holding the Python line of the running statement, as in the Java translation.
+    private static final String LINE = "line$";
+
+    private final List<Stmt> program;
+    private final TypeInference inference;
+    private final boolean exact;
+
+    // Types expressions the same way the Java source is emitted.
+    private final ExprEmitter types;
+
+    // Current version of each variable, its type and its Java variable, as in PythonToJavaConverter.
+    private final HashMap<String, Integer> versions = new HashMap<>();
+    private final HashMap<String, ValueType> varTypes = new HashMap<>();
+    private final HashMap<String, String> javaNames = new HashMap<>();
+
+    // Local variable slot of each Java variable, and the types and names of all locals in slot
+    // order, of the method being compiled.
+    private HashMap<String, Integer> slots = new HashMap<>();
+    private List<ValueType> localTypes = new ArrayList<>();
+    private List<String> localNames = new ArrayList<>();
+    private int nextSlot = 1;
+
+    // Where break and continue jump to, innermost loop first.
+    private final Deque<ClassFileWriter.Label[]> loops = new ArrayDeque<>();
+
+    private final ClassFileWriter classFile = new ClassFileWriter();
+    private ClassFileWriter.Code code = classFile.new Code();
+    private String className;
+
+    // The class initializer, which creates the memo tables of memoized functions; null if there are none.
+    private ClassFileWriter.Code initializer;
+
+    // The function being compiled to a method, or null while compiling the script itself.
+    private Stmt.Def function;
+
+    // While compiling an assignment: the Python variable assigned, named by overflow sites.
+    private String target;
+
+    // Loops over lists so far, which number their hidden locals i$n and list$n.
+    private int listLoops;
+
+    // Whether loops call PyBudget.check (see setLoopChecks).
+    private boolean loopChecks;
+
+    // Whether statements count their executions in PyProfile's array (see setProfiling), and its local.
+    private boolean profiling;
+    private int countersSlot;
+
+    // The line$ local of the method being compiled, or -1 in a loop compiled for the interpreter,
+    // whose frames are in stack traces.
+    private int lineSlot = -1;
+
+    /**
+     * @param program   The optimized statement tree.
+     * @param inference Types and Java variables of the script's variables.
+     * @param exact     True for overflow-checked long arithmetic (see {@link PyMath}).
+     */
+    public BytecodeGenerator(List<Stmt> program, TypeInference inference, boolean exact) {
+        this.program = program;
+        this.inference = inference;
+        this.exact = exact;
+        this.types = new ExprEmitter(this::typeOf, this::javaVar, exact)
+                .setFunctions(inference).setPromoted(inference.promoted());
+    }
+
+    /**
+     * Makes loops count their iterations and call {@link PyBudget#check()} every
+     * {@link PyBudget#INTERVAL} of them, as PythonToJavaConverter.setLoopChecks does.
+     * @return this, for chaining.
+     */
+    public BytecodeGenerator setLoopChecks(boolean loopChecks) {
+        this.loopChecks = loopChecks;
+        return this;
+    }
+
+    /**
+     * Makes every statement of {@link #generate} count its executions, as
+     * PythonToJavaConverter.setProfiling does. Loops compiled for the interpreter are not profiled.
+     * @return this, for chaining.
+     */
+    public BytecodeGenerator setProfiling(boolean profiling) {
+        this.profiling = profiling;
+        return this;
+    }
+
+    /**
+     * Compiles the script.
+     * @param className The name of the class, in the default package.
+     * @return The class file.
+     * @throws UnsupportedOperationException If the script uses something only javac compiles.
+     */
+    public byte[] generate(String className) {
+        this.className = className;
+        List<String> parameters = List.of("[Ljava/lang/String;");
+        if (profiling) {
+            // The counters are the local after args.
+            countersSlot = nextSlot++;
+            parameters = List.of("[Ljava/lang/String;", "[J");
+        }
+        lineSlot = slot(LINE, ValueType.INT);
+        for (int i = 0; i < program.size() && code.reachable(); i++) {
+            startStatement(i);
+            statement(program.get(i));
+        }
+        // Write out what the script printed.
+        code.invoke(ClassFileWriter.INVOKESTATIC, PRINT, "flush", "()V");
+        code.insn(ClassFileWriter.RETURN, 0, null);
+        locateErrors("main");
+
+        addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "main", "([Ljava/lang/String;)V",
+                parameters, prologue(parameters));
+        return finish();
+    }
+
+    /**
+     * Gives every local after the parameters its default value, before the first branch target,
+     * and fills the profile counters local if the method has one.
+     */
+    private ClassFileWriter.Code prologue(List<String> parameters) {
+        ClassFileWriter.Code prologue = classFile.new Code();
+        if (profiling) {
+            prologue.intConstant(Stmt.lastLine(program) + 1);
+            prologue.invoke(ClassFileWriter.INVOKESTATIC, "PyProfile", "counters", "(I)[J");
+            prologue.store("[J", countersSlot);
+        }
+        int slot = 0;
+        for (String p : parameters) {
+            slot += ClassFileWriter.size(p);
+        }
+        for (ValueType t : localTypes) {
+            initialize(prologue, t, slot);
+            slot += ClassFileWriter.size(verificationType(t));
+        }
+        return prologue;
+    }
+
+    /**
+     * Stores the default value of a type in a local: 0, "" or, for a list, null.
+     */
+    private static void initialize(ClassFileWriter.Code prologue, ValueType t, int slot) {
+        String vt = verificationType(t);
+        switch (t) {
+            case BOOLEAN, INT -> prologue.intConstant(0);
+            case LONG -> prologue.longConstant(0);
+            case DOUBLE -> prologue.doubleConstant(0);
+            case STRING -> prologue.stringConstant("");
+            default -> prologue.insn(ClassFileWriter.ACONST_NULL, 0, vt);
+        }
+        prologue.store(vt, slot);
+    }
+
+    /**
+     * Compiles one loop of the script, for {@link ScriptInterpreter} to switch over to when the
+     * loop is hot. The class has a method public static void run(long[], double[], boolean[], Object[])
+     * which takes the variables from the interpreter's arrays, runs the loop from its head (a for
+     * loop's variable is not set to the start again) to its end, and puts the variables back.
+     * A loop of a function takes the variables of the function's frame, and must not return.
+     * @param className      The name of the class, in the default package.
+     * @param statementIndex Index of the top-level statement that contains the loop: a def for
+     *                       a loop of a function.
+     * @param loop           The loop, a While or For inside that statement.
+     * @param arrayIndex     Index of a Java variable in the interpreter's array for its type.
+     * @return The class file.
+     * @throws UnsupportedOperationException If the loop uses something only javac compiles.
+     */
+    public byte[] generateLoop(String className, int statementIndex, Stmt loop, ToIntFunction<String> arrayIndex) {
+        this.className = className;
+        profiling = false;
+        functions();
+        nextSlot = LOOP_ARRAYS.size();
+        for (int i = 0; i <= statementIndex; i++) {
+            startStatement(i);
+        }
+        if (program.get(statementIndex) instanceof Stmt.Def d) {
+            List<Stmt> body = switch (loop) {
+                case Stmt.While w -> w.body();
+                case Stmt.For f -> f.body();
+                default -> List.of();
+            };
+            // run() has no result to return the function's with.
+            if (Stmt.returns(body)) {
+                throw new UnsupportedOperationException("Return in a compiled loop");
+            }
+            function = d;
+        }
+        switch (loop) {
+            case Stmt.While w -> statement(w);
+            case Stmt.For f -> forLoop(f);
+            default -> throw new IllegalArgumentException("Not a loop: " + loop);
+        }
+
+        // Write every variable back to the interpreter's arrays, then load them all in the prologue.
+        ClassFileWriter.Code prologue = classFile.new Code();
+        int slot = LOOP_ARRAYS.size();
+        for (int i = 0; i < localTypes.size(); i++) {
+            ValueType t = localTypes.get(i);
+            String vt = verificationType(t);
+            if (localNames.get(i).contains("$")) {
+                // The iteration counter and the index of a loop over a list are the loop's own.
+                initialize(prologue, t, slot);
+                slot += ClassFileWriter.size(vt);
+                continue;
+            }
+            int array = arrayOf(t);
+            int index = arrayIndex.applyAsInt(localNames.get(i));
+
+            prologue.load(LOOP_ARRAYS.get(array), array);
+            prologue.intConstant(index);
+            prologue.insn(ARRAY_LOAD[array], 2, array == 0 ? "J" : array == 1 ? "D" : array == 2 ? "I" : "java/lang/Object");
+            if (t == ValueType.INT) prologue.insn(ClassFileWriter.L2I, 1, "I");
+            if (array == 3) prologue.checkcast(vt);
+            prologue.store(vt, slot);
+
+            code.load(LOOP_ARRAYS.get(array), array);
+            code.intConstant(index);
+            code.load(vt, slot);
+            if (t == ValueType.INT) code.insn(ClassFileWriter.I2L, 1, "J");
+            code.insn(ARRAY_STORE[array], 3, null);
+            slot += ClassFileWriter.size(vt);
+        }
+        code.insn(ClassFileWriter.RETURN, 0, null);
+        addMethod(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC, "run", "([J[D[Z[Ljava/lang/Object;)V",
+                LOOP_ARRAYS, prologue);
+        return finish();
+    }
+
+    /**
+     * Compiles the functions of the script, for {@link ScriptInterpreter} to call instead of
+     * interpreting a function once it is hot. Each is a static method, as in {@link #generate}.
+     * @param className The name of the class, in the default package.
+     * @return The class file.
+     * @throws UnsupportedOperationException If a function uses something only javac compiles.
+     */
+    public byte[] generateFunctions(String className) {
+        this.className = className;
+        profiling = false;
+        functions();
+        return finish();
+    }
+
+    // Compiles every function of the script, for code the interpreter calls. A memoized function's
+    // table would not be the interpreter's, so that its calls would run its body again.
+    private void functions() {
+        for (Stmt s : program) {
+            if (s instanceof Stmt.Def d) {
+                if (d.memoized()) {
+                    throw new UnsupportedOperationException("Memoized function in code compiled for the interpreter");
+                }
+                function(d);
+            }
+        }
+    }
+
+    /**
+     * Applies the version change of the top-level statement with the given index.
+     */
+    private void startStatement(int index) {
+        // A top-level redefinition starts a new version of the variable, possibly with another type.
+        String redefined = inference.newVersionAt(index);
+        if (redefined != null) {
+            versions.merge(redefined, 1, Integer::sum);
+            varTypes.remove(redefined);
+            javaNames.remove(redefined);
+        }
+    }
+
+    /**
+     * Puts the prologue in front of the code and adds it to the class as a method.
+     */
+    private void addMethod(int access, String method, String descriptor, List<String> parameters,
+                           ClassFileWriter.Code prologue) {
+        code.prepend(prologue);
+        List<String> locals = new ArrayList<>(parameters);
+        for (ValueType t : localTypes) {
+            locals.add(verificationType(t));
+        }
+        classFile.addMethod(access, method, descriptor, locals, code);
+    }
+
+    /**
+     * Writes the class with the methods added so far.
+     */
+    private byte[] finish() {
+        if (initializer != null) {
+            initializer.insn(ClassFileWriter.RETURN, 0, null);
+            classFile.addMethod(ClassFileWriter.ACC_STATIC, "<clinit>", "()V", List.of(), initializer);
+        }
+        classFile.setSourceFile(SourceMap.SOURCE_FILE);
+        return classFile.toByteArray(className, "java/lang/Object");
+    }
+
+    // Interpreter arrays holding long (and int), double, boolean and String variables.
+    private static int arrayOf(ValueType t) {
+        return switch (t) {
+            case INT, LONG -> 0;
+            case DOUBLE -> 1;
+            case BOOLEAN -> 2;
+            default -> 3;
+        };
+    }
+
+    // --------------------- Statements --------------------- //
+
+    private void statement(Stmt s) {
+        code.line(s.line());
+        if (!(s instanceof Stmt.Def)) {
+            storeLine(s.line());
+        }
+        if (profiling && s.line() > 0 && !(s instanceof Stmt.Def) && !(s instanceof Stmt.Hoisted)) {
+            // profile$[line]++
+            code.load("[J", countersSlot);
+            code.intConstant(s.line());
+            code.load("[J", countersSlot);
+            code.intConstant(s.line());
+            code.insn(ClassFileWriter.LALOAD, 2, "J");
+            code.longConstant(1);
+            code.insn(ClassFileWriter.IADD + ClassFileWriter.typeOffset("J"), 2, "J");
+            code.insn(ClassFileWriter.LASTORE, 3, null);
+        }
+        switch (s) {
+            case Stmt.Assign a -> assign(a.target(), a.value());
+            case Stmt.Hoisted h -> assign(h.name(), h.value());
+            case Stmt.ExprStmt e -> expressionStatement(e.expr());
+            case Stmt.If f -> ifStatement(f);
+            case Stmt.For f -> forStatement(f);
+            case Stmt.While w -> {
+                ClassFileWriter.Label head = new ClassFileWriter.Label();
+                ClassFileWriter.Label exit = new ClassFileWriter.Label();
+                code.place(head);
+                // The condition is evaluated again after the body, which left its own line in line$.
+                storeLine(w.line());
+                branch(w.condition(), false, exit);
+                checkBudget();
+                loop(w.body(), exit, head);
+                code.jump(ClassFileWriter.GOTO, head);
+                code.place(exit);
+            }
+            case Stmt.Break b -> code.jump(ClassFileWriter.GOTO, enclosingLoop()[0]);
+            case Stmt.Continue c -> code.jump(ClassFileWriter.GOTO, enclosingLoop()[1]);
+            case Stmt.SetItem a -> setItem(a);
+            case Stmt.ForEach f -> forEachStatement(f);
+            case Stmt.Def d -> function(d);
+            case Stmt.Return r -> returnStatement(r);
+        }
+    }
+
+    /**
+     * Compiles the statements of a block, stopping at the first one that cannot be reached.
+     */
+    private void block(List<Stmt> body) {
+        for (Stmt s : body) {
+            if (!code.reachable()) {
+                break;
+            }
+            statement(s);
+        }
+    }
+
+    private void loop(List<Stmt> body, ClassFileWriter.Label exit, ClassFileWriter.Label next) {
+        loops.push(new ClassFileWriter.Label[]{exit, next});
+        block(body);
+        loops.pop();
+    }
+
+    private ClassFileWriter.Label[] enclosingLoop() {
+        if (loops.isEmpty()) {
+            throw new IllegalArgumentException("'break' or 'continue' outside a loop");
+        }
+        return loops.peek();
+    }
+
+    private void assign(String var, Expr value) {
+        ValueType type = typeOf(var);
+        target = var;
+        try {
+            value(value, type);
+        } finally {
+            target = null;
+        }
+        code.store(verificationType(type), slot(var));
+    }
+
+    private void expressionStatement(Expr e) {
+        if (e instanceof Expr.Call call && "print".equals(call.func())) {
+            print(call);
+            return;
+        }
+        if (e instanceof Expr.Call call && inference.parameterTypes(call.func()) != null && !inference.returnsValue(call.func())) {
+            // A function without a result leaves nothing to pop.
+            invokeFunction(call);
+            return;
+        }
+        if (e instanceof Expr.Method m) {
+            listAppend(m);
+            return;
+        }
+        ValueType type = types.typeOf(e);
+        value(e);
+        code.insn(ClassFileWriter.size(verificationType(type)) == 2 ? ClassFileWriter.POP2 : ClassFileWriter.POP, 1, null);
+    }
+
+    /**
+     * lst.append(x), the one list method.
+     */
+    private void listAppend(Expr.Method m) {
+        ValueType t = list(m.target());
+        if (!"append".equals(m.name()) || m.args().size() != 1) {
+            throw new IllegalArgumentException("Unsupported list method '" + m.name() + "' (only append(x) is supported)");
+        }
+        value(m.target());
+        value(m.args().getFirst(), t.elementType());
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(t), "append", "(" + descriptor(t.elementType()) + ")V");
+    }
+
+    /**
+     * lst[i] = x. Overflow checks in x name the list as the variable to promote, as in ExprEmitter.emitStore.
+     */
+    private void setItem(Stmt.SetItem a) {
+        ValueType t = list(new Expr.Name(a.target()));
+        String vt = verificationType(t);
+        code.load(vt, slot(a.target()));
+        index(a.index());
+        target = a.target();
+        try {
+            value(a.value(), t.elementType());
+        } finally {
+            target = null;
+        }
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "set", "(J" + descriptor(t.elementType()) + ")V");
+    }
+
+    /**
+     * print(a, b, sep=s, end=e) becomes PyPrint.line(s).arg(a).arg(b).end(e), as in the Java translation.
+     */
+    private void print(Expr.Call call) {
+        Expr sep = call.keyword("sep");
+        if (sep != null) {
+            value(sep, ValueType.STRING);
+            code.invoke(ClassFileWriter.INVOKESTATIC, PRINT, "line", "(Ljava/lang/String;)L" + PRINT + ";");
+        } else {
+            code.invoke(ClassFileWriter.INVOKESTATIC, PRINT, "line", "()L" + PRINT + ";");
+        }
+        for (Expr arg : call.positional()) {
+            // Ints are printed by the long overload, lists by the Object one.
+            ValueType type = types.typeOf(arg);
+            if (type == ValueType.INT) {
+                type = ValueType.LONG;
+            }
+            value(arg, type);
+            String d = type.isList() ? "Ljava/lang/Object;" : descriptor(type);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PRINT, "arg", "(" + d + ")L" + PRINT + ";");
+        }
+        Expr end = call.keyword("end");
+        if (end != null) {
+            value(end, ValueType.STRING);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PRINT, "end", "(Ljava/lang/String;)V");
+        } else {
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, PRINT, "end", "()V");
+        }
+    }
+
+    private void ifStatement(Stmt.If f) {
+        ClassFileWriter.Label orElse = new ClassFileWriter.Label();
+        branch(f.condition(), false, orElse);
+        block(f.body());
+        if (f.orElse().isEmpty()) {
+            code.place(orElse);
+            return;
+        }
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        code.jump(ClassFileWriter.GOTO, end);
+        code.place(orElse);
+        block(f.orElse());
+        code.place(end);
+    }
+
+    /**
+     * for var in range(start, end, step): unless start is already past end, var = start, then
+     * loop while var < end (var > end for a negative step), adding step after each iteration (the
+     * bounds are evaluated each time, as in the Java translation). A step whose sign is not known is checked once, before the loop.
+     */
+    private void forStatement(Stmt.For f) {
+        ValueType type = typeOf(f.var());
+        if (!type.isNumeric()) {
+            throw new UnsupportedOperationException("for loop over " + type);
+        }
+        if (f.stepSign() == 0) {
+            value(f.step(), type);
+            if (type == ValueType.INT) code.insn(ClassFileWriter.I2L, 1, "J");
+            code.invoke(ClassFileWriter.INVOKESTATIC, PYMATH, "checkStep", type == ValueType.DOUBLE ? "(D)V" : "(J)V");
+        }
+        // An empty range leaves var as it was (start is a literal or a variable, see IROptimizer);
+        // forLoop takes the last step back only after an iteration.
+        ClassFileWriter.Label skip = new ClassFileWriter.Label();
+        rangeTest(f, f.start(), type, skip);
+        value(f.start(), type);
+        code.store(verificationType(type), slot(f.var()));
+        forLoop(f);
+        code.place(skip);
+    }
+
+    /**
+     * The for loop after its variable is set to the start value, or, in a compiled loop, to the
+     * value of the interpreter's next iteration. When the range runs out the last step is taken
+     * back, so var ends at the last value of the range as in Python (break leaves it where it is).
+     */
+    private void forLoop(Stmt.For f) {
+        ValueType type = typeOf(f.var());
+        if (!type.isNumeric()) {
+            throw new UnsupportedOperationException("for loop over " + type);
+        }
+        String vt = verificationType(type);
+        int slot = slot(f.var());
+
+        ClassFileWriter.Label head = new ClassFileWriter.Label();
+        ClassFileWriter.Label next = new ClassFileWriter.Label();
+        ClassFileWriter.Label done = new ClassFileWriter.Label();
+        ClassFileWriter.Label exit = new ClassFileWriter.Label();
+        code.place(head);
+        rangeTest(f, new Expr.Name(f.var()), type, done);
+        checkBudget();
+        loop(f.body(), exit, next);
+
+        code.place(next);
+        code.line(f.line());
+        step(f, type, vt, slot, 1);
+        code.jump(ClassFileWriter.GOTO, head);
+        code.place(done);
+        step(f, type, vt, slot, -1);
+        code.place(exit);
+    }
+
+    /**
+     * Jumps to outside unless value, the loop variable or the start, is in the range.
+     */
+    private void rangeTest(Stmt.For f, Expr value, ValueType type, ClassFileWriter.Label outside) {
+        int sign = f.stepSign();
+        if (sign == 0) {
+            // The direction is the sign of the step: test it, then compare the right way.
+            ClassFileWriter.Label up = new ClassFileWriter.Label();
+            ClassFileWriter.Label in = new ClassFileWriter.Label();
+            value(f.step(), type);
+            zero(type);
+            compareAndJump(">", type, true, up);
+            value(value, type);
+            value(f.end(), type);
+            compareAndJump(">", type, false, outside);
+            code.jump(ClassFileWriter.GOTO, in);
+            code.place(up);
+            value(value, type);
+            value(f.end(), type);
+            compareAndJump("<", type, false, outside);
+            code.place(in);
+        } else {
+            value(value, type);
+            value(f.end(), type);
+            compareAndJump(sign > 0 ? "<" : ">", type, false, outside);
+        }
+    }
+
+    /**
+     * Adds the step to the loop variable (direction 1), or subtracts it (direction -1).
+     */
+    private void step(Stmt.For f, ValueType type, String vt, int slot, int direction) {
+        if (type == ValueType.INT && f.step() instanceof Expr.Num n && "1".equals(n.text())) {
+            code.iinc(slot, direction);
+        } else {
+            code.load(vt, slot);
+            value(f.step(), type);
+            int op = direction > 0 ? ClassFileWriter.IADD : ClassFileWriter.ISUB;
+            code.insn(op + ClassFileWriter.typeOffset(vt), 2, vt);
+            code.store(vt, slot);
+        }
+    }
+
+    /**
+     * for var in lst, as PythonToJavaConverter.emitForEach translates it: an index i$n counts from
+     * 0 to the size of the list, and var is set to each element. A list that is not a variable is
+     * evaluated once, into list$n.
+     */
+    private void forEachStatement(Stmt.ForEach f) {
+        ValueType listType = types.typeOf(f.iterable());
+        if (!listType.isList()) {
+            throw new IllegalArgumentException("Only 'for ... in range(...)' and 'for ... in <list>' loops are supported");
+        }
+        ValueType type = typeOf(f.var());
+        ValueType element = listType.elementType();
+        if (type != element && type != ValueType.BIG && type != ValueType.OBJECT
+                && !(type == ValueType.DOUBLE && listType == ValueType.INT_LIST)) {
+            throw new IllegalArgumentException("Loop variable '" + f.var() + "' holds both " + type.pythonName()
+                    + " and the " + element.pythonName() + " elements of the list");
+        }
+        int n = ++listLoops;
+        String vt = verificationType(listType);
+        int list;
+        if (f.iterable() instanceof Expr.Name name) {
+            list = slot(name.id());
+        } else {
+            value(f.iterable());
+            list = slot("list$" + n, listType);
+            code.store(vt, list);
+        }
+        int index = slot("i$" + n, ValueType.INT);
+        code.intConstant(0);
+        code.store("I", index);
+
+        ClassFileWriter.Label head = new ClassFileWriter.Label();
+        ClassFileWriter.Label next = new ClassFileWriter.Label();
+        ClassFileWriter.Label exit = new ClassFileWriter.Label();
+        code.place(head);
+        code.load("I", index);
+        code.load(vt, list);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "size", "()I");
+        compareAndJump("<", ValueType.INT, false, exit);
+        checkBudget();
+        code.load(vt, list);
+        code.load("I", index);
+        code.insn(ClassFileWriter.I2L, 1, "J");
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "get", "(J)" + descriptor(element));
+        convert(element, type);
+        code.store(verificationType(type), slot(f.var()));
+        loop(f.body(), exit, next);
+
+        code.place(next);
+        code.line(f.line());
+        code.iinc(index, 1);
+        code.jump(ClassFileWriter.GOTO, head);
+        code.place(exit);
+    }
+
+    /**
+     * Pushes 0 of the given numeric type.
+     */
+    private void zero(ValueType type) {
+        switch (type) {
+            case LONG -> code.longConstant(0);
+            case DOUBLE -> code.doubleConstant(0);
+            default -> code.intConstant(0);
+        }
+    }
+
+    /**
+     * At the start of a loop body: if ((++loops$ &amp; 1023) == 0) PyBudget.check();
+     */
+    private void checkBudget() {
+        if (!loopChecks) {
+            return;
+        }
+        int slot = slot(COUNTER, ValueType.INT);
+        ClassFileWriter.Label skip = new ClassFileWriter.Label();
+        code.iinc(slot, 1);
+        code.load("I", slot);
+        code.intConstant(PyBudget.INTERVAL - 1);
+        code.insn(ClassFileWriter.IAND, 2, "I");
+        code.jump(ClassFileWriter.IFNE, skip);
+        code.invoke(ClassFileWriter.INVOKESTATIC, "PyBudget", "check", "()V");
+        code.place(skip);
+    }
+
+    // --------------------- Functions --------------------- //
+
+    /**
+     * Compiles a function to a static method of the class, as PythonToJavaConverter.emitFunction
+     * translates it: the parameters are the method's first locals, and the function's variables
+     * are looked up in its scope. A memoized function becomes a method that looks its arguments
+     * up in a PyMemo table (see {@link #memo}) and calls the method holding the body.
+     */
+    private void function(Stmt.Def d) {
+        ClassFileWriter.Code outerCode = code;
+        HashMap<String, Integer> outerSlots = slots;
+        List<ValueType> outerTypes = localTypes;
+        List<String> outerNames = localNames;
+        int outerNextSlot = nextSlot;
+        int outerCounters = countersSlot;
+        int outerLine = lineSlot;
+        code = classFile.new Code();
+        slots = new HashMap<>();
+        localTypes = new ArrayList<>();
+        localNames = new ArrayList<>();
+        nextSlot = 0;
+        function = d;
+        try {
+            List<String> parameters = new ArrayList<>();
+            for (String p : d.params()) {
+                String vt = verificationType(typeOf(p));
+                slots.put(javaVar(p), nextSlot);
+                nextSlot += ClassFileWriter.size(vt);
+                parameters.add(vt);
+            }
+            if (profiling) {
+                countersSlot = nextSlot++;
+                parameters.add("[J");
+            }
+            String name = ExprEmitter.javaName(d.name());
+            int access = ClassFileWriter.ACC_STATIC;
+            if (d.memoized()) {
+                memo(d, name);
+                name = name + "_body";
+                access |= ClassFileWriter.ACC_PRIVATE;
+            }
+
+            // After memo(), whose method has only the parameters.
+            lineSlot = slot(LINE, ValueType.INT);
+            code.line(d.line());
+            storeLine(d.line());
+            if (loopChecks) {
+                // Recursion does not go through a loop; the calls are counted instead.
+                code.invoke(ClassFileWriter.INVOKESTATIC, "PyBudget", "call", "()V");
+            }
+            block(d.body());
+            if (code.reachable()) {
+                if (inference.returnsValue(d.name())) {
+                    // Python would return None, as in the Java translation.
+                    storeLine(d.line());
+                    code.newObject("java/lang/IllegalStateException");
+                    code.stringConstant(d.name() + "() ended without returning a value");
+                    code.invoke(ClassFileWriter.INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "(Ljava/lang/String;)V");
+                    code.insn(ClassFileWriter.ATHROW, 1, null);
+                } else {
+                    code.insn(ClassFileWriter.RETURN, 0, null);
+                }
+            }
+            locateErrors(d.name());
+            addMethod(access, name, methodDescriptor(d.name()), parameters, prologue(parameters));
+        } finally {
+            function = null;
+            code = outerCode;
+            slots = outerSlots;
+            localTypes = outerTypes;
+            localNames = outerNames;
+            nextSlot = outerNextSlot;
+            countersSlot = outerCounters;
+            lineSlot = outerLine;
+        }
+    }
+
+    /**
+     * Sets line$ to the line of the statement that starts, for {@link #locateErrors}.
+     */
+    private void storeLine(int line) {
+        if (lineSlot >= 0 && line > 0) {
+            code.intConstant(line);
+            code.store("I", lineSlot);
+        }
+    }
+
+    /**
+     * Ends the method with a handler that puts the line in line$ on the stack trace of an
+     * exception it throws (see SourceMap.locate) and throws it on, as the Java translation does.
+     * The JVM leaves the method's frame out of stack traces when the class is hidden.
+     */
+    private void locateErrors(String function) {
+        String throwable = "java/lang/Throwable";
+        code.catchAll(throwable);
+        code.insn(ClassFileWriter.DUP, 0, throwable);
+        code.stringConstant(function);
+        code.load("I", lineSlot);
+        code.invoke(ClassFileWriter.INVOKESTATIC, "SourceMap", "locate", "(L" + throwable + ";Ljava/lang/String;I)V");
+        code.insn(ClassFileWriter.ATHROW, 1, null);
+    }
+
+    /**
+     * Adds the memo table of a memoized function and the method that looks calls up in it, as
+     * PythonToJavaConverter.appendMemo does for up to three int, float or bool parameters:
+     * <pre>
+     *   if (fib_memo.contains(n)) {
+     *       return fib_memo.longValue();
+     *   }
+     *   return fib_memo.putLong(fib_body(n), n);
+     * </pre>
+     * The table is created by the {@link #initializer}. Functions whose arguments are boxed into the
+     * key are left to javac.
+     */
+    private void memo(Stmt.Def d, String name) {
+        List<ValueType> params = inference.parameterTypes(d.name());
+        if (params.isEmpty() || params.size() > 3) {
+            throw new UnsupportedOperationException("Memoized function with boxed arguments");
+        }
+        for (ValueType t : params) {
+            if (t != ValueType.INT && t != ValueType.LONG && t != ValueType.BOOLEAN && t != ValueType.DOUBLE) {
+                throw new UnsupportedOperationException("Memoized function with boxed arguments");
+            }
+        }
+        String memo = name + "_memo";
+        String table = "L" + MEMO + ";";
+        classFile.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL, memo, table);
+        if (initializer == null) {
+            initializer = classFile.new Code();
+        }
+        initializer.newObject(MEMO);
+        initializer.intConstant(params.size());
+        initializer.invoke(ClassFileWriter.INVOKESPECIAL, MEMO, "<init>", "(I)V");
+        initializer.putStatic(className, memo, table);
+
+        boolean returnsValue = inference.returnsValue(d.name());
+        ValueType returns = returnsValue ? inference.returnType(d.name()) : ValueType.BOOLEAN;
+        // The table's kind of value, as in the Java translation: ints are kept as longs.
+        String kind = switch (returns) {
+            case INT, LONG -> "Long";
+            case DOUBLE -> "Double";
+            case BOOLEAN -> "Boolean";
+            default -> "Object";
+        };
+        String value = switch (returns) {
+            case INT, LONG -> "J";
+            case DOUBLE -> "D";
+            case BOOLEAN -> "Z";
+            default -> "Ljava/lang/Object;";
+        };
+        String keys = "J".repeat(params.size());
+
+        ClassFileWriter.Label compute = new ClassFileWriter.Label();
+        code.getStatic(className, memo, table);
+        memoKeys(d);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, MEMO, "contains", "(" + keys + ")Z");
+        code.jump(ClassFileWriter.IFEQ, compute);
+        if (returnsValue) {
+            code.getStatic(className, memo, table);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, MEMO, kind.toLowerCase() + "Value", "()" + value);
+            memoResult(returns);
+        } else {
+            code.insn(ClassFileWriter.RETURN, 0, null);
+        }
+        code.place(compute);
+        if (returnsValue) {
+            code.getStatic(className, memo, table);
+            invokeBody(d, name);
+            if (returns == ValueType.INT) {
+                code.insn(ClassFileWriter.I2L, 1, "J");
+            }
+        } else {
+            // A memoized function without a result runs its body once per arguments, as in Python.
+            invokeBody(d, name);
+            code.getStatic(className, memo, table);
+            code.intConstant(1);
+        }
+        memoKeys(d);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, MEMO, "put" + kind, "(" + value + keys + ")" + value);
+        if (returnsValue) {
+            memoResult(returns);
+        } else {
+            code.insn(ClassFileWriter.POP, 1, null);
+            code.insn(ClassFileWriter.RETURN, 0, null);
+        }
+        addMethod(ClassFileWriter.ACC_STATIC, name, methodDescriptor(d.name()), parameterTypes(d), classFile.new Code());
+        code = classFile.new Code();
+    }
+
+    // Pushes the memo key of every parameter: ints and bools as longs, floats as PyMemo.key.
+    private void memoKeys(Stmt.Def d) {
+        for (String p : d.params()) {
+            ValueType t = typeOf(p);
+            code.load(verificationType(t), slots.get(javaVar(p)));
+            switch (t) {
+                case INT, BOOLEAN -> code.insn(ClassFileWriter.I2L, 1, "J");
+                case DOUBLE -> code.invoke(ClassFileWriter.INVOKESTATIC, MEMO, "key", "(D)J");
+                default -> {
+                }
+            }
+        }
+    }
+
+    // Returns the value of the memo table on the stack as the function's type.
+    private void memoResult(ValueType returns) {
+        switch (returns) {
+            case INT -> code.insn(ClassFileWriter.L2I, 1, "I");
+            case LONG, DOUBLE, BOOLEAN -> {
+            }
+            default -> code.checkcast(verificationType(returns));
+        }
+        String vt = verificationType(returns);
+        code.insn(ClassFileWriter.IRETURN + ClassFileWriter.typeOffset(vt), 1, null);
+    }
+
+    // Calls the method holding the body of a memoized function with the function's parameters.
+    private void invokeBody(Stmt.Def d, String name) {
+        for (String p : d.params()) {
+            code.load(verificationType(typeOf(p)), slots.get(javaVar(p)));
+        }
+        code.invoke(ClassFileWriter.INVOKESTATIC, className, name + "_body", methodDescriptor(d.name()));
+    }
+
+    private List<String> parameterTypes(Stmt.Def d) {
+        List<String> types = new ArrayList<>();
+        for (String p : d.params()) {
+            types.add(verificationType(typeOf(p)));
+        }
+        return types;
+    }
+
+    private void returnStatement(Stmt.Return r) {
+        boolean returnsValue = inference.returnsValue(function.name());
+        if (r.value() == null) {
+            if (returnsValue) {
+                throw new IllegalArgumentException("Function '" + function.name() + "' returns None on some paths and a value on others");
+            }
+            code.insn(ClassFileWriter.RETURN, 0, null);
+            return;
+        }
+        // An overflow in the returned value names the function, which then returns BigIntegers.
+        ValueType type = inference.returnType(function.name());
+        target = function.name();
+        try {
+            value(r.value(), type);
+        } finally {
+            target = null;
+        }
+        String vt = verificationType(type);
+        code.insn(ClassFileWriter.IRETURN + ClassFileWriter.typeOffset(vt), 1, null);
+    }
+
+    /**
+     * Calls one of the script's functions, with the arguments converted to its parameter types.
+     */
+    private void invokeFunction(Expr.Call c) {
+        List<ValueType> params = inference.parameterTypes(c.func());
+        if (params.size() != c.args().size()) {
+            throw new IllegalArgumentException(c.func() + "() takes " + params.size() + " arguments, not " + c.args().size());
+        }
+        for (int i = 0; i < params.size(); i++) {
+            value(c.args().get(i), params.get(i));
+        }
+        code.invoke(ClassFileWriter.INVOKESTATIC, className, ExprEmitter.javaName(c.func()), methodDescriptor(c.func()));
+    }
+
+    private String methodDescriptor(String function) {
+        StringBuilder descriptor = new StringBuilder("(");
+        for (ValueType t : inference.parameterTypes(function)) {
+            descriptor.append(descriptor(t));
+        }
+        descriptor.append(')');
+        return descriptor.append(inference.returnsValue(function) ? descriptor(inference.returnType(function)) : "V").toString();
+    }
+
+    // --------------------- Values --------------------- //
+
+    /**
+     * Pushes the value of e, converted to the given type.
+     */
+    private void value(Expr e, ValueType type) {
+        if (e instanceof Expr.ListLiteral l && type.isList()) {
+            // A literal is built as the wider list right away, as ExprEmitter.convertList does.
+            listLiteral(l, type);
+            return;
+        }
+        value(e);
+        convert(types.typeOf(e), type);
+    }
+
+    /**
+     * Pushes the value of e, which has the type {@link ExprEmitter#typeOf} gives it.
+     */
+    private void value(Expr e) {
+        ValueType type = types.typeOf(e);
+        if (type == ValueType.BIG) {
+            throw new UnsupportedOperationException("BigInteger arithmetic");
+        }
+        switch (e) {
+            case Expr.Num n -> {
+                try {
+                    switch (type) {
+                        case INT -> code.intConstant(Integer.parseInt(n.text()));
+                        case LONG -> code.longConstant(Long.parseLong(n.text()));
+                        default -> code.doubleConstant(Double.parseDouble(n.text()));
+                    }
+                } catch (NumberFormatException x) {
+                    throw new UnsupportedOperationException("Literal " + n.text());
+                }
+            }
+            case Expr.Str s -> code.stringConstant(s.value());
+            case Expr.Bool b -> code.intConstant(b.value() ? 1 : 0);
+            case Expr.Name n -> code.load(verificationType(type), slot(n.id()));
+            case Expr.Unary u -> unary(u, type);
+            case Expr.Binary b -> binary(b, type);
+            case Expr.BoolOp b -> booleanValue(b);
+            case Expr.Compare c -> booleanValue(c);
+            case Expr.Call c -> call(c, type);
+            case Expr.Keyword k -> throw new UnsupportedOperationException("Keyword argument " + k.name());
+            case Expr.ListLiteral l -> listLiteral(l, type);
+            case Expr.Index i -> {
+                ValueType list = list(i.target());
+                value(i.target());
+                index(i.index());
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(list), "get", "(J)" + descriptor(list.elementType()));
+            }
+            case Expr.Slice l -> {
+                ValueType list = list(l.target());
+                value(l.target());
+                for (Expr bound : new Expr[]{l.lower(), l.upper()}) {
+                    if (bound != null) index(bound);
+                    else code.longConstant(PySequence.NONE);
+                }
+                if (l.step() != null) index(l.step());
+                else code.longConstant(1);
+                String vt = verificationType(list);
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "slice", "(JJJ)L" + vt + ";");
+            }
+            case Expr.Method m -> throw new IllegalArgumentException(m.name() + "() does not return a value");
+        }
+    }
+
+    /**
+     * [a, b] becomes new IntList() with a and b appended, which holds what IntList.of(a, b) does.
+     */
+    private void listLiteral(Expr.ListLiteral l, ValueType type) {
+        String vt = verificationType(type);
+        code.newInstance(vt);
+        for (Expr element : l.elements()) {
+            code.insn(ClassFileWriter.DUP, 0, vt);
+            value(element, type.elementType());
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "append", "(" + descriptor(type.elementType()) + ")V");
+        }
+    }
+
+    private ValueType list(Expr e) {
+        ValueType t = types.typeOf(e);
+        if (!t.isList()) {
+            throw new IllegalArgumentException("'" + t.pythonName() + "' object is not a list");
+        }
+        return t;
+    }
+
+    /**
+     * Pushes a list index or slice bound, which has to be an int, as a long.
+     */
+    private void index(Expr e) {
+        ValueType t = types.typeOf(e);
+        if (!t.isIntegral() && t != ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("List indices must be integers, not " + t.pythonName());
+        }
+        value(e, ValueType.LONG);
+    }
+
+    private void unary(Expr.Unary u, ValueType type) {
+        String vt = verificationType(type);
+        switch (u.op()) {
+            case "not" -> booleanValue(u);
+            case "+" -> value(u.operand(), type);
+            case "-" -> {
+                value(u.operand(), type);
+                if (exact && type == ValueType.LONG && !(u.operand() instanceof Expr.Num)) {
+                    site(u);
+                    code.invoke(ClassFileWriter.INVOKESTATIC, PYMATH, "neg", "(JLjava/lang/String;)J");
+                } else {
+                    code.insn(ClassFileWriter.INEG + ClassFileWriter.typeOffset(vt), 1, vt);
+                }
+            }
+            case "~" -> {
+                value(u.operand(), integral(type));
+                if (type == ValueType.LONG) code.longConstant(-1);
+                else code.intConstant(-1);
+                code.insn(ClassFileWriter.IXOR + ClassFileWriter.typeOffset(vt), 2, vt);
+            }
+            default -> throw new UnsupportedOperationException("Operator " + u.op());
+        }
+    }
+
+    private void binary(Expr.Binary b, ValueType type) {
+        ValueType l = types.typeOf(b.left());
+        ValueType r = types.typeOf(b.right());
+        String vt = verificationType(type);
+        int offset = ClassFileWriter.typeOffset(vt);
+
+        if (type == ValueType.STRING) {
+            if ("+".equals(b.op())) {
+                code.newInstance(BUILDER);
+                append(b);
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, BUILDER, "toString", "()Ljava/lang/String;");
+            } else if (l == ValueType.STRING) {
+                // "ab" * 3 repeats the string.
+                repeat(b.left(), b.right());
+            } else {
+                repeat(b.right(), b.left());
+            }
+            return;
+        }
+
+        if (type.isList()) {
+            if ("+".equals(b.op())) {
+                value(b.left(), type);
+                value(b.right(), type);
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "concat", "(L" + vt + ";)L" + vt + ";");
+            } else {
+                // lst * n and n * lst both repeat the list.
+                boolean listFirst = l.isList();
+                value(listFirst ? b.left() : b.right());
+                value(listFirst ? b.right() : b.left(), ValueType.LONG);
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, vt, "repeat", "(J)L" + vt + ";");
+            }
+            return;
+        }
+
+        if (exact && type == ValueType.LONG) {
+            // Operations that can overflow a long are checked; the rest cannot overflow.
+            String checked = switch (b.op()) {
+                case "+" -> "add";
+                case "-" -> "sub";
+                case "*" -> "mul";
+                case "//" -> "floorDiv";
+                case "**" -> "pow";
+                case "<<" -> "shiftLeft";
+                default -> null;
+            };
+            if (checked != null) {
+                value(b.left(), ValueType.LONG);
+                value(b.right(), ValueType.LONG);
+                site(b);
+                code.invoke(ClassFileWriter.INVOKESTATIC, PYMATH, checked, "(JJLjava/lang/String;)J");
+                return;
+            }
+        }
+
+        switch (b.op()) {
+            case "+", "-", "*" -> {
+                value(b.left(), type);
+                value(b.right(), type);
+                int base = switch (b.op()) {
+                    case "+" -> ClassFileWriter.IADD;
+                    case "-" -> ClassFileWriter.ISUB;
+                    default -> ClassFileWriter.IMUL;
+                };
+                code.insn(base + offset, 2, vt);
+            }
+            case "/" -> {
+                // True division: always in doubles.
+                value(b.left(), ValueType.DOUBLE);
+                value(b.right(), ValueType.DOUBLE);
+                code.insn(ClassFileWriter.DDIV, 2, "D");
+            }
+            case "//", "%" -> {
+                value(b.left(), type);
+                value(b.right(), type);
+                if (type.isIntegral()) {
+                    // Python floors the quotient, and its remainder takes the sign of the divisor.
+                    String d = descriptor(type);
+                    code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Math",
+                            "//".equals(b.op()) ? "floorDiv" : "floorMod", "(" + d + d + ")" + d);
+                } else if ("//".equals(b.op())) {
+                    code.insn(ClassFileWriter.DDIV, 2, "D");
+                    code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Math", "floor", "(D)D");
+                } else {
+                    code.invoke(ClassFileWriter.INVOKESTATIC, PYMATH, "floorMod", "(DD)D");
+                }
+            }
+            case "**" -> {
+                value(b.left(), ValueType.DOUBLE);
+                value(b.right(), ValueType.DOUBLE);
+                code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+                convert(ValueType.DOUBLE, type);
+            }
+            case "&", "|", "^" -> {
+                integral(type == ValueType.BOOLEAN ? ValueType.INT : type);
+                value(b.left(), type);
+                value(b.right(), type);
+                int base = switch (b.op()) {
+                    case "&" -> ClassFileWriter.IAND;
+                    case "|" -> ClassFileWriter.IOR;
+                    default -> ClassFileWriter.IXOR;
+                };
+                code.insn(base + offset, 2, vt);
+            }
+            case "<<", ">>" -> {
+                integral(type);
+                value(b.left(), type);
+                // The shift distance is an int, even for long shifts.
+                value(b.right(), ValueType.INT);
+                code.insn(("<<".equals(b.op()) ? ClassFileWriter.ISHL : ClassFileWriter.ISHR) + offset, 2, vt);
+            }
+            default -> throw new UnsupportedOperationException("Operator " + b.op());
+        }
+    }
+
+    private void repeat(Expr string, Expr count) {
+        ValueType type = types.typeOf(count);
+        if (type == ValueType.STRING || type == ValueType.DOUBLE) {
+            throw new UnsupportedOperationException("String repeated by " + type);
+        }
+        value(string);
+        value(count, ValueType.INT);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "repeat", "(I)Ljava/lang/String;");
+    }
+
+    /**
+     * Appends e to the StringBuilder on the stack. Nested string concatenations append their
+     * operands one by one, which gives the same string.
+     */
+    private void append(Expr e) {
+        ValueType type = types.typeOf(e);
+        if (e instanceof Expr.Binary b && "+".equals(b.op()) && type == ValueType.STRING) {
+            append(b.left());
+            append(b.right());
+            return;
+        }
+        value(e);
+        code.invoke(ClassFileWriter.INVOKEVIRTUAL, BUILDER, "append", "(" + descriptor(type) + ")Ljava/lang/StringBuilder;");
+    }
+
+    private void call(Expr.Call c, ValueType type) {
+        List<Expr> args = c.args();
+        switch (c.func()) {
+            case "int", "float" -> {
+                Expr arg = single(c);
+                ValueType source = types.typeOf(arg);
+                value(arg);
+                if (source == ValueType.STRING) {
+                    code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "trim", "()Ljava/lang/String;");
+                    switch (type) {
+                        case INT -> code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I");
+                        case LONG -> code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Long", "parseLong", "(Ljava/lang/String;)J");
+                        default -> code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Double", "parseDouble", "(Ljava/lang/String;)D");
+                    }
+                } else {
+                    convert(source, type);
+                }
+            }
+            case "str" -> {
+                Expr arg = single(c);
+                ValueType source = types.typeOf(arg);
+                if (source == ValueType.INT) {
+                    source = ValueType.LONG;
+                }
+                value(arg, source);
+                String d = source == ValueType.STRING || source.isList() ? "Ljava/lang/Object;" : descriptor(source);
+                code.invoke(ClassFileWriter.INVOKESTATIC, PRINT, "str", "(" + d + ")Ljava/lang/String;");
+            }
+            case "bool" -> {
+                single(c);
+                booleanValue(c);
+            }
+            case "abs" -> {
+                Expr arg = single(c);
+                value(arg, type);
+                if (exact && type == ValueType.LONG) {
+                    site(c);
+                    code.invoke(ClassFileWriter.INVOKESTATIC, PYMATH, "abs", "(JLjava/lang/String;)J");
+                } else {
+                    String d = descriptor(type);
+                    code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Math", "abs", "(" + d + ")" + d);
+                }
+            }
+            case "round" -> {
+                Expr arg = single(c);
+                ValueType source = types.typeOf(arg);
+                if (source.isIntegral()) {
+                    value(arg, type);
+                } else {
+                    // Python rounds halves to even, like Math.rint.
+                    value(arg, ValueType.DOUBLE);
+                    code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Math", "rint", "(D)D");
+                    convert(ValueType.DOUBLE, type);
+                }
+            }
+            case "len" -> {
+                Expr arg = single(c);
+                ValueType t = types.typeOf(arg);
+                if (t.isList()) {
+                    value(arg);
+                    code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(t), "size", "()I");
+                } else if (t == ValueType.STRING) {
+                    value(arg);
+                    code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "length", "()I");
+                } else {
+                    throw new IllegalArgumentException("object of type '" + t.pythonName() + "' has no len()");
+                }
+            }
+            case "min", "max" -> {
+                if (args.isEmpty()) {
+                    throw new IllegalArgumentException(c.func() + "() expects at least one argument");
+                }
+                String d = descriptor(type);
+                ValueType source = types.typeOf(args.getFirst());
+                if (args.size() == 1 && source.isList()) {
+                    if (type == ValueType.BOOLEAN) {
+                        throw new IllegalArgumentException(c.func() + "() of a list of bools is not supported");
+                    }
+                    value(args.getFirst());
+                    code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(source), c.func(), "()" + d);
+                    return;
+                }
+                value(args.getFirst(), type);
+                for (int i = 1; i < args.size(); i++) {
+                    value(args.get(i), type);
+                    code.invoke(ClassFileWriter.INVOKESTATIC, "java/lang/Math", c.func(), "(" + d + d + ")" + d);
+                }
+            }
+            default -> {
+                if (inference.parameterTypes(c.func()) == null) {
+                    throw new UnsupportedOperationException("Call of " + c.func() + "()");
+                }
+                invokeFunction(c);
+            }
+        }
+    }
+
+    private static Expr single(Expr.Call c) {
+        if (c.args().size() != 1) {
+            throw new IllegalArgumentException(c.func() + "() expects exactly one argument");
+        }
+        return c.args().getFirst();
+    }
+
+    /**
+     * Pushes the string naming the variables an overflow in e should promote, as ExprEmitter does.
+     */
+    private void site(Expr e) {
+        if (target != null) {
+            code.stringConstant(target);
+            return;
+        }
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        collectNames(e, names);
+        names.add(ExprEmitter.expressionSite(e));
+        code.stringConstant(String.join(",", names));
+    }
+
+    private static void collectNames(Expr e, Set<String> names) {
+        switch (e) {
+            case Expr.Name n -> names.add(n.id());
+            case Expr.Unary u -> collectNames(u.operand(), names);
+            case Expr.Binary b -> {
+                collectNames(b.left(), names);
+                collectNames(b.right(), names);
+            }
+            case Expr.BoolOp b -> {
+                collectNames(b.left(), names);
+                collectNames(b.right(), names);
+            }
+            case Expr.Compare c -> c.operands().forEach(o -> collectNames(o, names));
+            case Expr.Call c -> c.args().forEach(a -> collectNames(a, names));
+            case Expr.Keyword k -> collectNames(k.value(), names);
+            case Expr.ListLiteral l -> l.elements().forEach(x -> collectNames(x, names));
+            case Expr.Index i -> {
+                collectNames(i.target(), names);
+                collectNames(i.index(), names);
+            }
+            case Expr.Slice l -> {
+                collectNames(l.target(), names);
+                for (Expr part : new Expr[]{l.lower(), l.upper(), l.step()}) {
+                    if (part != null) collectNames(part, names);
+                }
+            }
+            case Expr.Method m -> {
+                collectNames(m.target(), names);
+                m.args().forEach(a -> collectNames(a, names));
+            }
+            case Expr.Num n -> {
+            }
+            case Expr.Str s -> {
+            }
+            case Expr.Bool b -> {
+            }
+        }
+    }
+
+    // --------------------- Conditions --------------------- //
+
+    /**
+     * Pushes a condition as 1 or 0.
+     */
+    private void booleanValue(Expr e) {
+        ClassFileWriter.Label isFalse = new ClassFileWriter.Label();
+        ClassFileWriter.Label end = new ClassFileWriter.Label();
+        branch(e, false, isFalse);
+        code.intConstant(1);
+        code.jump(ClassFileWriter.GOTO, end);
+        code.place(isFalse);
+        code.intConstant(0);
+        code.place(end);
+    }
+
+    /**
+     * Jumps to target if the Python truth value of e is jumpIf, otherwise falls through.
+     */
+    private void branch(Expr e, boolean jumpIf, ClassFileWriter.Label target) {
+        switch (e) {
+            case Expr.Bool b -> {
+                if (b.value() == jumpIf) code.jump(ClassFileWriter.GOTO, target);
+            }
+            case Expr.Unary u when "not".equals(u.op()) -> branch(u.operand(), !jumpIf, target);
+            case Expr.BoolOp b -> {
+                // 'and' jumps out as soon as one side is false, 'or' as soon as one side is true.
+                boolean shortCircuit = !"and".equals(b.op());
+                if (jumpIf == shortCircuit) {
+                    branch(b.left(), jumpIf, target);
+                    branch(b.right(), jumpIf, target);
+                } else {
+                    ClassFileWriter.Label skip = new ClassFileWriter.Label();
+                    branch(b.left(), shortCircuit, skip);
+                    branch(b.right(), jumpIf, target);
+                    code.place(skip);
+                }
+            }
+            case Expr.Compare c -> {
+                // a < b < c is a < b and b < c.
+                int last = c.ops().size() - 1;
+                ClassFileWriter.Label skip = new ClassFileWriter.Label();
+                for (int i = 0; i < last; i++) {
+                    comparePair(c.ops().get(i), c.operands().get(i), c.operands().get(i + 1), false, jumpIf ? skip : target);
+                }
+                comparePair(c.ops().get(last), c.operands().get(last), c.operands().get(last + 1), jumpIf, target);
+                code.place(skip);
+            }
+            case Expr.Call c when "bool".equals(c.func()) -> branch(single(c), jumpIf, target);
+            default -> {
+                ValueType type = types.typeOf(e);
+                value(e);
+                switch (type) {
+                    case BOOLEAN, INT -> {
+                    }
+                    case LONG -> {
+                        code.longConstant(0);
+                        code.insn(ClassFileWriter.LCMP, 2, "I");
+                    }
+                    case DOUBLE -> {
+                        code.doubleConstant(0);
+                        code.insn(ClassFileWriter.DCMPL, 2, "I");
+                    }
+                    case STRING -> {
+                        // A string is true when it is not empty.
+                        code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "isEmpty", "()Z");
+                        jumpIf = !jumpIf;
+                    }
+                    case INT_LIST, DOUBLE_LIST -> {
+                        // So is a list.
+                        code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(type), "isEmpty", "()Z");
+                        jumpIf = !jumpIf;
+                    }
+                    default -> throw new UnsupportedOperationException("Condition of type " + type);
+                }
+                code.jump(jumpIf ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, target);
+            }
+        }
+    }
+
+    private void comparePair(String op, Expr left, Expr right, boolean jumpIf, ClassFileWriter.Label target) {
+        if ("in".equals(op) || "not in".equals(op)) {
+            contains(left, right);
+            code.jump("in".equals(op) == jumpIf ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, target);
+            return;
+        }
+        op = switch (op) {
+            case "is" -> "==";
+            case "is not" -> "!=";
+            case "==", "!=", "<", ">", "<=", ">=" -> op;
+            default -> throw new IllegalArgumentException("Unsupported comparison '" + op + "'");
+        };
+        ValueType l = types.typeOf(left);
+        ValueType r = types.typeOf(right);
+        if (l.isList() || r.isList()) {
+            // Lists are equal if their elements are.
+            if (!l.isList() || !r.isList() || !"==".equals(op) && !"!=".equals(op)) {
+                throw new IllegalArgumentException("Lists can only be compared to lists, with == and !=");
+            }
+            ValueType common = ValueType.join(l, r);
+            value(left, common);
+            value(right, common);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(common), "equals", "(Ljava/lang/Object;)Z");
+            code.jump(("==".equals(op)) == jumpIf ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, target);
+            return;
+        }
+        if (l == ValueType.STRING || r == ValueType.STRING) {
+            if (l != r) {
+                throw new UnsupportedOperationException("Comparison of " + l + " and " + r);
+            }
+            value(left);
+            value(right);
+            if ("==".equals(op) || "!=".equals(op)) {
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "equals", "(Ljava/lang/Object;)Z");
+                code.jump(("==".equals(op)) == jumpIf ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, target);
+            } else {
+                code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "compareTo", "(Ljava/lang/String;)I");
+                code.jump(ifOpcode(op, jumpIf), target);
+            }
+            return;
+        }
+        ValueType common = ValueType.promote(numeric(l), numeric(r));
+        value(left, common);
+        value(right, common);
+        compareAndJump(op, common, jumpIf, target);
+    }
+
+    /**
+     * Pushes whether item is in container: an element of a list, or a substring of a string.
+     */
+    private void contains(Expr item, Expr container) {
+        ValueType t = types.typeOf(container);
+        if (t.isList()) {
+            value(container);
+            value(item, t.elementType());
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, verificationType(t), "contains", "(" + descriptor(t.elementType()) + ")Z");
+        } else if (t == ValueType.STRING && types.typeOf(item) == ValueType.STRING) {
+            value(container);
+            value(item);
+            code.invoke(ClassFileWriter.INVOKEVIRTUAL, STRING, "contains", "(Ljava/lang/CharSequence;)Z");
+        } else {
+            throw new IllegalArgumentException("'in' needs a list or a str on its right, not " + t.pythonName());
+        }
+    }
+
+    /**
+     * Compares the two values of the given type on the stack and jumps if (left op right) == jumpIf.
+     */
+    private void compareAndJump(String op, ValueType type, boolean jumpIf, ClassFileWriter.Label target) {
+        switch (type) {
+            case INT -> {
+                code.jump(ifOpcode(op, jumpIf) + (ClassFileWriter.IF_ICMPEQ - ClassFileWriter.IFEQ), target);
+                return;
+            }
+            case LONG -> code.insn(ClassFileWriter.LCMP, 2, "I");
+            // NaN makes every comparison but != false: DCMPG turns it into 1 for < and <=, DCMPL into -1 for the rest.
+            case DOUBLE -> code.insn("<".equals(op) || "<=".equals(op) ? ClassFileWriter.DCMPG : ClassFileWriter.DCMPL, 2, "I");
+            default -> throw new UnsupportedOperationException("Comparison of " + type);
+        }
+        code.jump(ifOpcode(op, jumpIf), target);
+    }
+
+    /**
+     * @return The IFxx opcode that jumps when (value op 0) == jumpIf.
+     */
+    private static int ifOpcode(String op, boolean jumpIf) {
+        if (!jumpIf) {
+            op = switch (op) {
+                case "==" -> "!=";
+                case "!=" -> "==";
+                case "<" -> ">=";
+                case ">=" -> "<";
+                case ">" -> "<=";
+                default -> ">";
+            };
+        }
+        return switch (op) {
+            case "==" -> ClassFileWriter.IFEQ;
+            case "!=" -> ClassFileWriter.IFNE;
+            case "<" -> ClassFileWriter.IFLT;
+            case ">=" -> ClassFileWriter.IFGE;
+            case ">" -> ClassFileWriter.IFGT;
+            default -> ClassFileWriter.IFLE;
+        };
+    }
+
+    // --------------------- Types --------------------- //
+
+    /**
+     * Converts the value on the stack from one type to another, as a Java cast or widening would.
+     */
+    private void convert(ValueType from, ValueType to) {
+        if (from == to) return;
+        if (from == ValueType.INT_LIST && to == ValueType.DOUBLE_LIST) {
+            // Widening a list copies it.
+            code.invoke(ClassFileWriter.INVOKESTATIC, DOUBLE_LIST, "copyOf", "(L" + INT_LIST + ";)L" + DOUBLE_LIST + ";");
+            return;
+        }
+        if (!to.isNumeric() || !(from.isNumeric() || from == ValueType.BOOLEAN) || from == ValueType.BIG || to == ValueType.BIG) {
+            throw new UnsupportedOperationException("Conversion from " + from + " to " + to);
+        }
+        // Booleans are already 0 or 1 on the stack.
+        ValueType source = from == ValueType.BOOLEAN ? ValueType.INT : from;
+        int opcode = switch (source) {
+            case INT -> to == ValueType.LONG ? ClassFileWriter.I2L : to == ValueType.DOUBLE ? ClassFileWriter.I2D : -1;
+            case LONG -> to == ValueType.INT ? ClassFileWriter.L2I : ClassFileWriter.L2D;
+            default -> to == ValueType.INT ? ClassFileWriter.D2I : ClassFileWriter.D2L;
+        };
+        if (opcode >= 0) {
+            code.insn(opcode, 1, verificationType(to));
+        }
+    }
+
+    // Booleans and strings take part in arithmetic as ints, as in ExprEmitter.
+    private static ValueType numeric(ValueType t) {
+        return t == ValueType.BOOLEAN || t == ValueType.STRING ? ValueType.INT : t;
+    }
+
+    private static ValueType integral(ValueType t) {
+        if (!t.isIntegral()) {
+            throw new UnsupportedOperationException("Bitwise operation on " + t);
+        }
+        return t;
+    }
+
+    private static String verificationType(ValueType t) {
+        return switch (t) {
+            case BOOLEAN, INT -> "I";
+            case LONG -> "J";
+            case DOUBLE -> "D";
+            case STRING -> STRING;
+            case INT_LIST -> INT_LIST;
+            case DOUBLE_LIST -> DOUBLE_LIST;
+            case BIG -> throw new UnsupportedOperationException("BigInteger arithmetic");
+            case OBJECT, BOOLEAN_LIST, STRING_LIST, BIG_LIST, OBJECT_LIST -> throw new UnsupportedOperationException("Lists other than lists of ints and floats");
+        };
+    }
+
+    private static String descriptor(ValueType t) {
+        return switch (t) {
+            case BOOLEAN -> "Z";
+            case INT -> "I";
+            case LONG -> "J";
+            case DOUBLE -> "D";
+            case STRING -> "Ljava/lang/String;";
+            case INT_LIST, DOUBLE_LIST -> "L" + verificationType(t) + ";";
+            case BIG -> throw new UnsupportedOperationException("BigInteger arithmetic");
+            case OBJECT, BOOLEAN_LIST, STRING_LIST, BIG_LIST, OBJECT_LIST -> throw new UnsupportedOperationException("Lists other than lists of ints and floats");
+        };
+    }
+
+    // --------------------- Variables --------------------- //
+
+    private int slot(String var) {
+        ValueType type = typeOf(var);
+        if (type == null) {
+            throw new UnsupportedOperationException("Variable " + var + " is never assigned");
+        }
+        return slot(javaVar(var), type);
+    }
+
+    // The slot of a Java variable, allocated on first use.
+    private int slot(String name, ValueType type) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = nextSlot;
+            nextSlot += ClassFileWriter.size(verificationType(type));
+            if (nextSlot > 0xFFFF) {
+                throw new ClassFileWriter.TooLargeException("Too many local variables");
+            }
+            slots.put(name, slot);
+            localTypes.add(type);
+            localNames.add(name);
+        }
+        return slot;
+    }
+
+    private ValueType typeOf(String var) {
+        return varTypes.computeIfAbsent(scoped(var), v -> inference.type(v, versions.getOrDefault(v, 0)));
+    }
+
+    private String javaVar(String var) {
+        return javaNames.computeIfAbsent(scoped(var), v -> inference.javaName(v, versions.getOrDefault(v, 0)));
+    }
+
+    // Inside a function, its variables are typed under their scoped names (see TypeInference).
+    private String scoped(String var) {
+        return function != null ? TypeInference.scoped(function.name(), var) : var;
+    }
+}
@@ -0,0 +1,740 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ClassFileWriter assembles a class file in memory: the constant pool, the class header and
+ * methods whose code is written through {@link Code}.
+ * <p>
+ * Code keeps track of the verification types on the operand stack while instructions are
+ * added, so it can write the StackMapTable frame that every branch target needs. The frames
+ * always list every local variable of the method, which {@link #addMethod} gets up front;
+ * code generated with this class initializes all locals before its first branch target.
+ * <p>
+ * Verification types are written as strings: "I" (also for booleans), "J", "D", or the
+ * internal name of a class (e.g. "java/lang/String", "[Ljava/lang/String;").
+ * <p>
+ * A method can have one exception handler, added by {@link Code#catchAll} after the rest of its
+ * code, which the locals are initialized for too.
+ */
+public class ClassFileWriter {
+
+    // Class file version 61 (Java 17), which requires stack map frames.
+    private static final int MAJOR_VERSION = 61;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    // Opcodes. Typed instructions are laid out as I, L, F, D, A, so the long or double variant is
+    // the int one plus typeOffset(type).
+    public static final int ACONST_NULL = 1, ICONST_M1 = 2, ICONST_0 = 3, LCONST_0 = 9, LCONST_1 = 10, DCONST_0 = 14, DCONST_1 = 15;
+    public static final int BIPUSH = 16, SIPUSH = 17, LDC = 18, LDC_W = 19, LDC2_W = 20;
+    public static final int ILOAD = 21, ISTORE = 54;
+    public static final int LALOAD = 47, DALOAD = 49, AALOAD = 50, BALOAD = 51;
+    public static final int LASTORE = 80, DASTORE = 82, AASTORE = 83, BASTORE = 84;
+    public static final int POP = 87, POP2 = 88;
+    public static final int IADD = 96, ISUB = 100, IMUL = 104, DDIV = 111, INEG = 116;
+    public static final int ISHL = 120, ISHR = 122, IAND = 126, IOR = 128, IXOR = 130, IINC = 132;
+    public static final int I2L = 133, I2D = 135, L2I = 136, L2D = 138, D2I = 142, D2L = 143;
+    public static final int LCMP = 148, DCMPL = 151, DCMPG = 152;
+    public static final int IFEQ = 153, IFNE = 154, IFLT = 155, IFGE = 156, IFGT = 157, IFLE = 158;
+    public static final int IF_ICMPEQ = 159, GOTO = 167, IRETURN = 172, RETURN = 177;
+    public static final int GETSTATIC = 178, PUTSTATIC = 179, INVOKEVIRTUAL = 182, INVOKESPECIAL = 183, INVOKESTATIC = 184;
+    public static final int NEW = 187, DUP = 89, ATHROW = 191, CHECKCAST = 192, WIDE = 196;
+
+    // Constant pool tags.
+    private static final int UTF8 = 1, INTEGER = 3, LONG = 5, DOUBLE = 6, CLASS = 7, STRING = 8;
+    private static final int FIELDREF = 9, METHODREF = 10, NAME_AND_TYPE = 12;
+
+    // Stack map frame and verification type tags.
+    private static final int FULL_FRAME = 255;
+    private static final int ITEM_INTEGER = 1, ITEM_DOUBLE = 3, ITEM_LONG = 4, ITEM_OBJECT = 7;
+
+    private final Bytes pool = new Bytes();
+    private final HashMap<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<byte[]> methods = new ArrayList<>();
+
+    // The SourceFile attribute, or null for none.
+    private String sourceFile;
+
+    /**
+     * Thrown when a method exceeds a limit of the class file format, e.g. a branch offset
+     * that does not fit in 16 bits.
+     */
+    public static class TooLargeException extends UnsupportedOperationException {
+
+        private static final long serialVersionUID = 1L;
+
+        public TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return The size of the type on the operand stack or in the local variables: 2 for long and double.
+     */
+    public static int size(String type) {
+        return "J".equals(type) || "D".equals(type) ? 2 : 1;
+    }
+
+    /**
+     * @return 0 for int, 1 for long, 3 for double and 4 for references: the distance from the
+     *         int variant of a typed instruction to the variant for the given type.
+     */
+    public static int typeOffset(String type) {
+        return switch (type) {
+            case "I" -> 0;
+            case "J" -> 1;
+            case "D" -> 3;
+            default -> 4;
+        };
+    }
+
+    // --------------------- Constant pool --------------------- //
+
+    private int constant(String key, Runnable write, int slots) {
+        Integer index = constants.get(key);
+        if (index == null) {
+            index = poolCount;
+            write.run();
+            poolCount += slots;
+            if (poolCount > 0xFFFF) {
+                throw new TooLargeException("Too many constants");
+            }
+            constants.put(key, index);
+        }
+        return index;
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, () -> pool.u1(UTF8).utf(value), 1);
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, () -> pool.u1(CLASS).u2(name), 1);
+    }
+
+    int string(String value) {
+        int utf = utf8(value);
+        return constant("S" + value, () -> pool.u1(STRING).u2(utf), 1);
+    }
+
+    int integer(int value) {
+        return constant("I" + value, () -> pool.u1(INTEGER).u4(value), 1);
+    }
+
+    int longConstant(long value) {
+        return constant("J" + value, () -> pool.u1(LONG).u4((int) (value >>> 32)).u4((int) value), 2);
+    }
+
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        return constant("D" + bits, () -> pool.u1(DOUBLE).u4((int) (bits >>> 32)).u4((int) bits), 2);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, () -> pool.u1(NAME_AND_TYPE).u2(n).u2(d), 1);
+    }
+
+    private int member(int tag, String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return constant(tag + owner + "." + name + ":" + descriptor, () -> pool.u1(tag).u2(c).u2(nt), 1);
+    }
+
+    // --------------------- Class --------------------- //
+
+    /**
+     * Adds a method.
+     * @param access     Access flags, e.g. ACC_PUBLIC | ACC_STATIC.
+     * @param locals     Verification types of all local variables in slot order, including the
+     *                   parameters; a long or double stands for its two slots.
+     * @param code       The method's code, which must not be changed any more.
+     */
+    public void addMethod(int access, String name, String descriptor, List<String> locals, Code code) {
+        if (code.pending > 0) {
+            throw new IllegalStateException("Jump to a label that was never placed");
+        }
+        int maxLocals = 0;
+        for (String t : locals) {
+            maxLocals += size(t);
+        }
+
+        // The StackMapTable: a full frame at every branch target.
+        Bytes table = new Bytes();
+        int previous = -1;
+        for (Map.Entry<Integer, List<String>> f : code.frames.entrySet()) {
+            table.u1(FULL_FRAME).u2(f.getKey() - previous - 1);
+            verificationTypes(table, locals);
+            verificationTypes(table, f.getValue());
+            previous = f.getKey();
+        }
+
+        Bytes attribute = new Bytes();
+        attribute.u2(code.maxStack).u2(maxLocals).u4(code.length).bytes(code.code, code.length);
+        if (code.handler < 0) {
+            attribute.u2(0); // no exception handlers
+        } else {
+            attribute.u2(1).u2(code.handlerStart).u2(code.handler).u2(code.handler).u2(classRef(code.handlerType));
+        }
+        attribute.u2((code.frames.isEmpty() ? 0 : 1) + (code.lineCount == 0 ? 0 : 1));
+        if (!code.frames.isEmpty()) {
+            attribute.u2(utf8("StackMapTable")).u4(table.length + 2).u2(code.frames.size()).bytes(table.buffer, table.length);
+        }
+        if (code.lineCount > 0) {
+            // The LineNumberTable: (start pc, line) pairs.
+            attribute.u2(utf8("LineNumberTable")).u4(2 + 4 * code.lineCount).u2(code.lineCount);
+            for (int i = 0; i < code.lineCount; i++) {
+                attribute.u2(code.lines[2 * i]).u2(code.lines[2 * i + 1]);
+            }
+        }
+
+        Bytes method = new Bytes();
+        method.u2(access).u2(utf8(name)).u2(utf8(descriptor)).u2(1);
+        method.u2(utf8("Code")).u4(attribute.length).bytes(attribute.buffer, attribute.length);
+        methods.add(method.toArray());
+    }
+
+    /**
+     * Adds a field without a constant value.
+     * @param access Access flags, e.g. ACC_PRIVATE | ACC_STATIC | ACC_FINAL.
+     */
+    public void addField(int access, String name, String descriptor) {
+        fields.add(new Bytes().u2(access).u2(utf8(name)).u2(utf8(descriptor)).u2(0).toArray());
+    }
+
+    private void verificationTypes(Bytes out, List<String> types) {
+        out.u2(types.size());
+        for (String t : types) {
+            switch (t) {
+                case "I" -> out.u1(ITEM_INTEGER);
+                case "J" -> out.u1(ITEM_LONG);
+                case "D" -> out.u1(ITEM_DOUBLE);
+                default -> out.u1(ITEM_OBJECT).u2(classRef(t));
+            }
+        }
+    }
+
+    /**
+     * Sets the name of the source file the class was compiled from, which stack traces show.
+     */
+    public void setSourceFile(String sourceFile) {
+        this.sourceFile = sourceFile;
+    }
+
+    /**
+     * @param className Internal name of the class.
+     * @param superName Internal name of its superclass.
+     * @return The class file of a public class with the fields and methods added so far.
+     */
+    public byte[] toByteArray(String className, String superName) {
+        int thisClass = classRef(className);
+        int superClass = classRef(superName);
+        // Constants of the class attributes, which have to be in the pool before it is written.
+        int sourceFileName = sourceFile == null ? 0 : utf8("SourceFile");
+        int sourceFileValue = sourceFile == null ? 0 : utf8(sourceFile);
+
+        Bytes out = new Bytes();
+        out.u4(0xCAFEBABE).u2(0).u2(MAJOR_VERSION);
+        out.u2(poolCount).bytes(pool.buffer, pool.length);
+        out.u2(ACC_PUBLIC | ACC_SUPER).u2(thisClass).u2(superClass);
+        out.u2(0); // interfaces
+        out.u2(fields.size());
+        for (byte[] f : fields) {
+            out.bytes(f, f.length);
+        }
+        out.u2(methods.size());
+        for (byte[] m : methods) {
+            out.bytes(m, m.length);
+        }
+        if (sourceFile == null) {
+            out.u2(0); // attributes
+        } else {
+            out.u2(1).u2(sourceFileName).u4(2).u2(sourceFileValue);
+        }
+        return out.toArray();
+    }
+
+    // --------------------- Code --------------------- //
+
+    /**
+     * A position in the code that jumps go to.
+     */
+    public static class Label {
+        private int offset = -1;
+        // Operand stack at the label, taken from the first jump to it or from the code falling into it.
+        private List<String> stack;
+        // Offsets of the jump instructions to it and of their 16-bit operands, while it is not placed.
+        private final List<int[]> fixups = new ArrayList<>();
+        private boolean targeted;
+    }
+
+    /**
+     * The instructions of one method. Instructions added while the code is unreachable (after a
+     * goto or return, before a label that something jumps to) are dropped.
+     */
+    public class Code {
+        private byte[] code = new byte[256];
+        private int length;
+        private final ArrayList<String> stack = new ArrayList<>();
+        private int depth;
+        private int maxStack;
+        private boolean reachable = true;
+        private int pending;
+        private final TreeMap<Integer, List<String>> frames = new TreeMap<>();
+        // LineNumberTable entries as (start pc, line) pairs.
+        private int[] lines = new int[16];
+        private int lineCount;
+        // The exception handler: the code it covers starts at handlerStart and ends where it
+        // starts, at handler (-1 for none).
+        private int handlerStart;
+        private int handler = -1;
+        private String handlerType;
+
+        /**
+         * @return False after an unconditional jump, until a label that is jumped to is placed.
+         */
+        public boolean reachable() {
+            return reachable;
+        }
+
+        /**
+         * Marks the code added from here on as compiled from the given source line.
+         */
+        public void line(int line) {
+            if (!reachable || line <= 0) return;
+            if (lineCount > 0 && lines[2 * lineCount - 1] == line) return;
+            if (lineCount > 0 && lines[2 * lineCount - 2] == length) {
+                // Nothing was added for the previous line.
+                lineCount--;
+            }
+            if (2 * lineCount + 2 > lines.length) {
+                lines = Arrays.copyOf(lines, lines.length * 2);
+            }
+            lines[2 * lineCount] = length;
+            lines[2 * lineCount + 1] = line;
+            lineCount++;
+        }
+
+        /**
+         * Adds an instruction without operands.
+         * @param pop  How many values it takes from the stack.
+         * @param push The type of the value it pushes, or null.
+         */
+        public void insn(int opcode, int pop, String push) {
+            if (!reachable) return;
+            u1(opcode);
+            pop(pop);
+            push(push);
+            if ((opcode >= IRETURN && opcode <= RETURN) || opcode == ATHROW) {
+                reachable = false;
+            }
+        }
+
+        public void intConstant(int value) {
+            if (!reachable) return;
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_0 + value);
+            } else if (value == (byte) value) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value == (short) value) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                ldc(integer(value));
+            }
+            push("I");
+        }
+
+        public void longConstant(long value) {
+            if (!reachable) return;
+            if (value == 0 || value == 1) {
+                u1(LCONST_0 + (int) value);
+            } else {
+                u1(LDC2_W);
+                u2(ClassFileWriter.this.longConstant(value));
+            }
+            push("J");
+        }
+
+        public void doubleConstant(double value) {
+            if (!reachable) return;
+            // 0.0 and 1.0, but not -0.0.
+            if (Double.doubleToRawLongBits(value) == 0 || value == 1.0) {
+                u1(DCONST_0 + (int) value);
+            } else {
+                u1(LDC2_W);
+                u2(ClassFileWriter.this.doubleConstant(value));
+            }
+            push("D");
+        }
+
+        public void stringConstant(String value) {
+            if (!reachable) return;
+            ldc(string(value));
+            push("java/lang/String");
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xFF) {
+                u1(LDC);
+                u1(index);
+            } else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+
+        /**
+         * Loads a local variable of the given type.
+         */
+        public void load(String type, int slot) {
+            if (!reachable) return;
+            local(ILOAD + typeOffset(type), slot);
+            push(type);
+        }
+
+        /**
+         * Stores the value on top of the stack into a local variable of the given type.
+         */
+        public void store(String type, int slot) {
+            if (!reachable) return;
+            local(ISTORE + typeOffset(type), slot);
+            pop(1);
+        }
+
+        private void local(int opcode, int slot) {
+            if (slot > 0xFF) {
+                u1(WIDE);
+                u1(opcode);
+                u2(slot);
+            } else {
+                u1(opcode);
+                u1(slot);
+            }
+        }
+
+        /**
+         * Adds a constant to an int local variable.
+         */
+        public void iinc(int slot, int delta) {
+            if (!reachable) return;
+            if (slot > 0xFF || delta != (byte) delta) {
+                u1(WIDE);
+                u1(IINC);
+                u2(slot);
+                u2(delta);
+            } else {
+                u1(IINC);
+                u1(slot);
+                u1(delta);
+            }
+        }
+
+        public void getStatic(String owner, String name, String descriptor) {
+            if (!reachable) return;
+            u1(GETSTATIC);
+            u2(member(FIELDREF, owner, name, descriptor));
+            push(type(descriptor, 0));
+        }
+
+        /**
+         * Adds an INVOKESTATIC, INVOKEVIRTUAL or INVOKESPECIAL of a class method.
+         */
+        public void invoke(int opcode, String owner, String name, String descriptor) {
+            if (!reachable) return;
+            u1(opcode);
+            u2(member(METHODREF, owner, name, descriptor));
+            int close = descriptor.indexOf(')');
+            int arguments = 0;
+            for (int i = 1; i < close; i = next(descriptor, i)) {
+                arguments++;
+            }
+            pop(opcode == INVOKESTATIC ? arguments : arguments + 1);
+            if (descriptor.charAt(close + 1) != 'V') {
+                push(type(descriptor, close + 1));
+            }
+        }
+
+        public void putStatic(String owner, String name, String descriptor) {
+            if (!reachable) return;
+            u1(PUTSTATIC);
+            u2(member(FIELDREF, owner, name, descriptor));
+            pop(1);
+        }
+
+        /**
+         * Casts the reference on top of the stack to the given class.
+         */
+        public void checkcast(String className) {
+            if (!reachable) return;
+            u1(CHECKCAST);
+            u2(classRef(className));
+            pop(1);
+            push(className);
+        }
+
+        /**
+         * Creates an object with the constructor that takes no arguments.
+         */
+        public void newInstance(String className) {
+            if (!reachable) return;
+            // The uninitialized object never reaches a branch target, so it is not tracked.
+            u1(NEW);
+            u2(classRef(className));
+            u1(DUP);
+            u1(INVOKESPECIAL);
+            u2(member(METHODREF, className, "<init>", "()V"));
+            push(className);
+            maxStack = Math.max(maxStack, depth + 1);
+        }
+
+        /**
+         * Creates an object with a constructor that takes arguments: push them, then call
+         * invoke(INVOKESPECIAL, className, "&lt;init&gt;", descriptor), which leaves the object.
+         */
+        public void newObject(String className) {
+            if (!reachable) return;
+            // As in newInstance, the uninitialized object never reaches a branch target.
+            u1(NEW);
+            u2(classRef(className));
+            u1(DUP);
+            push(className);
+            push(className);
+        }
+
+        /**
+         * Adds a conditional jump or GOTO.
+         */
+        public void jump(int opcode, Label target) {
+            if (!reachable) return;
+            int at = length;
+            u1(opcode);
+            u2(0);
+            pop(opcode == GOTO ? 0 : opcode >= IF_ICMPEQ ? 2 : 1);
+            if (target.stack == null) {
+                target.stack = List.copyOf(stack);
+            }
+            target.targeted = true;
+            if (target.offset >= 0) {
+                patch(at, target.offset);
+                frames.put(target.offset, target.stack);
+            } else {
+                if (target.fixups.isEmpty()) pending++;
+                target.fixups.add(new int[]{at});
+            }
+            if (opcode == GOTO) {
+                reachable = false;
+            }
+        }
+
+        /**
+         * Places a label at the current end of the code.
+         */
+        public void place(Label label) {
+            label.offset = length;
+            if (reachable) {
+                if (label.stack == null) {
+                    label.stack = List.copyOf(stack);
+                }
+            } else if (label.stack != null) {
+                // Only reachable through jumps: continue with the stack they had.
+                stack.clear();
+                stack.addAll(label.stack);
+                depth = 0;
+                for (String t : stack) depth += size(t);
+                reachable = true;
+            }
+            if (label.targeted) {
+                frames.put(label.offset, label.stack);
+            }
+            if (!label.fixups.isEmpty()) {
+                pending--;
+                for (int[] f : label.fixups) {
+                    patch(f[0], label.offset);
+                }
+                label.fixups.clear();
+            }
+        }
+
+        /**
+         * Starts an exception handler for the code so far, which it is given with the exception
+         * of the given class on the stack. Code prepended later is not covered.
+         * @param exceptionClass Internal name of the class of exceptions caught.
+         */
+        public void catchAll(String exceptionClass) {
+            if (handler >= 0) {
+                throw new IllegalStateException("A method has one exception handler");
+            }
+            if (length == 0) {
+                throw new IllegalStateException("No code to cover");
+            }
+            handler = length;
+            handlerType = exceptionClass;
+            stack.clear();
+            depth = 0;
+            reachable = true;
+            push(exceptionClass);
+            frames.put(handler, List.copyOf(stack));
+        }
+
+        /**
+         * Puts the given straight-line code in front of this code. Jumps are relative, so only
+         * the frame offsets move.
+         */
+        public void prepend(Code prologue) {
+            if (!prologue.frames.isEmpty() || prologue.pending > 0) {
+                throw new IllegalArgumentException("The prologue must not contain branches");
+            }
+            byte[] joined = Arrays.copyOf(prologue.code, prologue.length + length);
+            System.arraycopy(code, 0, joined, prologue.length, length);
+            TreeMap<Integer, List<String>> moved = new TreeMap<>();
+            for (Map.Entry<Integer, List<String>> f : frames.entrySet()) {
+                moved.put(f.getKey() + prologue.length, f.getValue());
+            }
+            frames.clear();
+            frames.putAll(moved);
+            for (int i = 0; i < lineCount; i++) {
+                lines[2 * i] += prologue.length;
+            }
+            if (handler >= 0) {
+                handlerStart += prologue.length;
+                handler += prologue.length;
+            }
+            code = joined;
+            length = joined.length;
+            maxStack = Math.max(maxStack, prologue.maxStack);
+            if (length > 0xFFFF) {
+                throw new TooLargeException("Method code too large");
+            }
+        }
+
+        private void patch(int at, int target) {
+            int offset = target - at;
+            if (offset != (short) offset) {
+                throw new TooLargeException("Branch offset too large");
+            }
+            code[at + 1] = (byte) (offset >> 8);
+            code[at + 2] = (byte) offset;
+        }
+
+        private void pop(int count) {
+            for (int i = 0; i < count; i++) {
+                depth -= size(stack.removeLast());
+            }
+        }
+
+        private void push(String type) {
+            if (type == null) return;
+            stack.add(type);
+            depth += size(type);
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        private void u1(int value) {
+            if (length + 3 > code.length) {
+                if (code.length >= 0x10000) {
+                    throw new TooLargeException("Method code too large");
+                }
+                code = Arrays.copyOf(code, code.length * 2);
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+    }
+
+    /**
+     * @return The verification type of the field descriptor starting at index i.
+     */
+    private static String type(String descriptor, int i) {
+        return switch (descriptor.charAt(i)) {
+            case 'Z', 'B', 'C', 'S', 'I' -> "I";
+            case 'J' -> "J";
+            case 'D' -> "D";
+            case 'F' -> "F";
+            case 'L' -> descriptor.substring(i + 1, descriptor.indexOf(';', i));
+            default -> descriptor.substring(i, next(descriptor, i));
+        };
+    }
+
+    /**
+     * @return The index just after the field descriptor starting at index i.
+     */
+    private static int next(String descriptor, int i) {
+        while (descriptor.charAt(i) == '[') i++;
+        return descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+    }
+
+    /**
+     * A growable byte array with big-endian writers.
+     */
+    private static class Bytes {
+        private byte[] buffer = new byte[64];
+        private int length;
+
+        Bytes u1(int value) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) value;
+            return this;
+        }
+
+        Bytes u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        Bytes u4(int value) {
+            return u2(value >> 16).u2(value);
+        }
+
+        Bytes bytes(byte[] b, int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+            System.arraycopy(b, 0, buffer, length, count);
+            length += count;
+            return this;
+        }
+
+        // A CONSTANT_Utf8 value: its length, then the string in modified UTF-8.
+        Bytes utf(String s) {
+            Bytes encoded = new Bytes();
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c >= 0x01 && c <= 0x7F) {
+                    encoded.u1(c);
+                } else if (c <= 0x7FF) {
+                    encoded.u1(0xC0 | (c >> 6)).u1(0x80 | (c & 0x3F));
+                } else {
+                    encoded.u1(0xE0 | (c >> 12)).u1(0x80 | ((c >> 6) & 0x3F)).u1(0x80 | (c & 0x3F));
+                }
+            }
+            if (encoded.length > 0xFFFF) {
+                throw new TooLargeException("String constant too long");
+            }
+            return u2(encoded.length).bytes(encoded.buffer, encoded.length);
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+}
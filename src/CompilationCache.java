@@ -0,0 +1,237 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CompilationCache stores the bytecode of already translated scripts, keyed by a hash
+ * of the Python source and the translator version. A hit lets the caller skip lexing,
+ * conversion and javac and go straight to class definition.
+ * <p>
+ * The memory tier is an LRU map bounded by the total number of bytecode bytes.
+ * An optional disk tier keeps entries under a cache directory between runs.
+ * <p>
+ * A lock guards the memory tier only. Files are read and written without it, so a thread
+ * waiting for the disk does not hold up lookups in memory, and a virtual thread is not pinned
+ * to its carrier while it waits. A disk entry is written to a temporary file and moved into
+ * place, so a reader sees either the whole entry or none.
+ */
+public class CompilationCache {
+
+    private final long maxBytes;
+    private final Path diskDir;
+
+    // Access-ordered map, so iteration starts at the least recently used entry. Both guarded by lock.
+    private final LinkedHashMap<String, CompiledScript> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxBytes Upper bound on the bytecode bytes kept in memory.
+     * @param diskDir  Directory for the on-disk tier, or null to keep the cache in memory only.
+     */
+    public CompilationCache(long maxBytes, Path diskDir) {
+        this.maxBytes = maxBytes;
+        this.diskDir = diskDir;
+    }
+
+    /**
+     * Computes the cache key of a script: SHA-256 over the translator version and the source.
+     * @param pythonSource The raw Python source.
+     * @return The key as a lowercase hex string.
+     */
+    public static String key(String pythonSource) {
+        return key(pythonSource, "");
+    }
+
+    /**
+     * Computes the cache key of a script translated with non-default options.
+     * @param pythonSource The raw Python source.
+     * @param options      The translation options that affect the generated code, e.g. the arithmetic mode.
+     * @return The key as a lowercase hex string.
+     */
+    public static String key(String pythonSource, String options) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("v" + PythonToJavaConverter.VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update((options + "\n").getBytes(StandardCharsets.UTF_8));
+            digest.update(pythonSource.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK is required to provide SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks a script up, first in memory and then on disk.
+     * @param key The key returned by {@link #key(String)}.
+     * @return The cached script, or null on a miss.
+     */
+    public CompiledScript get(String key) {
+        CompiledScript script;
+        lock.lock();
+        try {
+            script = memory.get(key);
+        } finally {
+            lock.unlock();
+        }
+        if (script != null) {
+            hits.incrementAndGet();
+            return script;
+        }
+
+        script = readFromDisk(key);
+        if (script != null) {
+            diskHits.incrementAndGet();
+            lock.lock();
+            try {
+                // Another thread may have put the script in memory while this one read the disk.
+                CompiledScript current = memory.get(key);
+                if (current != null) {
+                    return current;
+                }
+                putInMemory(key, script);
+            } finally {
+                lock.unlock();
+            }
+            return script;
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a freshly compiled script in memory and, if enabled, on disk.
+     */
+    public void put(String key, CompiledScript script) {
+        lock.lock();
+        try {
+            putInMemory(key, script);
+        } finally {
+            lock.unlock();
+        }
+        writeToDisk(key, script);
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long diskHits() {
+        return diskHits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "CompilationCache{hits=" + hits + ", diskHits=" + diskHits + ", misses=" + misses
+                    + ", evictions=" + evictions + ", entries=" + memory.size() + ", bytes=" + memoryBytes + "}";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // --------------------- Memory tier --------------------- //
+
+    // Called with lock held.
+    private void putInMemory(String key, CompiledScript script) {
+        CompiledScript old = memory.put(key, script);
+        if (old != null) {
+            memoryBytes -= old.byteSize();
+        }
+        memoryBytes += script.byteSize();
+
+        // Drop least recently used entries until we are back under the bound.
+        // The newest entry is always kept, even if it alone is larger than the bound.
+        Iterator<Map.Entry<String, CompiledScript>> it = memory.entrySet().iterator();
+        while (memoryBytes > maxBytes && memory.size() > 1) {
+            Map.Entry<String, CompiledScript> eldest = it.next();
+            memoryBytes -= eldest.getValue().byteSize();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // --------------------- Disk tier --------------------- //
+
+    /**
+     * Entry layout: main class name, class count, then (name, length, bytes) per class.
+     */
+    private void writeToDisk(String key, CompiledScript script) {
+        if (diskDir == null) return;
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeUTF(script.className);
+            out.writeInt(script.classes.size());
+            for (Map.Entry<String, byte[]> e : script.classes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+            out.flush();
+
+            // Write to a temporary file first so readers never see a half-written entry.
+            Files.createDirectories(diskDir);
+            Path tmp = Files.createTempFile(diskDir, key, ".tmp");
+            Files.write(tmp, buffer.toByteArray());
+            Files.move(tmp, diskDir.resolve(key + ".bin"),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error writing cache entry: " + e.getMessage());
+        }
+    }
+
+    private CompiledScript readFromDisk(String key) {
+        if (diskDir == null) return null;
+        Path file = diskDir.resolve(key + ".bin");
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)));
+            String className = in.readUTF();
+            int count = in.readInt();
+            Map<String, byte[]> classes = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                classes.put(name, bytes);
+            }
+            return new CompiledScript(className, classes);
+        } catch (IOException e) {
+            // A corrupt entry is treated as a miss; it will be overwritten by the next put.
+            System.err.println("Error reading cache entry: " + e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+/**
+ * CompiledScript holds the bytecode produced for one translated Python script:
+ * the name of its main class and the bytes of every class the compiler emitted.
+ * <p>
+ * The class is defined as a hidden class (MethodHandles.Lookup.defineHiddenClass), which belongs
+ * to no class loader and is unloaded once nothing refers to it, and main() is called through a
+ * MethodHandle. A class without static fields has no state that outlives a run, so it is defined
+ * once and its handle is reused by every later run, also by runs in other threads. A class with
+ * static fields (the memo tables of @lru_cache functions) starts every run from a new definition.
+ * <p>
+ * The JVM leaves the frames of hidden classes out of stack traces, and with them the Python lines
+ * of translated code (see {@link SourceMap}). When those are wanted, for the profiler or with
+ * -Dtranslator.visibleFrames=true, the classes are defined instead by a class loader of their own,
+ * which is unloaded with them. Otherwise the line of an error is the one the translated code kept
+ * in its line$ local, which its handler puts on the stack trace (see {@link #errorLine}).
+ */
+public class CompiledScript {
+
+    private static final MethodType MAIN = MethodType.methodType(void.class, String[].class);
+
+    static final boolean VISIBLE_FRAMES = Main.PROFILE || Boolean.getBoolean("translator.visibleFrames");
+
+    public final String className;
+    public final Map<String, byte[]> classes;
+
+    // Handle of main() of the shared definition, once defined; null if there is none (yet).
+    private volatile MethodHandle main;
+
+    /**
+     * @param className The binary name of the class that holds main().
+     * @param classes   Map from binary class name to bytecode.
+     */
+    public CompiledScript(String className, Map<String, byte[]> classes) {
+        this.className = className;
+        this.classes = classes;
+    }
+
+    /**
+     * @return The total number of bytecode bytes held by this script.
+     */
+    public long byteSize() {
+        long size = 0;
+        for (byte[] b : classes.values()) {
+            size += b.length;
+        }
+        return size;
+    }
+
+    /**
+     * @return A handle of the script's public static void main(String[]), for invokeExact(String[]).
+     * @throws ReflectiveOperationException If the class cannot be defined or has no main().
+     */
+    public MethodHandle entryPoint() throws ReflectiveOperationException {
+        MethodHandle handle = main;
+        if (handle != null) {
+            return handle;
+        }
+        Class<?> cls;
+        if (VISIBLE_FRAMES) {
+            cls = Class.forName(className, true, new ScriptLoader(classes));
+        } else {
+            // A hidden class cannot be named by other classes, so there must be no nested classes.
+            if (classes.size() != 1) {
+                throw new ClassFormatError(className + " has nested classes: " + classes.keySet());
+            }
+            cls = MethodHandles.lookup().defineHiddenClass(classes.get(className), true).lookupClass();
+        }
+        handle = MethodHandles.publicLookup().findStatic(cls, "main", MAIN);
+        if (isStateless(cls)) {
+            // Two threads may both get here first; each runs its own definition and one is kept.
+            main = handle;
+        }
+        return handle;
+    }
+
+    /**
+     * Finds the Python line that an error of a run of this script came from. Every method of the
+     * script keeps the line it runs in a local, line$, and puts it on the stack trace of an error
+     * it throws, so this needs no frame of the script, which a hidden class does not have.
+     * @param e The error that stopped the run.
+     * @return The line, or 0 if it is not known.
+     */
+    public int errorLine(Throwable e) {
+        return SourceMap.pythonLine(e);
+    }
+
+    /**
+     * Defines the classes of one script, for {@link #VISIBLE_FRAMES}, or a loop the interpreter
+     * compiles. Unlike a hidden class, a class it defines keeps its frames in stack traces.
+     */
+    static final class ScriptLoader extends ClassLoader {
+
+        private final Map<String, byte[]> classes;
+
+        ScriptLoader(Map<String, byte[]> classes) {
+            super(CompiledScript.class.getClassLoader());
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static boolean isStateless(Class<?> cls) {
+        for (Field f : cls.getDeclaredFields()) {
+            if (Modifier.isStatic(f.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
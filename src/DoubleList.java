@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * DoubleList is a Python list of floats, kept in a growable double array. The translator uses it
+ * for every list whose elements are all numbers and at least one of them a float, as in Python
+ * arithmetic an int mixed with floats becomes a float (see {@link IntList}).
+ */
+public final class DoubleList extends PySequence {
+
+    private static final double[] EMPTY = {};
+
+    private double[] data;
+
+    public DoubleList() {
+        data = EMPTY;
+    }
+
+    private DoubleList(double[] data, int size) {
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * @return A list holding the given values, for a list literal such as [1.5, 2, 3].
+     */
+    public static DoubleList of(double... values) {
+        return new DoubleList(values, values.length);
+    }
+
+    /**
+     * @return A list of floats with the values of a list of ints that is used as a list of floats.
+     */
+    public static DoubleList copyOf(IntList list) {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i);
+        }
+        return of(values);
+    }
+
+    /**
+     * @return A list of the floats 0.0 and 1.0 for the bools of a list that is used as a list of floats.
+     */
+    public static DoubleList copyOf(BooleanList list) {
+        double[] values = new double[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i) ? 1 : 0;
+        }
+        return of(values);
+    }
+
+    @Override
+    protected Object boxed(int i) {
+        return data[i];
+    }
+
+    public double get(long index) {
+        return data[index(index)];
+    }
+
+    public void set(long index, double value) {
+        data[index(index)] = value;
+    }
+
+    public void append(double value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, grown(size));
+        }
+        data[size++] = value;
+    }
+
+    public boolean contains(double value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The slice [start:stop:step] as a new list; an omitted bound is {@link #NONE}.
+     */
+    public DoubleList slice(long start, long stop, long step) {
+        int first = sliceStart(start, step);
+        double[] values = new double[sliceLength(first, stop, step)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data[(int) (first + i * step)];
+        }
+        return of(values);
+    }
+
+    /**
+     * @return A new list with the elements of this list followed by those of other (Python's +).
+     */
+    public DoubleList concat(DoubleList other) {
+        double[] values = Arrays.copyOf(data, size + other.size);
+        System.arraycopy(other.data, 0, values, size, other.size);
+        return of(values);
+    }
+
+    /**
+     * @return A new list with the elements of this list n times over (Python's *).
+     */
+    public DoubleList repeat(long n) {
+        double[] values = new double[repeatedSize(n)];
+        for (int i = 0; i < values.length; i += size) {
+            System.arraycopy(data, 0, values, i, size);
+        }
+        return of(values);
+    }
+
+    public double min() {
+        double result = data[first("min")];
+        for (int i = 1; i < size; i++) {
+            result = data[i] < result ? data[i] : result;
+        }
+        return result;
+    }
+
+    public double max() {
+        double result = data[first("max")];
+        for (int i = 1; i < size; i++) {
+            result = data[i] > result ? data[i] : result;
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        // Compared with ==, as in Python: 0.0 equals -0.0 and NaN equals nothing.
+        if (!(o instanceof DoubleList other) || other.size != size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (data[i] != other.data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + Double.hashCode(data[i] == 0 ? 0.0 : data[i]);
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(PyPrint.str(data[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,111 @@
+import java.util.List;
+
+/**
+ * Expr is the small expression AST built by {@link ExpressionParser}.
+ * Each Python expression is parsed once into these nodes, and Java code is emitted from them.
+ */
+public sealed interface Expr {
+
+    /**
+     * A numeric literal, kept as written in the source (e.g. "10", "3.5e2").
+     */
+    record Num(String text, boolean isFloat) implements Expr {
+    }
+
+    /**
+     * A string literal, holding its decoded value (without quotes or escapes).
+     */
+    record Str(String value) implements Expr {
+    }
+
+    /**
+     * True or False.
+     */
+    record Bool(boolean value) implements Expr {
+    }
+
+    /**
+     * A variable reference.
+     */
+    record Name(String id) implements Expr {
+    }
+
+    /**
+     * A prefix operation: "-", "+", "~" or "not".
+     */
+    record Unary(String op, Expr operand) implements Expr {
+    }
+
+    /**
+     * An arithmetic or bitwise operation such as "+", "//" or "**".
+     */
+    record Binary(String op, Expr left, Expr right) implements Expr {
+    }
+
+    /**
+     * A short-circuit "and" / "or".
+     */
+    record BoolOp(String op, Expr left, Expr right) implements Expr {
+    }
+
+    /**
+     * A comparison chain: a < b <= c has ops ["<", "<="] and operands [a, b, c].
+     */
+    record Compare(List<String> ops, List<Expr> operands) implements Expr {
+    }
+
+    /**
+     * A call of a named function, e.g. int(x) or abs(y). Keyword arguments come last in args.
+     */
+    record Call(String func, List<Expr> args) implements Expr {
+
+        /**
+         * @return The arguments passed by position.
+         */
+        public List<Expr> positional() {
+            return args.stream().filter(a -> !(a instanceof Keyword)).toList();
+        }
+
+        /**
+         * @return The value of the keyword argument with the given name, or null if there is none.
+         */
+        public Expr keyword(String name) {
+            for (Expr a : args) {
+                if (a instanceof Keyword k && k.name().equals(name)) {
+                    return k.value();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A list display, e.g. [1, 2, 3].
+     */
+    record ListLiteral(List<Expr> elements) implements Expr {
+    }
+
+    /**
+     * A subscription: target[index].
+     */
+    record Index(Expr target, Expr index) implements Expr {
+    }
+
+    /**
+     * A slice: target[lower:upper:step]. Omitted parts are null.
+     */
+    record Slice(Expr target, Expr lower, Expr upper, Expr step) implements Expr {
+    }
+
+    /**
+     * A method call such as lst.append(x).
+     */
+    record Method(Expr target, String name, List<Expr> args) implements Expr {
+    }
+
+    /**
+     * A keyword argument of a call, e.g. end="" in print(x, end=""). It only appears in Call.args.
+     */
+    record Keyword(String name, Expr value) implements Expr {
+    }
+}
@@ -0,0 +1,963 @@
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * ExprEmitter turns an {@link Expr} tree into Java source. It knows the static type of
+ * every sub-expression, so Python semantics that depend on types (floor division, power,
+ * truthiness, string comparison) are emitted correctly, and it only adds the parentheses
+ * that Java's operator precedence actually needs.
+ * <p>
+ * Lists are emitted as calls on the list runtime (IntList, DoubleList, BooleanList, PyList):
+ * lst[i] is lst.get(i), lst[1:] is lst.slice(1, PySequence.NONE, 1), len(lst) is lst.size().
+ */
+public class ExprEmitter {
+
+    // Java operator precedence, from loosest to tightest.
+    private static final int LOGICAL_OR = 4;
+    private static final int LOGICAL_AND = 5;
+    private static final int BIT_OR = 6;
+    private static final int BIT_XOR = 7;
+    private static final int BIT_AND = 8;
+    private static final int EQUALITY = 9;
+    private static final int RELATIONAL = 10;
+    private static final int SHIFT = 11;
+    private static final int ADDITIVE = 12;
+    private static final int MULTIPLICATIVE = 13;
+    private static final int UNARY = 14;
+    private static final int PRIMARY = 16;
+
+    // Python identifiers that cannot be used as Java identifiers.
+    private static final Set<String> JAVA_RESERVED = Set.of(
+            "abstract", "boolean", "byte", "case", "catch", "char", "const", "default", "do",
+            "double", "enum", "extends", "final", "float", "goto", "implements", "instanceof",
+            "int", "interface", "long", "native", "new", "package", "private", "protected",
+            "public", "short", "static", "strictfp", "super", "switch", "synchronized", "this",
+            "throw", "throws", "transient", "void", "volatile", "var", "record", "yield",
+            "null", "true", "false", "String", "Math", "System");
+
+    // Looks up the declared type of a variable.
+    private final Function<String, ValueType> varType;
+
+    // Maps a Python variable to the Java variable currently holding it.
+    private final Function<String, String> varName;
+
+    // Whether integer arithmetic is emitted as overflow-checked long arithmetic (see PyMath).
+    private final boolean exact;
+
+    // The functions the script defines, or null if it defines none.
+    private Functions functions;
+
+    // While emitting an assignment: the Python variable assigned, named by overflow sites.
+    private String target;
+
+    // While emitting a value for a BigInteger variable: integer arithmetic is done in BigIntegers.
+    private boolean bigContext;
+
+    // Variables and expressions that overflowed in an earlier run (see expressionSite).
+    private Set<String> promoted = Set.of();
+
+    /**
+     * @param varType Returns the type of a variable, or null if it is unknown.
+     */
+    public ExprEmitter(Function<String, ValueType> varType) {
+        this(varType, ExprEmitter::javaName, false);
+    }
+
+    /**
+     * @param varType Returns the type of a variable, or null if it is unknown.
+     * @param varName Returns the Java name of a variable at the current point of the script.
+     * @param exact   True to emit integers as longs with overflow-checked arithmetic, false to use
+     *                plain (wrapping) int and long arithmetic.
+     */
+    public ExprEmitter(Function<String, ValueType> varType, Function<String, String> varName, boolean exact) {
+        this.varType = varType;
+        this.varName = varName;
+        this.exact = exact;
+    }
+
+    /**
+     * The signatures of the functions a script defines (see {@link TypeInference}).
+     */
+    public interface Functions {
+
+        /**
+         * @return The types of the function's parameters, or null if the script defines no such function.
+         */
+        List<ValueType> parameterTypes(String function);
+
+        /**
+         * @return The type the function returns.
+         * @throws IllegalArgumentException If the function does not return a value.
+         */
+        ValueType returnType(String function);
+    }
+
+    /**
+     * Makes calls of the script's own functions typed by their signatures, and their arguments
+     * converted to the parameter types.
+     * @return this, for chaining.
+     */
+    public ExprEmitter setFunctions(Functions functions) {
+        this.functions = functions;
+        return this;
+    }
+
+    /**
+     * Has the expressions named by an earlier overflow computed in BigIntegers: an overflow outside
+     * an assignment, e.g. in print(2 ** 70), names the expression itself ({@link #expressionSite}).
+     * @param promoted The variables and expression sites that overflowed.
+     * @return this, for chaining.
+     */
+    public ExprEmitter setPromoted(Set<String> promoted) {
+        this.promoted = promoted;
+        return this;
+    }
+
+    /**
+     * A piece of emitted Java code together with the precedence of its outermost operator.
+     */
+    private record Code(String text, int precedence) {
+    }
+
+    /**
+     * @return Java source for the expression.
+     */
+    public String emit(Expr e) {
+        return code(e).text;
+    }
+
+    /**
+     * @return Java source for the expression as a boolean condition, applying Python truthiness.
+     */
+    public String condition(Expr e) {
+        return truthy(e).text;
+    }
+
+    /**
+     * @return Java source for the expression converted to the given variable type.
+     */
+    public String emitAs(Expr e, ValueType target) {
+        // A value stored in a BigInteger is computed in BigIntegers, so it cannot overflow on the way.
+        bigContext = target == ValueType.BIG;
+        try {
+            return as(e, target).text;
+        } finally {
+            bigContext = false;
+        }
+    }
+
+    /**
+     * @return Java source for the value assigned to var, converted to the variable's type.
+     *         Overflow checks in the value name var as one of the variables to promote.
+     */
+    public String emitAssignment(String var, Expr e, ValueType type) {
+        target = var;
+        try {
+            return emitAs(e, type);
+        } finally {
+            target = null;
+        }
+    }
+
+    /**
+     * @return Java source for list[index] = value, storing into a list variable. Overflow checks
+     *         in the value name the list as the variable to promote.
+     */
+    public String emitStore(String list, Expr index, Expr value) {
+        ValueType t = list(new Expr.Name(list));
+        String i = index(index);
+        return varName.apply(list) + ".set(" + i + ", " + emitAssignment(list, value, t.elementType()) + ")";
+    }
+
+    /**
+     * Maps a Python identifier to a legal Java identifier.
+     */
+    public static String javaName(String id) {
+        return JAVA_RESERVED.contains(id) ? id + "_" : id;
+    }
+
+    // --------------------- Types --------------------- //
+
+    /**
+     * @return The static type of the expression.
+     */
+    public ValueType typeOf(Expr e) {
+        return switch (e) {
+            case Expr.Num n -> n.isFloat() ? ValueType.DOUBLE : integerLiteralType(n.text());
+            case Expr.Str s -> ValueType.STRING;
+            case Expr.Bool b -> ValueType.BOOLEAN;
+            case Expr.Name n -> {
+                ValueType t = varType.apply(n.id());
+                yield t != null ? t : ValueType.INT;
+            }
+            case Expr.Unary u -> "not".equals(u.op()) ? ValueType.BOOLEAN : promoted(u, arithmetic(numeric(typeOf(u.operand()))));
+            case Expr.Binary b -> promoted(b, binaryType(b));
+            case Expr.BoolOp b -> boolOpType(b);
+            case Expr.Compare c -> ValueType.BOOLEAN;
+            case Expr.Call c -> callType(c);
+            case Expr.Keyword k -> typeOf(k.value());
+            case Expr.ListLiteral l -> {
+                ValueType element = null;
+                for (Expr x : l.elements()) {
+                    element = ValueType.joinElements(element, typeOf(x));
+                }
+                yield ValueType.listOf(element != null ? element : ValueType.INT);
+            }
+            case Expr.Index i -> list(i.target()).elementType();
+            case Expr.Slice l -> list(l.target());
+            case Expr.Method m -> throw new IllegalArgumentException(m.name() + "() does not return a value");
+        };
+    }
+
+    // Python's 'and' and 'or' give one of their operands, so only bool operands give a bool.
+    // Conditions only need the truth value, and emit the operands of any type through truthy().
+    private ValueType boolOpType(Expr.BoolOp b) {
+        ValueType l = typeOf(b.left());
+        ValueType r = typeOf(b.right());
+        if (l != ValueType.BOOLEAN || r != ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("'" + b.op() + "' of " + l.pythonName() + " and " + r.pythonName()
+                    + " values is only supported in conditions");
+        }
+        return ValueType.BOOLEAN;
+    }
+
+    // An integer operation that overflowed in an earlier run is done in BigIntegers.
+    private ValueType promoted(Expr e, ValueType t) {
+        if (t.isIntegral() && t != ValueType.BIG && !promoted.isEmpty() && promoted.contains(expressionSite(e))) {
+            return ValueType.BIG;
+        }
+        return t;
+    }
+
+    // The type of an expression that has to be a list.
+    private ValueType list(Expr e) {
+        ValueType t = typeOf(e);
+        if (!t.isList()) {
+            throw new IllegalArgumentException("'" + t.pythonName() + "' object is not a list");
+        }
+        return t;
+    }
+
+    private ValueType binaryType(Expr.Binary b) {
+        ValueType l = typeOf(b.left());
+        ValueType r = typeOf(b.right());
+        if (l.isList() || r.isList()) {
+            // lst + lst concatenates, lst * n repeats.
+            if ("+".equals(b.op()) && l.isList() && r.isList()) return ValueType.join(l, r);
+            if ("*".equals(b.op()) && l.isList() && (r.isIntegral() || r == ValueType.BOOLEAN)) return l;
+            if ("*".equals(b.op()) && r.isList() && (l.isIntegral() || l == ValueType.BOOLEAN)) return r;
+            throw new IllegalArgumentException("Unsupported operand types for " + b.op() + ": "
+                    + l.pythonName() + " and " + r.pythonName());
+        }
+        if ("+".equals(b.op()) && (l == ValueType.STRING || r == ValueType.STRING)) return ValueType.STRING;
+        if ("*".equals(b.op()) && (l == ValueType.STRING || r == ValueType.STRING)) return ValueType.STRING;
+        return switch (b.op()) {
+            case "&", "|", "^" -> (l == ValueType.BOOLEAN && r == ValueType.BOOLEAN)
+                    ? ValueType.BOOLEAN : arithmetic(ValueType.promote(numeric(l), numeric(r)));
+            case "<<", ">>" -> arithmetic(numeric(l));
+            // Python's '/' is true division: the result is a float even for two ints.
+            case "/" -> ValueType.DOUBLE;
+            // So is a power with a negative exponent: 2 ** -1 is 0.5.
+            case "**" -> negativeConstant(b.right()) ? ValueType.DOUBLE : arithmetic(ValueType.promote(numeric(l), numeric(r)));
+            default -> arithmetic(ValueType.promote(numeric(l), numeric(r)));
+        };
+    }
+
+    // Whether e is a negative number literal, such as -1.
+    private static boolean negativeConstant(Expr e) {
+        if (e instanceof Expr.Unary u && "-".equals(u.op()) && u.operand() instanceof Expr.Num n) {
+            return Double.parseDouble(n.text().replace("_", "")) > 0;
+        }
+        return e instanceof Expr.Num n && n.text().startsWith("-");
+    }
+
+    private ValueType callType(Expr.Call c) {
+        return switch (c.func()) {
+            case "int" -> {
+                ValueType t = c.args().size() == 1 ? typeOf(c.args().getFirst()) : ValueType.INT;
+                if (t == ValueType.LONG || t == ValueType.BIG) yield t;
+                yield exact ? ValueType.LONG : ValueType.INT;
+            }
+            case "round" -> exact ? ValueType.LONG : ValueType.INT;
+            case "len" -> ValueType.INT;
+            case "float" -> ValueType.DOUBLE;
+            case "str" -> ValueType.STRING;
+            case "bool" -> ValueType.BOOLEAN;
+            case "abs" -> c.args().isEmpty() ? ValueType.INT : numeric(typeOf(c.args().getFirst()));
+            case "min", "max" -> {
+                if (c.args().size() == 1 && typeOf(c.args().getFirst()).isList()) {
+                    ValueType element = typeOf(c.args().getFirst()).elementType();
+                    if (element == ValueType.OBJECT) {
+                        throw new IllegalArgumentException(c.func() + "() of a list of mixed types is not supported");
+                    }
+                    yield element;
+                }
+                // Python gives the argument itself, so max(1.5, 2) is the int 2: a result whose
+                // type depends on the values is not supported.
+                ValueType t = ValueType.INT;
+                ValueType first = c.args().isEmpty() ? null : typeOf(c.args().getFirst());
+                for (Expr a : c.args()) {
+                    ValueType at = typeOf(a);
+                    if (!at.isList() && !first.isList() && !at.pythonName().equals(first.pythonName())) {
+                        throw new IllegalArgumentException(c.func() + "() of " + first.pythonName() + " and "
+                                + at.pythonName() + " values is not supported");
+                    }
+                    t = ValueType.promote(t, numeric(at));
+                }
+                yield t;
+            }
+            default -> functions != null && functions.parameterTypes(c.func()) != null
+                    ? functions.returnType(c.func()) : ValueType.INT;
+        };
+    }
+
+    // Booleans take part in arithmetic as ints.
+    private static ValueType numeric(ValueType t) {
+        if (t.isList()) {
+            throw new IllegalArgumentException("A list cannot be used as a number");
+        }
+        if (t == ValueType.OBJECT) {
+            throw new IllegalArgumentException("An element of a list of mixed types cannot be used as a number");
+        }
+        return t == ValueType.BOOLEAN || t == ValueType.STRING ? ValueType.INT : t;
+    }
+
+    // The type integer arithmetic is done in: longs in exact mode, BigIntegers for a BigInteger variable.
+    private ValueType arithmetic(ValueType t) {
+        if (!t.isIntegral()) return t;
+        if (bigContext) return ValueType.BIG;
+        return exact && t == ValueType.INT ? ValueType.LONG : t;
+    }
+
+    private static boolean fitsInt(String text) {
+        long value = Long.parseLong(text);
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE;
+    }
+
+    // Integer literals that do not fit in an int are longs; in exact mode all of them are, and
+    // literals too large for a long are BigIntegers.
+    private ValueType integerLiteralType(String text) {
+        long value;
+        try {
+            value = Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            if (exact) return ValueType.BIG;
+            throw new IllegalArgumentException("Integer literal " + text + " is too large");
+        }
+        if (exact) return ValueType.LONG;
+        return (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) ? ValueType.INT : ValueType.LONG;
+    }
+
+    // --------------------- Emission --------------------- //
+
+    private Code code(Expr e) {
+        return switch (e) {
+            case Expr.Num n -> switch (typeOf(n)) {
+                // In exact mode small literals are longs too, but Java widens int literals on its own.
+                case LONG -> new Code(fitsInt(n.text()) ? n.text() : n.text() + "L", PRIMARY);
+                case BIG -> new Code("new java.math.BigInteger(\"" + n.text() + "\")", PRIMARY);
+                default -> new Code(n.text(), PRIMARY);
+            };
+            case Expr.Str s -> new Code(javaString(s.value()), PRIMARY);
+            case Expr.Bool b -> new Code(b.value() ? "true" : "false", PRIMARY);
+            case Expr.Name n -> new Code(varName.apply(n.id()), PRIMARY);
+            case Expr.Unary u -> unary(u);
+            case Expr.Binary b -> binary(b);
+            case Expr.BoolOp b -> {
+                boolOpType(b);
+                yield logical(b);
+            }
+            case Expr.Compare c -> compare(c);
+            case Expr.Call c -> call(c);
+            case Expr.Keyword k -> throw new IllegalArgumentException("keyword argument '" + k.name() + "' outside print()");
+            case Expr.ListLiteral l -> listLiteral(l, typeOf(l));
+            case Expr.Index i -> {
+                list(i.target());
+                yield new Code(at(i.target(), PRIMARY) + ".get(" + index(i.index()) + ")", PRIMARY);
+            }
+            case Expr.Slice l -> {
+                list(l.target());
+                String lower = l.lower() != null ? index(l.lower()) : "PySequence.NONE";
+                String upper = l.upper() != null ? index(l.upper()) : "PySequence.NONE";
+                String step = l.step() != null ? index(l.step()) : "1";
+                yield new Code(at(l.target(), PRIMARY) + ".slice(" + lower + ", " + upper + ", " + step + ")", PRIMARY);
+            }
+            case Expr.Method m -> method(m);
+        };
+    }
+
+    // --------------------- Lists --------------------- //
+
+    /**
+     * Emits a list literal as a list of the given type, e.g. [1, 2] as IntList.of(1, 2), or as
+     * DoubleList.of(1, 2) where the list is also given floats.
+     */
+    private Code listLiteral(Expr.ListLiteral l, ValueType type) {
+        if (l.elements().isEmpty()) {
+            return new Code("new " + type.javaName + "()", PRIMARY);
+        }
+        String[] elements = new String[l.elements().size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = emit(l.elements().get(i), type.elementType());
+        }
+        String of = type.javaName.startsWith("PyList") ? "PyList.of" : type.javaName + ".of";
+        return call(of, elements);
+    }
+
+    /**
+     * Emits a list index or slice bound, which has to be an int.
+     */
+    private String index(Expr e) {
+        ValueType t = typeOf(e);
+        if (!t.isIntegral() && t != ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("List indices must be integers, not " + t.pythonName());
+        }
+        return emit(e, ValueType.LONG);
+    }
+
+    private Code method(Expr.Method m) {
+        ValueType t = list(m.target());
+        if (!"append".equals(m.name()) || m.args().size() != 1) {
+            throw new IllegalArgumentException("Unsupported list method '" + m.name() + "' (only append(x) is supported)");
+        }
+        return new Code(at(m.target(), PRIMARY) + ".append(" + emit(m.args().getFirst(), t.elementType()) + ")", PRIMARY);
+    }
+
+    /**
+     * Emits lst + other or lst * n.
+     */
+    private Code listBinary(Expr.Binary b, ValueType result) {
+        if ("+".equals(b.op())) {
+            return new Code(wrap(as(b.left(), result), PRIMARY) + ".concat(" + emit(b.right(), result) + ")", PRIMARY);
+        }
+        boolean listFirst = typeOf(b.left()).isList();
+        Expr list = listFirst ? b.left() : b.right();
+        Expr count = listFirst ? b.right() : b.left();
+        return new Code(at(list, PRIMARY) + ".repeat(" + emit(count, ValueType.LONG) + ")", PRIMARY);
+    }
+
+    /**
+     * Emits a conversion of a list to a list of a wider element type, which copies it.
+     */
+    private Code convertList(Expr e, ValueType source, ValueType type) {
+        if (e instanceof Expr.ListLiteral l) {
+            return listLiteral(l, type);
+        }
+        String copy = switch (type) {
+            case OBJECT_LIST -> "PyList.copyOfElements";
+            case INT_LIST -> source == ValueType.BOOLEAN_LIST ? "IntList.copyOf" : null;
+            case DOUBLE_LIST -> source == ValueType.INT_LIST || source == ValueType.BOOLEAN_LIST ? "DoubleList.copyOf" : null;
+            case BIG_LIST -> source == ValueType.INT_LIST ? "PyList.copyOf" : null;
+            default -> null;
+        };
+        if (copy == null) {
+            throw new IllegalArgumentException("A " + source.pythonName() + " cannot be used as a " + type.pythonName());
+        }
+        return call(copy, emit(e));
+    }
+
+    private Code unary(Expr.Unary u) {
+        if ("not".equals(u.op())) {
+            return new Code("!" + wrap(truthy(u.operand()), UNARY), UNARY);
+        }
+        ValueType result = typeOf(u);
+        if (result == ValueType.BIG) {
+            String operand = wrap(as(u.operand(), ValueType.BIG), PRIMARY);
+            return switch (u.op()) {
+                case "-" -> new Code(operand + ".negate()", PRIMARY);
+                case "~" -> new Code(operand + ".not()", PRIMARY);
+                default -> new Code(operand, PRIMARY);
+            };
+        }
+        if (exact && result == ValueType.LONG && "-".equals(u.op()) && !(u.operand() instanceof Expr.Num)) {
+            return call("PyMath.neg", emit(u.operand()), site(u));
+        }
+        String operand = at(u.operand(), UNARY);
+        // Avoid emitting "--x" or "++x", which Java reads as decrement/increment.
+        if (operand.startsWith("-") || operand.startsWith("+")) {
+            operand = "(" + operand + ")";
+        }
+        return new Code(u.op() + operand, UNARY);
+    }
+
+    private Code binary(Expr.Binary b) {
+        ValueType l = typeOf(b.left());
+        ValueType r = typeOf(b.right());
+        ValueType result = typeOf(b);
+
+        if (result.isList()) {
+            return listBinary(b, result);
+        }
+        if (result == ValueType.BIG) {
+            return bigBinary(b);
+        }
+        if (exact && result == ValueType.LONG) {
+            // Operations that can overflow a long are checked; the rest cannot overflow.
+            String checked = switch (b.op()) {
+                case "+" -> "PyMath.add";
+                case "-" -> "PyMath.sub";
+                case "*" -> "PyMath.mul";
+                case "//" -> "PyMath.floorDiv";
+                case "**" -> "PyMath.pow";
+                case "<<" -> "PyMath.shiftLeft";
+                default -> null;
+            };
+            if (checked != null) {
+                return call(checked, emit(b.left()), emit(b.right()), site(b));
+            }
+        }
+
+        switch (b.op()) {
+            case "+" -> {
+                return infix(b, " + ", ADDITIVE);
+            }
+            case "-" -> {
+                return infix(b, " - ", ADDITIVE);
+            }
+            case "*" -> {
+                // "ab" * 3 repeats the string.
+                if (l == ValueType.STRING) return new Code(at(b.left(), PRIMARY) + ".repeat(" + emit(b.right(), ValueType.INT) + ")", PRIMARY);
+                if (r == ValueType.STRING) return new Code(at(b.right(), PRIMARY) + ".repeat(" + emit(b.left(), ValueType.INT) + ")", PRIMARY);
+                return infix(b, " * ", MULTIPLICATIVE);
+            }
+            case "/" -> {
+                // True division: make sure Java divides as double even when both operands are integers.
+                if (l != ValueType.DOUBLE && r != ValueType.DOUBLE && l != ValueType.BIG) {
+                    return new Code("(double) " + at(b.left(), UNARY) + " / "
+                            + wrap(as(b.right(), ValueType.DOUBLE), MULTIPLICATIVE + 1), MULTIPLICATIVE);
+                }
+                return infix(b, " / ", MULTIPLICATIVE);
+            }
+            case "//" -> {
+                // Python floors the quotient; Java truncates it towards zero.
+                if (result.isIntegral()) {
+                    return call("Math.floorDiv", emit(b.left()), emit(b.right()));
+                }
+                return new Code("Math.floor(" + wrap(as(b.left(), result), MULTIPLICATIVE) + " / "
+                        + wrap(as(b.right(), result), MULTIPLICATIVE + 1) + ")", PRIMARY);
+            }
+            case "%" -> {
+                // Python's remainder takes the sign of the divisor.
+                if (result.isIntegral()) {
+                    return call("Math.floorMod", emit(b.left()), emit(b.right()));
+                }
+                return call("PyMath.floorMod", emit(b.left(), result), emit(b.right(), result));
+            }
+            case "**" -> {
+                String pow = "Math.pow(" + emit(b.left(), ValueType.DOUBLE) + ", " + emit(b.right(), ValueType.DOUBLE) + ")";
+                return result == ValueType.DOUBLE ? new Code(pow, PRIMARY)
+                        : new Code("(" + result.javaName + ") " + pow, UNARY);
+            }
+            case "&" -> {
+                return infix(b, " & ", BIT_AND);
+            }
+            case "|" -> {
+                return infix(b, " | ", BIT_OR);
+            }
+            case "^" -> {
+                return infix(b, " ^ ", BIT_XOR);
+            }
+            case "<<" -> {
+                return infix(b, " << ", SHIFT);
+            }
+            case ">>" -> {
+                return infix(b, " >> ", SHIFT);
+            }
+            default -> throw new IllegalArgumentException("Unsupported operator '" + b.op() + "'");
+        }
+    }
+
+    private Code infix(Expr.Binary b, String op, int precedence) {
+        // Operands are converted to the result type where Java does not do it implicitly
+        // (booleans and BigIntegers in double arithmetic).
+        ValueType result = typeOf(b);
+        if (result == ValueType.STRING) result = null;
+        Code left = result != null ? as(b.left(), result) : code(b.left());
+        Code right = result != null ? as(b.right(), result) : code(b.right());
+        // Left-associative: only the right operand needs parentheses at equal precedence.
+        return new Code(wrap(left, precedence) + op + wrap(right, precedence + 1), precedence);
+    }
+
+    /**
+     * Emits integer arithmetic on BigIntegers, converting long operands.
+     */
+    private Code bigBinary(Expr.Binary b) {
+        String left = wrap(as(b.left(), ValueType.BIG), PRIMARY);
+        String right = emit(b.right(), ValueType.BIG);
+        return switch (b.op()) {
+            case "+" -> new Code(left + ".add(" + right + ")", PRIMARY);
+            case "-" -> new Code(left + ".subtract(" + right + ")", PRIMARY);
+            case "*" -> new Code(left + ".multiply(" + right + ")", PRIMARY);
+            case "&" -> new Code(left + ".and(" + right + ")", PRIMARY);
+            case "|" -> new Code(left + ".or(" + right + ")", PRIMARY);
+            case "^" -> new Code(left + ".xor(" + right + ")", PRIMARY);
+            case "//" -> call("PyMath.floorDiv", left, right);
+            case "%" -> call("PyMath.floorMod", left, right);
+            case "**" -> call("PyMath.pow", left, right);
+            case "<<" -> call("PyMath.shiftLeft", left, right);
+            case ">>" -> call("PyMath.shiftRight", left, right);
+            default -> throw new IllegalArgumentException("Unsupported operator '" + b.op() + "'");
+        };
+    }
+
+    private Code compare(Expr.Compare c) {
+        StringBuilder sb = new StringBuilder();
+        int precedence = PRIMARY;
+        List<Expr> operands = c.operands();
+
+        // a < b < c becomes a < b && b < c.
+        for (int i = 0; i < c.ops().size(); i++) {
+            Code pair = comparePair(c.ops().get(i), operands.get(i), operands.get(i + 1));
+            if (c.ops().size() == 1) {
+                return pair;
+            }
+            if (i > 0) sb.append(" && ");
+            sb.append(wrap(pair, LOGICAL_AND + 1));
+            precedence = LOGICAL_AND;
+        }
+        return new Code(sb.toString(), precedence);
+    }
+
+    private Code comparePair(String op, Expr left, Expr right) {
+        ValueType l = typeOf(left);
+        ValueType r = typeOf(right);
+        if ("in".equals(op) || "not in".equals(op)) {
+            return contains(op, left, right);
+        }
+        if (l.isList() || r.isList()) {
+            // Lists are equal if their elements are.
+            if (!l.isList() || !r.isList() || (!"==".equals(op) && !"!=".equals(op))) {
+                throw new IllegalArgumentException("Lists can only be compared to lists, with == and !=");
+            }
+            ValueType common = ValueType.join(l, r);
+            return comparePairCode(op, as(left, common), as(right, common), true);
+        }
+        if (l == ValueType.OBJECT || r == ValueType.OBJECT) {
+            // An element of a list of mixed types is equal to a value of the same type and value.
+            String equal = "java.util.Objects.equals(" + emit(left, ValueType.OBJECT) + ", " + emit(right, ValueType.OBJECT) + ")";
+            return switch (op) {
+                case "==", "is" -> new Code(equal, PRIMARY);
+                case "!=", "is not" -> new Code("!" + equal, UNARY);
+                default -> throw new IllegalArgumentException("'" + op + "' is not supported for elements of a list of mixed types");
+            };
+        }
+        boolean strings = l == ValueType.STRING || r == ValueType.STRING;
+        if (!strings && (l == ValueType.BIG || r == ValueType.BIG)) {
+            ValueType common = ValueType.promote(numeric(l), numeric(r));
+            if (common == ValueType.BIG) {
+                String cmp = wrap(as(left, common), PRIMARY) + ".compareTo(" + emit(right, common) + ")";
+                String javaOp = switch (op) {
+                    case "is" -> "==";
+                    case "is not" -> "!=";
+                    default -> op;
+                };
+                return new Code(cmp + " " + javaOp + " 0", "==".equals(javaOp) || "!=".equals(javaOp) ? EQUALITY : RELATIONAL);
+            }
+            // A BigInteger compared with a float is compared as a double.
+            return comparePairCode(op, as(left, common), as(right, common), false);
+        }
+        return comparePairCode(op, code(left), code(right), strings);
+    }
+
+    /**
+     * Emits x in lst, or s in text for a substring.
+     */
+    private Code contains(String op, Expr item, Expr container) {
+        ValueType t = typeOf(container);
+        String test;
+        if (t.isList()) {
+            test = at(container, PRIMARY) + ".contains(" + emit(item, t.elementType()) + ")";
+        } else if (t == ValueType.STRING && typeOf(item) == ValueType.STRING) {
+            test = at(container, PRIMARY) + ".contains(" + emit(item) + ")";
+        } else {
+            throw new IllegalArgumentException("'in' needs a list or a str on its right, not " + t.pythonName());
+        }
+        return "in".equals(op) ? new Code(test, PRIMARY) : new Code("!" + test, UNARY);
+    }
+
+    private Code comparePairCode(String op, Code lc, Code rc, boolean strings) {
+        switch (op) {
+            case "==", "is" -> {
+                if (strings) return new Code(wrap(lc, PRIMARY) + ".equals(" + rc.text + ")", PRIMARY);
+                return new Code(wrap(lc, EQUALITY) + " == " + wrap(rc, EQUALITY + 1), EQUALITY);
+            }
+            case "!=", "is not" -> {
+                if (strings) return new Code("!" + wrap(lc, PRIMARY) + ".equals(" + rc.text + ")", UNARY);
+                return new Code(wrap(lc, EQUALITY) + " != " + wrap(rc, EQUALITY + 1), EQUALITY);
+            }
+            case "<", ">", "<=", ">=" -> {
+                if (strings) {
+                    return new Code(wrap(lc, PRIMARY) + ".compareTo(" + rc.text + ") " + op + " 0", RELATIONAL);
+                }
+                return new Code(wrap(lc, RELATIONAL) + " " + op + " " + wrap(rc, RELATIONAL + 1), RELATIONAL);
+            }
+            default -> throw new IllegalArgumentException("Unsupported comparison '" + op + "'");
+        }
+    }
+
+    private Code call(Expr.Call c) {
+        List<Expr> args = c.args();
+        switch (c.func()) {
+            case "int" -> {
+                Expr arg = single(c);
+                return switch (typeOf(arg)) {
+                    case STRING -> call(exact ? "Long.parseLong" : "Integer.parseInt", at(arg, PRIMARY) + ".trim()");
+                    case DOUBLE -> new Code((exact ? "(long) " : "(int) ") + at(arg, UNARY), UNARY);
+                    case BOOLEAN -> new Code("(" + emit(arg) + " ? 1 : 0)", PRIMARY);
+                    case INT, LONG, BIG -> code(arg);
+                    default -> throw new IllegalArgumentException("int() of a list");
+                };
+            }
+            case "float" -> {
+                Expr arg = single(c);
+                return switch (typeOf(arg)) {
+                    case STRING -> call("Double.parseDouble", at(arg, PRIMARY) + ".trim()");
+                    case INT, LONG -> new Code("(double) " + at(arg, UNARY), UNARY);
+                    case BIG -> as(arg, ValueType.DOUBLE);
+                    case BOOLEAN -> new Code("(" + emit(arg) + " ? 1.0 : 0.0)", PRIMARY);
+                    case DOUBLE -> code(arg);
+                    default -> throw new IllegalArgumentException("float() of a list");
+                };
+            }
+            case "str" -> {
+                // Python's text of floats and bools (see PyPrint.str).
+                return call("PyPrint.str", emit(single(c)));
+            }
+            case "bool" -> {
+                return truthy(single(c));
+            }
+            case "abs" -> {
+                Expr arg = single(c);
+                return switch (typeOf(c)) {
+                    case BIG -> new Code(wrap(as(arg, ValueType.BIG), PRIMARY) + ".abs()", PRIMARY);
+                    case LONG -> exact ? call("PyMath.abs", emit(arg), site(c)) : call("Math.abs", emit(arg));
+                    default -> call("Math.abs", emit(arg));
+                };
+            }
+            case "round" -> {
+                Expr arg = single(c);
+                if (typeOf(arg).isIntegral()) return code(arg);
+                // Python rounds halves to even, like Math.rint.
+                return new Code((exact ? "(long)" : "(int)") + " Math.rint(" + emit(arg) + ")", UNARY);
+            }
+            case "len" -> {
+                Expr arg = single(c);
+                ValueType t = typeOf(arg);
+                if (t.isList()) return new Code(at(arg, PRIMARY) + ".size()", PRIMARY);
+                if (t == ValueType.STRING) return new Code(at(arg, PRIMARY) + ".length()", PRIMARY);
+                throw new IllegalArgumentException("object of type '" + t.pythonName() + "' has no len()");
+            }
+            case "min", "max" -> {
+                ValueType t = typeOf(c);
+                if (args.size() == 1 && typeOf(args.getFirst()).isList()) {
+                    if (t == ValueType.BOOLEAN) {
+                        throw new IllegalArgumentException(c.func() + "() of a list of bools is not supported");
+                    }
+                    return new Code(at(args.getFirst(), PRIMARY) + "." + c.func() + "()", PRIMARY);
+                }
+                String result = emit(args.getFirst(), t);
+                for (int i = 1; i < args.size(); i++) {
+                    // Math.min/max take two arguments, so longer calls are nested.
+                    result = t == ValueType.BIG
+                            ? wrap(new Code(result, PRIMARY), PRIMARY) + "." + c.func() + "(" + emit(args.get(i), t) + ")"
+                            : "Math." + c.func() + "(" + result + ", " + emit(args.get(i), t) + ")";
+                }
+                return new Code(result, PRIMARY);
+            }
+            default -> {
+                // Arguments of the script's own functions are converted to the parameter types.
+                List<ValueType> params = functions != null ? functions.parameterTypes(c.func()) : null;
+                if (params != null && params.size() != args.size()) {
+                    throw new IllegalArgumentException(c.func() + "() takes " + params.size() + " arguments, not " + args.size());
+                }
+                String[] emitted = new String[args.size()];
+                for (int i = 0; i < emitted.length; i++) {
+                    emitted[i] = params != null ? emit(args.get(i), params.get(i)) : emit(args.get(i));
+                }
+                return call(javaName(c.func()), emitted);
+            }
+        }
+    }
+
+    private static Expr single(Expr.Call c) {
+        if (c.args().size() != 1) {
+            throw new IllegalArgumentException(c.func() + "() expects exactly one argument");
+        }
+        return c.args().getFirst();
+    }
+
+    private static Code call(String function, String... args) {
+        return new Code(function + "(" + String.join(", ", args) + ")", PRIMARY);
+    }
+
+    /**
+     * Emits the expression as a Java boolean, using Python's truthiness rules for other types.
+     */
+    private Code truthy(Expr e) {
+        if (e instanceof Expr.BoolOp b) {
+            return logical(b);
+        }
+        Code c = code(e);
+        return switch (typeOf(e)) {
+            case BOOLEAN -> c;
+            case INT, LONG -> new Code(wrap(c, EQUALITY) + " != 0", EQUALITY);
+            case BIG -> new Code(wrap(c, PRIMARY) + ".signum() != 0", EQUALITY);
+            case DOUBLE -> new Code(wrap(c, EQUALITY) + " != 0.0", EQUALITY);
+            case STRING -> new Code("!" + wrap(c, PRIMARY) + ".isEmpty()", UNARY);
+            case OBJECT -> call("PyList.isTrue", c.text);
+            default -> new Code("!" + wrap(c, PRIMARY) + ".isEmpty()", UNARY);
+        };
+    }
+
+    private Code logical(Expr.BoolOp b) {
+        int p = "and".equals(b.op()) ? LOGICAL_AND : LOGICAL_OR;
+        String op = "and".equals(b.op()) ? " && " : " || ";
+        return new Code(wrap(truthy(b.left()), p) + op + wrap(truthy(b.right()), p + 1), p);
+    }
+
+    // --------------------- Helpers --------------------- //
+
+    /**
+     * Emits e, adding parentheses if its precedence is lower than required.
+     */
+    private String at(Expr e, int precedence) {
+        return wrap(code(e), precedence);
+    }
+
+    private static String wrap(Code c, int precedence) {
+        return c.precedence < precedence ? "(" + c.text + ")" : c.text;
+    }
+
+    private String emit(Expr e, ValueType type) {
+        return as(e, type).text;
+    }
+
+    /**
+     * Emits e converted to the given type. Conversions Java does implicitly (int to long or
+     * double) are left to Java.
+     */
+    private Code as(Expr e, ValueType type) {
+        ValueType source = typeOf(e);
+        if (source != type && source.isList() && type.isList()) {
+            return convertList(e, source, type);
+        }
+        if (type == ValueType.OBJECT) {
+            // Ints are boxed as Longs, whatever Java type holds them, so that equal ints are equal objects.
+            if (e instanceof Expr.Num n && source == ValueType.LONG) return new Code(n.text() + "L", PRIMARY);
+            return source == ValueType.INT ? new Code("(long) " + at(e, UNARY), UNARY) : code(e);
+        }
+        if (source == type || !type.isNumeric()) {
+            return code(e);
+        }
+        if (source == ValueType.BOOLEAN) {
+            String bit = "(" + emit(e) + " ? 1 : 0)";
+            return type == ValueType.BIG ? call("PyMath.big", bit) : new Code(bit, PRIMARY);
+        }
+        if (!source.isNumeric()) {
+            return code(e);
+        }
+        return switch (type) {
+            case BIG -> source == ValueType.DOUBLE
+                    ? new Code("new java.math.BigDecimal(" + emit(e) + ").toBigInteger()", PRIMARY)
+                    : call("PyMath.big", emit(e));
+            case DOUBLE -> source == ValueType.BIG ? new Code(at(e, PRIMARY) + ".doubleValue()", PRIMARY) : code(e);
+            // TypeInference only narrows a value when it knows the value it holds at this point,
+            // e.g. the int a double variable was just given, so the conversion loses nothing.
+            // A BigInteger may not fit; that is an overflow of the variable it flows into.
+            case LONG -> switch (source) {
+                case BIG -> call("PyMath.toLong", emit(e), site(e));
+                case DOUBLE -> new Code("(long) " + at(e, UNARY), UNARY);
+                default -> code(e);
+            };
+            default -> switch (source) {
+                case BIG -> call("PyMath.toInt", emit(e), site(e));
+                case LONG, DOUBLE -> new Code("(int) " + at(e, UNARY), UNARY);
+                default -> code(e);
+            };
+        };
+    }
+
+    /**
+     * @return A string literal naming the variables an overflow in e should promote to BigInteger.
+     *         In an assignment that is the target, whose whole value is then computed in BigIntegers;
+     *         elsewhere it is every variable e reads, and e itself, which may read none.
+     */
+    private String site(Expr e) {
+        if (target != null) return javaString(target);
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        collectNames(e, names);
+        names.add(expressionSite(e));
+        return javaString(String.join(",", names));
+    }
+
+    /**
+     * @return The name an overflow outside an assignment gives the operation e that overflowed,
+     *         so that it is done in BigIntegers when the script is translated again. It is derived
+     *         from e's structure, so every backend, and every translation of the script, names the
+     *         same operation alike. A Python name cannot start with '$', so no variable is named.
+     */
+    static String expressionSite(Expr e) {
+        return "$" + Integer.toHexString(e.hashCode());
+    }
+
+    private static void collectNames(Expr e, Set<String> names) {
+        switch (e) {
+            case Expr.Name n -> names.add(n.id());
+            case Expr.Unary u -> collectNames(u.operand(), names);
+            case Expr.Binary b -> {
+                collectNames(b.left(), names);
+                collectNames(b.right(), names);
+            }
+            case Expr.BoolOp b -> {
+                collectNames(b.left(), names);
+                collectNames(b.right(), names);
+            }
+            case Expr.Compare c -> c.operands().forEach(o -> collectNames(o, names));
+            case Expr.Call c -> c.args().forEach(a -> collectNames(a, names));
+            case Expr.Keyword k -> collectNames(k.value(), names);
+            case Expr.ListLiteral l -> l.elements().forEach(x -> collectNames(x, names));
+            case Expr.Index i -> {
+                collectNames(i.target(), names);
+                collectNames(i.index(), names);
+            }
+            case Expr.Slice l -> {
+                collectNames(l.target(), names);
+                for (Expr part : new Expr[]{l.lower(), l.upper(), l.step()}) {
+                    if (part != null) collectNames(part, names);
+                }
+            }
+            case Expr.Method m -> {
+                collectNames(m.target(), names);
+                m.args().forEach(a -> collectNames(a, names));
+            }
+            case Expr.Num n -> {
+            }
+            case Expr.Str s -> {
+            }
+            case Expr.Bool b -> {
+            }
+        }
+    }
+
+    /**
+     * @return A Java string literal with the given value.
+     */
+    static String javaString(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                case '\r' -> sb.append("\\r");
+                case '\0' -> sb.append("\\0");
+                default -> sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,360 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ExpressionParser is a precedence-climbing (Pratt) parser that turns the tokens of one
+ * Python expression into an {@link Expr} tree in a single pass.
+ * <p>
+ * Binding powers follow the Python grammar, from loosest to tightest:
+ * or, and, not, comparisons, |, ^, &amp;, shifts, + -, * / // %, unary - + ~, **, and the
+ * postfix forms: subscriptions and slices (a[i], a[i:j]) and method calls (a.append(x)).
+ */
+public class ExpressionParser {
+
+    private static final int OR = 1;
+    private static final int AND = 2;
+    private static final int NOT = 3;
+    private static final int COMPARE = 4;
+    private static final int BIT_OR = 5;
+    private static final int BIT_XOR = 6;
+    private static final int BIT_AND = 7;
+    private static final int SHIFT = 8;
+    private static final int SUM = 9;
+    private static final int PRODUCT = 10;
+    private static final int UNARY = 11;
+    private static final int POWER = 12;
+
+    private final TokenLine tokens;
+    private final int end;
+    private int pos;
+
+    private ExpressionParser(TokenLine tokens, int from, int to) {
+        this.tokens = tokens;
+        this.pos = from;
+        this.end = to;
+    }
+
+    /**
+     * Parses tokens [from, to) as one expression.
+     * @throws IllegalArgumentException If the tokens are not a complete, valid expression.
+     */
+    public static Expr parse(TokenLine tokens, int from, int to) {
+        ExpressionParser parser = new ExpressionParser(tokens, from, to);
+        Expr result = parser.parseExpr(OR);
+        if (parser.pos < to) {
+            throw parser.error("unexpected '" + tokens.text(parser.pos) + "'");
+        }
+        return result;
+    }
+
+    // --------------------- Precedence climbing --------------------- //
+
+    private Expr parseExpr(int minPower) {
+        Expr left = parsePrefix();
+
+        while (pos < end) {
+            int power = infixPower(pos);
+            if (power < minPower || power == 0) break;
+
+            if (power == COMPARE) {
+                left = parseComparison(left);
+            } else if (power == AND || power == OR) {
+                String op = tokens.text(pos++);
+                left = new Expr.BoolOp(op, left, parseExpr(power + 1));
+            } else if (power == POWER) {
+                // ** is right-associative, and its right operand may carry a unary sign (2 ** -1).
+                String op = tokens.text(pos++);
+                left = new Expr.Binary(op, left, parseExpr(UNARY));
+            } else {
+                String op = tokens.text(pos++);
+                left = new Expr.Binary(op, left, parseExpr(power + 1));
+            }
+        }
+        return left;
+    }
+
+    /**
+     * Parses a comparison chain such as a < b <= c once its first operand is known.
+     */
+    private Expr parseComparison(Expr first) {
+        List<String> ops = new ArrayList<>();
+        List<Expr> operands = new ArrayList<>();
+        operands.add(first);
+
+        while (pos < end && infixPower(pos) == COMPARE) {
+            int t = pos++;
+            String op = tokens.text(t);
+            // Two-word operators: "not in" and "is not".
+            if (tokens.is(t, Interpreter.Kind.KEYWORD, "not")) {
+                expect(Interpreter.Kind.KEYWORD, "in");
+                op = "not in";
+            } else if (tokens.is(t, Interpreter.Kind.KEYWORD, "is") && peekIs(Interpreter.Kind.KEYWORD, "not")) {
+                pos++;
+                op = "is not";
+            }
+            ops.add(op);
+            operands.add(parseExpr(BIT_OR));
+        }
+        return new Expr.Compare(ops, operands);
+    }
+
+    private Expr parsePrefix() {
+        if (pos >= end) {
+            throw error("expression expected");
+        }
+        // A TokenBuffer makes a new String for a name or literal every time it is read.
+        Interpreter.Kind kind = tokens.kind(pos);
+        String text = tokens.text(pos++);
+
+        switch (kind) {
+            case INT_LITERAL -> {
+                return new Expr.Num(text.replace("_", ""), false);
+            }
+            case FLOAT_LITERAL -> {
+                return new Expr.Num(text.replace("_", ""), true);
+            }
+            case STRING_LITERAL -> {
+                // Adjacent string literals are concatenated, as in Python.
+                StringBuilder value = new StringBuilder(decodeString(text));
+                while (peekKind(Interpreter.Kind.STRING_LITERAL)) {
+                    value.append(decodeString(tokens.text(pos++)));
+                }
+                return new Expr.Str(value.toString());
+            }
+            case IDENTIFIER -> {
+                // Java-style lowercase booleans have always been accepted by the translator.
+                if ("true".equals(text) || "false".equals(text)) {
+                    return new Expr.Bool("true".equals(text));
+                }
+                if (peekIs(Interpreter.Kind.SEPARATOR, "(")) {
+                    pos++;
+                    return parsePostfix(new Expr.Call(text, parseArguments(text)));
+                }
+                return parsePostfix(new Expr.Name(text));
+            }
+            case KEYWORD -> {
+                switch (text) {
+                    case "True" -> {
+                        return new Expr.Bool(true);
+                    }
+                    case "False" -> {
+                        return new Expr.Bool(false);
+                    }
+                    case "not" -> {
+                        return new Expr.Unary("not", parseExpr(NOT));
+                    }
+                    default -> throw error("unexpected keyword '" + text + "'");
+                }
+            }
+            case OPERATOR -> {
+                if ("-".equals(text) || "+".equals(text) || "~".equals(text)) {
+                    return new Expr.Unary(text, parseExpr(UNARY));
+                }
+                throw error("unexpected operator '" + text + "'");
+            }
+            case SEPARATOR -> {
+                if ("(".equals(text)) {
+                    Expr inner = parseExpr(OR);
+                    expect(Interpreter.Kind.SEPARATOR, ")");
+                    return parsePostfix(inner);
+                }
+                if ("[".equals(text)) {
+                    return parsePostfix(new Expr.ListLiteral(parseList()));
+                }
+                throw error("unexpected '" + text + "'");
+            }
+        }
+        throw error("unexpected '" + text + "'");
+    }
+
+    /**
+     * Parses subscriptions, slices and method calls following a primary expression.
+     */
+    private Expr parsePostfix(Expr e) {
+        while (true) {
+            if (peekIs(Interpreter.Kind.SEPARATOR, "[")) {
+                pos++;
+                e = parseSubscript(e);
+            } else if (peekIs(Interpreter.Kind.SEPARATOR, ".") && pos + 2 < end
+                    && tokens.kind(pos + 1) == Interpreter.Kind.IDENTIFIER
+                    && tokens.is(pos + 2, Interpreter.Kind.SEPARATOR, "(")) {
+                String name = tokens.text(pos + 1);
+                pos += 3;
+                e = new Expr.Method(e, name, parseArguments(name));
+            } else {
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Parses what follows the '[' of a[i] or a[i:j:k], up to and including the ']'.
+     */
+    private Expr parseSubscript(Expr target) {
+        Expr lower = sliceBound();
+        if (!peekIs(Interpreter.Kind.SEPARATOR, ":")) {
+            if (lower == null) {
+                throw error("index expected");
+            }
+            expect(Interpreter.Kind.SEPARATOR, "]");
+            return new Expr.Index(target, lower);
+        }
+        pos++;
+        Expr upper = sliceBound();
+        Expr step = null;
+        if (peekIs(Interpreter.Kind.SEPARATOR, ":")) {
+            pos++;
+            step = sliceBound();
+        }
+        expect(Interpreter.Kind.SEPARATOR, "]");
+        return new Expr.Slice(target, lower, upper, step);
+    }
+
+    // A part of a slice, or null if it is omitted.
+    private Expr sliceBound() {
+        if (peekIs(Interpreter.Kind.SEPARATOR, ":") || peekIs(Interpreter.Kind.SEPARATOR, "]")) {
+            return null;
+        }
+        return parseExpr(OR);
+    }
+
+    /**
+     * Parses the elements of a list display after the opening bracket, up to and including the closing one.
+     */
+    private List<Expr> parseList() {
+        List<Expr> elements = new ArrayList<>();
+        while (!peekIs(Interpreter.Kind.SEPARATOR, "]")) {
+            elements.add(parseExpr(OR));
+            if (!peekIs(Interpreter.Kind.SEPARATOR, ",")) {
+                break;
+            }
+            // A trailing comma is allowed: [a, b,]
+            pos++;
+        }
+        expect(Interpreter.Kind.SEPARATOR, "]");
+        return elements;
+    }
+
+    /**
+     * Parses call arguments after the opening parenthesis, up to and including the closing one.
+     * Keyword arguments are only accepted where the translation supports them: sep= and end= of print().
+     */
+    private List<Expr> parseArguments(String func) {
+        List<Expr> args = new ArrayList<>();
+        if (peekIs(Interpreter.Kind.SEPARATOR, ")")) {
+            pos++;
+            return args;
+        }
+        boolean keywords = false;
+        while (true) {
+            if (peekKind(Interpreter.Kind.IDENTIFIER) && pos + 1 < end
+                    && tokens.is(pos + 1, Interpreter.Kind.OPERATOR, "=")) {
+                String name = tokens.text(pos);
+                if (!"print".equals(func) || !("sep".equals(name) || "end".equals(name))) {
+                    throw error("unsupported keyword argument '" + name + "' of " + func + "()");
+                }
+                pos += 2;
+                args.add(new Expr.Keyword(name, parseExpr(OR)));
+                keywords = true;
+            } else if (keywords) {
+                throw error("positional argument follows keyword argument");
+            } else {
+                args.add(parseExpr(OR));
+            }
+            if (peekIs(Interpreter.Kind.SEPARATOR, ",")) {
+                pos++;
+                // A trailing comma is allowed: f(a, b,)
+                if (peekIs(Interpreter.Kind.SEPARATOR, ")")) {
+                    pos++;
+                    return args;
+                }
+            } else {
+                expect(Interpreter.Kind.SEPARATOR, ")");
+                return args;
+            }
+        }
+    }
+
+    /**
+     * @return The binding power of token t as an infix operator, or 0 if it is not one.
+     */
+    private int infixPower(int t) {
+        Interpreter.Kind kind = tokens.kind(t);
+        if (kind == Interpreter.Kind.KEYWORD) {
+            return switch (tokens.text(t)) {
+                case "or" -> OR;
+                case "and" -> AND;
+                case "in", "is" -> COMPARE;
+                // "not" is only infix as part of "not in".
+                case "not" -> (t + 1 < end && tokens.is(t + 1, Interpreter.Kind.KEYWORD, "in")) ? COMPARE : 0;
+                default -> 0;
+            };
+        }
+        if (kind != Interpreter.Kind.OPERATOR) return 0;
+        return switch (tokens.text(t)) {
+            case "<", ">", "==", "!=", "<=", ">=" -> COMPARE;
+            case "|" -> BIT_OR;
+            case "^" -> BIT_XOR;
+            case "&" -> BIT_AND;
+            case "<<", ">>" -> SHIFT;
+            case "+", "-" -> SUM;
+            case "*", "/", "//", "%" -> PRODUCT;
+            case "**" -> POWER;
+            default -> 0;
+        };
+    }
+
+    // --------------------- Token helpers --------------------- //
+
+    private boolean peekIs(Interpreter.Kind kind, String text) {
+        return pos < end && tokens.is(pos, kind, text);
+    }
+
+    private boolean peekKind(Interpreter.Kind kind) {
+        return pos < end && tokens.kind(pos) == kind;
+    }
+
+    private void expect(Interpreter.Kind kind, String text) {
+        if (!peekIs(kind, text)) {
+            throw error("'" + text + "' expected");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            source.append(tokens.text(i)).append(' ');
+        }
+        return new IllegalArgumentException(message + " in: " + source.toString().trim());
+    }
+
+    /**
+     * Strips the quotes of a Python string literal and resolves its escape sequences.
+     */
+    static String decodeString(String literal) {
+        char quote = literal.charAt(0);
+        int last = literal.length() - 1;
+        if (last <= 0 || literal.charAt(last) != quote) {
+            last = literal.length();
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 1; i < last; i++) {
+            char c = literal.charAt(i);
+            if (c == '\\' && i + 1 < last) {
+                char n = literal.charAt(++i);
+                switch (n) {
+                    case 'n' -> sb.append('\n');
+                    case 't' -> sb.append('\t');
+                    case 'r' -> sb.append('\r');
+                    case '0' -> sb.append('\0');
+                    case '\\', '\'', '"' -> sb.append(n);
+                    default -> sb.append('\\').append(n);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,339 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.Stack;
+
+/**
+ * IRBuilder turns tokenized Python lines into the statement tree of {@link Stmt}.
+ * Blocks are recovered from indentation: a line that is indented less than or as much as
+ * the header of an open block closes that block.
+ */
+public class IRBuilder {
+
+    // Functions the translation provides itself, which a script cannot define.
+    private static final Set<String> BUILTINS = Set.of(
+            "print", "range", "int", "float", "str", "bool", "abs", "round", "min", "max", "len");
+
+    /**
+     * A block being filled: the indentation of its header, the list its statements go to,
+     * and whether it is the body of a function.
+     */
+    private record Frame(int indent, List<Stmt> body, boolean function) {
+
+        Frame(int indent, List<Stmt> body) {
+            this(indent, body, false);
+        }
+    }
+
+    private IRBuilder() {
+    }
+
+    /**
+     * Builds the statement tree of a script.
+     * @param lines The tokenized Python code, line by line; see {@link TokenLine#of(List)} and
+     *              {@link TokenBuffer#tokenLines()}.
+     * @return The script's top-level statements.
+     * @throws IllegalArgumentException If a line is not a supported statement.
+     */
+    public static List<Stmt> build(Iterable<? extends TokenLine> lines) {
+        List<Stmt> program = new ArrayList<>();
+        Stack<Frame> open = new Stack<>();
+        // Whether the def being waited for has a decorator, which makes it memoized.
+        boolean memoized = false;
+
+        for (TokenLine line : lines) {
+            // Skip empty lines.
+            if (line.size() == 0) {
+                continue;
+            }
+
+            // Close any blocks that have indentation >= this line's indentation.
+            int lineIndent = line.indent();
+            while (!open.isEmpty() && open.peek().indent() >= lineIndent) {
+                open.pop();
+            }
+            List<Stmt> block = open.isEmpty() ? program : open.peek().body();
+
+            // The first token if it is a keyword (e.g. 'if', 'for'), otherwise null.
+            String keyword = line.kind(0) == Interpreter.Kind.KEYWORD ? line.text(0) : null;
+            int n = line.line();
+
+            // Decorators apply to the def that follows them.
+            if (line.is(0, Interpreter.Kind.SEPARATOR, "@")) {
+                decorator(line);
+                memoized = true;
+                continue;
+            }
+            if (memoized && !"def".equals(keyword)) {
+                throw new IllegalArgumentException("A decorator must be followed by 'def'");
+            }
+
+            switch (keyword) {
+                case "if" -> {
+                    Stmt.If stmt = new Stmt.If(condition(line), new ArrayList<>(), new ArrayList<>(), n);
+                    block.add(stmt);
+                    open.push(new Frame(lineIndent, stmt.body()));
+                }
+                case "elif" -> {
+                    // elif continues the if statement just closed at the same indent level.
+                    Stmt.If stmt = new Stmt.If(condition(line), new ArrayList<>(), new ArrayList<>(), n);
+                    lastIf(block, "elif").orElse().add(stmt);
+                    open.push(new Frame(lineIndent, stmt.body()));
+                }
+                case "else" -> open.push(new Frame(lineIndent, lastIf(block, "else").orElse()));
+                case "for" -> {
+                    Expr iterable = forIterable(line);
+                    List<Stmt> body = new ArrayList<>();
+                    if (iterable instanceof Expr.Call range && "range".equals(range.func())) {
+                        // Python's range can have up to 3 parameters: start, end, step.
+                        List<Expr> args = range.args();
+                        if (args.isEmpty() || args.size() > 3) {
+                            throw new IllegalArgumentException("range() takes 1 to 3 arguments");
+                        }
+                        Expr start = args.size() > 1 ? args.get(0) : new Expr.Num("0", false);
+                        Expr end = args.size() > 1 ? args.get(1) : args.get(0);
+                        Expr step = args.size() > 2 ? args.get(2) : new Expr.Num("1", false);
+                        block.add(new Stmt.For(line.text(1), start, end, step, body, n));
+                    } else {
+                        block.add(new Stmt.ForEach(line.text(1), iterable, body, n));
+                    }
+                    open.push(new Frame(lineIndent, body));
+                }
+                case "while" -> {
+                    Stmt.While stmt = new Stmt.While(condition(line), new ArrayList<>(), n);
+                    block.add(stmt);
+                    open.push(new Frame(lineIndent, stmt.body()));
+                }
+                case "def" -> {
+                    if (!open.isEmpty()) {
+                        throw new IllegalArgumentException("Functions can only be defined at the top level of the script");
+                    }
+                    Stmt.Def stmt = function(line, memoized);
+                    block.add(stmt);
+                    open.push(new Frame(lineIndent, stmt.body(), true));
+                    memoized = false;
+                }
+                case "return" -> {
+                    // Functions are only defined at the top level, so the outermost open block is the function.
+                    if (open.isEmpty() || !open.firstElement().function()) {
+                        throw new IllegalArgumentException("'return' outside a function");
+                    }
+                    boolean none = line.size() == 1 || (line.size() == 2 && line.is(1, Interpreter.Kind.KEYWORD, "None"));
+                    block.add(new Stmt.Return(none ? null : ExpressionParser.parse(line, 1, line.size()), n));
+                }
+                case "import", "from" -> checkImport(line);
+                case "break" -> block.add(new Stmt.Break(n));
+                case "continue" -> block.add(new Stmt.Continue(n));
+                case null, default -> block.add(statement(line));
+            }
+        }
+        return program;
+    }
+
+    /**
+     * Parses the condition of an if/elif/while header (everything between the keyword and ':').
+     */
+    private static Expr condition(TokenLine line) {
+        return ExpressionParser.parse(line, 1, headerColon(line, 1));
+    }
+
+    /**
+     * @return The last If of the elif chain that ends the block, which an elif or else extends.
+     */
+    private static Stmt.If lastIf(List<Stmt> block, String keyword) {
+        if (block.isEmpty() || !(block.getLast() instanceof Stmt.If stmt)) {
+            throw new IllegalArgumentException("'" + keyword + "' without a matching 'if'");
+        }
+        while (stmt.elif() != null) {
+            stmt = stmt.elif();
+        }
+        if (!stmt.orElse().isEmpty()) {
+            throw new IllegalArgumentException("'" + keyword + "' after 'else'");
+        }
+        return stmt;
+    }
+
+    /**
+     * Parses 'def name(a, b):'. Parameter annotations (n: int) and a return annotation are
+     * ignored; default values and *args are not supported.
+     */
+    private static Stmt.Def function(TokenLine line, boolean memoized) {
+        if (line.size() < 5 || line.kind(1) != Interpreter.Kind.IDENTIFIER
+                || !line.is(2, Interpreter.Kind.SEPARATOR, "(") || !line.is(line.size() - 1, Interpreter.Kind.SEPARATOR, ":")) {
+            throw new IllegalArgumentException("Malformed def statement");
+        }
+        String name = line.text(1);
+        if (BUILTINS.contains(name)) {
+            throw new IllegalArgumentException("The built-in function " + name + "() cannot be redefined");
+        }
+
+        // Parameters are the first name of every top-level, comma-separated part of the list.
+        List<String> params = new ArrayList<>();
+        boolean expectName = true;
+        int depth = 0;
+        int i = 3;
+        for (; i < line.size(); i++) {
+            if (depth == 0 && line.is(i, Interpreter.Kind.SEPARATOR, ")")) break;
+            if (line.kind(i) == Interpreter.Kind.SEPARATOR) {
+                if (isOpening(line, i)) depth++;
+                else if (isClosing(line, i)) depth--;
+            }
+            if (depth == 0 && line.is(i, Interpreter.Kind.SEPARATOR, ",")) {
+                expectName = true;
+            } else if (expectName) {
+                String param = line.text(i);
+                if (line.kind(i) != Interpreter.Kind.IDENTIFIER) {
+                    throw new IllegalArgumentException("Unsupported parameter '" + param + "' of " + name + "()");
+                }
+                if (params.contains(param)) {
+                    throw new IllegalArgumentException("Duplicate parameter '" + param + "' of " + name + "()");
+                }
+                params.add(param);
+                expectName = false;
+            } else if (depth == 0 && line.is(i, Interpreter.Kind.OPERATOR, "=")) {
+                throw new IllegalArgumentException("Default parameter values are not supported (" + name + "())");
+            }
+        }
+        if (i == line.size()) {
+            throw new IllegalArgumentException("Malformed def statement");
+        }
+        return new Stmt.Def(name, params, new ArrayList<>(), memoized, line.line());
+    }
+
+    /**
+     * Checks a decorator line. Only the memoizing decorators of functools are supported:
+     * lru_cache (with or without arguments) and cache. A maxsize is not enforced; evicting
+     * entries would only make calls slower, never change their results.
+     */
+    private static void decorator(TokenLine line) {
+        int i = 1;
+        if (line.size() > 3 && line.is(1, Interpreter.Kind.IDENTIFIER, "functools")
+                && line.is(2, Interpreter.Kind.SEPARATOR, ".")) {
+            i = 3;
+        }
+        String name = i < line.size() ? line.text(i) : "";
+        boolean arguments = i + 1 < line.size();
+        boolean supported = "lru_cache".equals(name) || ("cache".equals(name) && !arguments);
+        if (!supported || (arguments && !(line.is(i + 1, Interpreter.Kind.SEPARATOR, "(")
+                && line.is(line.size() - 1, Interpreter.Kind.SEPARATOR, ")")))) {
+            throw new IllegalArgumentException("Only the @lru_cache and @cache decorators are supported");
+        }
+    }
+
+    /**
+     * Checks an import line. The decorators come from functools, which is the only module that can be imported.
+     */
+    private static void checkImport(TokenLine line) {
+        if (line.size() < 2 || !line.is(1, Interpreter.Kind.IDENTIFIER, "functools")
+                || (line.is(0, Interpreter.Kind.KEYWORD, "import") && line.size() != 2)) {
+            throw new IllegalArgumentException("Only functools can be imported");
+        }
+    }
+
+    /**
+     * Parses a normal line: an assignment or an expression statement such as print(...).
+     */
+    private static Stmt statement(TokenLine line) {
+        int i = findAssignment(line);
+        if (i < 0) {
+            return new Stmt.ExprStmt(ExpressionParser.parse(line, 0, line.size()), line.line());
+        }
+        String lhs = line.text(0);
+        String op = line.text(i);
+        Expr rhs = ExpressionParser.parse(line, i + 1, line.size());
+        // a[i] = e stores into a list.
+        Expr.Index item = i > 1 ? listItem(ExpressionParser.parse(line, 0, i)) : null;
+        if (!"=".equals(op)) {
+            // x op= e is translated as x = x op e, so Python semantics (e.g. true division) carry over.
+            rhs = new Expr.Binary(op.substring(0, op.length() - 1), item != null ? item : new Expr.Name(lhs), rhs);
+        }
+        int n = line.line();
+        return item != null ? new Stmt.SetItem(lhs, item.index(), rhs, n) : new Stmt.Assign(lhs, rhs, n);
+    }
+
+    private static Expr.Index listItem(Expr target) {
+        if (!(target instanceof Expr.Index item) || !(item.target() instanceof Expr.Name)) {
+            throw new IllegalArgumentException("Only assignments to a single variable or a list element are supported");
+        }
+        return item;
+    }
+
+    // --------------------- Token helpers --------------------- //
+
+    /**
+     * Finds the top-level '=' or augmented assignment operator (+=, -=, ...) of a statement.
+     * @return Its index, or -1 if the statement is not an assignment.
+     */
+    static int findAssignment(TokenLine line) {
+        int depth = 0;
+        for (int i = 0; i < line.size(); i++) {
+            Interpreter.Kind kind = line.kind(i);
+            if (kind == Interpreter.Kind.SEPARATOR) {
+                if (isOpening(line, i)) depth++;
+                else if (isClosing(line, i)) depth--;
+            } else if (depth == 0 && kind == Interpreter.Kind.OPERATOR && i > 0
+                    && (line.is(i, kind, "=") || isAugmentedAssignment(line.text(i)))) {
+                assignmentTarget(line, i);
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses what 'for var in ...:' loops over: a call to range(...) or a list.
+     */
+    static Expr forIterable(TokenLine line) {
+        if (line.size() < 4 || line.kind(1) != Interpreter.Kind.IDENTIFIER
+                || !line.is(2, Interpreter.Kind.KEYWORD, "in")) {
+            throw new IllegalArgumentException("Malformed for statement");
+        }
+        return ExpressionParser.parse(line, 3, headerColon(line, 3));
+    }
+
+    /**
+     * Returns the variable assigned to by tokens [0, end), which must be a single name or an
+     * element of a list variable, name[index].
+     */
+    private static String assignmentTarget(TokenLine line, int end) {
+        boolean item = end > 3 && line.is(1, Interpreter.Kind.SEPARATOR, "[")
+                && line.is(end - 1, Interpreter.Kind.SEPARATOR, "]");
+        if ((end != 1 && !item) || line.kind(0) != Interpreter.Kind.IDENTIFIER) {
+            throw new IllegalArgumentException("Only assignments to a single variable or a list element are supported");
+        }
+        return line.text(0);
+    }
+
+    /**
+     * Finds the ':' that ends a block header, skipping the colons of slices inside brackets.
+     * @return Its index, or line.size() if there is none.
+     */
+    static int headerColon(TokenLine line, int from) {
+        int depth = 0;
+        for (int i = from; i < line.size(); i++) {
+            if (line.kind(i) != Interpreter.Kind.SEPARATOR) continue;
+            if (isOpening(line, i)) depth++;
+            else if (isClosing(line, i)) depth--;
+            else if (depth == 0 && line.is(i, Interpreter.Kind.SEPARATOR, ":")) return i;
+        }
+        return line.size();
+    }
+
+    // Whether token i, a separator, opens or closes a bracket.
+    private static boolean isOpening(TokenLine line, int i) {
+        return line.is(i, Interpreter.Kind.SEPARATOR, "(") || line.is(i, Interpreter.Kind.SEPARATOR, "[")
+                || line.is(i, Interpreter.Kind.SEPARATOR, "{");
+    }
+
+    private static boolean isClosing(TokenLine line, int i) {
+        return line.is(i, Interpreter.Kind.SEPARATOR, ")") || line.is(i, Interpreter.Kind.SEPARATOR, "]")
+                || line.is(i, Interpreter.Kind.SEPARATOR, "}");
+    }
+
+    private static boolean isAugmentedAssignment(String op) {
+        return switch (op) {
+            case "+=", "-=", "*=", "/=", "//=", "%=", "**=", "&=", "|=", "^=", "<<=", ">>=" -> true;
+            default -> false;
+        };
+    }
+}
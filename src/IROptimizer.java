@@ -0,0 +1,677 @@
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * IROptimizer rewrites the statement tree of a script before code is emitted. It runs three passes:
+ * <ol>
+ *     <li>Constant propagation and folding. Variables holding a literal (N = 10) are replaced by the
+ *     literal where the value is known to reach, and operations on literals are evaluated.</li>
+ *     <li>Hoisting of range bounds. Python evaluates range(...) once, so a bound or step that is not
+ *     a literal is computed into a final local before the loop instead of on every iteration.</li>
+ *     <li>Dead-store elimination. Assignments whose value is never read, such as an initial
+ *     tempMaxDigit = 0 that the loop overwrites before reading, are removed.</li>
+ * </ol>
+ * Every pass keeps Python semantics; folding stops wherever the result would differ (overflow,
+ * division by zero, non-finite floats).
+ */
+public class IROptimizer {
+
+    // All names used by the script, so that hoisted locals get names that cannot clash.
+    private final Set<String> usedNames = new HashSet<>();
+
+    private IROptimizer() {
+    }
+
+    /**
+     * Optimizes a script.
+     * @param program The top-level statements from {@link IRBuilder#build}.
+     * @return The optimized statements. The input is not modified.
+     */
+    public static List<Stmt> optimize(List<Stmt> program) {
+        IROptimizer optimizer = new IROptimizer();
+        optimizer.collectNames(program);
+        List<Stmt> result = optimizer.propagate(program, new HashMap<>());
+        result = optimizer.hoistBounds(result);
+        return optimizer.eliminateDeadStores(result, new HashSet<>(), null);
+    }
+
+    // --------------------- Constant propagation and folding --------------------- //
+
+    /**
+     * Rewrites a block, given the variables known to hold a literal on entry. On return,
+     * constants holds what is known on exit.
+     */
+    private List<Stmt> propagate(List<Stmt> block, Map<String, Expr> constants) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : block) {
+            switch (s) {
+                case Stmt.Assign a -> {
+                    Expr value = fold(a.value(), constants);
+                    if (isLiteral(value)) {
+                        constants.put(a.target(), value);
+                    } else {
+                        constants.remove(a.target());
+                    }
+                    result.add(new Stmt.Assign(a.target(), value, a.line()));
+                }
+                case Stmt.Hoisted h -> result.add(new Stmt.Hoisted(h.name(), fold(h.value(), constants), h.line()));
+                case Stmt.SetItem a -> result.add(new Stmt.SetItem(a.target(), fold(a.index(), constants), fold(a.value(), constants), a.line()));
+                case Stmt.ExprStmt e -> result.add(new Stmt.ExprStmt(fold(e.expr(), constants), e.line()));
+                case Stmt.If f -> {
+                    Expr condition = fold(f.condition(), constants);
+                    if (condition instanceof Expr.Bool b) {
+                        // Only one branch can run: keep just that one, without the if.
+                        result.addAll(propagate(b.value() ? f.body() : f.orElse(), constants));
+                    } else {
+                        result.add(propagateIf(new Stmt.If(condition, f.body(), f.orElse(), f.line()), constants));
+                    }
+                }
+                case Stmt.While w -> {
+                    // Values assigned in the loop are not known in the condition or in the body,
+                    // since they may come from an earlier iteration.
+                    assigned(w.body()).forEach(constants::remove);
+                    Expr condition = fold(w.condition(), constants);
+                    List<Stmt> body = propagate(w.body(), new HashMap<>(constants));
+                    result.add(new Stmt.While(condition, body, w.line()));
+                }
+                case Stmt.For f -> {
+                    // The bounds are evaluated once, before the loop variable or the body change anything.
+                    Expr start = fold(f.start(), constants);
+                    Expr end = fold(f.end(), constants);
+                    Expr step = fold(f.step(), constants);
+                    assigned(f.body()).forEach(constants::remove);
+                    constants.remove(f.var());
+                    List<Stmt> body = propagate(f.body(), new HashMap<>(constants));
+                    result.add(new Stmt.For(f.var(), start, end, step, body, f.line()));
+                }
+                case Stmt.ForEach f -> {
+                    Expr iterable = fold(f.iterable(), constants);
+                    assigned(f.body()).forEach(constants::remove);
+                    constants.remove(f.var());
+                    List<Stmt> body = propagate(f.body(), new HashMap<>(constants));
+                    result.add(new Stmt.ForEach(f.var(), iterable, body, f.line()));
+                }
+                case Stmt.Break b -> result.add(b);
+                case Stmt.Continue c -> result.add(c);
+                case Stmt.Def d -> {
+                    // A function only sees its parameters and its own variables, none of them known.
+                    List<Stmt> body = propagate(d.body(), new HashMap<>());
+                    result.add(new Stmt.Def(d.name(), d.params(), body, d.memoized(), d.line()));
+                }
+                case Stmt.Return r -> result.add(new Stmt.Return(r.value() == null ? null : fold(r.value(), constants), r.line()));
+            }
+        }
+        return result;
+    }
+
+    private Stmt.If propagateIf(Stmt.If f, Map<String, Expr> constants) {
+        Map<String, Expr> thenConstants = new HashMap<>(constants);
+        Map<String, Expr> elseConstants = new HashMap<>(constants);
+        List<Stmt> body = propagate(f.body(), thenConstants);
+        List<Stmt> orElse = propagate(f.orElse(), elseConstants);
+
+        // After the if, a variable is known only if both branches leave it with the same literal.
+        constants.clear();
+        for (Map.Entry<String, Expr> e : thenConstants.entrySet()) {
+            if (e.getValue().equals(elseConstants.get(e.getKey()))) {
+                constants.put(e.getKey(), e.getValue());
+            }
+        }
+        return new Stmt.If(f.condition(), body, orElse, f.line());
+    }
+
+    private static boolean isLiteral(Expr e) {
+        return e instanceof Expr.Num || e instanceof Expr.Str || e instanceof Expr.Bool;
+    }
+
+    /**
+     * Replaces known variables by their literal and evaluates operations on literals.
+     */
+    private Expr fold(Expr e, Map<String, Expr> constants) {
+        return switch (e) {
+            case Expr.Name n -> constants.getOrDefault(n.id(), n);
+            case Expr.Num n -> n;
+            case Expr.Str s -> s;
+            case Expr.Bool b -> b;
+            case Expr.Unary u -> foldUnary(u.op(), fold(u.operand(), constants));
+            case Expr.Binary b -> foldBinary(b.op(), fold(b.left(), constants), fold(b.right(), constants));
+            case Expr.BoolOp b -> foldBoolOp(b.op(), fold(b.left(), constants), fold(b.right(), constants));
+            case Expr.Compare c -> foldCompare(c.ops(), c.operands().stream().map(o -> fold(o, constants)).toList());
+            case Expr.Call c -> foldCall(c.func(), c.args().stream().map(a -> fold(a, constants)).toList());
+            case Expr.Keyword k -> new Expr.Keyword(k.name(), fold(k.value(), constants));
+            case Expr.ListLiteral l -> new Expr.ListLiteral(l.elements().stream().map(x -> fold(x, constants)).toList());
+            case Expr.Index i -> new Expr.Index(fold(i.target(), constants), fold(i.index(), constants));
+            case Expr.Slice l -> new Expr.Slice(fold(l.target(), constants), foldPart(l.lower(), constants),
+                    foldPart(l.upper(), constants), foldPart(l.step(), constants));
+            case Expr.Method m -> new Expr.Method(fold(m.target(), constants), m.name(),
+                    m.args().stream().map(a -> fold(a, constants)).toList());
+        };
+    }
+
+    private Expr foldPart(Expr e, Map<String, Expr> constants) {
+        return e == null ? null : fold(e, constants);
+    }
+
+    private static Expr foldCall(String func, List<Expr> args) {
+        Expr folded = null;
+        if (args.size() == 1 && args.getFirst() instanceof Expr.Num n) {
+            folded = switch (func) {
+                // int() truncates towards zero.
+                case "int" -> n.isFloat() ? intLiteral(new BigDecimal(n.text()).toBigInteger()) : n;
+                case "float" -> floatLiteral(Double.parseDouble(n.text()));
+                case "abs" -> n.isFloat() ? floatLiteral(Math.abs(Double.parseDouble(n.text())))
+                        : intLiteral(new BigInteger(n.text()).abs());
+                default -> null;
+            };
+        }
+        return folded != null ? folded : new Expr.Call(func, args);
+    }
+
+    private static Expr foldUnary(String op, Expr operand) {
+        Expr folded = null;
+        if ("not".equals(op) && operand instanceof Expr.Bool b) {
+            folded = new Expr.Bool(!b.value());
+        } else if (operand instanceof Expr.Num n) {
+            if ("+".equals(op)) {
+                folded = n;
+            } else if ("-".equals(op)) {
+                folded = n.isFloat() ? floatLiteral(-Double.parseDouble(n.text()))
+                        : intLiteral(new BigInteger(n.text()).negate());
+            }
+        }
+        return folded != null ? folded : new Expr.Unary(op, operand);
+    }
+
+    private static Expr foldBinary(String op, Expr left, Expr right) {
+        Expr folded = null;
+        if (left instanceof Expr.Num l && right instanceof Expr.Num r) {
+            folded = (l.isFloat() || r.isFloat())
+                    ? foldFloat(op, Double.parseDouble(l.text()), Double.parseDouble(r.text()))
+                    : foldInt(op, new BigInteger(l.text()), new BigInteger(r.text()));
+        } else if ("+".equals(op) && left instanceof Expr.Str l && right instanceof Expr.Str r) {
+            folded = new Expr.Str(l.value() + r.value());
+        }
+        return folded != null ? folded : new Expr.Binary(op, left, right);
+    }
+
+    /**
+     * Evaluates an operation on two Python ints exactly.
+     * @return The literal result, or null if it cannot be folded (e.g. division by zero).
+     */
+    private static Expr foldInt(String op, BigInteger a, BigInteger b) {
+        switch (op) {
+            case "+" -> {
+                return intLiteral(a.add(b));
+            }
+            case "-" -> {
+                return intLiteral(a.subtract(b));
+            }
+            case "*" -> {
+                return intLiteral(a.multiply(b));
+            }
+            case "/" -> {
+                return b.signum() == 0 ? null : floatLiteral(a.doubleValue() / b.doubleValue());
+            }
+            case "//" -> {
+                return b.signum() == 0 ? null : intLiteral(PyMath.floorDiv(a, b));
+            }
+            case "%" -> {
+                return b.signum() == 0 ? null : intLiteral(PyMath.floorMod(a, b));
+            }
+            case "**" -> {
+                // Larger exponents would not fit in a long anyway.
+                return b.signum() < 0 || b.compareTo(BigInteger.valueOf(64)) > 0 ? null : intLiteral(a.pow(b.intValue()));
+            }
+            case "&" -> {
+                return intLiteral(a.and(b));
+            }
+            case "|" -> {
+                return intLiteral(a.or(b));
+            }
+            case "^" -> {
+                return intLiteral(a.xor(b));
+            }
+            case "<<" -> {
+                return b.signum() < 0 || b.compareTo(BigInteger.valueOf(64)) > 0 ? null : intLiteral(a.shiftLeft(b.intValue()));
+            }
+            case ">>" -> {
+                return b.signum() < 0 || b.compareTo(BigInteger.valueOf(64)) > 0 ? null : intLiteral(a.shiftRight(b.intValue()));
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private static Expr foldFloat(String op, double a, double b) {
+        return switch (op) {
+            case "+" -> floatLiteral(a + b);
+            case "-" -> floatLiteral(a - b);
+            case "*" -> floatLiteral(a * b);
+            case "/" -> b == 0 ? null : floatLiteral(a / b);
+            default -> null;
+        };
+    }
+
+    /**
+     * @return A literal for an int result, or null if it does not fit in a long.
+     */
+    private static Expr intLiteral(BigInteger v) {
+        return v.bitLength() < 64 ? new Expr.Num(v.toString(), false) : null;
+    }
+
+    /**
+     * @return A literal for a float result, or null if it is infinite or NaN.
+     */
+    private static Expr floatLiteral(double v) {
+        return Double.isFinite(v) ? new Expr.Num(Double.toString(v), true) : null;
+    }
+
+    private static Expr foldBoolOp(String op, Expr left, Expr right) {
+        if (left instanceof Expr.Bool l) {
+            // False and x, True or x: x is never evaluated.
+            if ("and".equals(op) && !l.value()) return l;
+            if ("or".equals(op) && l.value()) return l;
+            // True and x, False or x: the result is x as a boolean.
+            if (isBoolean(right)) return right;
+        }
+        return new Expr.BoolOp(op, left, right);
+    }
+
+    private static boolean isBoolean(Expr e) {
+        return e instanceof Expr.Bool || e instanceof Expr.Compare || e instanceof Expr.BoolOp
+                || (e instanceof Expr.Unary u && "not".equals(u.op()));
+    }
+
+    private static Expr foldCompare(List<String> ops, List<Expr> operands) {
+        boolean result = true;
+        for (int i = 0; i < ops.size(); i++) {
+            Boolean pair = comparePair(ops.get(i), operands.get(i), operands.get(i + 1));
+            if (pair == null) {
+                return new Expr.Compare(ops, operands);
+            }
+            result &= pair;
+        }
+        return new Expr.Bool(result);
+    }
+
+    /**
+     * @return The result of comparing two literals, or null if it is not known at translation time.
+     */
+    private static Boolean comparePair(String op, Expr left, Expr right) {
+        int cmp;
+        if (left instanceof Expr.Num l && right instanceof Expr.Num r) {
+            cmp = (l.isFloat() || r.isFloat())
+                    ? Double.compare(Double.parseDouble(l.text()), Double.parseDouble(r.text()))
+                    : new BigInteger(l.text()).compareTo(new BigInteger(r.text()));
+        } else if (left instanceof Expr.Str l && right instanceof Expr.Str r) {
+            cmp = l.value().compareTo(r.value());
+        } else {
+            return null;
+        }
+        return switch (op) {
+            case "==" -> cmp == 0;
+            case "!=" -> cmp != 0;
+            case "<" -> cmp < 0;
+            case "<=" -> cmp <= 0;
+            case ">" -> cmp > 0;
+            case ">=" -> cmp >= 0;
+            default -> null;
+        };
+    }
+
+    // --------------------- Hoisting range bounds --------------------- //
+
+    private List<Stmt> hoistBounds(List<Stmt> block) {
+        List<Stmt> result = new ArrayList<>();
+        for (Stmt s : block) {
+            switch (s) {
+                case Stmt.For f -> {
+                    Set<String> changed = assigned(f.body());
+                    changed.add(f.var());
+                    // The start is read once, but the loop compares it with end before var is set
+                    // to it, and it is evaluated first, as Python evaluates range()'s arguments.
+                    Expr start = hoist(f.start(), f.var() + "_start", Set.of(), f.line(), result);
+                    Expr end = hoist(f.end(), f.var() + "_end", changed, f.line(), result);
+                    Expr step = hoist(f.step(), f.var() + "_step", changed, f.line(), result);
+                    result.add(new Stmt.For(f.var(), start, end, step, hoistBounds(f.body()), f.line()));
+                }
+                case Stmt.ForEach f -> result.add(new Stmt.ForEach(f.var(), f.iterable(), hoistBounds(f.body()), f.line()));
+                case Stmt.While w -> result.add(new Stmt.While(w.condition(), hoistBounds(w.body()), w.line()));
+                case Stmt.If f -> result.add(new Stmt.If(f.condition(), hoistBounds(f.body()), hoistBounds(f.orElse()), f.line()));
+                case Stmt.Def d -> result.add(new Stmt.Def(d.name(), d.params(), hoistBounds(d.body()), d.memoized(), d.line()));
+                default -> result.add(s);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Moves a loop bound into a final local declared before the loop, unless reading it
+     * on every iteration is just as cheap and gives the same value: a literal, or a
+     * variable the loop does not assign.
+     * @param line The line of the loop, which the local is declared on.
+     * @return The expression the loop header should use.
+     */
+    private Expr hoist(Expr bound, String baseName, Set<String> changed, int line, List<Stmt> before) {
+        if (isLiteral(bound) || (bound instanceof Expr.Name n && !changed.contains(n.id()))) {
+            return bound;
+        }
+        String name = baseName;
+        for (int i = 2; usedNames.contains(name); i++) {
+            name = baseName + "_" + i;
+        }
+        usedNames.add(name);
+        before.add(new Stmt.Hoisted(name, bound, line));
+        return new Expr.Name(name);
+    }
+
+    // --------------------- Dead-store elimination --------------------- //
+
+    /**
+     * What is live where a loop is left or continued, for break and continue inside it.
+     */
+    private record Loop(Set<String> atBreak, Set<String> atContinue) {
+    }
+
+    /**
+     * Removes dead assignments from a block, working backwards from the variables live after it.
+     * On return, live holds the variables live on entry to the block.
+     */
+    private List<Stmt> eliminateDeadStores(List<Stmt> block, Set<String> live, Loop loop) {
+        List<Stmt> result = new ArrayList<>();
+        for (int i = block.size() - 1; i >= 0; i--) {
+            Stmt s = block.get(i);
+            switch (s) {
+                case Stmt.Assign a -> {
+                    if (!live.contains(a.target()) && isPure(a.value())) {
+                        continue;
+                    }
+                    live.remove(a.target());
+                    reads(a.value(), live);
+                    result.add(a);
+                }
+                case Stmt.Hoisted h -> {
+                    live.remove(h.name());
+                    reads(h.value(), live);
+                    result.add(h);
+                }
+                case Stmt.SetItem a -> {
+                    // Storing into a list reads the list variable; the list itself may be seen
+                    // through other variables, so the store is never dead.
+                    live.add(a.target());
+                    reads(a.index(), live);
+                    reads(a.value(), live);
+                    result.add(a);
+                }
+                case Stmt.ExprStmt e -> {
+                    reads(e.expr(), live);
+                    result.add(e);
+                }
+                case Stmt.If f -> {
+                    Set<String> elseLive = new HashSet<>(live);
+                    List<Stmt> body = eliminateDeadStores(f.body(), live, loop);
+                    List<Stmt> orElse = eliminateDeadStores(f.orElse(), elseLive, loop);
+                    live.addAll(elseLive);
+                    reads(f.condition(), live);
+                    result.add(new Stmt.If(f.condition(), body, orElse, f.line()));
+                }
+                case Stmt.While w -> {
+                    // Live at the loop head: whatever the condition reads, what is live after the loop,
+                    // and whatever the body needs, which in turn depends on the loop head. Iterate to a fixed point.
+                    Set<String> exit = new HashSet<>(live);
+                    Set<String> head = new HashSet<>(exit);
+                    reads(w.condition(), head);
+                    while (true) {
+                        Set<String> next = new HashSet<>(head);
+                        next.addAll(liveIn(w.body(), head, new Loop(exit, head)));
+                        if (next.equals(head)) break;
+                        head = next;
+                    }
+                    List<Stmt> body = eliminateDeadStores(w.body(), new HashSet<>(head), new Loop(exit, head));
+                    live.clear();
+                    live.addAll(head);
+                    result.add(new Stmt.While(w.condition(), body, w.line()));
+                }
+                case Stmt.For f -> {
+                    // The header reads the loop variable and the bounds on every iteration and assigns
+                    // the loop variable before the first one. An empty range does not assign it, so
+                    // the value it had before the loop stays live.
+                    Set<String> exit = new HashSet<>(live);
+                    Set<String> head = new HashSet<>(exit);
+                    head.add(f.var());
+                    reads(f.end(), head);
+                    reads(f.step(), head);
+                    while (true) {
+                        Set<String> next = new HashSet<>(head);
+                        next.addAll(liveIn(f.body(), head, new Loop(exit, head)));
+                        if (next.equals(head)) break;
+                        head = next;
+                    }
+                    List<Stmt> body = eliminateDeadStores(f.body(), new HashSet<>(head), new Loop(exit, head));
+                    live.clear();
+                    live.addAll(head);
+                    reads(f.start(), live);
+                    result.add(new Stmt.For(f.var(), f.start(), f.end(), f.step(), body, f.line()));
+                }
+                case Stmt.ForEach f -> {
+                    // The header reads the list on every iteration, and assigns the loop variable
+                    // before the body runs.
+                    Set<String> exit = new HashSet<>(live);
+                    Set<String> head = new HashSet<>(exit);
+                    reads(f.iterable(), head);
+                    while (true) {
+                        Set<String> next = new HashSet<>(head);
+                        Set<String> bodyIn = liveIn(f.body(), head, new Loop(exit, head));
+                        bodyIn.remove(f.var());
+                        next.addAll(bodyIn);
+                        if (next.equals(head)) break;
+                        head = next;
+                    }
+                    List<Stmt> body = eliminateDeadStores(f.body(), new HashSet<>(head), new Loop(exit, head));
+                    live.clear();
+                    live.addAll(head);
+                    result.add(new Stmt.ForEach(f.var(), f.iterable(), body, f.line()));
+                }
+                case Stmt.Break b -> {
+                    live.clear();
+                    live.addAll(enclosing(loop, "break").atBreak());
+                    result.add(b);
+                }
+                case Stmt.Continue c -> {
+                    live.clear();
+                    live.addAll(enclosing(loop, "continue").atContinue());
+                    result.add(c);
+                }
+                case Stmt.Def d -> {
+                    // Nothing a function assigns is live once it returns.
+                    List<Stmt> body = eliminateDeadStores(d.body(), new HashSet<>(), null);
+                    result.add(new Stmt.Def(d.name(), d.params(), body, d.memoized(), d.line()));
+                }
+                case Stmt.Return r -> {
+                    live.clear();
+                    if (r.value() != null) {
+                        reads(r.value(), live);
+                    }
+                    result.add(r);
+                }
+            }
+        }
+        return result.reversed();
+    }
+
+    private static Loop enclosing(Loop loop, String keyword) {
+        if (loop == null) {
+            throw new IllegalArgumentException("'" + keyword + "' outside loop");
+        }
+        return loop;
+    }
+
+    /**
+     * @return The variables live on entry to a block, given those live after it.
+     */
+    private Set<String> liveIn(List<Stmt> block, Set<String> liveOut, Loop loop) {
+        Set<String> live = new HashSet<>(liveOut);
+        eliminateDeadStores(block, live, loop);
+        return live;
+    }
+
+    /**
+     * @return False if evaluating e may have an effect besides its value: a call to a function that
+     *         is not a known pure builtin, or a division that may fail.
+     */
+    private static boolean isPure(Expr e) {
+        return switch (e) {
+            case Expr.Num n -> true;
+            case Expr.Str s -> true;
+            case Expr.Bool b -> true;
+            case Expr.Name n -> true;
+            case Expr.Unary u -> isPure(u.operand());
+            case Expr.Binary b -> {
+                boolean division = "//".equals(b.op()) || "%".equals(b.op());
+                boolean safeDivisor = b.right() instanceof Expr.Num n && !isZero(n);
+                yield (!division || safeDivisor) && isPure(b.left()) && isPure(b.right());
+            }
+            case Expr.BoolOp b -> isPure(b.left()) && isPure(b.right());
+            case Expr.Compare c -> c.operands().stream().allMatch(IROptimizer::isPure);
+            case Expr.Call c -> switch (c.func()) {
+                case "abs", "min", "max", "bool", "str", "round" -> c.args().stream().allMatch(IROptimizer::isPure);
+                default -> false;
+            };
+            case Expr.Keyword k -> isPure(k.value());
+            // Building a list has no effect; indexing and slicing may fail, and a method may change the list.
+            case Expr.ListLiteral l -> l.elements().stream().allMatch(IROptimizer::isPure);
+            case Expr.Index i -> false;
+            case Expr.Slice l -> false;
+            case Expr.Method m -> false;
+        };
+    }
+
+    private static boolean isZero(Expr.Num n) {
+        return n.isFloat() ? Double.parseDouble(n.text()) == 0 : new BigInteger(n.text()).signum() == 0;
+    }
+
+    // --------------------- Helpers --------------------- //
+
+    /**
+     * Adds the variables e reads to names.
+     */
+    private static void reads(Expr e, Set<String> names) {
+        switch (e) {
+            case Expr.Name n -> names.add(n.id());
+            case Expr.Unary u -> reads(u.operand(), names);
+            case Expr.Binary b -> {
+                reads(b.left(), names);
+                reads(b.right(), names);
+            }
+            case Expr.BoolOp b -> {
+                reads(b.left(), names);
+                reads(b.right(), names);
+            }
+            case Expr.Compare c -> c.operands().forEach(o -> reads(o, names));
+            case Expr.Call c -> c.args().forEach(a -> reads(a, names));
+            case Expr.Keyword k -> reads(k.value(), names);
+            case Expr.ListLiteral l -> l.elements().forEach(x -> reads(x, names));
+            case Expr.Index i -> {
+                reads(i.target(), names);
+                reads(i.index(), names);
+            }
+            case Expr.Slice l -> {
+                reads(l.target(), names);
+                for (Expr part : new Expr[]{l.lower(), l.upper(), l.step()}) {
+                    if (part != null) reads(part, names);
+                }
+            }
+            case Expr.Method m -> {
+                reads(m.target(), names);
+                m.args().forEach(a -> reads(a, names));
+            }
+            case Expr.Num n -> {
+            }
+            case Expr.Str s -> {
+            }
+            case Expr.Bool b -> {
+            }
+        }
+    }
+
+    /**
+     * @return The variables assigned anywhere in a block, including nested blocks and loop variables.
+     */
+    private static Set<String> assigned(List<Stmt> block) {
+        Set<String> names = new HashSet<>();
+        for (Stmt s : block) {
+            switch (s) {
+                case Stmt.Assign a -> names.add(a.target());
+                case Stmt.Hoisted h -> names.add(h.name());
+                case Stmt.If f -> {
+                    names.addAll(assigned(f.body()));
+                    names.addAll(assigned(f.orElse()));
+                }
+                case Stmt.While w -> names.addAll(assigned(w.body()));
+                case Stmt.For f -> {
+                    names.add(f.var());
+                    names.addAll(assigned(f.body()));
+                }
+                case Stmt.ForEach f -> {
+                    names.add(f.var());
+                    names.addAll(assigned(f.body()));
+                }
+                default -> {
+                }
+            }
+        }
+        return names;
+    }
+
+    private void collectNames(List<Stmt> block) {
+        usedNames.addAll(assigned(block));
+        for (Stmt s : block) {
+            switch (s) {
+                case Stmt.Assign a -> reads(a.value(), usedNames);
+                case Stmt.Hoisted h -> reads(h.value(), usedNames);
+                case Stmt.ExprStmt e -> reads(e.expr(), usedNames);
+                case Stmt.SetItem a -> {
+                    reads(a.index(), usedNames);
+                    reads(a.value(), usedNames);
+                }
+                case Stmt.ForEach f -> {
+                    reads(f.iterable(), usedNames);
+                    collectNames(f.body());
+                }
+                case Stmt.If f -> {
+                    reads(f.condition(), usedNames);
+                    collectNames(f.body());
+                    collectNames(f.orElse());
+                }
+                case Stmt.While w -> {
+                    reads(w.condition(), usedNames);
+                    collectNames(w.body());
+                }
+                case Stmt.For f -> {
+                    reads(f.start(), usedNames);
+                    reads(f.end(), usedNames);
+                    reads(f.step(), usedNames);
+                    collectNames(f.body());
+                }
+                case Stmt.Def d -> {
+                    usedNames.addAll(d.params());
+                    collectNames(d.body());
+                }
+                case Stmt.Return r -> {
+                    if (r.value() != null) {
+                        reads(r.value(), usedNames);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+    }
+}
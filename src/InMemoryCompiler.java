@@ -0,0 +1,161 @@
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * InMemoryCompiler compiles generated Java source without touching the filesystem.
+ * The source is held in a string-backed JavaFileObject, the compiled bytecode is
+ * collected by a memory-backed JavaFileManager, and the resulting byte arrays are
+ * defined as hidden classes by {@link CompiledScript}.
+ * <p>
+ * An InMemoryCompiler can be shared by threads. The standard file managers, which index the
+ * platform classes on first use, are kept in a pool and reused by later compilations.
+ */
+public class InMemoryCompiler {
+
+    private final JavaCompiler compiler;
+
+    // File managers not in use by a compilation. A file manager is used by one compilation at a time.
+    private final ConcurrentLinkedQueue<StandardJavaFileManager> fileManagers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Constructs an InMemoryCompiler on top of the given system compiler.
+     * @param compiler The JDK compiler (from ToolProvider.getSystemJavaCompiler()).
+     */
+    public InMemoryCompiler(JavaCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Compiles a single class from source.
+     * @param className   The binary name of the top-level class in the source.
+     * @param source      The full Java source of the class.
+     * @param diagnostics Collector that receives compiler errors and warnings.
+     * @return A map from binary class name to bytecode, or null if compilation failed.
+     */
+    public Map<String, byte[]> compile(String className, String source,
+                                       DiagnosticCollector<JavaFileObject> diagnostics) {
+        return compile(Map.of(className, source), diagnostics);
+    }
+
+    /**
+     * Compiles several classes in one compilation, so javac starts up and loads the platform
+     * classes once for all of them.
+     * @param sources     Map from the binary name of each top-level class to its full Java source.
+     * @param diagnostics Collector that receives compiler errors and warnings. The source of a
+     *                    diagnostic is a {@link SourceFile}, which tells the class it belongs to.
+     * @return A map from binary class name to bytecode, or null if compilation failed.
+     */
+    public Map<String, byte[]> compile(Map<String, String> sources,
+                                       DiagnosticCollector<JavaFileObject> diagnostics) {
+        List<SourceFile> files = new ArrayList<>();
+        for (Map.Entry<String, String> e : sources.entrySet()) {
+            files.add(new SourceFile(e.getKey(), e.getValue()));
+        }
+
+        StandardJavaFileManager standard = fileManagers.poll();
+        if (standard == null) {
+            standard = compiler.getStandardFileManager(null, null, null);
+        }
+        try {
+            MemoryFileManager fileManager = new MemoryFileManager(standard);
+
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, diagnostics, null, null, files);
+
+            // call() returns true only if there were no errors.
+            if (!task.call()) {
+                return null;
+            }
+            return fileManager.classBytes();
+        } finally {
+            // The memory file manager is dropped without closing it, which would close the standard one.
+            fileManagers.add(standard);
+        }
+    }
+
+    /**
+     * A Java source file whose content is held in a String.
+     */
+    static class SourceFile extends SimpleJavaFileObject {
+        final String className;
+        private final String source;
+
+        SourceFile(String className, String source) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension),
+                    Kind.SOURCE);
+            this.className = className;
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+    /**
+     * A class file whose bytecode is written into a byte array instead of a file.
+     */
+    static class ClassFile extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        ClassFile(String className) {
+            super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension),
+                    Kind.CLASS);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            return bytes;
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+    }
+
+    /**
+     * File manager that reads classpath entries as usual but keeps every class
+     * the compiler writes in memory.
+     */
+    static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final Map<String, ClassFile> outputs = new HashMap<>();
+
+        MemoryFileManager(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(JavaFileManager.Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            ClassFile file = new ClassFile(className);
+            outputs.put(className, file);
+            return file;
+        }
+
+        /**
+         * @return The bytecode of every class produced by the last compilation.
+         */
+        Map<String, byte[]> classBytes() {
+            Map<String, byte[]> result = new HashMap<>();
+            for (Map.Entry<String, ClassFile> e : outputs.entrySet()) {
+                result.put(e.getKey(), e.getValue().toByteArray());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+import java.util.Arrays;
+
+/**
+ * IntList is a Python list of ints, kept in a growable long array, so its elements are never
+ * boxed. The translator uses it for every list whose elements are all ints (or bools mixed with
+ * ints); a loop over it is an indexed loop over {@link #get}, which allocates nothing:
+ * <pre>
+ *   for (int i$1 = 0; i$1 &lt; nums.size(); i$1++) {
+ *       long n = nums.get(i$1);
+ *       ...
+ *   }
+ * </pre>
+ */
+public final class IntList extends PySequence {
+
+    private static final long[] EMPTY = {};
+
+    private long[] data;
+
+    public IntList() {
+        data = EMPTY;
+    }
+
+    private IntList(long[] data, int size) {
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * @return A list holding the given values, for a list literal such as [1, 2, 3].
+     */
+    public static IntList of(long... values) {
+        return new IntList(values, values.length);
+    }
+
+    /**
+     * @return A list of the ints 0 and 1 for the bools of a list that is used as a list of ints.
+     */
+    public static IntList copyOf(BooleanList list) {
+        long[] values = new long[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.get(i) ? 1 : 0;
+        }
+        return of(values);
+    }
+
+    @Override
+    protected Object boxed(int i) {
+        return data[i];
+    }
+
+    public long get(long index) {
+        return data[index(index)];
+    }
+
+    public void set(long index, long value) {
+        data[index(index)] = value;
+    }
+
+    public void append(long value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, grown(size));
+        }
+        data[size++] = value;
+    }
+
+    public boolean contains(long value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The slice [start:stop:step] as a new list; an omitted bound is {@link #NONE}.
+     */
+    public IntList slice(long start, long stop, long step) {
+        int first = sliceStart(start, step);
+        long[] values = new long[sliceLength(first, stop, step)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data[(int) (first + i * step)];
+        }
+        return of(values);
+    }
+
+    /**
+     * @return A new list with the elements of this list followed by those of other (Python's +).
+     */
+    public IntList concat(IntList other) {
+        long[] values = Arrays.copyOf(data, size + other.size);
+        System.arraycopy(other.data, 0, values, size, other.size);
+        return of(values);
+    }
+
+    /**
+     * @return A new list with the elements of this list n times over (Python's *).
+     */
+    public IntList repeat(long n) {
+        long[] values = new long[repeatedSize(n)];
+        for (int i = 0; i < values.length; i += size) {
+            System.arraycopy(data, 0, values, i, size);
+        }
+        return of(values);
+    }
+
+    public long min() {
+        long result = data[first("min")];
+        for (int i = 1; i < size; i++) {
+            result = Math.min(result, data[i]);
+        }
+        return result;
+    }
+
+    public long max() {
+        long result = data[first("max")];
+        for (int i = 1; i < size; i++) {
+            result = Math.max(result, data[i]);
+        }
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof IntList other && Arrays.equals(data, 0, size, other.data, 0, other.size);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + Long.hashCode(data[i]);
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(data[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -1,8 +1,20 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
 
 /**
  * Interpreter provides methods to read a Python file, tokenize it (lexer),
@@ -12,115 +24,562 @@ public class Interpreter {
 
     /**
      * Reads an entire file at filePath and converts it into tokens grouped by line.
+     * The file is streamed through {@link #stream(String)}, so its text is never held in memory as a whole.
      * @param filePath The absolute or relative path to the Python file.
-     * @return A list of lines, where each line is a list of tokens.
+     * @return A list of lines, where each line is a list of tokens; empty if the file could not be read.
      */
     public static List<List<Token>> parse(String filePath) {
         List<List<Token>> lines = new ArrayList<>();
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            StringBuilder content = new StringBuilder();
-            String line;
-
-            // Read the file line by line and build a single string with newlines.
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+        try (LineStream stream = stream(filePath)) {
+            while (stream.hasNext()) {
+                lines.add(stream.next());
             }
+        } catch (IOException | UncheckedIOException e) {
+            e.printStackTrace();
+        }
+        return lines;
+    }
 
-            // Convert that big string into tokens.
-            return lexer(content.toString());
+    /**
+     * Reads an entire file at filePath into a single string with newlines.
+     * @param filePath The absolute or relative path to the Python file.
+     * @return The file content, or null if the file could not be read.
+     */
+    public static String readSource(String filePath) {
+        try {
+            return readText(Path.of(filePath));
         } catch (IOException e) {
             e.printStackTrace();
-            return lines;
+            return null;
+        }
+    }
+
+    /**
+     * Reads a UTF-8 file in one go into a single string with newlines: \r\n and \r end lines
+     * like \n, and the last line is ended too. Scripts read from files and given as text are
+     * lexed, and keyed in the compilation cache, the same way from this string.
+     * @param file The Python file.
+     * @return The file content.
+     * @throws IOException If the file cannot be read or is not UTF-8.
+     */
+    public static String readText(Path file) throws IOException {
+        String text = Files.readString(file);
+        if (text.indexOf('\r') >= 0) {
+            text = text.replace("\r\n", "\n").replace('\r', '\n');
         }
+        return text.isEmpty() || text.endsWith("\n") ? text : text + "\n";
     }
 
+    /**
+     * Opens a streaming lexer over the file at filePath. Token lines are produced one at a time
+     * while the file is read and decoded in fixed-size chunks, so memory use does not grow with file size.
+     * @param filePath The absolute or relative path to the Python file.
+     * @return An iterator of token lines; close it to release the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static LineStream stream(String filePath) throws IOException {
+        return new LineStream(FileChannel.open(Path.of(filePath), StandardOpenOption.READ));
+    }
+
+    // Texts of at least this many chars are lexed in parallel. benchmarks.LexerBenchmark measures
+    // where that starts to pay off; set -Dtranslator.parallelLexThreshold=<chars> to what it suggests.
+    static final int PARALLEL_LEX_THRESHOLD = Integer.getInteger("translator.parallelLexThreshold", 512 * 1024);
+
+    // Smallest chunk a parallel lex splits the text into, in chars.
+    private static final int MIN_CHUNK = 64 * 1024;
+
     /**
      * Converts raw Python code into a list of token-lists, one list per line.
+     * Large texts are lexed in parallel ({@link #lexParallel(String)}).
      * @param text The raw Python code as a single string.
      * @return A list of lines, each line being a list of Token objects.
      */
     public static List<List<Token>> lexer(String text) {
+        if (text.length() >= PARALLEL_LEX_THRESHOLD) {
+            return lexParallel(text);
+        }
+        return lexSequential(text);
+    }
+
+    /**
+     * Converts raw Python code into token lines on the calling thread.
+     * @param text The raw Python code as a single string.
+     * @return A list of lines, each line being a list of Token objects.
+     */
+    public static List<List<Token>> lexSequential(String text) {
         // Split the text by newline characters.
         String[] rawLines = text.split("\n");
         List<List<Token>> tokenLines = new ArrayList<>();
 
-        for (String l : rawLines) {
-            int indent = 0;
+        for (int i = 0; i < rawLines.length; i++) {
+            List<Token> lineTokens = lexLine(rawLines[i]);
+
+            // If after all this, we have tokens, add them to tokenLines.
+            if (!lineTokens.isEmpty()) {
+                tokenLines.add(numbered(lineTokens, i + 1));
+            }
+        }
+
+        return tokenLines;
+    }
+
+    /**
+     * Converts raw Python code into token lines like {@link #lexSequential(String)}, but on all cores.
+     * Tokens never cross a line, so the text is cut into chunks at newlines, the chunks are lexed
+     * concurrently on the common fork-join pool, and their lines are joined back in order.
+     * The result is the same as that of the sequential lexer.
+     * @param text The raw Python code as a single string.
+     * @return A list of lines, each line being a list of Token objects.
+     */
+    public static List<List<Token>> lexParallel(String text) {
+        char[] chars = text.toCharArray();
+        List<Integer> bounds = chunkBounds(chars);
+
+        List<Chunk> chunks = IntStream.range(0, bounds.size() - 1)
+                .parallel()
+                .mapToObj(i -> lexChunk(chars, bounds.get(i), bounds.get(i + 1)))
+                .toList();
+
+        // A chunk numbers its lines from 1; they continue the lines of the chunks before it.
+        List<List<Token>> tokenLines = new ArrayList<>();
+        int linesBefore = 0;
+        for (Chunk chunk : chunks) {
+            for (List<Token> line : chunk.tokenLines()) {
+                numbered(line, line.getFirst().line + linesBefore);
+            }
+            tokenLines.addAll(chunk.tokenLines());
+            linesBefore += chunk.lineCount();
+        }
+        return tokenLines;
+    }
+
+    /**
+     * Cuts text into chunks for a parallel lex: each chunk ends just after a newline, or at the end of the text.
+     * @return The start of every chunk, followed by the end of the text.
+     */
+    private static List<Integer> chunkBounds(char[] text) {
+        int chunkSize = Math.max(MIN_CHUNK, text.length / (4 * Runtime.getRuntime().availableProcessors()));
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int pos = 0;
+        while (pos < text.length) {
+            int end = Math.min(pos + chunkSize, text.length);
+            while (end < text.length && text[end - 1] != '\n') {
+                end++;
+            }
+            bounds.add(end);
+            pos = end;
+        }
+        return bounds;
+    }
+
+    /**
+     * The token lines of a chunk of the text, numbered from the chunk's first line, and the
+     * number of lines in the chunk, blank ones included.
+     */
+    private record Chunk(List<List<Token>> tokenLines, int lineCount) {
+    }
+
+    /**
+     * Lexes the whole lines in text[from, to) the way lexLine() does, without copying them out.
+     */
+    private static Chunk lexChunk(char[] text, int from, int to) {
+        List<List<Token>> tokenLines = new ArrayList<>();
+        int lineCount = 0;
+        int pos = from;
+        while (pos < to) {
+            lineCount++;
+            // Find the end of this line.
+            int end = pos;
+            while (end < to && text[end] != '\n') {
+                end++;
+            }
 
             // Count leading spaces/tabs to determine indentation level.
-            while (indent < l.length() && (l.charAt(indent) == ' ' || l.charAt(indent) == '\t')) {
+            int indent = 0;
+            while (pos + indent < end && (text[pos + indent] == ' ' || text[pos + indent] == '\t')) {
                 indent++;
             }
 
-            // Remove leading indentation to get the main text.
-            String trimmed = l.substring(indent);
+            List<Token> lineTokens = new ArrayList<>();
+            final int lineIndent = indent;
+            scanLine(text, pos + indent, end, (kind, symbol, start, length) -> {
+                String value = symbol >= 0 ? TokenTable.TEXT[symbol] : new String(text, start, length);
+                lineTokens.add(new Token(value, lineIndent, kind));
+            });
+            if (!lineTokens.isEmpty()) {
+                tokenLines.add(numbered(lineTokens, lineCount));
+            }
+            pos = end + 1;
+        }
+        return new Chunk(tokenLines, lineCount);
+    }
+
+    // Sets the source line of the tokens of a line.
+    private static List<Token> numbered(List<Token> lineTokens, int line) {
+        for (Token t : lineTokens) {
+            t.line = line;
+        }
+        return lineTokens;
+    }
+
+    /**
+     * Converts a single raw line of Python code into its tokens.
+     * @param l The raw line, without the trailing newline.
+     * @return The tokens of this line; empty if the line is blank or a comment.
+     */
+    public static List<Token> lexLine(String l) {
+        char[] arr = l.toCharArray();
+        int indent = 0;
+
+        // Count leading spaces/tabs to determine indentation level.
+        while (indent < arr.length && (arr[indent] == ' ' || arr[indent] == '\t')) {
+            indent++;
+        }
 
-            // If the trimmed line is empty, skip it.
-            if (trimmed.isEmpty()) {
+        List<Token> lineTokens = new ArrayList<>();
+        final int lineIndent = indent;
+        scanLine(arr, indent, arr.length, (kind, symbol, start, length) -> {
+            // Fixed tokens reuse their preallocated text.
+            String value = symbol >= 0 ? TokenTable.TEXT[symbol] : new String(arr, start, length);
+            lineTokens.add(new Token(value, lineIndent, kind));
+        });
+        return lineTokens;
+    }
+
+    /**
+     * Converts a single raw line of Python code into its tokens, numbered with the given line.
+     * @param l    The raw line, without the trailing newline.
+     * @param line The number of the line in its source, counting from 1.
+     * @return The tokens of this line; empty if the line is blank or a comment.
+     */
+    static List<Token> lexLine(String l, int line) {
+        return numbered(lexLine(l), line);
+    }
+
+    /**
+     * Splits text[from, to) (one line without its indentation) into classified tokens.
+     * This is the single scanner behind lexLine(), lexCompact() and the streaming lexer.
+     * @param sink Receives each token as (kind, symbol id or -1, start offset, length).
+     */
+    static void scanLine(char[] text, int from, int to, TokenSink sink) {
+        int i = from;
+        while (i < to) {
+            char c = text[i];
+
+            // Whitespace only separates tokens; a '#' starts a comment that runs to the end of the line.
+            if (c == ' ' || c == '\t' || c == '\r') {
+                i++;
                 continue;
             }
+            if (c == '#') {
+                break;
+            }
 
-            List<Token> lineTokens = new ArrayList<>();
-            char[] arr = trimmed.toCharArray();
-            StringBuilder temp = new StringBuilder();
-            boolean inQuotes = false;
-            int quoteCount = 0;
-
-            // Scan each character to split tokens by space or special characters.
-            for (char c : arr) {
-                // Toggle 'inQuotes' state when encountering a quote char.
-                if (c == '"' || c == '\'') {
-                    quoteCount++;
-                    inQuotes = (quoteCount % 2 != 0);
+            int j = i + 1;
+            if (c == '"' || c == '\'') {
+                // String literal up to the matching quote, skipping escaped characters.
+                while (j < to && text[j] != c) {
+                    if (text[j] == '\\' && j + 1 < to) j++;
+                    j++;
+                }
+                if (j < to) j++;
+                sink.token(Kind.STRING_LITERAL, -1, i, j - i);
+            } else if (isDigit(c) || (c == '.' && i + 1 < to && isDigit(text[i + 1]))) {
+                // Number: digits, an optional fraction and an optional exponent.
+                boolean isFloat = (c == '.');
+                while (j < to && (isDigit(text[j]) || text[j] == '_')) j++;
+                if (j < to && text[j] == '.' && !isFloat) {
+                    isFloat = true;
+                    j++;
+                    while (j < to && (isDigit(text[j]) || text[j] == '_')) j++;
+                }
+                if (j < to && (text[j] == 'e' || text[j] == 'E')) {
+                    int k = j + 1;
+                    if (k < to && (text[k] == '+' || text[k] == '-')) k++;
+                    if (k < to && isDigit(text[k])) {
+                        isFloat = true;
+                        j = k;
+                        while (j < to && isDigit(text[j])) j++;
+                    }
+                }
+                sink.token(isFloat ? Kind.FLOAT_LITERAL : Kind.INT_LITERAL, -1, i, j - i);
+            } else if (Character.isLetter(c) || c == '_') {
+                // Identifier or keyword; keywords are found with the perfect hash in TokenTable.
+                while (j < to && (Character.isLetterOrDigit(text[j]) || text[j] == '_')) j++;
+                int symbol = TokenTable.keyword(text, i, j - i);
+                sink.token(symbol >= 0 ? Kind.KEYWORD : Kind.IDENTIFIER, symbol, i, j - i);
+            } else {
+                // Separators and operators, longest match first.
+                int symbol = TokenTable.punctuation(text, i, to);
+                if (symbol >= 0) {
+                    j = i + TokenTable.TEXT[symbol].length();
+                    sink.token(TokenTable.isSeparator(symbol) ? Kind.SEPARATOR : Kind.OPERATOR, symbol, i, j - i);
+                } else {
+                    // Unknown character: pass it through on its own.
+                    sink.token(Kind.OPERATOR, -1, i, 1);
                 }
+            }
+            i = j;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Lexes raw Python code into a compact {@link TokenBuffer} instead of Token objects.
+     * Tokens are recorded as offsets into text, so lexing does not allocate per token.
+     * The tokens produced are the same as those of {@link #lexer(String)}; large texts are
+     * lexed in parallel chunks in the same way.
+     * @param text The raw Python code; it is referenced, not copied, by the buffer.
+     * @return The lexed tokens, grouped by line.
+     */
+    public static TokenBuffer lexCompact(char[] text) {
+        if (text.length < PARALLEL_LEX_THRESHOLD) {
+            return lexCompact(text, 0, text.length);
+        }
+        List<Integer> bounds = chunkBounds(text);
+        List<TokenBuffer> chunks = IntStream.range(0, bounds.size() - 1)
+                .parallel()
+                .mapToObj(i -> lexCompact(text, bounds.get(i), bounds.get(i + 1)))
+                .toList();
+        TokenBuffer buffer = new TokenBuffer(text);
+        for (TokenBuffer chunk : chunks) {
+            buffer.append(chunk);
+        }
+        return buffer;
+    }
+
+    /**
+     * Lexes the whole lines in text[from, to) into a buffer, numbering them from 1.
+     */
+    private static TokenBuffer lexCompact(char[] text, int from, int to) {
+        TokenBuffer buffer = new TokenBuffer(text);
+        int pos = from;
+        int line = 0;
+
+        while (pos < to) {
+            // Find the end of this line.
+            int end = pos;
+            while (end < to && text[end] != '\n') {
+                end++;
+            }
 
-                // If not inside quotes and the character is space or a separator ((),:{}[]),
-                // then we finalize the current token (temp) and also add the separator as a token.
-                if (!inQuotes && (c == ' ' || "(),:{}[]".indexOf(c) >= 0)) {
-                    if (!temp.isEmpty()) {
-                        lineTokens.add(new Token(temp.toString(), indent));
-                        temp.setLength(0);
+            // Count leading spaces/tabs to determine indentation level.
+            int indent = 0;
+            while (pos + indent < end && (text[pos + indent] == ' ' || text[pos + indent] == '\t')) {
+                indent++;
+            }
+
+            buffer.beginLine(indent, ++line);
+            scanLine(text, pos + indent, end, buffer);
+            buffer.endLine();
+            pos = end + 1;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * LineStream is a streaming lexer: it reads a FileChannel in fixed-size chunks, decodes them
+     * incrementally as UTF-8 and hands out one token line at a time. Only the current chunk and
+     * the current raw line are kept in memory. Blank lines are skipped, just like in {@link #lexer(String)}.
+     * <p>
+     * It is also a single-use Iterable of its lines, so that a {@link PythonToJavaConverter} can
+     * build its statement tree from the lines as they are lexed.
+     */
+    public static class LineStream implements Iterator<List<Token>>, Iterable<List<Token>>, Closeable {
+        private static final int CHUNK_SIZE = 64 * 1024;
+
+        private final FileChannel channel;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private final ByteBuffer bytes = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+        private final StringBuilder line = new StringBuilder();
+        private boolean endOfInput = false;
+        private boolean previousWasCR = false;
+        private int lineNumber = 0;
+        private int tokenCount = 0;
+        private List<Token> next;
+
+        LineStream(FileChannel channel) {
+            this.channel = channel;
+            // Start with an empty char buffer in read mode.
+            chars.flip();
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    String raw = readLine();
+                    if (raw == null) {
+                        channel.close();
+                        return false;
                     }
-                    if (c != ' ') {
-                        // The separator itself is also a token.
-                        lineTokens.add(new Token(String.valueOf(c), indent));
+                    lineNumber++;
+                    List<Token> tokens = lexLine(raw);
+                    if (!tokens.isEmpty()) {
+                        next = numbered(tokens, lineNumber);
+                        tokenCount += tokens.size();
                     }
-                } else {
-                    // Otherwise, keep building the current token.
-                    temp.append(c);
                 }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
+        }
 
-            // If there's any leftover text in 'temp', add it as a token.
-            if (!temp.isEmpty()) {
-                lineTokens.add(new Token(temp.toString(), indent));
+        @Override
+        public List<Token> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
             }
+            List<Token> result = next;
+            next = null;
+            return result;
+        }
 
-            // If after all this, we have tokens, add them to tokenLines.
-            if (!lineTokens.isEmpty()) {
-                tokenLines.add(lineTokens);
+        @Override
+        public Iterator<List<Token>> iterator() {
+            return this;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * @return The number of source lines read so far, blank ones included.
+         */
+        public int lineCount() {
+            return lineNumber;
+        }
+
+        /**
+         * @return The number of tokens handed out so far.
+         */
+        public int tokenCount() {
+            return tokenCount;
+        }
+
+        /**
+         * Returns the next raw line without its line terminator (\n, \r\n or \r), or null at the end.
+         */
+        private String readLine() throws IOException {
+            while (true) {
+                while (chars.hasRemaining()) {
+                    char c = chars.get();
+                    if (previousWasCR) {
+                        previousWasCR = false;
+                        if (c == '\n') continue;
+                    }
+                    if (c == '\n' || c == '\r') {
+                        previousWasCR = (c == '\r');
+                        String result = line.toString();
+                        line.setLength(0);
+                        return result;
+                    }
+                    line.append(c);
+                }
+
+                if (endOfInput) {
+                    if (line.isEmpty()) {
+                        return null;
+                    }
+                    String result = line.toString();
+                    line.setLength(0);
+                    return result;
+                }
+                fill();
             }
         }
 
-        return tokenLines;
+        /**
+         * Reads the next chunk from the channel and decodes it into the char buffer.
+         */
+        private void fill() throws IOException {
+            chars.clear();
+            int read = channel.read(bytes);
+            bytes.flip();
+            if (read < 0) {
+                endOfInput = true;
+                decoder.decode(bytes, chars, true);
+                decoder.flush(chars);
+            } else {
+                // Bytes of a character split across chunks stay in the buffer for the next round.
+                decoder.decode(bytes, chars, false);
+            }
+            bytes.compact();
+            chars.flip();
+        }
+    }
+
+    /**
+     * Kind is the lexical category of a token.
+     */
+    public enum Kind {
+        KEYWORD, IDENTIFIER, INT_LITERAL, FLOAT_LITERAL, STRING_LITERAL, OPERATOR, SEPARATOR
+    }
+
+    /**
+     * TokenSink receives the tokens found by {@link #scanLine(char[], int, int, TokenSink)}.
+     */
+    interface TokenSink {
+        void token(Kind kind, int symbol, int start, int length);
     }
 
     /**
-     * Token holds the string value and indentation level for each piece of Python code.
+     * Token holds the string value, kind and indentation level for each piece of Python code,
+     * and the source line it is on.
      */
     public static class Token {
         public String value;
         public int indentLevel;
+        public Kind kind;
+        // The line of the source the token is on, counting from 1; 0 if it was not lexed from a source.
+        public int line;
 
         /**
-         * Constructs a Token with the given string and indent level.
+         * Constructs a Token with the given string and indent level; the kind is derived from the value.
          * @param v     The value of this token (e.g. 'if', '(', 'varName').
          * @param indent The indentation level derived from leading spaces/tabs.
          */
         public Token(String v, int indent) {
+            this(v, indent, classify(v));
+        }
+
+        /**
+         * Constructs a Token with the given string, indent level and kind.
+         * @param v      The value of this token (e.g. 'if', '(', 'varName').
+         * @param indent The indentation level derived from leading spaces/tabs.
+         * @param kind   The lexical category of the token.
+         */
+        public Token(String v, int indent, Kind kind) {
             value = v;
             indentLevel = indent;
+            this.kind = kind;
+        }
+
+        /**
+         * @return True if this token is the given keyword, separator or operator.
+         */
+        public boolean is(Kind k, String text) {
+            return kind == k && value.equals(text);
+        }
 
+        private static Kind classify(String v) {
+            Kind[] result = {Kind.OPERATOR};
+            char[] chars = v.toCharArray();
+            scanLine(chars, 0, chars.length, (kind, symbol, start, length) -> {
+                if (start == 0) result[0] = kind;
+            });
+            return result[0];
         }
     }
 }
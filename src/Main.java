@@ -1,93 +1,591 @@
-import javax.tools.JavaCompiler;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
 import javax.tools.ToolProvider;
-import java.io.FileWriter;
-import java.io.File;
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
 
 
 public class Main {
+
+    // Compiled scripts, keyed by a hash of the Python source and the translator version.
+    // Set -Dtranslator.cacheDir=<dir> to also keep them on disk between runs.
+    static final CompilationCache CACHE = new CompilationCache(
+            Long.getLong("translator.cacheBytes", 64L * 1024 * 1024),
+            System.getProperty("translator.cacheDir") != null
+                    ? Path.of(System.getProperty("translator.cacheDir")) : null);
+
+    // Python ints are exact by default: longs with overflow checks, BigIntegers where needed.
+    // Set -Dtranslator.arithmetic=wrapping for plain Java int arithmetic.
+    static final PythonToJavaConverter.Arithmetic ARITHMETIC = PythonToJavaConverter.Arithmetic.valueOf(
+            System.getProperty("translator.arithmetic", "exact").toUpperCase());
+
+    // Scripts are compiled straight to bytecode by default. Set -Dtranslator.backend=javac to compile
+    // the printed Java source with javac instead; javac also compiles what the bytecode generator does not.
+    static final String BACKEND = System.getProperty("translator.backend", "bytecode").toLowerCase();
+
+    // New scripts start in the interpreter (ScriptInterpreter), which compiles their hot loops in the
+    // background. Set -Dtranslator.execution=compiled to compile every script before running it.
+    private static final boolean TIERED = !"compiled".equalsIgnoreCase(System.getProperty("translator.execution", "tiered"));
+
+    // Compiles scripts that run in the interpreter, for the cache: the next run of the script is compiled.
+    private static final ExecutorService SCRIPT_COMPILER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "script-compiler");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ConcurrentHashMap<String, CompletableFuture<CompiledScript>> COMPILING = new ConcurrentHashMap<>();
+
+    // The variables that overflowed a long in a run of a script, by cache key. A later run
+    // translates the script with them held in BigIntegers from the start, when it finds no
+    // compiled translation in the cache; only the first run to overflow starts over.
+    private static final ConcurrentHashMap<String, Set<String>> OVERFLOWED = new ConcurrentHashMap<>();
+
+    // Limits of every run (see PyBudget); 0 for none. Set -Dtranslator.timeLimitMillis=<ms> and
+    // -Dtranslator.iterationLimit=<n> to stop runaway loops.
+    static final long TIME_LIMIT_MILLIS = Long.getLong("translator.timeLimitMillis", 0);
+    static final long ITERATION_LIMIT = Long.getLong("translator.iterationLimit", 0);
+
+    // Whether translated loops check their budget. They do when there is a limit, and with
+    // -Dtranslator.cancellable=true so that runs can be cancelled (see ScriptRunner.submit).
+    static final boolean LOOP_CHECKS = TIME_LIMIT_MILLIS > 0 || ITERATION_LIMIT > 0
+            || Boolean.getBoolean("translator.cancellable");
+
+    // Set -Dtranslator.profile=true to count how often each Python line runs, sample where the
+    // time goes, and print the hottest lines when the script ends (see PyProfile). Profiled
+    // scripts are always compiled.
+    static final boolean PROFILE = Boolean.getBoolean("translator.profile");
+
     public static void main(String[] args) {
+        // "--serve [socket]" keeps this JVM running and executes scripts sent to it (see ScriptServer).
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            ScriptServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "--batch [-d dir] <file or directory>..." translates and compiles many scripts at once (see BatchCompiler).
+        if (args.length > 0 && "--batch".equals(args[0])) {
+            BatchCompiler.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // "--watch <file>" runs the script again every time it is saved (see ScriptWatcher).
+        if (args.length > 0 && "--watch".equals(args[0])) {
+            ScriptWatcher.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         // Path to the Python script to be converted.
         // Tester of this program should change path with their own,
         // because this path is for my computer and may not work on different machine.
         // It is desired to copy txt.file which is uploaded on GitHub.
         String filePath = "C:\\Users\\user\\Desktop\\FOP\\python_code_test.txt";
 
+        Metrics metrics = new Metrics(filePath);
+        runFile(filePath, true, metrics);
+        Metrics.report(metrics.toJson());
+
+        // Let an interpreted script finish compiling, so that it reaches the cache on disk.
+        SCRIPT_COMPILER.shutdown();
+        try {
+            SCRIPT_COMPILER.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (Boolean.getBoolean("translator.cacheStats")) {
+            System.err.println(CACHE);
+        }
+    }
+
+    /**
+     * Translates and runs a Python script. The script prints to the current thread's output
+     * (see {@link ThreadOutput}), errors go to its error output.
+     * @param pythonSource The raw Python source.
+     * @param printJava    Whether the translated Java code is printed before the script runs.
+     * @return 0 if the script ran to completion, 1 if it could not be translated or compiled or it failed.
+     */
+    static int runScript(String pythonSource, boolean printJava) {
+        return runScript(pythonSource, printJava, new Metrics(null));
+    }
+
+    /**
+     * Translates and runs a Python script, timing each phase.
+     * @param pythonSource The raw Python source.
+     * @param printJava    Whether the translated Java code is printed before the script runs.
+     * @param metrics      Receives the time and sizes of the phases; finished when this returns.
+     * @return 0 if the script ran to completion, 1 if it could not be translated or compiled or it failed.
+     */
+    static int runScript(String pythonSource, boolean printJava, Metrics metrics) {
+        return runScript(pythonSource, printJava, metrics, newBudget());
+    }
+
+    /**
+     * Translates and runs a Python script within a budget. A run whose loops exceed the budget,
+     * or whose budget is cancelled, stops and fails. A run in which a long overflows starts over,
+     * with the variables involved held in BigIntegers, and does not print again what it printed
+     * before; later runs of the script hold them in BigIntegers from the start.
+     * @param pythonSource The raw Python source.
+     * @param printJava    Whether the translated Java code is printed before the script runs.
+     * @param metrics      Receives the time and sizes of the phases; finished when this returns.
+     * @param budget       The limits of the run; its clock starts when the script does.
+     * @return 0 if the script ran to completion, 1 if it could not be translated or compiled or it failed.
+     */
+    static int runScript(String pythonSource, boolean printJava, Metrics metrics, PyBudget budget) {
+        return runScript(pythonSource, null, printJava, metrics, budget);
+    }
+
+    /**
+     * Runs a Python script within a budget like {@link #runScript(String, boolean, Metrics, PyBudget)},
+     * possibly with a translation made beforehand (see {@link ScriptWatcher}).
+     * @param pythonSource The raw Python source.
+     * @param translation  The script's translation, or null to translate it here. Runs that start
+     *                     over with BigIntegers after an overflow translate the script again.
+     * @param printJava    Whether Java code translated here is printed before the script runs.
+     * @param metrics      Receives the time and sizes of the phases; finished when this returns.
+     * @param budget       The limits of the run; its clock starts when the script does.
+     * @return 0 if the script ran to completion, 1 if it could not be translated or compiled or it failed.
+     */
+    static int runScript(String pythonSource, Translation translation, boolean printJava, Metrics metrics,
+                         PyBudget budget) {
+        return runScript(pythonSource, cacheKey(pythonSource), translation, printJava, metrics, budget);
+    }
+
+    /**
+     * Translates and runs the Python script in a file. The file is read once, into the text that
+     * a script given as text would be ({@link Interpreter#readText(Path)}), so that it is keyed in
+     * the compilation cache and lexed the same way.
+     * @param filePath  The Python script.
+     * @param printJava Whether the translated Java code is printed before the script runs.
+     * @param metrics   Receives the time and sizes of the phases; finished when this returns.
+     * @return 0 if the script ran to completion, 1 if it could not be read, translated or compiled or it failed.
+     */
+    static int runFile(String filePath, boolean printJava, Metrics metrics) {
+        String pythonSource;
+        try {
+            pythonSource = Interpreter.readText(Path.of(filePath));
+        } catch (IOException e) {
+            System.err.println("Error reading " + filePath + ": " + e.getMessage());
+            metrics.finish(1);
+            return 1;
+        }
+        return runScript(pythonSource, printJava, metrics);
+    }
+
+    private static int runScript(String pythonSource, String key, Translation translation, boolean printJava,
+                                 Metrics metrics, PyBudget budget) {
+        PyProfile profile = PROFILE ? new PyProfile(pythonSource) : null;
+        PyProfile previousProfile = profile != null ? profile.start() : null;
+        PyBudget previous = budget.enter();
+        int status;
+        try {
+            status = execute(pythonSource, key, translation, printJava, metrics);
+        } finally {
+            PyBudget.exit(previous);
+            if (profile != null) {
+                profile.stop(previousProfile);
+                System.err.print(profile.report());
+            }
+        }
+        metrics.finish(status);
+        return status;
+    }
+
+    /**
+     * @return A budget with the limits set by -Dtranslator.timeLimitMillis and -Dtranslator.iterationLimit.
+     */
+    static PyBudget newBudget() {
+        return new PyBudget(TIME_LIMIT_MILLIS, ITERATION_LIMIT);
+    }
+
+    private static int execute(String pythonSource, String key, Translation given, boolean printJava, Metrics metrics) {
+        // If this exact script was already compiled by this translator version, reuse its bytecode.
+        CompiledScript script = CACHE.get(key);
+
+        // Variables that overflowed a long so far, and how much output the script has already printed.
+        Set<String> bigVariables = new LinkedHashSet<>(OVERFLOWED.getOrDefault(key, Set.of()));
+        long printed = 0;
+        boolean translated = false;
+        // The compilation of an interpreted run, which is cached if the run completes.
+        CompletableFuture<CompiledScript> background = null;
+        while (true) {
+            ReplayOutput output = new ReplayOutput(ThreadOutput.OUT.target(), printed);
+            Outcome outcome;
+            if (script != null) {
+                // 5) Define the class from its bytecode and execute its main method.
+                if (!translated) {
+                    metrics.compiled("cached", script.byteSize());
+                }
+                outcome = runCompiled(script, output, metrics);
+            } else {
+                Translation translation = given != null && bigVariables.isEmpty()
+                        ? given : translate(pythonSource, bigVariables, printJava, metrics);
+                if (translation == null) {
+                    return 1;
+                }
+                ScriptInterpreter interpreter = null;
+                if (TIERED) {
+                    Metrics.Span span = metrics.start(Metrics.Phase.INTERPRETER);
+                    interpreter = translation.interpreter();
+                    span.end();
+                }
+                if (interpreter != null) {
+                    // 3) Run the script in the interpreter right away; hot loops are compiled in the
+                    // background, and so is the whole script, for the next run.
+                    metrics.interpreted();
+                    background = compileInBackground(key, bigVariables, translation);
+                    outcome = run(output, interpreter::run, SourceMap::pythonLine, metrics);
+                } else {
+                    script = compile(key, translation, metrics);
+                    if (script == null) {
+                        return 1;
+                    }
+                    translated = true;
+                    outcome = runCompiled(script, output, metrics);
+                }
+            }
+            printed = Math.max(printed, output.written);
+            metrics.printed(printed);
+            if (outcome.overflow() == null) {
+                if (outcome.failed()) {
+                    return 1;
+                }
+                break;
+            }
+
+            // A long overflowed: translate again with the variables involved held in BigIntegers
+            // and run from the start. Output the first run already printed is not printed again,
+            // which holds because a script reads no input, so it prints the same up to the overflow.
+            PyMath.Overflow overflow = outcome.overflow();
+            if (overflow.variables.isEmpty() || !bigVariables.addAll(Arrays.asList(overflow.variables.split(",")))) {
+                System.err.println("Error running compiled class: " + overflow.getMessage());
+                return 1;
+            }
+            OVERFLOWED.put(key, Set.copyOf(bigVariables));
+            script = null;
+            background = null;
+        }
+        // Cache the compiled translation that ran to completion, so the next run needs no retries.
+        if (translated) {
+            CACHE.put(key, script);
+        } else if (background != null) {
+            background.thenAccept(compiled -> {
+                if (compiled != null) {
+                    CACHE.put(key, compiled);
+                }
+            });
+        }
+        return 0;
+    }
+
+    // Compiles an interpreted script on the script compiler's thread, unless a run of the same
+    // script is already compiling it with the same variables in BigIntegers; the compilation of
+    // a run that overflowed must not be taken for that of its next run. Its metrics are not the run's.
+    private static CompletableFuture<CompiledScript> compileInBackground(String key, Set<String> bigVariables,
+                                                                         Translation translation) {
+        try {
+            return COMPILING.computeIfAbsent(key + bigVariables, k -> {
+                CompletableFuture<CompiledScript> compiled = CompletableFuture.supplyAsync(
+                        () -> compile(key, translation, new Metrics(key)), SCRIPT_COMPILER);
+                compiled.whenComplete((script, e) -> COMPILING.remove(k));
+                return compiled;
+            });
+        } catch (RejectedExecutionException e) {
+            // main() has shut the compiler down.
+            return null;
+        }
+    }
+
+    /**
+     * @return The key of a script in the compilation cache, for the current translation options.
+     */
+    static String cacheKey(String pythonSource) {
+        return CompilationCache.key(pythonSource, options());
+    }
+
+    // The translation options that change the generated code.
+    private static String options() {
+        return ARITHMETIC.name() + "," + BACKEND + (LOOP_CHECKS ? ",checked" : "") + (PROFILE ? ",profiled" : "");
+    }
+
+    // The name of a script's class. It is derived from the cache key, so it is unique per script.
+    static String className(String key) {
+        return "TranslatedJavaCode_" + key.substring(0, 16);
+    }
+
+    /**
+     * A converted script: the converter holding its statement tree, and the Java code it was converted to.
+     */
+    record Translation(PythonToJavaConverter converter, String javaCode) {
+
+        // The interpreter for the script, or null if it has to be compiled.
+        ScriptInterpreter interpreter() {
+            try {
+                return converter.interpreter();
+            } catch (UnsupportedOperationException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * @return A converter of the token lines with the translation options of this JVM.
+     */
+    static PythonToJavaConverter newConverter(List<List<Interpreter.Token>> tokens) {
+        return configured(new PythonToJavaConverter(tokens));
+    }
+
+    /**
+     * @return A converter of the token buffer with the translation options of this JVM.
+     */
+    static PythonToJavaConverter newConverter(TokenBuffer tokens) {
+        return configured(new PythonToJavaConverter(tokens));
+    }
+
+    private static PythonToJavaConverter configured(PythonToJavaConverter converter) {
+        return converter
+                .setArithmetic(ARITHMETIC)
+                .setLoopChecks(LOOP_CHECKS)
+                .setProfiling(PROFILE);
+    }
+
+    // Lexes and converts the script, with the given variables held in BigIntegers.
+    private static Translation translate(String pythonSource, Set<String> bigVariables, boolean printJava,
+                                         Metrics metrics) {
         // 1) interpreter parsing text and adding at the List(lines)
-        List<List<Interpreter.Token>> tokens = Interpreter.parse(filePath);
+        Metrics.Span lex = metrics.start(Metrics.Phase.LEX);
+        TokenBuffer tokens = Interpreter.lexCompact(pythonSource.toCharArray());
+        lex.end();
+        metrics.translated(pythonSource, tokens);
+        PythonToJavaConverter converter = newConverter(tokens);
 
         // 2) Convert the list into java code
-        PythonToJavaConverter converter = new PythonToJavaConverter(tokens);
-        String javaCode = converter.convert();
+        converter.promoteToBigInteger(bigVariables);
+        String javaCode;
+        Metrics.Span convert = metrics.start(Metrics.Phase.CONVERT);
+        try {
+            javaCode = converter.convert();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Translation failed: " + e.getMessage());
+            return null;
+        } finally {
+            convert.end();
+        }
+        metrics.converted(javaCode, converter.methods());
 
         // For better readability I print translated java code on console.
-        System.out.println(javaCode);
+        if (printJava) {
+            System.out.print(converter.methods());
+            System.out.println(javaCode);
+        }
+        return new Translation(converter, javaCode);
+    }
 
-        // 3) We generate class where java code will be saved and then run.
-        String className = "TranslatedJavaCode";
-        saveJavaCode(className, javaCode);
+    // Compiles a converted script.
+    private static CompiledScript compile(String key, Translation translation, Metrics metrics) {
+        String className = className(key);
+
+        // 3) Generate the class file directly, skipping javac.
+        if (!"javac".equals(BACKEND)) {
+            Metrics.Span span = metrics.start(Metrics.Phase.BYTECODE);
+            try {
+                byte[] bytecode = translation.converter().compile(className);
+                metrics.compiled("bytecode", bytecode.length);
+                return new CompiledScript(className, Map.of(className, bytecode));
+            } catch (UnsupportedOperationException e) {
+                // Fall through to javac, which compiles everything the translation emits.
+            } finally {
+                span.end();
+            }
+        }
 
-        // 4) Compile the .java file and then execute its main method.
-        compileAndRunJava(className);
+        // 3) Otherwise we generate the class source where java code will be placed.
+        String source = buildJavaSource(className, translation.converter().methods(), translation.javaCode());
+
+        // 4) Compile the source in memory.
+        Metrics.Span span = metrics.start(Metrics.Phase.JAVAC);
+        CompiledScript script = compileJava(className, source, sourceMap(translation.converter()));
+        span.end();
+        if (script != null) {
+            metrics.compiled("javac", script.byteSize());
+        }
+        return script;
+    }
+
+    //this creates the source of the java class with its main where given python code translated to java
+    //is placed inside the main, and the script's functions are placed next to it
+    static String buildJavaSource(String className, String methods, String javaCode) {
+        //Writing all neccessary things to run the main
+        //Firstly writing the public class
+        //The script's output is buffered by PyPrint and written out when main ends
+        //line$ holds the python line being run, which an error gets on its stack trace
+        return "public class " + className + " {\n"
+                + methods
+                + "    public static void main(String[] args) {\n"
+                + "        int line$ = 0;\n"
+                + "        try {\n"
+                + javaCode
+                + "        } catch (Throwable error$) {\n"
+                + "            SourceMap.locate(error$, \"main\", line$);\n"
+                + "            throw error$;\n"
+                + "        } finally {\n"
+                + "            PyPrint.flush();\n"
+                + "        }\n"
+                + "    }\n"
+                + "}\n";
     }
 
-    //this creates the java file with its class and main where given python code translated to java
-    //is places inside the main
-    private static void saveJavaCode(String className, String javaCode) {
+    //this maps each line of the class buildJavaSource builds back to the line of the python script
+    //it was translated from: the class header, the functions, the headers of main, then main's code
+    static SourceMap sourceMap(PythonToJavaConverter converter) {
+        int[] methods = converter.methodLines();
+        int[] code = converter.codeLines();
+        int[] lines = new int[1 + 1 + methods.length + 3 + code.length];
+        System.arraycopy(methods, 0, lines, 2, methods.length);
+        System.arraycopy(code, 0, lines, 5 + methods.length, code.length);
+        return new SourceMap(lines);
+    }
+
+
+     // Compiles the generated Java source in memory. Nothing is written to disk. Errors are
+     // reported, and the classes' line numbers written, as lines of the Python script.
+
+    private static CompiledScript compileJava(String className, String source, SourceMap map) {
+        // Obtain the system Java compiler (part of the JDK), shared by every compilation.
+        InMemoryCompiler compiler = JavaCompilerHolder.COMPILER;
+        if (compiler == null) {
+            System.err.println("No Java compiler found. Make sure you're running with a JDK, not just a JRE.");
+            return null;
+        }
+
+        // Compile the source. A null result means compilation failed.
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<String, byte[]> classes = compiler.compile(className, source, diagnostics);
+        if (classes == null) {
+            System.err.println("Compilation failed.");
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                System.err.println("Line " + map.pythonLine((int) d.getLineNumber())
+                        + " (Java line " + d.getLineNumber() + "): " + d.getMessage(null));
+            }
+            return null;
+        }
+        classes.replaceAll((name, bytes) -> map.apply(bytes));
+        return new CompiledScript(className, classes);
+    }
+
+    /**
+     * The system Java compiler, looked up the first time javac is needed: most scripts never need it.
+     */
+    static class JavaCompilerHolder {
+        static final InMemoryCompiler COMPILER = ToolProvider.getSystemJavaCompiler() != null
+                ? new InMemoryCompiler(ToolProvider.getSystemJavaCompiler()) : null;
+    }
+
+     // Invokes main() of the compiled class (a hidden class, see CompiledScript.entryPoint) with
+     // System.out redirected to output. Returns the overflow that stopped the script, or null.
+
+    private static Outcome runCompiled(CompiledScript script, ReplayOutput output, Metrics metrics) {
+        MethodHandle main;
+        Metrics.Span span = metrics.start(Metrics.Phase.DEFINE);
         try {
-            //naming the file
-            String fileName = className + ".java";
-            FileWriter writer = new FileWriter(fileName);
+            main = script.entryPoint();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            System.err.println("Error running compiled class: " + e);
+            return new Outcome(null, true);
+        } finally {
+            span.end();
+        }
+        return run(output, () -> {
+            main.invokeExact(new String[]{});
+        }, script::errorLine, metrics);
+    }
 
-            //Writing all neccessary things to run the main
-            //Firstly writing the public class
-            writer.write("public class " + className + " {\n");
-            writer.write("    public static void main(String[] args) {\n");
-            writer.write(javaCode);
-            writer.write("    }\n");
-            writer.write("}\n");
+    /**
+     * A run of a script, compiled or interpreted.
+     */
+    @FunctionalInterface
+    private interface ScriptRun {
+        void run() throws Throwable;
+    }
+
+    /**
+     * How a run of a script ended: the overflow that stopped it, or whether it failed otherwise.
+     */
+    private record Outcome(PyMath.Overflow overflow, boolean failed) {
+    }
 
-            writer.close();
+     // Runs a script with the current thread's System.out redirected to output. errorLine finds the
+     // Python line of an error that stops it (see SourceMap).
 
-            //closing the writer in order to not make the programm slow
-        } catch (Exception e) {
-            System.err.println("Error writing Java file: " + e.getMessage());
+    private static Outcome run(ReplayOutput output, ScriptRun script, ToIntFunction<Throwable> errorLine,
+                               Metrics metrics) {
+        OutputStream stdout = ThreadOutput.OUT.redirect(output);
+        Metrics.Span span = metrics.start(Metrics.Phase.EXECUTE);
+        PyProfile.restart();
+        PyBudget.start();
+        try {
+            script.run();
+        } catch (Throwable e) {
+            if (e instanceof PyMath.Overflow overflow) {
+                return new Outcome(overflow, true);
+            }
+            if (e instanceof PyBudget.Exceeded exceeded) {
+                System.err.println("Script stopped: " + exceeded.getMessage());
+                return new Outcome(null, true);
+            }
+            int line = errorLine.applyAsInt(e);
+            System.err.println("Error running compiled class: " + e + (line > 0 ? " (line " + line + ")" : ""));
+            return new Outcome(null, true);
+        } finally {
+            // Output still buffered when the script stopped belongs to this run.
+            PyPrint.flush();
+            span.end();
+            ThreadOutput.OUT.redirect(stdout);
         }
+        return new Outcome(null, false);
     }
 
+    /**
+     * Passes a script's output through, except for the first bytes that an earlier,
+     * overflowed run of the same script has already printed.
+     */
+    private static class ReplayOutput extends FilterOutputStream {
 
-     // Compiles the generated Java file, then loads and invokes the main() method
+        private final long skip;
+        private long written = 0;
 
-    private static void compileAndRunJava(String className) {
-        // Obtain the system Java compiler (part of the JDK).
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        if (compiler == null) {
-            System.err.println("No Java compiler found. Make sure you're running with a JDK, not just a JRE.");
-            return;
+        ReplayOutput(OutputStream out, long skip) {
+            super(out);
+            this.skip = skip;
         }
 
-        // Compile the .java file. If result == 0, compilation succeeded.
-        int result = compiler.run(null, null, null, className + ".java");
-        if (result == 0) {
-            try {
-                // Use the current directory as the 'root' for class loading.
-                File root = new File("");
-                URLClassLoader classLoader = URLClassLoader.newInstance(new URL[]{root.toURI().toURL()});
-
-                // Load the compiled class by name.
-                Class<?> cls = Class.forName(className, true, classLoader);
-
-                // Find the class's main() method and invoke it with empty args.
-                Method main = cls.getDeclaredMethod("main", String[].class);
-                main.invoke(null, (Object) new String[]{});
-            } catch (Exception e) {
-                System.err.println("Error running compiled class: " + e.getMessage());
+        @Override
+        public void write(int b) throws IOException {
+            if (written++ >= skip) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long skipped = Math.min(len, Math.max(0, skip - written));
+            written += len;
+            if (skipped < len) {
+                out.write(b, off + (int) skipped, len - (int) skipped);
             }
-        } else {
-            System.err.println("Compilation failed.");
         }
     }
 }
\ No newline at end of file
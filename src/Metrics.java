@@ -0,0 +1,348 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Metrics records where the time of one script run goes: how long each phase of the pipeline
+ * took, and the size of what it produced. Phases are timed with System.nanoTime and, when a
+ * flight recording is running, also committed as JFR events (translator.Phase for every phase,
+ * translator.ScriptRun for the run as a whole), so they line up with GC and JIT activity:
+ * <pre>
+ *   java -XX:StartFlightRecording=filename=run.jfr ... Main
+ *   jfr print --events translator.Phase run.jfr
+ * </pre>
+ * A run that overflowed and was translated again adds the time of every attempt to its phases.
+ * <p>
+ * With -Dtranslator.metrics=stderr every run is reported as one line of JSON on stderr, and with
+ * -Dtranslator.metrics=&lt;file&gt; it is appended to that file; batch and server runs also report
+ * the {@link MetricsSummary} of all their runs when they end. A Metrics is used by one thread.
+ */
+public class Metrics {
+
+    /**
+     * Where the JSON reports go: null (not reported), "stderr", or the path of a file.
+     */
+    static final String DESTINATION = System.getProperty("translator.metrics");
+
+    /**
+     * The phases of a run, in pipeline order.
+     */
+    public enum Phase {
+        // Interpreter.lexCompact: source text to tokens.
+        LEX,
+        // PythonToJavaConverter.convert: statement tree, type inference, optimization and Java code.
+        CONVERT,
+        // Building the ScriptInterpreter's instruction tree, for a run that starts interpreted.
+        INTERPRETER,
+        // BytecodeGenerator: the class file, without javac. Includes an attempt that fell back to javac.
+        BYTECODE,
+        // javac, in memory.
+        JAVAC,
+        // Defining the hidden class and looking up main().
+        DEFINE,
+        // The script itself, interpreted or compiled.
+        EXECUTE;
+
+        final String label = name().toLowerCase();
+    }
+
+    private final String script;
+    private final long[] nanos = new long[Phase.values().length];
+    private final long start = System.nanoTime();
+    private long totalNanos;
+
+    // Sizes of the last translation.
+    private int sourceLines;
+    private int tokens;
+    private int javaChars;
+    private long bytecodeBytes;
+    private long outputBytes;
+
+    // "cached", "bytecode", "javac" or "interpreter": what ran the script.
+    private String backend = "none";
+    private int translations;
+    private int status = 1;
+
+    /**
+     * @param script What is run, for the reports: a file name or a request id.
+     */
+    public Metrics(String script) {
+        this.script = script;
+    }
+
+    // --------------------- Recording --------------------- //
+
+    /**
+     * Starts timing a phase. Phases do not nest.
+     * @return The running phase; call {@link Span#end()} when it is over.
+     */
+    public Span start(Phase phase) {
+        return new Span(phase);
+    }
+
+    /**
+     * A phase being timed.
+     */
+    public final class Span {
+        private final Phase phase;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long begin;
+
+        private Span(Phase phase) {
+            this.phase = phase;
+            event.begin();
+            begin = System.nanoTime();
+        }
+
+        public void end() {
+            nanos[phase.ordinal()] += System.nanoTime() - begin;
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.label;
+                event.script = script;
+                event.commit();
+            }
+        }
+    }
+
+    void translated(String pythonSource, List<? extends List<?>> lines) {
+        int count = 0;
+        for (List<?> line : lines) {
+            count += line.size();
+        }
+        translated(pythonSource, count);
+    }
+
+    void translated(String pythonSource, TokenBuffer buffer) {
+        translated(pythonSource, buffer.size());
+    }
+
+    private void translated(String pythonSource, int tokens) {
+        translated((int) pythonSource.lines().count(), tokens);
+    }
+
+    private void translated(int sourceLines, int tokens) {
+        translations++;
+        this.sourceLines = sourceLines;
+        this.tokens = tokens;
+    }
+
+    void converted(String javaCode, String methods) {
+        javaChars = javaCode.length() + methods.length();
+    }
+
+    void compiled(String backend, long bytecodeBytes) {
+        this.backend = backend;
+        this.bytecodeBytes = bytecodeBytes;
+    }
+
+    void interpreted() {
+        backend = "interpreter";
+    }
+
+    void printed(long bytes) {
+        outputBytes = bytes;
+    }
+
+    /**
+     * Ends the run and commits its JFR event.
+     * @param status The exit status: 0 if the script ran to completion, 1 otherwise.
+     */
+    void finish(int status) {
+        this.status = status;
+        totalNanos = System.nanoTime() - start;
+        ScriptRunEvent event = new ScriptRunEvent();
+        if (event.shouldCommit()) {
+            event.script = script;
+            event.status = status;
+            event.backend = backend;
+            event.translations = translations;
+            event.sourceLines = sourceLines;
+            event.tokens = tokens;
+            event.javaChars = javaChars;
+            event.bytecodeBytes = bytecodeBytes;
+            event.lexNanos = nanos(Phase.LEX);
+            event.convertNanos = nanos(Phase.CONVERT);
+            event.compileNanos = nanos(Phase.BYTECODE) + nanos(Phase.JAVAC);
+            event.defineNanos = nanos(Phase.DEFINE);
+            event.executeNanos = nanos(Phase.EXECUTE);
+            event.commit();
+        }
+    }
+
+    // --------------------- Results --------------------- //
+
+    public long nanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    /**
+     * @return Time from the creation of this Metrics until {@link #finish}.
+     */
+    public long totalNanos() {
+        return totalNanos;
+    }
+
+    public String backend() {
+        return backend;
+    }
+
+    public int status() {
+        return status;
+    }
+
+    public long bytecodeBytes() {
+        return bytecodeBytes;
+    }
+
+    public int javaChars() {
+        return javaChars;
+    }
+
+    /**
+     * @return How many times the script was translated: more than once if it overflowed a long.
+     */
+    public int translations() {
+        return translations;
+    }
+
+    /**
+     * @return The run as one line of JSON.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"script\":").append(quote(script))
+                .append(",\"status\":").append(status)
+                .append(",\"backend\":").append(quote(backend))
+                .append(",\"translations\":").append(translations)
+                .append(",\"sourceLines\":").append(sourceLines)
+                .append(",\"tokens\":").append(tokens)
+                .append(",\"javaChars\":").append(javaChars)
+                .append(",\"bytecodeBytes\":").append(bytecodeBytes)
+                .append(",\"outputBytes\":").append(outputBytes)
+                .append(",\"nanos\":{");
+        for (Phase phase : Phase.values()) {
+            json.append(quote(phase.label)).append(':').append(nanos(phase)).append(',');
+        }
+        return json.append("\"total\":").append(totalNanos).append("}}").toString();
+    }
+
+    /**
+     * Writes a JSON report to {@link #DESTINATION}, if reports are enabled.
+     */
+    static void report(String json) {
+        if (DESTINATION == null) {
+            return;
+        }
+        if ("stderr".equals(DESTINATION)) {
+            System.err.println(json);
+            return;
+        }
+        // Runs of a server or batch report from several threads; each line is written as a whole.
+        synchronized (Metrics.class) {
+            try {
+                Files.writeString(Path.of(DESTINATION), json + "\n", StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                System.err.println("Error writing metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    static String quote(String s) {
+        if (s == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // --------------------- JFR events --------------------- //
+
+    @Name("translator.Phase")
+    @Label("Translator Phase")
+    @Category("Python Translator")
+    @Description("One phase of translating and running a script")
+    static class PhaseEvent extends jdk.jfr.Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Script")
+        String script;
+    }
+
+    @Name("translator.ScriptRun")
+    @Label("Script Run")
+    @Category("Python Translator")
+    @Description("A script run from source to exit, with the time of each phase")
+    static class ScriptRunEvent extends jdk.jfr.Event {
+        @Label("Script")
+        String script;
+
+        @Label("Exit Status")
+        int status;
+
+        @Label("Backend")
+        String backend;
+
+        @Label("Translations")
+        int translations;
+
+        @Label("Source Lines")
+        int sourceLines;
+
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Java Characters")
+        int javaChars;
+
+        @Label("Bytecode Size")
+        @DataAmount
+        long bytecodeBytes;
+
+        @Label("Lex Time")
+        @Timespan
+        long lexNanos;
+
+        @Label("Convert Time")
+        @Timespan
+        long convertNanos;
+
+        @Label("Compile Time")
+        @Timespan
+        long compileNanos;
+
+        @Label("Define Time")
+        @Timespan
+        long defineNanos;
+
+        @Label("Execute Time")
+        @Timespan
+        long executeNanos;
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * MetricsSummary aggregates the {@link Metrics} of many runs, for the batch compiler and the
+ * script server: a histogram per phase (plus the whole run, the size of the Java code and of the
+ * bytecode) and the number of runs per backend. Histograms have one bucket per power of two, so
+ * a summary takes the same small amount of memory however many runs it has seen; percentiles are
+ * reported as the upper bound of their bucket, i.e. to within a factor of two.
+ * <p>
+ * A MetricsSummary can be shared by threads.
+ */
+public class MetricsSummary {
+
+    private final Histogram[] phases = new Histogram[Metrics.Phase.values().length];
+    private final Histogram total = new Histogram();
+    private final Histogram javaChars = new Histogram();
+    private final Histogram bytecodeBytes = new Histogram();
+    private final Map<String, Long> backends = new TreeMap<>();
+    private long runs;
+    private long failed;
+
+    public MetricsSummary() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Adds a finished run. Phases the run did not go through are left out of their histograms.
+     */
+    public synchronized void add(Metrics run) {
+        runs++;
+        if (run.status() != 0) {
+            failed++;
+        }
+        backends.merge(run.backend(), 1L, Long::sum);
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            if (run.nanos(phase) > 0) {
+                phases[phase.ordinal()].add(run.nanos(phase));
+            }
+        }
+        total.add(run.totalNanos());
+        if (run.javaChars() > 0) {
+            javaChars.add(run.javaChars());
+        }
+        if (run.bytecodeBytes() > 0) {
+            bytecodeBytes.add(run.bytecodeBytes());
+        }
+    }
+
+    /**
+     * Adds the time of a phase that served many runs at once, such as the single javac task of a batch.
+     */
+    public synchronized void add(Metrics.Phase phase, long nanos) {
+        phases[phase.ordinal()].add(nanos);
+    }
+
+    /**
+     * @return The summary as one line of JSON.
+     */
+    public synchronized String toJson() {
+        StringBuilder json = new StringBuilder("{\"runs\":").append(runs)
+                .append(",\"failed\":").append(failed)
+                .append(",\"backends\":{");
+        String separator = "";
+        for (Map.Entry<String, Long> e : backends.entrySet()) {
+            json.append(separator).append(Metrics.quote(e.getKey())).append(':').append(e.getValue());
+            separator = ",";
+        }
+        json.append("},\"nanos\":{");
+        for (Metrics.Phase phase : Metrics.Phase.values()) {
+            json.append(Metrics.quote(phase.label)).append(':');
+            phases[phase.ordinal()].appendJson(json);
+            json.append(',');
+        }
+        json.append("\"total\":");
+        total.appendJson(json);
+        json.append("},\"javaChars\":");
+        javaChars.appendJson(json);
+        json.append(",\"bytecodeBytes\":");
+        bytecodeBytes.appendJson(json);
+        return json.append('}').toString();
+    }
+
+    /**
+     * Counts of non-negative values in buckets [0, 1], [2, 3], [4, 7], ..., [2^62, 2^63 - 1].
+     */
+    static class Histogram {
+        private final long[] buckets = new long[64];
+        private long count;
+        private long sum;
+        private long max;
+
+        void add(long value) {
+            buckets[bucket(value)]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        private static int bucket(long value) {
+            return Math.max(0, 63 - Long.numberOfLeadingZeros(value));
+        }
+
+        // The largest value of a bucket.
+        private static long upperBound(int bucket) {
+            return bucket == 63 ? Long.MAX_VALUE : (2L << bucket) - 1;
+        }
+
+        /**
+         * @return The upper bound of the bucket that holds the value at the given fraction of the counts.
+         */
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return 0;
+        }
+
+        // {"count":..,"mean":..,"p50":..,"p90":..,"p99":..,"max":..,"buckets":{"<upper bound>":count,...}}
+        void appendJson(StringBuilder json) {
+            json.append("{\"count\":").append(count)
+                    .append(",\"mean\":").append(count == 0 ? 0 : sum / count)
+                    .append(",\"p50\":").append(percentile(0.5))
+                    .append(",\"p90\":").append(percentile(0.9))
+                    .append(",\"p99\":").append(percentile(0.99))
+                    .append(",\"max\":").append(max)
+                    .append(",\"buckets\":{");
+            String separator = "";
+            for (int i = 0; i < buckets.length; i++) {
+                if (buckets[i] > 0) {
+                    json.append(separator).append('"').append(upperBound(i)).append("\":").append(buckets[i]);
+                    separator = ",";
+                }
+            }
+            json.append("}}");
+        }
+    }
+}
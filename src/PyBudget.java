@@ -0,0 +1,154 @@
+/**
+ * PyBudget is the execution budget of one script run: a wall-clock deadline, a number of loop
+ * iterations, and a flag that cancels the run. Translated code with loop checks (see
+ * {@link PythonToJavaConverter#setLoopChecks}) counts the iterations of its loops in a local
+ * variable and calls {@link #check()} once every {@link #INTERVAL} iterations:
+ * <pre>
+ *   int loops$ = 0;
+ *   while (b != 0) {
+ *       if ((++loops$ &amp; 1023) == 0) PyBudget.check();
+ *       ...
+ *   }
+ * </pre>
+ * so a loop pays one increment and one well-predicted branch per iteration, and a runaway loop
+ * stops within a few microseconds of its budget running out. The check throws {@link Exceeded},
+ * which ends the run like an uncaught Python exception.
+ * <p>
+ * Functions call {@link #call()} when they start, so runaway recursion stops too: a function's
+ * locals start again with every call, so its calls are counted by the budget, and every
+ * {@link #INTERVAL}th call is checked for time and cancellation. Calls are not loop iterations,
+ * and do not count toward the iteration limit.
+ * <p>
+ * A budget applies to the thread it is entered on ({@link #enter}), and its clock starts when the
+ * script does ({@link #start}), not while it is translated or compiled. Interrupting that thread
+ * cancels the run too, which is how ExecutorService.shutdownNow stops scripts. A thread without a
+ * budget only stops when a loop of it is interrupted.
+ */
+public final class PyBudget {
+
+    /**
+     * Loop iterations between checks. A power of two, so that the count is tested with a mask.
+     */
+    public static final int INTERVAL = 1024;
+
+    private static final ThreadLocal<PyBudget> CURRENT = new ThreadLocal<>();
+
+    private final long timeLimitNanos;
+    private final long iterationLimit;
+    // Long.MAX_VALUE until the clock starts, and if there is no time limit.
+    private long deadline = Long.MAX_VALUE;
+    private boolean started;
+    private long iterations;
+    // Function calls of the run. Only the thread the budget is entered on counts them.
+    private int calls;
+    private volatile boolean cancelled;
+
+    /**
+     * Thrown by {@link #check()} when the run is out of budget or cancelled.
+     */
+    public static class Exceeded extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public Exceeded(String message) {
+            // The stack trace of a stopped loop tells nothing; skip filling it in.
+            super(message, null, false, false);
+        }
+    }
+
+    /**
+     * @param timeLimitMillis Wall-clock time the run may take from {@link #start}, or 0 for no limit.
+     * @param iterationLimit  Loop iterations the run may make, or 0 for no limit. Iterations are
+     *                        counted in steps of {@link #INTERVAL}, so the run may make up to that
+     *                        many more in each loop that is running when the limit is reached.
+     */
+    public PyBudget(long timeLimitMillis, long iterationLimit) {
+        this.timeLimitNanos = timeLimitMillis > 0 ? timeLimitMillis * 1_000_000 : Long.MAX_VALUE;
+        this.iterationLimit = iterationLimit > 0 ? iterationLimit : Long.MAX_VALUE;
+    }
+
+    /**
+     * Makes this the budget of the current thread. Its clock starts with {@link #start}.
+     * @return The thread's previous budget, to be passed to {@link #exit}.
+     */
+    public PyBudget enter() {
+        PyBudget previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    /**
+     * Starts the clock of the current thread's budget, if it has one, when a script starts. A run
+     * that starts over (e.g. after an overflow) keeps the time that it started first.
+     */
+    static void start() {
+        PyBudget budget = CURRENT.get();
+        if (budget != null && !budget.started) {
+            budget.started = true;
+            if (budget.timeLimitNanos != Long.MAX_VALUE) {
+                budget.deadline = System.nanoTime() + budget.timeLimitNanos;
+            }
+        }
+    }
+
+    /**
+     * Gives the current thread its previous budget back.
+     * @param previous What {@link #enter} returned.
+     */
+    public static void exit(PyBudget previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Stops the run at its next check. Can be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Called by translated loops every {@link #INTERVAL} iterations.
+     * @throws Exceeded If the current thread's run is out of time or iterations, cancelled or interrupted.
+     */
+    public static void check() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new Exceeded("cancelled");
+        }
+        PyBudget budget = CURRENT.get();
+        if (budget != null) {
+            budget.spend(INTERVAL);
+        }
+    }
+
+    /**
+     * Called by translated functions when they start. Checks the time and cancellation of the
+     * current thread's budget every {@link #INTERVAL} calls.
+     * @throws Exceeded If the current thread's run is out of time, cancelled or interrupted.
+     */
+    public static void call() {
+        PyBudget budget = CURRENT.get();
+        if (budget != null && (++budget.calls & (INTERVAL - 1)) == 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new Exceeded("cancelled");
+            }
+            budget.spend(0);
+        }
+    }
+
+    private void spend(int loopIterations) {
+        if (cancelled) {
+            throw new Exceeded("cancelled");
+        }
+        iterations += loopIterations;
+        if (iterations > iterationLimit) {
+            throw new Exceeded("more than " + iterationLimit + " loop iterations");
+        }
+        if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0) {
+            throw new Exceeded("time limit of " + timeLimitNanos / 1_000_000 + " ms exceeded");
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * PyList is a Python list whose elements are objects: strs, ints that overflowed a long and
+ * are held in BigIntegers, or, in a PyList&lt;Object&gt;, elements of mixed types. Lists of ints,
+ * floats and bools have their own primitive lists ({@link IntList}, {@link DoubleList},
+ * {@link BooleanList}); this is the fallback for the rest. The ints of a list of mixed types are
+ * Longs (or BigIntegers), its floats Doubles and its bools Booleans. Strings print quoted and
+ * bools as True and False, as Python prints them inside a list.
+ *
+ * @param <E> String, BigInteger or Object.
+ */
+public final class PyList<E> extends PySequence {
+
+    private static final Object[] EMPTY = {};
+
+    private Object[] data;
+
+    public PyList() {
+        data = EMPTY;
+    }
+
+    private PyList(Object[] data, int size) {
+        this.data = data;
+        this.size = size;
+    }
+
+    /**
+     * @return A list holding the given values, for a list literal such as ["a", "b"].
+     */
+    @SafeVarargs
+    public static <E> PyList<E> of(E... values) {
+        return new PyList<>(Arrays.copyOf(values, values.length, Object[].class), values.length);
+    }
+
+    /**
+     * @return A list of BigIntegers with the values of a list of ints whose elements overflowed.
+     */
+    public static PyList<BigInteger> copyOf(IntList list) {
+        Object[] values = new Object[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BigInteger.valueOf(list.get(i));
+        }
+        return new PyList<>(values, values.length);
+    }
+
+    /**
+     * @return A list of mixed types with the elements of any list, for a list that gets elements
+     *         of another type, e.g. a list of ints that a str is appended to.
+     */
+    public static PyList<Object> copyOfElements(PySequence list) {
+        Object[] values = new Object[list.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = list.boxed(i);
+        }
+        return new PyList<>(values, values.length);
+    }
+
+    /**
+     * @return Python's truth value of an element of a list of mixed types.
+     */
+    public static boolean isTrue(Object value) {
+        return switch (value) {
+            case Boolean b -> b;
+            case Long l -> l != 0;
+            case Double d -> d != 0.0;
+            case BigInteger b -> b.signum() != 0;
+            case String s -> !s.isEmpty();
+            case PySequence s -> !s.isEmpty();
+            default -> value != null;
+        };
+    }
+
+    @Override
+    protected Object boxed(int i) {
+        return data[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long index) {
+        return (E) data[index(index)];
+    }
+
+    public void set(long index, E value) {
+        data[index(index)] = value;
+    }
+
+    public void append(E value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, grown(size));
+        }
+        data[size++] = value;
+    }
+
+    public boolean contains(E value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i].equals(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return The slice [start:stop:step] as a new list; an omitted bound is {@link #NONE}.
+     */
+    public PyList<E> slice(long start, long stop, long step) {
+        int first = sliceStart(start, step);
+        Object[] values = new Object[sliceLength(first, stop, step)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data[(int) (first + i * step)];
+        }
+        return new PyList<>(values, values.length);
+    }
+
+    /**
+     * @return A new list with the elements of this list followed by those of other (Python's +).
+     */
+    public PyList<E> concat(PyList<E> other) {
+        Object[] values = Arrays.copyOf(data, size + other.size);
+        System.arraycopy(other.data, 0, values, size, other.size);
+        return new PyList<>(values, values.length);
+    }
+
+    /**
+     * @return A new list with the elements of this list n times over (Python's *).
+     */
+    public PyList<E> repeat(long n) {
+        Object[] values = new Object[repeatedSize(n)];
+        for (int i = 0; i < values.length; i += size) {
+            System.arraycopy(data, 0, values, i, size);
+        }
+        return new PyList<>(values, values.length);
+    }
+
+    @SuppressWarnings("unchecked")
+    public E min() {
+        Comparable<Object> result = (Comparable<Object>) data[first("min")];
+        for (int i = 1; i < size; i++) {
+            if (result.compareTo(data[i]) > 0) {
+                result = (Comparable<Object>) data[i];
+            }
+        }
+        return (E) result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E max() {
+        Comparable<Object> result = (Comparable<Object>) data[first("max")];
+        for (int i = 1; i < size; i++) {
+            if (result.compareTo(data[i]) < 0) {
+                result = (Comparable<Object>) data[i];
+            }
+        }
+        return (E) result;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof PyList<?> other && Arrays.equals(data, 0, size, other.data, 0, other.size);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 1;
+        for (int i = 0; i < size; i++) {
+            h = 31 * h + Objects.hashCode(data[i]);
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) sb.append(", ");
+            if (data[i] instanceof String s) {
+                appendRepr(s, sb);
+            } else {
+                sb.append(PyPrint.str(data[i]));
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    // Python's repr of a str: single quotes, unless the string has single quotes and no double ones.
+    private static void appendRepr(String s, StringBuilder sb) {
+        char quote = s.indexOf('\'') >= 0 && s.indexOf('"') < 0 ? '"' : '\'';
+        sb.append(quote);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                case '\r' -> sb.append("\\r");
+                default -> {
+                    if (c == quote) sb.append('\\');
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append(quote);
+    }
+}
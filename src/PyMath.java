@@ -0,0 +1,191 @@
+import java.math.BigInteger;
+
+/**
+ * PyMath is the arithmetic runtime of code translated with exact arithmetic
+ * ({@link PythonToJavaConverter.Arithmetic#EXACT}).
+ * <p>
+ * Python ints never overflow. Translated code keeps integers in longs and does every
+ * operation that can overflow through one of the checked methods here. They are small
+ * enough to be inlined, so the common case runs at primitive speed. When a result does
+ * not fit in a long, {@link Overflow} is thrown, naming the variables involved, so the
+ * script can be translated again with those variables held in BigIntegers.
+ * <p>
+ * The BigInteger methods give Python's floor semantics for division and remainder.
+ */
+public final class PyMath {
+
+    private PyMath() {
+    }
+
+    /**
+     * Thrown when a long operation overflows.
+     */
+    public static class Overflow extends ArithmeticException {
+
+        private static final long serialVersionUID = 1L;
+
+        // Comma-separated Python names of the variables that have to become BigIntegers, and
+        // names of the operations outside assignments that overflowed (see ExprEmitter.expressionSite).
+        public final String variables;
+
+        public Overflow(String variables) {
+            super("integer overflow (" + variables + ")");
+            this.variables = variables;
+        }
+    }
+
+    // --------------------- Checked long arithmetic --------------------- //
+
+    // Each method takes the variables of its overflow site, so that the exception can name them.
+
+    public static long add(long a, long b, String site) {
+        long r = a + b;
+        // Overflow iff both operands have the sign opposite to the result.
+        if (((a ^ r) & (b ^ r)) < 0) throw new Overflow(site);
+        return r;
+    }
+
+    public static long sub(long a, long b, String site) {
+        long r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) throw new Overflow(site);
+        return r;
+    }
+
+    public static long mul(long a, long b, String site) {
+        long hi = Math.multiplyHigh(a, b);
+        long lo = a * b;
+        // The product fits iff the high half is just the sign extension of the low half.
+        if (hi != (lo >> 63)) throw new Overflow(site);
+        return lo;
+    }
+
+    public static long neg(long a, String site) {
+        if (a == Long.MIN_VALUE) throw new Overflow(site);
+        return -a;
+    }
+
+    public static long abs(long a, String site) {
+        if (a == Long.MIN_VALUE) throw new Overflow(site);
+        return Math.abs(a);
+    }
+
+    public static long floorDiv(long a, long b, String site) {
+        if (a == Long.MIN_VALUE && b == -1) throw new Overflow(site);
+        return Math.floorDiv(a, b);
+    }
+
+    public static long shiftLeft(long a, long b, String site) {
+        if (b < 0) throw new ArithmeticException("negative shift count");
+        if (a == 0) return 0;
+        if (b >= 63 || (a << b) >> b != a) throw new Overflow(site);
+        return a << b;
+    }
+
+    /**
+     * Integer power by squaring. A negative exponent gives a float in Python: a constant one, as
+     * in 2 ** -1, is typed as a float power by ExprEmitter, so only an exponent that turns out to
+     * be negative when the script runs gets here, and is rejected.
+     */
+    public static long pow(long base, long exponent, String site) {
+        if (exponent < 0) throw new ArithmeticException("negative exponent in integer power");
+        long result = 1;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) result = mul(result, base, site);
+            exponent >>= 1;
+            if (exponent > 0) base = mul(base, base, site);
+        }
+        return result;
+    }
+
+    // --------------------- BigInteger arithmetic --------------------- //
+
+    public static BigInteger big(long value) {
+        return BigInteger.valueOf(value);
+    }
+
+    public static BigInteger big(BigInteger value) {
+        return value;
+    }
+
+    /**
+     * Narrows a BigInteger that flows into a long variable.
+     * @throws Overflow If the value does not fit, naming the variables of the site, so that they are promoted.
+     */
+    public static long toLong(BigInteger value, String site) {
+        if (value.bitLength() > 63) throw new Overflow(site);
+        return value.longValue();
+    }
+
+    /**
+     * Narrows a BigInteger that flows into an int, like {@link #toLong}.
+     */
+    public static int toInt(BigInteger value, String site) {
+        if (value.bitLength() > 31) throw new Overflow(site);
+        return value.intValue();
+    }
+
+    public static BigInteger floorDiv(BigInteger a, BigInteger b) {
+        BigInteger[] qr = a.divideAndRemainder(b);
+        // divide() truncates towards zero; step down when the remainder has the divisor's opposite sign.
+        if (qr[1].signum() != 0 && qr[1].signum() != b.signum()) {
+            return qr[0].subtract(BigInteger.ONE);
+        }
+        return qr[0];
+    }
+
+    public static BigInteger floorMod(BigInteger a, BigInteger b) {
+        BigInteger r = a.remainder(b);
+        if (r.signum() != 0 && r.signum() != b.signum()) {
+            return r.add(b);
+        }
+        return r;
+    }
+
+    /**
+     * Python's float remainder, which takes the sign of the divisor like the int one:
+     * -7.5 % 2 is 0.5, where Java's % gives -1.5.
+     */
+    public static double floorMod(double a, double b) {
+        double r = a % b;
+        if (r != 0 && (r < 0) != (b < 0)) {
+            return r + b;
+        }
+        // A zero remainder has the divisor's sign too.
+        return r == 0 ? Math.copySign(0.0, b) : r;
+    }
+
+    /**
+     * Checks the step of range() before a loop whose step is only known when it runs.
+     * @throws IllegalArgumentException If the step is 0, as Python's ValueError.
+     */
+    public static void checkStep(long step) {
+        if (step == 0) {
+            throw new IllegalArgumentException("range() arg 3 must not be zero");
+        }
+    }
+
+    public static void checkStep(double step) {
+        if (step == 0) {
+            throw new IllegalArgumentException("range() arg 3 must not be zero");
+        }
+    }
+
+    public static void checkStep(BigInteger step) {
+        checkStep(step.signum());
+    }
+
+    public static BigInteger pow(BigInteger base, BigInteger exponent) {
+        if (exponent.signum() < 0) throw new ArithmeticException("negative exponent in integer power");
+        return base.pow(exponent.intValueExact());
+    }
+
+    public static BigInteger shiftLeft(BigInteger a, BigInteger b) {
+        if (b.signum() < 0) throw new ArithmeticException("negative shift count");
+        return a.shiftLeft(b.intValueExact());
+    }
+
+    public static BigInteger shiftRight(BigInteger a, BigInteger b) {
+        if (b.signum() < 0) throw new ArithmeticException("negative shift count");
+        return a.shiftRight(b.intValueExact());
+    }
+}
@@ -0,0 +1,291 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * PyMemo is the memo table of a function decorated with @lru_cache or @cache. A memoized
+ * def fib(n) becomes
+ * <pre>
+ *   private static final PyMemo fib_memo = new PyMemo(1);
+ *
+ *   static long fib(long n) {
+ *       if (fib_memo.contains(n)) {
+ *           return fib_memo.longValue();
+ *       }
+ *       return fib_memo.putLong(fib_body(n), n);
+ *   }
+ * </pre>
+ * Functions with up to three parameters that are ints, floats or bools use a table keyed by
+ * those primitives: an open-addressing hash table of long keys, with the results in a long array
+ * (a float result is stored as its bits), so neither keys nor results are boxed. Other functions
+ * use a HashMap keyed by a list of the boxed arguments ({@link #containsKey}, {@link #putValue}).
+ * <p>
+ * The value is put after the function body has run, with the key passed again, because the body
+ * may call the function recursively and grow the table in the meantime. A table belongs to the
+ * class of one script run and is used by one thread.
+ */
+public final class PyMemo {
+
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    // Longs per key: the number of parameters.
+    private final int width;
+
+    // Slot i holds the key keys[i * width .. i * width + width) if used[i].
+    private long[] keys;
+    private boolean[] used;
+    private long[] values;
+    private Object[] objects;
+    private int size;
+
+    // Table of the functions whose arguments are not all primitives.
+    private HashMap<List<Object>, Object> boxed;
+
+    // Slot (or boxed value) found by the last successful contains.
+    private int found;
+    private Object foundValue;
+
+    /**
+     * @param width The number of primitive arguments of the function, 1 to 3, or 0 for a table of boxed arguments.
+     */
+    public PyMemo(int width) {
+        this.width = width;
+        if (width == 0) {
+            boxed = new HashMap<>();
+        } else {
+            allocate(16);
+        }
+    }
+
+    /**
+     * @return The key of a float argument. -0.0 and 0.0 are the same key, as they are equal in Python.
+     */
+    public static long key(double v) {
+        return Double.doubleToLongBits(v == 0 ? 0.0 : v);
+    }
+
+    // --------------------- Lookup --------------------- //
+
+    public boolean contains(long k0) {
+        int mask = used.length - 1;
+        for (int i = slot(hash(k0)); used[i]; i = (i + 1) & mask) {
+            if (keys[i] == k0) {
+                found = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(long k0, long k1) {
+        int mask = used.length - 1;
+        for (int i = slot(hash(hash(k0) ^ k1)); used[i]; i = (i + 1) & mask) {
+            if (keys[2 * i] == k0 && keys[2 * i + 1] == k1) {
+                found = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean contains(long k0, long k1, long k2) {
+        int mask = used.length - 1;
+        for (int i = slot(hash(hash(hash(k0) ^ k1) ^ k2)); used[i]; i = (i + 1) & mask) {
+            if (keys[3 * i] == k0 && keys[3 * i + 1] == k1 && keys[3 * i + 2] == k2) {
+                found = i;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Looks up boxed arguments.
+     */
+    public boolean containsKey(Object... key) {
+        foundValue = boxed.get(Arrays.asList(key));
+        return foundValue != null;
+    }
+
+    // The result found by the last contains that returned true.
+
+    public long longValue() {
+        return values[found];
+    }
+
+    public double doubleValue() {
+        return Double.longBitsToDouble(values[found]);
+    }
+
+    public boolean booleanValue() {
+        return values[found] != 0;
+    }
+
+    public Object objectValue() {
+        return width == 0 ? foundValue : objects[found];
+    }
+
+    // --------------------- Insertion --------------------- //
+
+    // Each put stores the result of a call under its arguments and returns the result.
+
+    public long putLong(long value, long k0) {
+        int i = add(k0, 0, 0);
+        values[i] = value;
+        return value;
+    }
+
+    public long putLong(long value, long k0, long k1) {
+        int i = add(k0, k1, 0);
+        values[i] = value;
+        return value;
+    }
+
+    public long putLong(long value, long k0, long k1, long k2) {
+        int i = add(k0, k1, k2);
+        values[i] = value;
+        return value;
+    }
+
+    public double putDouble(double value, long k0) {
+        int i = add(k0, 0, 0);
+        values[i] = Double.doubleToRawLongBits(value);
+        return value;
+    }
+
+    public double putDouble(double value, long k0, long k1) {
+        int i = add(k0, k1, 0);
+        values[i] = Double.doubleToRawLongBits(value);
+        return value;
+    }
+
+    public double putDouble(double value, long k0, long k1, long k2) {
+        int i = add(k0, k1, k2);
+        values[i] = Double.doubleToRawLongBits(value);
+        return value;
+    }
+
+    public boolean putBoolean(boolean value, long k0) {
+        int i = add(k0, 0, 0);
+        values[i] = value ? 1 : 0;
+        return value;
+    }
+
+    public boolean putBoolean(boolean value, long k0, long k1) {
+        int i = add(k0, k1, 0);
+        values[i] = value ? 1 : 0;
+        return value;
+    }
+
+    public boolean putBoolean(boolean value, long k0, long k1, long k2) {
+        int i = add(k0, k1, k2);
+        values[i] = value ? 1 : 0;
+        return value;
+    }
+
+    public Object putObject(Object value, long k0) {
+        int i = add(k0, 0, 0);
+        return objects()[i] = value;
+    }
+
+    public Object putObject(Object value, long k0, long k1) {
+        int i = add(k0, k1, 0);
+        return objects()[i] = value;
+    }
+
+    public Object putObject(Object value, long k0, long k1, long k2) {
+        int i = add(k0, k1, k2);
+        return objects()[i] = value;
+    }
+
+    /**
+     * Stores the result of a call under its boxed arguments.
+     * @return value.
+     */
+    public Object putValue(Object value, Object... key) {
+        boxed.put(Arrays.asList(key), value);
+        return value;
+    }
+
+    // --------------------- Table --------------------- //
+
+    private Object[] objects() {
+        if (objects == null) {
+            objects = new Object[used.length];
+        }
+        return objects;
+    }
+
+    /**
+     * Adds a key that is not in the table (or finds it, if the function was called with the
+     * same arguments again while computing them) and returns its slot. The table may grow, so
+     * the arrays are read only after this returns.
+     */
+    private int add(long k0, long k1, long k2) {
+        if (2 * (size + 1) > used.length) {
+            grow();
+        }
+        int i = find(k0, k1, k2);
+        if (!used[i]) {
+            used[i] = true;
+            keys[width * i] = k0;
+            if (width > 1) keys[width * i + 1] = k1;
+            if (width > 2) keys[width * i + 2] = k2;
+            size++;
+        }
+        return i;
+    }
+
+    // The slot holding the key, or the free slot where it goes.
+    private int find(long k0, long k1, long k2) {
+        long h = hash(k0);
+        if (width > 1) h = hash(h ^ k1);
+        if (width > 2) h = hash(h ^ k2);
+        int mask = used.length - 1;
+        int i = slot(h);
+        while (used[i] && !(keys[width * i] == k0
+                && (width < 2 || keys[width * i + 1] == k1)
+                && (width < 3 || keys[width * i + 2] == k2))) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        long[] oldValues = values;
+        Object[] oldObjects = objects;
+        allocate(2 * oldUsed.length);
+        for (int j = 0; j < oldUsed.length; j++) {
+            if (!oldUsed[j]) {
+                continue;
+            }
+            long k0 = oldKeys[width * j];
+            long k1 = width > 1 ? oldKeys[width * j + 1] : 0;
+            long k2 = width > 2 ? oldKeys[width * j + 2] : 0;
+            int i = add(k0, k1, k2);
+            values[i] = oldValues[j];
+            if (oldObjects != null) {
+                objects()[i] = oldObjects[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[width * capacity];
+        used = new boolean[capacity];
+        values = new long[capacity];
+        objects = null;
+        size = 0;
+    }
+
+    private static long hash(long k) {
+        k *= MIX;
+        return k ^ (k >>> 32);
+    }
+
+    private int slot(long h) {
+        return (int) h & (used.length - 1);
+    }
+}
@@ -0,0 +1,411 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * PyPrint is the output runtime of translated code. A Python print(a, b, sep=s, end=e) becomes
+ * <pre>
+ *   PyPrint.line(s).arg(a).arg(b).end(e);
+ * </pre>
+ * Each argument is written straight into a reusable byte buffer: ints are formatted digit by
+ * digit and strings copied char by char, so printing builds no intermediate String (except for
+ * the digits of a float, which come from Double.toString) and takes no lock. The buffer is
+ * written to System.out when it is full and when the script ends ({@link #flush()}), so a
+ * script that prints a line per iteration costs one write per 64 KB instead of a synchronized,
+ * flushing println per line.
+ * <p>
+ * Every thread has its own buffer, so scripts running side by side (see ScriptRunner) do not
+ * share one. Text is written as UTF-8.
+ * <p>
+ * Values are written as Python's str() gives them, which {@link #str} does for translated str()
+ * calls: True and False, and floats in their shortest repr (0.1, 1e-05, 1e+16). Without sep=, the
+ * arguments are separated by a space.
+ * <p>
+ * Python evaluates all the arguments of a print before it prints any of them. Here each argument
+ * is written as soon as it is evaluated, so the text of a print call is held back until the call
+ * ends: a print in a function called from the arguments of another, as in print(f(1), f(2)),
+ * comes out before the text of the outer call, and a call that never ends (an argument threw)
+ * prints nothing.
+ */
+public final class PyPrint {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Longest decimal long: a sign and 19 digits.
+    private static final int MAX_LONG_CHARS = 20;
+
+    // Longest float repr: a sign, 17 digits, a point and an exponent, as in -1.2345678901234567e-308.
+    private static final int MAX_DOUBLE_CHARS = 24;
+
+    private static final byte[] NO_TEXT = new byte[0];
+
+    private static final ThreadLocal<PyPrint> CURRENT = ThreadLocal.withInitial(PyPrint::new);
+
+    // Allocated on the first print, so threads that never print do not hold a buffer.
+    private byte[] buffer;
+    private int count;
+
+    // Separator of the innermost print call in progress, whether an argument has been written
+    // yet, and where its text starts in the buffer. Text before start is output.
+    private String sep = "";
+    private boolean first;
+    private int start;
+
+    // Print calls in progress, and the separator, flag and text of the outer ones (see line()).
+    private int depth;
+    private String[] outerSeps = new String[4];
+    private boolean[] outerFirsts = new boolean[4];
+    private byte[][] outerTexts = new byte[4][];
+
+    private PyPrint() {
+    }
+
+    /**
+     * Starts a print call with Python's default separator, a space.
+     * @return The current thread's printer.
+     */
+    public static PyPrint line() {
+        return line(" ");
+    }
+
+    /**
+     * Starts a print call.
+     * @param sep The text written between two arguments.
+     * @return The current thread's printer.
+     */
+    public static PyPrint line(String sep) {
+        PyPrint out = CURRENT.get();
+        out.begin(sep);
+        return out;
+    }
+
+    public PyPrint arg(long v) {
+        separate();
+        writeLong(v);
+        return this;
+    }
+
+    public PyPrint arg(double v) {
+        separate();
+        ensure(MAX_DOUBLE_CHARS);
+        count = writeDouble(v, buffer, count);
+        return this;
+    }
+
+    public PyPrint arg(boolean v) {
+        separate();
+        writeString(v ? "True" : "False");
+        return this;
+    }
+
+    public PyPrint arg(String v) {
+        separate();
+        writeString(v);
+        return this;
+    }
+
+    public PyPrint arg(Object v) {
+        if (v instanceof Double d) {
+            return arg(d.doubleValue());
+        }
+        if (v instanceof Boolean b) {
+            return arg(b.booleanValue());
+        }
+        separate();
+        writeString(String.valueOf(v));
+        return this;
+    }
+
+    /**
+     * Ends the print call with a newline.
+     */
+    public void end() {
+        ensure(1);
+        buffer[count++] = '\n';
+        close();
+    }
+
+    /**
+     * Ends the print call.
+     * @param end The text written after the last argument.
+     */
+    public void end(String end) {
+        writeString(end);
+        close();
+    }
+
+    /**
+     * Writes what the current thread has printed to System.out. Translated scripts call this
+     * when they end; the script runner also calls it when a script stops with an exception.
+     * Print calls still in progress then never end, so their text is dropped.
+     */
+    public static void flush() {
+        PyPrint out = CURRENT.get();
+        if (out.depth > 0) {
+            out.count = out.start;
+            out.depth = 0;
+        }
+        out.writeOut();
+    }
+
+    // --------------------- str() --------------------- //
+
+    /**
+     * @return Python's str(v): the text print(v) writes.
+     */
+    public static String str(long v) {
+        return Long.toString(v);
+    }
+
+    public static String str(double v) {
+        byte[] text = new byte[MAX_DOUBLE_CHARS];
+        return new String(text, 0, writeDouble(v, text, 0), StandardCharsets.ISO_8859_1);
+    }
+
+    public static String str(boolean v) {
+        return v ? "True" : "False";
+    }
+
+    public static String str(Object v) {
+        if (v instanceof Double d) {
+            return str(d.doubleValue());
+        }
+        if (v instanceof Boolean b) {
+            return str(b.booleanValue());
+        }
+        return String.valueOf(v);
+    }
+
+    // --------------------- Calls in progress --------------------- //
+
+    private void begin(String sep) {
+        if (depth > 0) {
+            // A print while the arguments of another are evaluated: the other's text so far is
+            // taken out of the buffer and put back after this one's.
+            if (depth > outerSeps.length) {
+                outerSeps = Arrays.copyOf(outerSeps, depth * 2);
+                outerFirsts = Arrays.copyOf(outerFirsts, depth * 2);
+                outerTexts = Arrays.copyOf(outerTexts, depth * 2);
+            }
+            outerSeps[depth - 1] = this.sep;
+            outerFirsts[depth - 1] = first;
+            outerTexts[depth - 1] = start == count ? NO_TEXT : Arrays.copyOfRange(buffer, start, count);
+            count = start;
+        }
+        depth++;
+        start = count;
+        this.sep = sep;
+        first = true;
+    }
+
+    private void close() {
+        depth--;
+        start = count;
+        if (depth > 0) {
+            sep = outerSeps[depth - 1];
+            first = outerFirsts[depth - 1];
+            byte[] text = outerTexts[depth - 1];
+            outerSeps[depth - 1] = null;
+            outerTexts[depth - 1] = null;
+            writeBytes(text);
+        }
+    }
+
+    // --------------------- Buffer --------------------- //
+
+    private void separate() {
+        if (first) {
+            first = false;
+        } else if (!sep.isEmpty()) {
+            writeString(sep);
+        }
+    }
+
+    /**
+     * Makes room for n more bytes, n at most BUFFER_SIZE.
+     */
+    private void ensure(int n) {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        if (count + n > buffer.length) {
+            writeOut();
+            // The text of the calls in progress stays; a call with more text than fits gets more room.
+            if (count + n > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + n));
+            }
+        }
+    }
+
+    // Writes the output in the buffer, and moves the text of the calls in progress to its start.
+    private void writeOut() {
+        int output = depth > 0 ? start : count;
+        if (output > 0) {
+            System.out.write(buffer, 0, output);
+            System.arraycopy(buffer, output, buffer, 0, count - output);
+            count -= output;
+            start -= output;
+        }
+        System.out.flush();
+    }
+
+    private void writeLong(long v) {
+        ensure(MAX_LONG_CHARS);
+        // Digits are taken off a non-positive value, which also covers Long.MIN_VALUE.
+        if (v < 0) {
+            buffer[count++] = '-';
+        } else {
+            v = -v;
+        }
+        int from = count;
+        do {
+            buffer[count++] = (byte) ('0' - v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = from, j = count - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+    }
+
+    /**
+     * Writes Python's repr of a float. The digits are those of Double.toString, the shortest
+     * that read back as v; they are laid out as Python does: fixed from 1e-4 up to 1e16 (0.0001,
+     * 1e+16), with a two-digit exponent beyond (1e-05), and nan and inf.
+     * @return The index after the text, at most MAX_DOUBLE_CHARS past at.
+     */
+    private static int writeDouble(double v, byte[] b, int at) {
+        if (v != v) {
+            return writeAscii("nan", b, at);
+        }
+        if (v < 0 || (v == 0 && 1 / v < 0)) {
+            b[at++] = '-';
+            v = -v;
+        }
+        if (v == Double.POSITIVE_INFINITY) {
+            return writeAscii("inf", b, at);
+        }
+        if (v == 0) {
+            return writeAscii("0.0", b, at);
+        }
+
+        // The text is the decimal m * 10^-s, read off Double.toString: d.ddd or d.dddE-n.
+        String text = Double.toString(v);
+        long m = 0;
+        int s = 0;
+        boolean fraction = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                fraction = true;
+            } else if (c == 'E') {
+                s -= Integer.parseInt(text, i + 1, text.length(), 10);
+                break;
+            } else {
+                m = m * 10 + (c - '0');
+                s += fraction ? 1 : 0;
+            }
+        }
+        while (m % 10 == 0) {
+            m /= 10;
+            s--;
+        }
+        // Double.toString gives at least two digits, even where one reads back (4.9E-324 for 5e-324).
+        if (m >= 10 && m < 100 && Double.parseDouble((m + 5) / 10 + "e" + (1 - s)) == v) {
+            m = (m + 5) / 10;
+            s--;
+            while (m % 10 == 0) {
+                m /= 10;
+                s--;
+            }
+        }
+
+        int digits = at;
+        at = writeDigits(m, b, at);
+        int n = at - digits;
+        int point = n - s;
+        if (point > -4 && point <= 16) {
+            if (point <= 0) {
+                int shift = 2 - point;
+                System.arraycopy(b, digits, b, digits + shift, n);
+                b[digits] = '0';
+                b[digits + 1] = '.';
+                Arrays.fill(b, digits + 2, digits + shift, (byte) '0');
+                return at + shift;
+            }
+            if (point < n) {
+                System.arraycopy(b, digits + point, b, digits + point + 1, n - point);
+                b[digits + point] = '.';
+                return at + 1;
+            }
+            for (int i = n; i < point; i++) {
+                b[at++] = '0';
+            }
+            b[at++] = '.';
+            b[at++] = '0';
+            return at;
+        }
+        if (n > 1) {
+            System.arraycopy(b, digits + 1, b, digits + 2, n - 1);
+            b[digits + 1] = '.';
+            at++;
+        }
+        int exponent = point - 1;
+        b[at++] = 'e';
+        b[at++] = (byte) (exponent < 0 ? '-' : '+');
+        exponent = Math.abs(exponent);
+        if (exponent < 10) {
+            b[at++] = '0';
+        }
+        return writeDigits(exponent, b, at);
+    }
+
+    // Writes the digits of v >= 0.
+    private static int writeDigits(long v, byte[] b, int at) {
+        int from = at;
+        do {
+            b[at++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = from, j = at - 1; i < j; i++, j--) {
+            byte digit = b[i];
+            b[i] = b[j];
+            b[j] = digit;
+        }
+        return at;
+    }
+
+    private static int writeAscii(String s, byte[] b, int at) {
+        for (int i = 0; i < s.length(); i++) {
+            b[at++] = (byte) s.charAt(i);
+        }
+        return at;
+    }
+
+    private void writeString(String s) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                // Non-ASCII text is rare in scripts; the rest of the string is encoded in one go.
+                writeBytes(s.substring(i).getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (buffer == null || count == buffer.length) {
+                ensure(1);
+            }
+            buffer[count++] = (byte) c;
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        int off = 0;
+        while (off < bytes.length) {
+            ensure(1);
+            int n = Math.min(bytes.length - off, buffer.length - count);
+            System.arraycopy(bytes, off, buffer, count, n);
+            count += n;
+            off += n;
+        }
+    }
+}
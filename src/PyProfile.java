@@ -0,0 +1,147 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PyProfile finds the Python lines a script spends its time on, for -Dtranslator.profile=true.
+ * <p>
+ * Translated code with profiling (see {@link PythonToJavaConverter#setProfiling}) counts every
+ * statement it runs in a long[] indexed by the statement's Python line:
+ * <pre>
+ *   final long[] profile$ = PyProfile.counters(8);
+ *   ...
+ *   profile$[5]++;
+ *   s = PyMath.add(s, i, "s");
+ * </pre>
+ * Counts say how often a line ran, not what it cost, so a sampler thread also looks at the
+ * script's stack every -Dtranslator.profileSampleMicros (1000 by default) and charges the period
+ * to the innermost frame of translated code, whose line is a Python line (see {@link SourceMap}).
+ * Time spent in the runtime library (PyMath, PyPrint, ...) is charged to the line that called it.
+ * Samples are taken at safepoints, so short lines between them are under-represented; the
+ * ranking is what to look at, more than the exact times.
+ * <p>
+ * A profile covers the thread it is started on, like {@link PyBudget}.
+ */
+public final class PyProfile {
+
+    static final long SAMPLE_MICROS = Long.getLong("translator.profileSampleMicros", 1000);
+
+    // Lines shown in the report.
+    static final int REPORTED_LINES = Integer.getInteger("translator.profileLines", 20);
+
+    private static final ThreadLocal<PyProfile> CURRENT = new ThreadLocal<>();
+
+    // Samples all profiled threads.
+    private static final ScheduledExecutorService SAMPLER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "profile-sampler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String[] sourceLines;
+    // counts[l] and samples[l]: executions and samples of Python line l.
+    private final long[] counts;
+    private final long[] samples;
+    private long totalSamples;
+    private Thread thread;
+    private ScheduledFuture<?> sampling;
+
+    /**
+     * @param pythonSource The script, whose lines are shown in the report.
+     */
+    public PyProfile(String pythonSource) {
+        this.sourceLines = pythonSource.split("\n", -1);
+        this.counts = new long[sourceLines.length + 1];
+        this.samples = new long[sourceLines.length + 1];
+    }
+
+    /**
+     * Called by translated code on entry to main and to every function.
+     * @param lines One more than the last line of the script that has a statement.
+     * @return The counters of the current thread's profile; a scratch array if the thread has none.
+     */
+    public static long[] counters(int lines) {
+        PyProfile profile = CURRENT.get();
+        return profile != null && profile.counts.length >= lines ? profile.counts : new long[lines];
+    }
+
+    /**
+     * Makes this the profile of the current thread and starts sampling it.
+     * @return The thread's previous profile, to be passed to {@link #stop}.
+     */
+    public PyProfile start() {
+        PyProfile previous = CURRENT.get();
+        thread = Thread.currentThread();
+        CURRENT.set(this);
+        sampling = SAMPLER.scheduleAtFixedRate(this::sample, SAMPLE_MICROS, SAMPLE_MICROS, TimeUnit.MICROSECONDS);
+        return previous;
+    }
+
+    /**
+     * Stops sampling and gives the current thread its previous profile back.
+     * @param previous What {@link #start} returned.
+     */
+    public void stop(PyProfile previous) {
+        sampling.cancel(false);
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * Clears the profile of the current thread, if it has one, for a run that starts over (e.g.
+     * after an overflow): only the run that completes is reported.
+     */
+    static void restart() {
+        PyProfile profile = CURRENT.get();
+        if (profile != null) {
+            synchronized (profile) {
+                Arrays.fill(profile.counts, 0);
+                Arrays.fill(profile.samples, 0);
+                profile.totalSamples = 0;
+            }
+        }
+    }
+
+    private synchronized void sample() {
+        for (StackTraceElement frame : thread.getStackTrace()) {
+            int line = frame.getLineNumber();
+            if (SourceMap.SOURCE_FILE.equals(frame.getFileName()) && line > 0 && line < samples.length) {
+                samples[line]++;
+                totalSamples++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return The hottest lines, by sampled time and then by count, as a table for the console.
+     */
+    public synchronized String report() {
+        List<Integer> lines = new ArrayList<>();
+        for (int line = 1; line < counts.length; line++) {
+            if (counts[line] > 0 || samples[line] > 0) {
+                lines.add(line);
+            }
+        }
+        lines.sort(Comparator.comparingLong((Integer l) -> samples[l]).thenComparingLong(l -> counts[l]).reversed());
+
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("Profile: %d samples, one every %d us%n", totalSamples, SAMPLE_MICROS));
+        table.append(String.format("%6s %14s %10s %7s  %s%n", "line", "count", "time ms", "time %", "source"));
+        for (int line : lines.subList(0, Math.min(REPORTED_LINES, lines.size()))) {
+            double millis = samples[line] * SAMPLE_MICROS / 1000.0;
+            double percent = totalSamples == 0 ? 0 : 100.0 * samples[line] / totalSamples;
+            table.append(String.format("%6d %14d %10.1f %7.1f  %s%n",
+                    line, counts[line], millis, percent, sourceLines[line - 1].strip()));
+        }
+        return table.toString();
+    }
+}
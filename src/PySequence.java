@@ -0,0 +1,119 @@
+/**
+ * PySequence is the base of the list runtime of translated code: {@link IntList},
+ * {@link DoubleList} and {@link BooleanList} keep their elements in a primitive array, and
+ * {@link PyList} holds everything else. It does Python's index arithmetic, which is the same for
+ * all of them: negative indexes count from the end, and slice bounds are clipped to the list.
+ * <p>
+ * A list belongs to the script run that created it and is used by one thread.
+ */
+public abstract class PySequence {
+
+    /**
+     * An omitted bound of a slice, Python's None: lst[2:] is lst.slice(2, PySequence.NONE, 1).
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    // Number of elements; the array behind the list may be longer.
+    protected int size;
+
+    /**
+     * @return The number of elements, Python's len(lst).
+     */
+    public final int size() {
+        return size;
+    }
+
+    public final boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return The element at array index i as an object: a Long, Double or Boolean for the
+     *         primitive lists. For copying a list into a list of mixed types.
+     */
+    protected abstract Object boxed(int i);
+
+    /**
+     * @return The array index of a Python index.
+     * @throws IndexOutOfBoundsException If the index is not in the list, as Python's IndexError.
+     */
+    protected final int index(long i) {
+        long j = i < 0 ? i + size : i;
+        if (j < 0 || j >= size) {
+            throw new IndexOutOfBoundsException("list index out of range");
+        }
+        return (int) j;
+    }
+
+    /**
+     * @return The array index of the first element, for min() and max().
+     * @throws IllegalArgumentException If the list is empty, as Python's ValueError.
+     */
+    protected final int first(String function) {
+        if (size == 0) {
+            throw new IllegalArgumentException(function + "() arg is an empty sequence");
+        }
+        return 0;
+    }
+
+    /**
+     * New capacity for an array that has to hold one more element than its length.
+     */
+    protected static int grown(int length) {
+        return Math.max(8, length + (length >> 1) + 1);
+    }
+
+    // --------------------- Slices --------------------- //
+
+    /**
+     * @return The array index of the first element of the slice [start:...:step].
+     * @throws IllegalArgumentException If step is 0, as Python's ValueError.
+     */
+    protected final int sliceStart(long start, long step) {
+        if (step == 0) {
+            throw new IllegalArgumentException("slice step cannot be zero");
+        }
+        if (start == NONE) {
+            return step > 0 ? 0 : size - 1;
+        }
+        return clip(start, step);
+    }
+
+    /**
+     * @return The number of elements of the slice that starts at first (from {@link #sliceStart}).
+     */
+    protected final int sliceLength(int first, long stop, long step) {
+        long last = stop == NONE ? (step > 0 ? size : -1) : clip(stop, step);
+        if (step > 0) {
+            return first < last ? (int) ((last - first - 1) / step + 1) : 0;
+        }
+        return first > last ? (int) ((first - last - 1) / -step + 1) : 0;
+    }
+
+    // A slice bound as Python adjusts it: negative bounds count from the end, then the bound is
+    // clipped to [0, size] going forwards, or to [-1, size - 1] going backwards.
+    private int clip(long i, long step) {
+        if (i < 0) {
+            i += size;
+            if (i < 0) {
+                return step < 0 ? -1 : 0;
+            }
+        } else if (i >= size) {
+            return step < 0 ? size - 1 : size;
+        }
+        return (int) i;
+    }
+
+    /**
+     * @return The size of a list repeated n times (Python's lst * n), which is empty for n &lt;= 0.
+     */
+    protected final int repeatedSize(long n) {
+        if (n <= 0 || size == 0) {
+            return 0;
+        }
+        if (n > Integer.MAX_VALUE / size) {
+            throw new OutOfMemoryError("list is too large");
+        }
+        return (int) n * size;
+    }
+}
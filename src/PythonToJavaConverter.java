@@ -1,33 +1,220 @@
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Stack;
+import java.util.StringJoiner;
 
 /**
  * PythonToJavaConverter takes a list of tokenized Python lines and converts
  * them into Java code. It handles if/elif/else blocks, for/while loops,
  * variable declarations, and more.
+ * <p>
+ * The lines are first built into a statement tree ({@link IRBuilder}), which is optimized
+ * ({@link IROptimizer}) and typed ({@link TypeInference}) before Java code is emitted from it.
+ * <p>
+ * The script's functions (def) become static methods of the class, next to main
+ * (see {@link #methods()}).
  */
 public class PythonToJavaConverter {
 
-    // Each element in 'tokens' is a list of tokens that corresponds to a single line of Python code.
-    private final List<List<Interpreter.Token>> tokens;
+    // Version of the translation rules. Bump it whenever the generated code changes,
+    // so that scripts cached by CompilationCache are translated again.
+    public static final int VERSION = 24;
 
-    // Maps variable names to their inferred types (e.g., "x" -> "int").
-    private final HashMap<String, String> varTypes = new HashMap<>();
+    // Each element in 'tokens' holds the tokens of a single line of Python code.
+    // The lines are read once, into the statement tree (see IRBuilder), so they may be lexed as they are read.
+    private final Iterable<? extends TokenLine> tokens;
 
-    // Stack of indentation levels (one per open block).
-    private final Stack<Integer> blockIndents = new Stack<>();
+    // Maps variable names to their inferred types at the current line (e.g., "x" -> INT), as decided by TypeInference.
+    private final HashMap<String, ValueType> varTypes = new HashMap<>();
 
-    // Stack of block types ("if", "for", "while"), corresponding to the indentation stack.
-    private final Stack<String> blockTypes = new Stack<>();
+    // Current version of each variable and the Java variable holding it. A variable gets a new
+    // version when it is redefined at the top level, and may then move to another Java variable.
+    private final HashMap<String, Integer> versions = new HashMap<>();
+    private final HashMap<String, String> javaNames = new HashMap<>();
+
+    // The optimized statement tree, and the types and declaration points of all variables,
+    // computed before emission starts.
+    private List<Stmt> program;
+    private TypeInference inference;
+
+    // Variables whose declaration has already been emitted.
+    private final HashSet<String> declared = new HashSet<>();
+
+    // Id of the next block to be opened; ids match the ones TypeInference assigns.
+    private int nextBlockId = 1;
+
+    // How Python ints are emitted, and the variables that need BigIntegers (see PyMath).
+    private Arithmetic arithmetic = Arithmetic.WRAPPING;
+    private final HashSet<String> bigVariables = new HashSet<>();
+
+    // Emits Java code for parsed expressions, looking variable types and names up in TypeInference.
+    private ExprEmitter emitter;
+
+    // The static methods the script's functions are translated to, and the function being
+    // translated (null while translating the script itself).
+    private final StringBuilder methods = new StringBuilder();
+    private Stmt.Def function;
+
+    // Number of loops over lists so far, which numbers their index variables (i$1, i$2, ...).
+    private int listLoops;
+
+    // The label a break leaves the innermost loop by, if it is a range loop (see emitFor), or null.
+    private String breakLabel;
+
+    // Whether the statement tree is optimized by IROptimizer before code is emitted.
+    private boolean optimizing = true;
+
+    // Whether loops count their iterations and check the run's PyBudget.
+    private boolean loopChecks;
+
+    // Whether statements count their executions for PyProfile.
+    private boolean profiling;
+
+    // The Python line of each Java line of the script's code and of its methods, and those of
+    // the code being emitted: the script's, or the function's being translated.
+    private SourceMap.Lines codeLines;
+    private SourceMap.Lines methodLines = new SourceMap.Lines(methods);
+    private SourceMap.Lines lines;
+
+    // For conversions that can be resumed (see convert(PythonToJavaConverter)): the state at the
+    // start of some top-level statements, the Java code converted, and the statement the
+    // conversion resumed at.
+    private boolean checkpointing;
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private String javaCode;
+    private int resumedAt;
+
+    // A checkpoint is taken once this many chars of Java have been emitted since the last one for
+    // every entry of the state it copies, so that copying costs a fraction of emitting.
+    private static final int CHARS_PER_CHECKPOINT_ENTRY = 8;
+
+    /**
+     * The converter's state at the start of a top-level statement: what a conversion of a later
+     * version of the script needs to carry on from there. All the code before the statement is
+     * the first codeLength chars of the converted code, and the first methodsLength of methods().
+     */
+    private record Checkpoint(int statement, int codeLength, int methodsLength,
+                              HashMap<String, ValueType> varTypes, HashMap<String, Integer> versions,
+                              HashMap<String, String> javaNames, HashSet<String> declared,
+                              int nextBlockId, int listLoops, SourceMap.Lines codeLines, SourceMap.Lines methodLines) {
+
+        int size() {
+            return varTypes.size() + versions.size() + javaNames.size() + declared.size();
+        }
+    }
+
+    /**
+     * How Python ints are translated.
+     */
+    public enum Arithmetic {
+        // Java int and long arithmetic, which wraps around silently on overflow.
+        WRAPPING,
+        // long arithmetic with overflow checks (PyMath); variables that overflow can be promoted to BigInteger.
+        EXACT
+    }
 
     /**
      * Constructs a PythonToJavaConverter with a list of lines (each line is a list of tokens).
      * @param lines The tokenized Python code, line by line.
      */
     public PythonToJavaConverter(List<List<Interpreter.Token>> lines) {
-        this.tokens = lines;
+        this.tokens = lines.stream().map(TokenLine::of).toList();
+    }
+
+    /**
+     * Constructs a PythonToJavaConverter over a compact token buffer from {@link Interpreter#lexCompact(char[])}.
+     * The statement tree is built from the buffer's arrays, without a Token object per token.
+     * @param buffer The tokenized Python code.
+     */
+    public PythonToJavaConverter(TokenBuffer buffer) {
+        this.tokens = buffer.tokenLines();
+    }
+
+    /**
+     * Constructs a PythonToJavaConverter that takes each line as it is produced, e.g. by
+     * {@link Interpreter#stream(String)}: the statement tree is built while the file is lexed, so
+     * the source text and its tokens are never held as a whole. The lines are iterated once.
+     * @param lines The tokenized Python code, line by line.
+     */
+    public PythonToJavaConverter(Iterable<List<Interpreter.Token>> lines) {
+        this.tokens = () -> {
+            Iterator<List<Interpreter.Token>> source = lines.iterator();
+            return new Iterator<TokenLine>() {
+                @Override
+                public boolean hasNext() {
+                    return source.hasNext();
+                }
+
+                @Override
+                public TokenLine next() {
+                    return TokenLine.of(source.next());
+                }
+            };
+        };
+    }
+
+    /**
+     * Selects how Python ints are translated. The default is {@link Arithmetic#WRAPPING}.
+     * @return this, for chaining.
+     */
+    public PythonToJavaConverter setArithmetic(Arithmetic arithmetic) {
+        this.arithmetic = arithmetic;
+        return this;
+    }
+
+    /**
+     * Turns the IROptimizer passes (constant folding, hoisting of range bounds, dead-store
+     * elimination) on or off. They are on by default.
+     * @return this, for chaining.
+     */
+    public PythonToJavaConverter setOptimizing(boolean optimizing) {
+        this.optimizing = optimizing;
+        return this;
+    }
+
+    /**
+     * Makes every loop count its iterations in a local variable and call {@link PyBudget#check()}
+     * once every {@link PyBudget#INTERVAL} of them, at the start of its body, so that the run can
+     * be stopped when it is out of time or cancelled:
+     * <pre>
+     *   while (b != 0) {
+     *       if ((++loops$ &amp; 1023) == 0) PyBudget.check();
+     * </pre>
+     * Functions also start with PyBudget.call(), which checks every so many calls, for recursion.
+     * The compiled and interpreted translations check the same way. Off by default.
+     * @return this, for chaining.
+     */
+    public PythonToJavaConverter setLoopChecks(boolean loopChecks) {
+        this.loopChecks = loopChecks;
+        return this;
+    }
+
+    /**
+     * Makes every statement count its executions in the run's {@link PyProfile}, in an array
+     * indexed by the statement's Python line:
+     * <pre>
+     *   profile$[12]++;
+     * </pre>
+     * Only the compiled translations profile; {@link #interpreter()} refuses to. Off by default.
+     * @return this, for chaining.
+     */
+    public PythonToJavaConverter setProfiling(boolean profiling) {
+        this.profiling = profiling;
+        return this;
+    }
+
+    /**
+     * Makes the given variables BigIntegers in {@link Arithmetic#EXACT} mode, typically the ones
+     * named by a {@link PyMath.Overflow} thrown by an earlier translation of the same script.
+     * Values that flow into them become BigIntegers too.
+     * @return this, for chaining.
+     */
+    public PythonToJavaConverter promoteToBigInteger(Collection<String> variables) {
+        bigVariables.addAll(variables);
+        return this;
     }
 
     /**
@@ -37,361 +224,774 @@ public class PythonToJavaConverter {
      */
     public String convert() {
         StringBuilder code = new StringBuilder();
+        convert(code);
+        return code.toString();
+    }
+
+    /**
+     * Converts the script like {@link #convert()}, reusing what an earlier conversion of a previous
+     * version of the script emitted for the top-level statements both versions start with.
+     * Conversion resumes from the converter state saved at the start of one of those statements
+     * ({@link Checkpoint}); the code and methods emitted before it are copied.
+     * <p>
+     * Only the emission of those statements is saved: the statement tree of the whole script is
+     * built and its types are inferred again, as a change anywhere may change how code before it
+     * is translated. Code is only reused when both versions are inferred the same types, Java
+     * variables and declarations; otherwise the script is converted from the start.
+     * @param previous The converter of the previous version, with the same settings, after this
+     *                 method converted it; or null to convert from the start.
+     * @return The Java code snippet, as {@link #convert()} returns it.
+     */
+    public String convert(PythonToJavaConverter previous) {
+        analyze();
+        checkpointing = true;
+        Checkpoint from = previous == null ? null : previous.resumePoint(this);
+        if (from == null) {
+            javaCode = convert();
+            return javaCode;
+        }
 
-        // Iterate over each line of tokenized Python.
-        for (List<Interpreter.Token> line : tokens) {
-            // Skip empty lines.
-            if (line.isEmpty()) {
-                continue;
+        // Carry on from the checkpoint with the code before it, and the checkpoints before it.
+        StringBuilder code = new StringBuilder(previous.javaCode.length());
+        code.append(previous.javaCode, 0, from.codeLength());
+        methods.append(previous.methods, 0, from.methodsLength());
+        varTypes.putAll(from.varTypes());
+        versions.putAll(from.versions());
+        javaNames.putAll(from.javaNames());
+        declared.addAll(from.declared());
+        nextBlockId = from.nextBlockId();
+        listLoops = from.listLoops();
+        codeLines = from.codeLines().copy(code);
+        methodLines = from.methodLines().copy(methods);
+        lines = codeLines;
+        for (Checkpoint c : previous.checkpoints) {
+            if (c.statement() <= from.statement()) {
+                checkpoints.add(c);
             }
+        }
+        resumedAt = from.statement();
+        emitter = new ExprEmitter(this::typeOf, this::javaVar, arithmetic == Arithmetic.EXACT).setFunctions(inference).setPromoted(inference.promoted());
+        emitStatements(from.statement(), code);
+        javaCode = code.toString();
+        return javaCode;
+    }
 
-            // Python indentation level for this line.
-            int lineIndent = line.getFirst().indentLevel;
-
-            // The first token (e.g. 'if', 'for', or a variable).
-            String firstTok = line.getFirst().value;
-
-            // Close any blocks that have indentation >= this line's indentation.
-            closeBlocksIfNeeded(lineIndent, code);
-
-            // Check the first token to determine type of statement.
-            switch (firstTok) {
-                case "if" -> openIfBlock(line, lineIndent, code);
-                case "elif" -> {
-                    // Transition from if -> elif at the same indent level.
-                    closeOneBlockIfSameIndent(lineIndent, code, "if");
-                    code.append("else if (")
-                            .append(parseCondition(line))
-                            .append(") {\n");
-                    blockIndents.push(lineIndent);
-                    blockTypes.push("if");
-                }
-                case "else" -> {
-                    // Transition from if/elif -> else at the same indent level.
-                    closeOneBlockIfSameIndent(lineIndent, code, "if");
-                    code.append("else {\n");
-                    blockIndents.push(lineIndent);
-                    blockTypes.push("if");
-                }
-                case "for" -> openForBlock(line, lineIndent, code);
-                case "while" -> openWhileBlock(line, lineIndent, code);
-                case null, default ->
-                    // Normal statements like assignment, print, break, continue, etc.
-                        code.append(translateLine(line)).append("\n");
+    /**
+     * @return The index of the top-level statement the last {@link #convert(PythonToJavaConverter)}
+     *         resumed at; 0 if it converted the script from the start.
+     */
+    public int resumedAt() {
+        return resumedAt;
+    }
+
+    /**
+     * @return The number of top-level statements of the script, once it is converted.
+     */
+    public int statementCount() {
+        return program == null ? 0 : program.size();
+    }
+
+    /**
+     * @return The Python line of the given top-level statement, or 0 if there is no such statement.
+     */
+    public int statementLine(int statement) {
+        return program == null || statement >= program.size() ? 0 : program.get(statement).line();
+    }
+
+    // The last checkpoint of this conversion from which next, a conversion of another version of
+    // the script, emits the same code as this one did; null if there is none.
+    private Checkpoint resumePoint(PythonToJavaConverter next) {
+        if (javaCode == null || arithmetic != next.arithmetic || optimizing != next.optimizing
+                || loopChecks != next.loopChecks || profiling != next.profiling
+                || !bigVariables.equals(next.bigVariables) || !inference.sameDecisions(next.inference)) {
+            return null;
+        }
+        // The counters of a profiled script are sized by its last line.
+        if (profiling && Stmt.lastLine(program) != Stmt.lastLine(next.program)) {
+            return null;
+        }
+        int same = 0;
+        while (same < program.size() && same < next.program.size() && program.get(same).equals(next.program.get(same))) {
+            same++;
+        }
+        Checkpoint from = null;
+        for (Checkpoint c : checkpoints) {
+            if (c.statement() > same) {
+                break;
             }
+            from = c;
         }
+        return from;
+    }
 
-        // After processing all lines, close any remaining open blocks.
-        while (!blockIndents.isEmpty()) {
-            code.append("}\n");
-            blockIndents.pop();
-            blockTypes.pop();
+    // Saves the state at the start of a top-level statement, if enough code was emitted since the last checkpoint.
+    private void checkpoint(int statement, StringBuilder code) {
+        Checkpoint last = checkpoints.isEmpty() ? null : checkpoints.getLast();
+        if (last != null && (last.statement() >= statement
+                || code.length() + methods.length() - last.codeLength() - last.methodsLength()
+                        < CHARS_PER_CHECKPOINT_ENTRY * last.size())) {
+            return;
         }
+        checkpoints.add(new Checkpoint(statement, code.length(), methods.length(),
+                new HashMap<>(varTypes), new HashMap<>(versions), new HashMap<>(javaNames), new HashSet<>(declared),
+                nextBlockId, listLoops, codeLines.copy(code), methodLines.copy(methods)));
+    }
 
-        return code.toString();
+    /**
+     * @return The Java declarations the script's functions are translated to: static methods,
+     *         and the memo tables of memoized functions. They belong in the class next to main.
+     *         Empty if the script defines no functions; complete once the script is converted.
+     */
+    public String methods() {
+        return methods.toString();
     }
 
     /**
-     * Closes blocks whose indentation level is >= the current line's indent.
-     * This matches Python's way of ending blocks when you de-indent.
+     * @return The Python line of each line of the Java code of {@link #convert()} (index 0 for its
+     *         first line), 0 for the lines before the first statement. Complete once the script is converted.
      */
-    private void closeBlocksIfNeeded(int lineIndent, StringBuilder code) {
-        while (!blockIndents.isEmpty() && blockIndents.peek() >= lineIndent) {
-            code.append("}\n");
-            blockIndents.pop();
-            blockTypes.pop();
-        }
+    public int[] codeLines() {
+        return codeLines == null ? new int[0] : codeLines.toArray();
     }
 
     /**
-     * Closes exactly one block if the current top block has the same
-     * indentation level and matches a specific type (e.g., "if").
-     * Used for transitioning if->elif->else at the same indentation.
+     * @return The Python line of each line of {@link #methods()}, like {@link #codeLines()}.
      */
-    private void closeOneBlockIfSameIndent(int lineIndent, StringBuilder code, String typeNeeded) {
-        if (!blockIndents.isEmpty()
-                && blockIndents.peek() == lineIndent
-                && blockTypes.peek().equals(typeNeeded)) {
-            code.append("}\n");
-            blockIndents.pop();
-            blockTypes.pop();
+    public int[] methodLines() {
+        return methodLines.toArray();
+    }
+
+    /**
+     * Compiles the script straight to bytecode with {@link BytecodeGenerator}, without Java
+     * source and javac. The statement tree is shared with {@link #convert()}, so a script can be
+     * both converted and compiled by one converter.
+     * @param className The name of the class to generate, in the default package.
+     * @return The class file of a class whose main method runs the script.
+     * @throws UnsupportedOperationException If the script needs something only the Java source
+     *         translation supports (e.g. BigIntegers); compile the Java source with javac then.
+     */
+    public byte[] compile(String className) {
+        analyze();
+        return new BytecodeGenerator(program, inference, arithmetic == Arithmetic.EXACT)
+                .setLoopChecks(loopChecks)
+                .setProfiling(profiling)
+                .generate(className);
+    }
+
+    /**
+     * Prepares the script to be run by {@link ScriptInterpreter}, without compiling it.
+     * @return The interpreter for the script.
+     * @throws UnsupportedOperationException If the script needs something only the compiled
+     *         translation supports (e.g. BigIntegers).
+     */
+    public ScriptInterpreter interpreter() {
+        if (profiling) {
+            throw new UnsupportedOperationException("Profiling");
         }
+        analyze();
+        return new ScriptInterpreter(program, inference, arithmetic == Arithmetic.EXACT).setLoopChecks(loopChecks);
     }
 
     /**
-     * Opens an if-block.
+     * Builds and optimizes the statement tree, and decides the type and declaring block of every variable.
      */
-    private void openIfBlock(List<Interpreter.Token> line, int lineIndent, StringBuilder code) {
-        code.append("if (")
-                .append(parseCondition(line))
-                .append(") {\n");
-        blockIndents.push(lineIndent);
-        blockTypes.push("if");
+    private void analyze() {
+        if (program != null) {
+            return;
+        }
+        List<Stmt> built = IRBuilder.build(tokens);
+        program = optimizing ? IROptimizer.optimize(built) : built;
+        inference = new TypeInference(program, arithmetic == Arithmetic.EXACT, bigVariables).run();
     }
 
     /**
-     * Opens a for-loop block by translating 'for var in range(...)' to Java for-loop syntax.
+     * Shared conversion loop.
      */
-    private void openForBlock(List<Interpreter.Token> line, int lineIndent, StringBuilder code) {
-        code.append(parseForLoop(line));
-        blockIndents.push(lineIndent);
-        blockTypes.push("for");
+    private void convert(StringBuilder code) {
+        analyze();
+        emitter = new ExprEmitter(this::typeOf, this::javaVar, arithmetic == Arithmetic.EXACT).setFunctions(inference).setPromoted(inference.promoted());
+        codeLines = new SourceMap.Lines(code);
+        lines = codeLines;
+        appendDeclarations(0, code);
+        appendLoopCounter(code);
+        appendCounters(code);
+        emitStatements(0, code);
     }
 
     /**
-     * Opens a while-loop block by translating Python while-syntax to Java while-syntax.
+     * Emits the top-level statements from the given one on.
      */
-    private void openWhileBlock(List<Interpreter.Token> line, int lineIndent, StringBuilder code) {
-        code.append(parseWhile(line));
-        blockIndents.push(lineIndent);
-        blockTypes.push("while");
+    private void emitStatements(int first, StringBuilder code) {
+        for (int i = first; i < program.size(); i++) {
+            if (checkpointing) {
+                checkpoint(i, code);
+            }
+
+            // A top-level redefinition starts a new version of the variable, possibly with another type.
+            String redefined = inference.newVersionAt(i);
+            if (redefined != null) {
+                versions.merge(redefined, 1, Integer::sum);
+                varTypes.remove(redefined);
+                javaNames.remove(redefined);
+            }
+
+            emitStatement(program.get(i), code);
+        }
     }
 
-    // --------------------- Parsing if, for, while --------------------- //
+    // --------------------- Blocks (if, for, while) --------------------- //
 
     /**
-     * Extracts the condition from an if/elif statement (everything up to the colon).
+     * Emits the statements of a block followed by its closing brace. The opening brace is already emitted.
      */
-    private String parseCondition(List<Interpreter.Token> line) {
-        // Skip the first token ('if' or 'elif'), then read until ':'.
-        StringBuilder sb = new StringBuilder();
-        for (int i = 1; i < line.size(); i++) {
-            if (":".equals(line.get(i).value)) break;
-            sb.append(line.get(i).value);
+    private void emitBlock(List<Stmt> body, StringBuilder code) {
+        appendDeclarations(nextBlockId++, code);
+        for (Stmt s : body) {
+            emitStatement(s, code);
         }
-        // fixExpr() handles things like Python booleans -> Java booleans.
-        return fixExpr(sb.toString().trim());
+        code.append("}\n");
     }
 
     /**
-     * Translates Python's 'for var in range(...)' to a Java for-loop.
-     * E.g. for i in range(5) => for (i = 0; i < 5; i++)
+     * Declares, with a default value, the variables that are first assigned in a nested block
+     * or read before they are written, and therefore cannot be declared by their first assignment.
      */
-    private String parseForLoop(List<Interpreter.Token> line) {
-        // The variable name is typically the second token, e.g. 'for i in range(...)'
-        String varName = line.get(1).value;
+    private void appendDeclarations(int blockId, StringBuilder code) {
+        for (TypeInference.Declaration d : inference.declarationsAt(blockId)) {
+            code.append(d.type().javaName).append(' ').append(d.javaName())
+                    .append(" = ").append(d.type().defaultValue).append(";\n");
+            declared.add(d.javaName());
+        }
+    }
 
-        // If the variable type is unknown, assume int by default.
-        if (!varTypes.containsKey(varName)) {
-            varTypes.put(varName, "int");
+    // Declares the iteration counter of the loops of the script or of a function.
+    private void appendLoopCounter(StringBuilder code) {
+        if (loopChecks) {
+            code.append("int loops$ = 0;\n");
         }
+    }
 
-        // Find the positions of '(' and ')' in 'range(...)'.
-        int openP = -1, closeP = -1;
-        for (int i = 0; i < line.size(); i++) {
-            if ("(".equals(line.get(i).value)) {
-                openP = i;
-                break;
-            }
+    // Counts an iteration at the start of a loop body, and checks the budget every PyBudget.INTERVAL of them.
+    private void appendLoopCheck(StringBuilder code) {
+        if (loopChecks) {
+            code.append("if ((++loops$ & ").append(PyBudget.INTERVAL - 1).append(") == 0) PyBudget.check();\n");
         }
-        for (int i = openP + 1; i < line.size(); i++) {
-            if (")".equals(line.get(i).value)) {
-                closeP = i;
-                break;
-            }
+    }
+
+    // Catches what the function throws, to put the Python line it was running on the stack trace.
+    private static void appendLocateErrors(String function, StringBuilder code) {
+        code.append("} catch (Throwable error$) {\n");
+        code.append("SourceMap.locate(error$, \"").append(function).append("\", line$);\n");
+        code.append("throw error$;\n");
+        code.append("}\n");
+    }
+
+    // Declares the array that statements count their executions in.
+    private void appendCounters(StringBuilder code) {
+        if (profiling) {
+            code.append("final long[] profile$ = PyProfile.counters(").append(Stmt.lastLine(program) + 1).append(");\n");
         }
+    }
 
-        // Extract the inside of range(...).
-        StringBuilder inside = new StringBuilder();
-        for (int i = openP + 1; i < closeP; i++) {
-            inside.append(line.get(i).value);
+    private void emitStatement(Stmt s, StringBuilder code) {
+        lines.mark(s.line());
+        // A def runs no code where it stands, and a hoisted bound is part of the loop that follows.
+        if (profiling && s.line() > 0 && !(s instanceof Stmt.Def) && !(s instanceof Stmt.Hoisted)) {
+            code.append("profile$[").append(s.line()).append("]++;\n");
+        }
+        if (s.line() > 0 && !(s instanceof Stmt.Def)) {
+            code.append("line$ = ").append(s.line()).append(";\n");
+        }
+        switch (s) {
+            case Stmt.Assign a -> code.append(translateAssignment(a.target(), a.value())).append("\n");
+            case Stmt.Hoisted h -> code.append("final ").append(translateAssignment(h.name(), h.value())).append("\n");
+            case Stmt.SetItem a -> code.append(emitter.emitStore(a.target(), a.index(), a.value())).append(";\n");
+            case Stmt.ExprStmt e -> code.append(translateExpression(e.expr())).append("\n");
+            case Stmt.If f -> emitIf(f, code);
+            case Stmt.For f -> emitFor(f, code);
+            case Stmt.ForEach f -> emitForEach(f, code);
+            case Stmt.While w -> {
+                // The emitter applies Python truthiness, so 'while x:' becomes 'for (; x != 0; ...)'.
+                // The condition is evaluated again after the body, which left its own line in line$.
+                code.append("for (; ").append(emitter.condition(w.condition()))
+                        .append("; line$ = ").append(w.line()).append(") {\n");
+                appendLoopCheck(code);
+                String outer = breakLabel;
+                breakLabel = null;
+                emitBlock(w.body(), code);
+                breakLabel = outer;
+            }
+            case Stmt.Break b -> code.append(breakLabel == null ? "break;\n" : "break " + breakLabel + ";\n");
+            case Stmt.Continue c -> code.append("continue;\n");
+            case Stmt.Def d -> emitFunction(d);
+            case Stmt.Return r -> emitReturn(r, code);
         }
-        String rangeText = inside.toString().trim();
+    }
 
-        // Python's range can have up to 3 parameters: start, end, step.
-        String[] parts = splitTopComma(rangeText);
+    /**
+     * Emits an if statement with its elif chain and else block.
+     */
+    private void emitIf(Stmt.If f, StringBuilder code) {
+        lines.mark(f.line());
+        code.append("if (").append(emitter.condition(f.condition())).append(") {\n");
+        emitBlock(f.body(), code);
+        if (f.elif() != null) {
+            // As a statement of its own, the elif sets line$ before its condition is evaluated.
+            code.append("else {\n");
+            emitStatement(f.elif(), code);
+            code.append("}\n");
+        } else if (!f.orElse().isEmpty()) {
+            code.append("else {\n");
+            emitBlock(f.orElse(), code);
+        }
+    }
 
-        String startExpr = "0";  // default start
-        String endExpr = null;   // must be discovered
-        String stepExpr = "1";   // default step
+    /**
+     * Translates Python's 'for var in range(...)' to a Java loop that tests the range again after
+     * each step, and takes the last step back when the range runs out, so that var ends at the
+     * last value of the range as in Python. A break leaves var where it is: it leaves the if
+     * statement around the loop, by its label, which has the loop's line to be unique. An empty
+     * range leaves var as it was.
+     * E.g. for i in range(5) => if (0 < 5) { i = 0; do { ... } while (++i < 5); i--; }
+     */
+    private void emitFor(Stmt.For f, StringBuilder code) {
+        String varName = javaVar(f.var());
+        ValueType type = typeOf(f.var());
+        String startExpr = emitter.emitAs(f.start(), type);
+        String endExpr = emitter.emitAs(f.end(), type);
+        String stepExpr = emitter.emitAs(f.step(), type);
+
+        // Declare the variable if this is its first assignment. Python has no value for it after
+        // an empty range, but javac needs one.
+        String prefix = declarationPrefix(f.var());
+        if (!prefix.isEmpty()) {
+            code.append(prefix).append(varName).append(" = ").append(type.defaultValue).append(";\n");
+        }
+        int sign = f.stepSign();
+        if (sign == 0) {
+            // The step is a hoisted local or a variable the loop does not assign, so it is checked once.
+            code.append("PyMath.checkStep(").append(stepExpr).append(");\n");
+        }
 
-        // Assign properly based on number of arguments in range(...).
-        if (parts.length == 1) {
-            endExpr = parts[0];
-        } else if (parts.length == 2) {
-            startExpr = parts[0];
-            endExpr = parts[1];
-        } else if (parts.length == 3) {
-            startExpr = parts[0];
-            endExpr = parts[1];
-            stepExpr = parts[2];
+        // The step, and taking it back.
+        String step;
+        String back;
+        if (type == ValueType.BIG) {
+            // A loop variable that overflowed a long counts in BigIntegers.
+            step = "(" + varName + " = " + varName + ".add(" + stepExpr + "))";
+            back = varName + " = " + varName + ".subtract(" + stepExpr + ");\n";
+        } else if (f.step() instanceof Expr.Num n && "1".equals(n.text())) {
+            step = "++" + varName;
+            back = varName + "--;\n";
+        } else {
+            step = "(" + varName + " += " + stepExpr + ")";
+            back = varName + " -= " + stepExpr + ";\n";
         }
 
-        // Convert any Python expressions to Java-friendly equivalents.
-        startExpr = fixExpr(startExpr);
-        endExpr   = fixExpr(endExpr != null ? endExpr : "0");
-        stepExpr  = fixExpr(stepExpr);
+        String label = breaks(f.body()) ? "range$" + f.line() : null;
+        if (label != null) {
+            code.append(label).append(": ");
+        }
+        // The start is a literal or a variable (see IROptimizer), so it is tested before it is assigned.
+        code.append("if (").append(inRange(startExpr, endExpr, stepExpr, type, sign)).append(") {\n")
+                .append(varName).append(" = ").append(startExpr).append(";\n")
+                .append("do {\n");
+        appendLoopCheck(code);
+        appendDeclarations(nextBlockId++, code);
+        String outer = breakLabel;
+        breakLabel = label;
+        for (Stmt s : f.body()) {
+            emitStatement(s, code);
+        }
+        breakLabel = outer;
+        lines.mark(f.line());
+        code.append("} while (").append(inRange(step, endExpr, stepExpr, type, sign)).append(");\n");
+        if (completes(f.body()) || continues(f.body())) {
+            // Otherwise the loop is only left by return or break, and javac rejects the unreachable statement.
+            code.append(back);
+        }
+        code.append("}\n");
+    }
 
-        StringBuilder sb = new StringBuilder();
+    /**
+     * The loop test of a range: whether value, the start, the loop variable or the step that
+     * updates it, has not reached end. The loop counts up to end, or down to it when the step is negative.
+     */
+    private static String inRange(String value, String endExpr, String stepExpr, ValueType type, int sign) {
+        if (type == ValueType.BIG) {
+            return value + ".compareTo(" + endExpr + ")"
+                    + (sign == 0 ? " * " + stepExpr + ".signum() < 0" : sign > 0 ? " < 0" : " > 0");
+        }
+        if (sign == 0) {
+            // Only one of the branches runs, so the step in value is taken once.
+            return "(" + stepExpr + " > 0 ? " + value + " < " + endExpr + " : " + value + " > " + endExpr + ")";
+        }
+        return value + (sign > 0 ? " < " : " > ") + endExpr;
+    }
 
-        // If variable is not declared, declare it. If it was declared with a different type, override to int.
-        if (varTypes.containsKey(varName)) {
-            varTypes.put(varName, "int");
-            sb.append("int ").append(varName).append(";\n");
-        } else if (!"int".equals(varTypes.get(varName))) {
-            varTypes.put(varName, "int");
-            sb.append("int ").append(varName).append(";\n");
+    /**
+     * Translates 'for x in lst' to an indexed loop over the list, which allocates no iterator:
+     * <pre>
+     *   for (int i$1 = 0; i$1 &lt; lst.size(); i$1++) {
+     *       long x = lst.get(i$1);
+     * </pre>
+     * The size is read on every iteration, so elements appended by the body are visited too, as
+     * in Python. A list that is not held in a variable is computed once, before the loop.
+     */
+    private void emitForEach(Stmt.ForEach f, StringBuilder code) {
+        ValueType listType = emitter.typeOf(f.iterable());
+        if (!listType.isList()) {
+            throw new IllegalArgumentException("Only 'for ... in range(...)' and 'for ... in <list>' loops are supported");
+        }
+        int n = ++listLoops;
+        String list = emitter.emit(f.iterable());
+        if (!(f.iterable() instanceof Expr.Name)) {
+            code.append("final ").append(listType.javaName).append(" list$").append(n).append(" = ").append(list).append(";\n");
+            list = "list$" + n;
+        }
+        String i = "i$" + n;
+        code.append("for (int ").append(i).append(" = 0; ").append(i).append(" < ").append(list).append(".size(); ")
+                .append(i).append("++) {\n");
+        appendLoopCheck(code);
+
+        // The body's block starts with the loop variable, assigned the element.
+        appendDeclarations(nextBlockId++, code);
+        String element = list + ".get(" + i + ")";
+        ValueType type = typeOf(f.var());
+        if (type == ValueType.BIG && listType == ValueType.INT_LIST) {
+            element = "PyMath.big(" + element + ")";
+        } else if (type != listType.elementType() && type != ValueType.OBJECT
+                && !(type == ValueType.DOUBLE && listType == ValueType.INT_LIST)) {
+            throw new IllegalArgumentException("Loop variable '" + f.var() + "' holds both " + type.pythonName()
+                    + " and the " + listType.elementType().pythonName() + " elements of the list");
         }
+        code.append(declarationPrefix(f.var())).append(javaVar(f.var())).append(" = ").append(element).append(";\n");
+        String outer = breakLabel;
+        breakLabel = null;
+        for (Stmt s : f.body()) {
+            emitStatement(s, code);
+        }
+        breakLabel = outer;
+        code.append("}\n");
+    }
 
-        // Initialize variable to startExpr, then build the for-loop structure in Java.
-        sb.append(varName).append(" = ").append(startExpr).append(";\n")
-                .append("for (; ")
-                .append(varName).append(" < ").append(endExpr)
-                .append("; ");
+    // --------------------- Functions --------------------- //
 
-        // If step = 1, use ++, else use += stepExpr.
-        if ("1".equals(stepExpr)) {
-            sb.append(varName).append("++");
-        } else {
-            sb.append(varName).append(" += ").append(stepExpr);
+    /**
+     * Translates a function to a static method and adds it to {@link #methods}. Its variables are
+     * looked up in the function's scope while it is translated. A memoized function becomes a
+     * method that looks its arguments up in a PyMemo table and, if they are not there, calls the
+     * method holding the body.
+     */
+    private void emitFunction(Stmt.Def d) {
+        HashSet<String> outerDeclared = new HashSet<>(declared);
+        declared.clear();
+        function = d;
+        try {
+            String returns = inference.returnsValue(d.name()) ? inference.returnType(d.name()).javaName : "void";
+            StringJoiner params = new StringJoiner(", ");
+            for (String p : d.params()) {
+                params.add(typeOf(p).javaName + " " + javaVar(p));
+                declared.add(javaVar(p));
+            }
+
+            String name = ExprEmitter.javaName(d.name());
+            StringBuilder code = new StringBuilder();
+            lines = new SourceMap.Lines(code);
+            lines.mark(d.line());
+            if (d.memoized()) {
+                appendMemo(d, name, code);
+                name = name + "_body";
+                code.append("private ");
+            }
+            code.append("static ").append(returns).append(' ').append(name).append('(').append(params).append(") {\n");
+            // The Python line being run, for the handler below to put on an error's stack trace.
+            code.append("int line$ = ").append(d.line()).append(";\n");
+            code.append("try {\n");
+            appendDeclarations(nextBlockId++, code);
+            appendLoopCounter(code);
+            appendCounters(code);
+            if (loopChecks) {
+                // Recursion does not go through a loop; the calls are counted instead.
+                code.append("PyBudget.call();\n");
+            }
+            for (Stmt s : d.body()) {
+                emitStatement(s, code);
+            }
+            // Python would return None; javac needs every path of a method with a result to end.
+            if (inference.returnsValue(d.name()) && !alwaysReturns(d.body())) {
+                code.append("line$ = ").append(d.line()).append(";\n");
+                code.append("throw new IllegalStateException(\"").append(d.name())
+                        .append("() ended without returning a value\");\n");
+            }
+            appendLocateErrors(d.name(), code);
+            code.append("}\n\n");
+            methods.append(code);
+            methodLines.appended(lines);
+        } finally {
+            lines = codeLines;
+            function = null;
+            declared.clear();
+            declared.addAll(outerDeclared);
         }
-        sb.append(") {\n");
+    }
 
-        return sb.toString();
+    private void emitReturn(Stmt.Return r, StringBuilder code) {
+        boolean returnsValue = inference.returnsValue(function.name());
+        if (r.value() == null) {
+            if (returnsValue) {
+                throw new IllegalArgumentException("Function '" + function.name() + "' returns None on some paths and a value on others");
+            }
+            code.append("return;\n");
+            return;
+        }
+        // An overflow in the returned value names the function, which then returns BigIntegers.
+        String value = emitter.emitAssignment(function.name(), r.value(), inference.returnType(function.name()));
+        code.append("return ").append(value).append(";\n");
     }
 
     /**
-     * Translates a Python while statement into a Java while.
+     * Emits the memo table of a memoized function and the method that looks calls up in it:
+     * <pre>
+     *   private static final PyMemo fib_memo = new PyMemo(1);
+     *
+     *   static long fib(long n) {
+     *       if (fib_memo.contains(n)) {
+     *           return fib_memo.longValue();
+     *       }
+     *       return fib_memo.putLong(fib_body(n), n);
+     *   }
+     * </pre>
+     * Up to three int, float or bool parameters are the key of a primitive table; otherwise the
+     * arguments are boxed into the key.
      */
-    private String parseWhile(List<Interpreter.Token> line) {
-        // If the form is "while x:", interpret x != 0.
-        if (line.size() >= 3 && ":".equals(line.get(2).value)) {
-            String var = line.get(1).value;
-            if (!varTypes.containsKey(var)) {
-                varTypes.put(var, "int");
+    private void appendMemo(Stmt.Def d, String name, StringBuilder code) {
+        List<String> keys = new ArrayList<>();
+        StringJoiner params = new StringJoiner(", ");
+        StringJoiner args = new StringJoiner(", ");
+        boolean primitive = !d.params().isEmpty() && d.params().size() <= 3;
+        for (String p : d.params()) {
+            ValueType t = typeOf(p);
+            if (t.isList()) {
+                // Python cannot memoize them either: a list is not hashable.
+                throw new IllegalArgumentException("Memoized function '" + d.name() + "' takes a list, which cannot be a cache key");
             }
-            return "while (" + var + " != 0) {\n";
-        } else {
-            // E.g. "while x < 5:" => while (x < 5) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 1; i < line.size(); i++) {
-                if (":".equals(line.get(i).value)) break;
-                sb.append(line.get(i).value);
+            String v = javaVar(p);
+            params.add(t.javaName + " " + v);
+            args.add(v);
+            switch (t) {
+                case INT, LONG -> keys.add(v);
+                case BOOLEAN -> keys.add("(" + v + " ? 1L : 0L)");
+                case DOUBLE -> keys.add("PyMemo.key(" + v + ")");
+                default -> primitive = false;
             }
-            return "while (" + fixExpr(sb.toString().trim()) + ") {\n";
         }
+        String key = primitive ? String.join(", ", keys) : args.toString();
+        String memo = name + "_memo";
+        String body = name + "_body(" + args + ")";
+        boolean returnsValue = inference.returnsValue(d.name());
+        ValueType returns = returnsValue ? inference.returnType(d.name()) : ValueType.BOOLEAN;
+
+        // The lookup and the store, as Java expressions of the function's return type.
+        String found;
+        String store;
+        if (!primitive) {
+            String cast = "(" + boxed(returns) + ") ";
+            found = cast + memo + ".objectValue()";
+            store = cast + memo + ".putValue(" + (returnsValue ? body : "true") + (key.isEmpty() ? "" : ", " + key) + ")";
+        } else {
+            String kind = switch (returns) {
+                case INT, LONG -> "Long";
+                case DOUBLE -> "Double";
+                case BOOLEAN -> "Boolean";
+                default -> "Object";
+            };
+            String cast = switch (returns) {
+                case INT -> "(int) ";
+                case LONG, DOUBLE, BOOLEAN -> "";
+                default -> "(" + returns.javaName + ") ";
+            };
+            found = cast + memo + "." + kind.toLowerCase() + "Value()";
+            store = cast + memo + ".put" + kind + "(" + (returnsValue ? body : "true") + ", " + key + ")";
+        }
+
+        code.append("private static final PyMemo ").append(memo).append(" = new PyMemo(")
+                .append(primitive ? d.params().size() : 0).append(");\n\n");
+        code.append("static ").append(returnsValue ? returns.javaName : "void").append(' ').append(name)
+                .append('(').append(params).append(") {\n");
+        code.append("if (").append(memo).append(primitive ? ".contains(" : ".containsKey(").append(key).append(")) {\n");
+        code.append(returnsValue ? "return " + found + ";\n" : "return;\n").append("}\n");
+        if (returnsValue) {
+            code.append("return ").append(store).append(";\n");
+        } else {
+            // A memoized function without a result runs its body once per arguments, as in Python.
+            code.append(body).append(";\n").append(store).append(";\n");
+        }
+        code.append("}\n\n");
     }
 
-    // --------------------- Normal statements (assignments, print, etc.) --------------------- //
+    private static String boxed(ValueType t) {
+        return switch (t) {
+            case BOOLEAN -> "Boolean";
+            case INT -> "Integer";
+            case LONG -> "Long";
+            case DOUBLE -> "Double";
+            default -> t.javaName;
+        };
+    }
 
     /**
-     * Translates a normal Python line (assignments, prints, break, continue, etc.) into Java.
-     * @param line Tokens for a single line of Python code.
-     * @return A line of Java code (possibly with a semicolon at the end).
+     * @return True if a block cannot complete normally, as javac sees it: it ends with a return,
+     *         an if/else whose branches both return, or a while True loop without a break.
      */
-    private String translateLine(List<Interpreter.Token> line) {
-        StringBuilder sb = new StringBuilder();
-        for (Interpreter.Token t : line) {
-            sb.append(t.value);
-        }
-        String raw = sb.toString().trim();
-
-        // Convert Python print(...) to Java System.out.println(...).
-        if (raw.startsWith("print(") && raw.endsWith(")")) {
-            // Extract everything inside the parentheses.
-            String inside = raw.substring("print(".length(), raw.length() - 1);
-            return "System.out.println(" + convertPrint(inside) + ");\n \n";
-        }
-
-        // If this is an assignment (var = expr), handle type declaration if unknown.
-        if (raw.contains("=") && !raw.contains("==")) {
-            String[] parts = raw.split("=");
-            if (parts.length == 2) {
-                String lhs = parts[0].trim();
-                String rhs = fixExpr(parts[1].trim());
-                // Guess a type for the right-hand side.
-                String t = guessType(rhs);
-
-                // If the variable was never used before, declare it with the guessed type.
-                if (!varTypes.containsKey(lhs)) {
-                    varTypes.put(lhs, t);
-                    return t + " " + lhs + " = " + rhs + ";";
-                } else {
-                    // Otherwise, just do a normal assignment.
-                    return lhs + " = " + rhs + ";";
-                }
+    private static boolean alwaysReturns(List<Stmt> body) {
+        if (body.isEmpty()) {
+            return false;
+        }
+        return switch (body.getLast()) {
+            case Stmt.Return r -> true;
+            case Stmt.If f -> !f.orElse().isEmpty() && alwaysReturns(f.body()) && alwaysReturns(f.orElse());
+            case Stmt.While w -> isConstantTrue(w.condition()) && !breaks(w.body());
+            default -> false;
+        };
+    }
+
+    private static boolean isConstantTrue(Expr e) {
+        return (e instanceof Expr.Bool b && b.value())
+                || (e instanceof Expr.Num n && !n.isFloat() && !n.text().matches("0+"));
+    }
+
+    // Whether a block can complete normally, as javac sees it.
+    private static boolean completes(List<Stmt> body) {
+        if (body.isEmpty()) {
+            return true;
+        }
+        return switch (body.getLast()) {
+            case Stmt.Return r -> false;
+            case Stmt.Break b -> false;
+            case Stmt.If f -> f.orElse().isEmpty() || completes(f.body()) || completes(f.orElse());
+            case Stmt.While w -> !isConstantTrue(w.condition()) || breaks(w.body());
+            default -> true;
+        };
+    }
+
+    // Whether a continue in the block goes on with the loop the block is the body of.
+    private static boolean continues(List<Stmt> body) {
+        for (Stmt s : body) {
+            boolean next = switch (s) {
+                case Stmt.Continue c -> true;
+                case Stmt.If f -> continues(f.body()) || continues(f.orElse());
+                default -> false;
+            };
+            if (next) {
+                return true;
             }
         }
+        return false;
+    }
 
-        // If it's 'break' or 'continue', just add a semicolon.
-        if ("break".equals(raw) || "continue".equals(raw)) {
-            return raw + ";";
+    // Whether a break in the block leaves the loop the block is the body of.
+    private static boolean breaks(List<Stmt> body) {
+        for (Stmt s : body) {
+            boolean leaves = switch (s) {
+                case Stmt.Break b -> true;
+                case Stmt.If f -> breaks(f.body()) || breaks(f.orElse());
+                default -> false;
+            };
+            if (leaves) {
+                return true;
+            }
         }
+        return false;
+    }
 
-        // If it doesn't end with a brace or semicolon, add a semicolon.
-        if (!raw.endsWith("{") && !raw.endsWith("}") && !raw.endsWith(";")) {
-            raw += ";";
+    // --------------------- Normal statements (assignments, print, etc.) --------------------- //
+
+    /**
+     * Translates an expression statement such as print(...).
+     * @return A line of Java code (possibly with a semicolon at the end).
+     */
+    private String translateExpression(Expr expr) {
+        // Convert Python print(...) to a call of the PyPrint output runtime.
+        if (expr instanceof Expr.Call call && "print".equals(call.func())) {
+            return convertPrint(call) + ";\n \n";
         }
-        return raw;
+
+        // Any other expression statement just gets a semicolon.
+        return emitter.emit(expr) + ";";
     }
 
-    // --------------------- Utility methods --------------------- //
+    /**
+     * Translates 'lhs = rhs', declaring lhs if it has not been seen before.
+     */
+    private String translateAssignment(String lhs, Expr rhs) {
+        String value = emitter.emitAssignment(lhs, rhs, typeOf(lhs));
+        return declarationPrefix(lhs) + javaVar(lhs) + " = " + value + ";";
+    }
 
     /**
-     * Converts Python-style print arguments into a single Java expression,
-     * concatenating them with '+' if needed.
+     * Returns the type to put in front of an assignment if it is the variable's declaration, otherwise "".
      */
-    private String convertPrint(String inside) {
-        String[] arr = inside.split(",");
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < arr.length; i++) {
-            if (i > 0) sb.append(" + ");
-            sb.append(fixExpr(arr[i].trim()));
+    private String declarationPrefix(String var) {
+        String name = javaVar(var);
+        String scoped = function != null ? TypeInference.scoped(function.name(), name) : name;
+        if (inference.declaredInline(scoped) && declared.add(name)) {
+            return typeOf(var).javaName + " ";
         }
-        return sb.toString();
+        return "";
     }
 
     /**
-     * Replace Python-specific syntax with Java equivalents (e.g., True -> true).
-     * Also transforms int(...) calls into Java casts, etc.
+     * @return The type of the current version of a variable.
      */
-    private String fixExpr(String expr) {
-        if (expr == null) return "0";
-        expr = expr.replace("True", "true")
-                .replace("False", "false");
-        // Convert 'int(x)' to '(int)(x)'
-        expr = expr.replaceAll("\\bint\\((.*?)\\)", "(int)($1)");
-        return expr.trim();
+    private ValueType typeOf(String var) {
+        return varTypes.computeIfAbsent(scoped(var), v -> inference.type(v, versions.getOrDefault(v, 0)));
     }
 
     /**
-     * Attempts to guess a Java type (int, double, boolean) based on a string expression.
-     * Defaults to 'int' if not recognized.
+     * @return The Java variable holding the current version of a variable.
      */
-    private String guessType(String x) {
-        if ("true".equals(x) || "false".equals(x)) return "boolean";
-        if (x.matches("\\d+")) return "int";
-        if (x.matches("\\d+\\.\\d+")) return "double";
-        if (varTypes.containsKey(x)) return varTypes.get(x);
-        return "int";
+    private String javaVar(String var) {
+        return javaNames.computeIfAbsent(scoped(var), v -> inference.javaName(v, versions.getOrDefault(v, 0)));
+    }
+
+    // Inside a function, its variables are typed under their scoped names (see TypeInference).
+    private String scoped(String var) {
+        return function != null ? TypeInference.scoped(function.name(), var) : var;
     }
 
+    // --------------------- Utility methods --------------------- //
+
     /**
-     * Splits a string by top-level commas (i.e., commas not nested in parentheses).
-     * This is useful for range(...) arguments.
+     * Converts a Python print call into a chain of PyPrint calls, which write each argument
+     * straight into the output buffer: print(a, b, sep=s, end=e) becomes
+     * PyPrint.line(s).arg(a).arg(b).end(e).
      */
-    private String[] splitTopComma(String text) {
-        List<String> list = new ArrayList<>();
-        StringBuilder cur = new StringBuilder();
-        int depth = 0;
-        for (int i = 0; i < text.length(); i++) {
-            char c = text.charAt(i);
-            if (c == '(') {
-                depth++;
-                cur.append(c);
-            } else if (c == ')') {
-                depth--;
-                cur.append(c);
-            } else if (c == ',' && depth == 0) {
-                list.add(cur.toString());
-                cur.setLength(0);
-            } else {
-                cur.append(c);
-            }
+    private String convertPrint(Expr.Call call) {
+        Expr sep = call.keyword("sep");
+        Expr end = call.keyword("end");
+        StringBuilder sb = new StringBuilder("PyPrint.line(");
+        if (sep != null) {
+            sb.append(printText(sep));
         }
-        if (!cur.isEmpty()) {
-            list.add(cur.toString());
+        sb.append(")");
+        for (Expr arg : call.positional()) {
+            sb.append(".arg(").append(emitter.emit(arg)).append(")");
+        }
+        sb.append(".end(");
+        if (end != null) {
+            sb.append(printText(end));
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * Translates the value of sep= or end=, which has to be a string.
+     */
+    private String printText(Expr e) {
+        if (emitter.typeOf(e) != ValueType.STRING) {
+            throw new IllegalArgumentException("sep and end of print() must be strings");
         }
-        return list.toArray(new String[0]);
+        return emitter.emit(e);
     }
 }
@@ -0,0 +1,2151 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ScriptInterpreter runs a translated script without compiling it, so short scripts do not pay
+ * for class generation and JIT warm-up.
+ * <p>
+ * The optimized statement tree is turned up front into a flat array of instructions, with every
+ * jump resolved to an instruction index. Expressions become trees of typed closures that compute
+ * a long, double, boolean or String directly, with the same types and the same Java semantics
+ * as the compiled translation ({@link ExprEmitter}, {@link BytecodeGenerator}). Variables live in
+ * slot-indexed arrays, one per type: ints and longs in a long[], doubles in a double[], booleans
+ * in a boolean[], and strings and lists of ints and floats (IntList, DoubleList) in an Object[].
+ * <p>
+ * Every loop counts its back-edges. When a loop has run {@link #COMPILE_THRESHOLD} iterations it
+ * is compiled in the background by {@link BytecodeGenerator#generateLoop}; the next time the loop
+ * comes back to its head after the compiled version is ready, the interpreter hands its variable
+ * arrays to the compiled loop, which runs the rest of the loop at full speed, and continues after
+ * the loop when it returns. This holds for the loops of functions too, unless they return from
+ * the function.
+ * <p>
+ * The script's functions are built the same way, into instruction arrays of their own; every
+ * call runs them on a new frame. Every function counts its calls. When one has been called
+ * {@link #COMPILE_THRESHOLD} times, all of them are compiled in the background by
+ * {@link BytecodeGenerator#generateFunctions}, and later calls of a function run its compiled
+ * method, so that recursion runs compiled from then on. Memoized functions stay interpreted, with
+ * their memo tables.
+ */
+public final class ScriptInterpreter {
+
+    // Back-edges a loop takes in the interpreter before it is compiled.
+    // Set -Dtranslator.compileThreshold=<n> to change it.
+    static final int COMPILE_THRESHOLD = Integer.getInteger("translator.compileThreshold", 1000);
+
+    // Compiles hot loops off the interpreter's thread.
+    private static final ExecutorService COMPILER = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "loop-compiler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final List<Stmt> program;
+    private final TypeInference inference;
+    private final boolean exact;
+    private final ExprEmitter types;
+
+    // Current version of each variable, its type and its Java variable, as in PythonToJavaConverter.
+    private final HashMap<String, Integer> versions = new HashMap<>();
+    private final HashMap<String, ValueType> varTypes = new HashMap<>();
+    private final HashMap<String, String> javaNames = new HashMap<>();
+
+    // Index of each Java variable in the array for its type, and the size of each array, of the
+    // script or, while its body is built, of a function (see swap).
+    private HashMap<String, Integer> slots = new HashMap<>();
+    private int longCount;
+    private int doubleCount;
+    private int booleanCount;
+    private int objectCount;
+
+    // Java variables holding strings, which start as "" like the translation's declarations.
+    private List<Integer> stringSlots = new ArrayList<>();
+
+    // The instructions, and where break and continue of the loops being built jump to.
+    private List<Instruction> code = new ArrayList<>();
+    private final ArrayList<Target[]> loops = new ArrayList<>();
+
+    // The Python line of each instruction, and of the statement being built (see statement).
+    private List<Integer> lines = new ArrayList<>();
+    private int line;
+
+    // Index of the top-level statement being built, for compiling loops inside it.
+    private int statementIndex;
+
+    // While building an assignment: the Python variable assigned, named by overflow sites.
+    private String target;
+
+    // Whether loops call PyBudget.check (see setLoopChecks).
+    private boolean loopChecks;
+
+    // The script's functions, and the one whose body is being built (null for the script itself).
+    private final HashMap<String, Function> functions = new HashMap<>();
+    private Stmt.Def function;
+
+    // The methods of the compiled functions by name, once a function is hot; null until then.
+    private Future<Map<String, MethodHandle>> compiledFunctions;
+
+    private final Instruction[] instructions;
+    private final int[] instructionLines;
+
+    // What a return instruction jumps to: past the end of the function.
+    private static final int RETURNED = Integer.MAX_VALUE;
+
+    /**
+     * The variables of a running script or function call, and the value the call returned in
+     * the field for its type.
+     */
+    static final class Frame {
+        final long[] longs;
+        final double[] doubles;
+        final boolean[] booleans;
+        final Object[] objects;
+        long longResult;
+        double doubleResult;
+        boolean booleanResult;
+        Object objectResult;
+
+        Frame(int longs, int doubles, int booleans, int objects) {
+            this.longs = new long[longs];
+            this.doubles = new double[doubles];
+            this.booleans = new boolean[booleans];
+            this.objects = new Object[objects];
+        }
+    }
+
+    /**
+     * An instruction: it runs and returns the index of the next instruction.
+     */
+    @FunctionalInterface
+    private interface Instruction {
+        int execute(Frame f, int pc);
+    }
+
+    /**
+     * A function of the script. Every call runs its instructions on a new frame of its own, with
+     * the arguments in the slots of the parameters. While its body is built, its variables and
+     * instructions are swapped with the script's (see {@link #swap}).
+     */
+    private static final class Function {
+        final Stmt.Def def;
+        final List<ValueType> parameterTypes;
+        final int[] parameterSlots;
+        HashMap<String, Integer> slots = new HashMap<>();
+        int longCount;
+        int doubleCount;
+        int booleanCount;
+        int objectCount;
+        List<Integer> stringSlots = new ArrayList<>();
+        List<Instruction> code = new ArrayList<>();
+        List<Integer> lines = new ArrayList<>();
+        Instruction[] instructions;
+        int[] instructionLines;
+        // The memo table of a memoized function, whether its keys are primitives (see PyMemo),
+        // and the type of what it stores: the result, or a boolean for a function without one.
+        PyMemo memo;
+        boolean primitiveKeys;
+        ValueType memoType;
+        // Whether calls are counted for the budget (see PyBudget.call).
+        boolean budgetChecks;
+        // Calls so far, and the compiled method that later calls run, once it is ready.
+        int calls;
+        MethodHandle compiled;
+
+        Function(Stmt.Def def, List<ValueType> parameterTypes) {
+            this.def = def;
+            this.parameterTypes = parameterTypes;
+            this.parameterSlots = new int[parameterTypes.size()];
+        }
+    }
+
+    /**
+     * Passes an argument of a call: evaluates it in the caller's frame and stores it in the callee's.
+     */
+    @FunctionalInterface
+    private interface Argument {
+        void pass(Frame caller, Frame callee);
+    }
+
+    /**
+     * A call of one of the script's functions, which returns the frame of the call.
+     */
+    @FunctionalInterface
+    private interface CallNode {
+        Frame eval(Frame f);
+    }
+
+    /**
+     * A jump target, resolved to an instruction index before the script runs.
+     */
+    private static final class Target {
+        int pc = -1;
+    }
+
+    @FunctionalInterface
+    private interface LongNode {
+        long eval(Frame f);
+    }
+
+    @FunctionalInterface
+    private interface DoubleNode {
+        double eval(Frame f);
+    }
+
+    @FunctionalInterface
+    private interface BooleanNode {
+        boolean eval(Frame f);
+    }
+
+    @FunctionalInterface
+    private interface StringNode {
+        String eval(Frame f);
+    }
+
+    // An IntList or a DoubleList, as the expression's type says.
+    @FunctionalInterface
+    private interface ListNode {
+        PySequence eval(Frame f);
+    }
+
+    /**
+     * Prepares a script for interpretation.
+     * @param program   The optimized statement tree.
+     * @param inference Types and Java variables of the script's variables.
+     * @param exact     True for overflow-checked long arithmetic (see {@link PyMath}).
+     * @throws UnsupportedOperationException If the script uses something only the compiled
+     *         translation supports (e.g. BigIntegers); compile it instead.
+     */
+    public ScriptInterpreter(List<Stmt> program, TypeInference inference, boolean exact) {
+        this.program = program;
+        this.inference = inference;
+        this.exact = exact;
+        this.types = new ExprEmitter(this::typeOf, this::javaVar, exact)
+                .setFunctions(inference).setPromoted(inference.promoted());
+
+        // The parameters get their slots first, so calls can be built before the function's body.
+        for (Stmt s : program) {
+            if (s instanceof Stmt.Def d) {
+                Function fn = new Function(d, inference.parameterTypes(d.name()));
+                functions.put(d.name(), fn);
+                swap(fn);
+                function = d;
+                try {
+                    for (int i = 0; i < d.params().size(); i++) {
+                        fn.parameterSlots[i] = slot(d.params().get(i));
+                    }
+                } finally {
+                    function = null;
+                    swap(fn);
+                }
+            }
+        }
+
+        for (statementIndex = 0; statementIndex < program.size(); statementIndex++) {
+            // A top-level redefinition starts a new version of the variable, possibly with another type.
+            String redefined = inference.newVersionAt(statementIndex);
+            if (redefined != null) {
+                versions.merge(redefined, 1, Integer::sum);
+                varTypes.remove(redefined);
+                javaNames.remove(redefined);
+            }
+            statement(program.get(statementIndex));
+        }
+        instructions = code.toArray(new Instruction[0]);
+        instructionLines = lineTable();
+    }
+
+    /**
+     * Makes loops call {@link PyBudget#check()} every {@link PyBudget#INTERVAL} iterations, in the
+     * interpreter and in the loops it compiles, as PythonToJavaConverter.setLoopChecks does.
+     * @return this, for chaining.
+     */
+    public ScriptInterpreter setLoopChecks(boolean loopChecks) {
+        this.loopChecks = loopChecks;
+        for (Function fn : functions.values()) {
+            fn.budgetChecks = loopChecks;
+        }
+        return this;
+    }
+
+    /**
+     * Runs the script. It prints through PyPrint, to System.out as it is when the script runs.
+     * @throws PyMath.Overflow If a long overflows in exact arithmetic.
+     */
+    public void run() {
+        Frame f = new Frame(longCount, doubleCount, booleanCount, objectCount);
+        for (int slot : stringSlots) {
+            f.objects[slot] = "";
+        }
+        Instruction[] code = instructions;
+        int pc = 0;
+        try {
+            while (pc < code.length) {
+                pc = code[pc].execute(f, pc);
+            }
+        } catch (RuntimeException | Error e) {
+            SourceMap.locate(e, "main", instructionLines[pc]);
+            throw e;
+        }
+        // Write out what the script printed, as the compiled script does when it ends.
+        PyPrint.flush();
+    }
+
+    // --------------------- Statements --------------------- //
+
+    // Builds the instructions of a statement, which get its line; those of the statements in its
+    // body get theirs.
+    private void statement(Stmt s) {
+        mark();
+        int outer = line;
+        line = s.line();
+        build(s);
+        mark();
+        line = outer;
+    }
+
+    // Gives the instructions added since the last mark the line of the statement being built.
+    private void mark() {
+        while (lines.size() < code.size()) {
+            lines.add(line);
+        }
+    }
+
+    private int[] lineTable() {
+        mark();
+        int[] table = new int[lines.size()];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = lines.get(i);
+        }
+        return table;
+    }
+
+    private void build(Stmt s) {
+        switch (s) {
+            case Stmt.Assign a -> assign(a.target(), a.value());
+            case Stmt.Hoisted h -> assign(h.name(), h.value());
+            case Stmt.ExprStmt e -> expressionStatement(e.expr());
+            case Stmt.If f -> {
+                Target orElse = new Target();
+                jumpIfFalse(condition(f.condition()), orElse);
+                block(f.body());
+                if (f.orElse().isEmpty()) {
+                    place(orElse);
+                } else {
+                    Target end = new Target();
+                    jump(end);
+                    place(orElse);
+                    block(f.orElse());
+                    place(end);
+                }
+            }
+            case Stmt.While w -> {
+                Target head = new Target();
+                Target next = new Target();
+                Target exit = new Target();
+                place(head);
+                jumpIfFalse(condition(w.condition()), exit);
+                loop(w.body(), exit, next);
+                place(next);
+                backEdge(w, head, exit);
+                place(exit);
+            }
+            case Stmt.For f -> forStatement(f);
+            case Stmt.Break b -> jump(enclosingLoop()[0]);
+            case Stmt.Continue c -> jump(enclosingLoop()[1]);
+            case Stmt.SetItem a -> setItem(a);
+            case Stmt.ForEach f -> forEachStatement(f);
+            case Stmt.Def d -> function(d);
+            case Stmt.Return r -> returnStatement(r);
+        }
+    }
+
+    private void block(List<Stmt> body) {
+        for (Stmt s : body) {
+            statement(s);
+        }
+    }
+
+    private void loop(List<Stmt> body, Target exit, Target next) {
+        loops.add(new Target[]{exit, next});
+        block(body);
+        loops.removeLast();
+    }
+
+    private Target[] enclosingLoop() {
+        if (loops.isEmpty()) {
+            throw new IllegalArgumentException("'break' or 'continue' outside a loop");
+        }
+        return loops.getLast();
+    }
+
+    private void assign(String var, Expr value) {
+        target = var;
+        try {
+            code.add(store(var, value));
+        } finally {
+            target = null;
+        }
+    }
+
+    /**
+     * @return An instruction that stores value, converted to the variable's type, in var.
+     */
+    private Instruction store(String var, Expr value) {
+        ValueType type = typeOf(var);
+        int slot = slot(var);
+        switch (type) {
+            case INT, LONG -> {
+                LongNode v = longValue(value, type);
+                return (f, pc) -> {
+                    f.longs[slot] = v.eval(f);
+                    return pc + 1;
+                };
+            }
+            case DOUBLE -> {
+                DoubleNode v = doubleValue(value);
+                return (f, pc) -> {
+                    f.doubles[slot] = v.eval(f);
+                    return pc + 1;
+                };
+            }
+            case BOOLEAN -> {
+                BooleanNode v = booleanValue(value);
+                return (f, pc) -> {
+                    f.booleans[slot] = v.eval(f);
+                    return pc + 1;
+                };
+            }
+            case STRING -> {
+                StringNode v = stringValue(value);
+                return (f, pc) -> {
+                    f.objects[slot] = v.eval(f);
+                    return pc + 1;
+                };
+            }
+            case INT_LIST, DOUBLE_LIST -> {
+                ListNode v = listValue(value, type);
+                return (f, pc) -> {
+                    f.objects[slot] = v.eval(f);
+                    return pc + 1;
+                };
+            }
+            default -> throw new UnsupportedOperationException("BigInteger arithmetic");
+        }
+    }
+
+    /**
+     * lst[i] = x. Overflow checks in x name the list as the variable to promote, as in ExprEmitter.emitStore.
+     */
+    private void setItem(Stmt.SetItem a) {
+        Expr.Name name = new Expr.Name(a.target());
+        ValueType type = listType(name);
+        ListNode list = list(name);
+        LongNode index = index(a.index());
+        target = a.target();
+        try {
+            if (type == ValueType.INT_LIST) {
+                LongNode v = longValue(a.value(), ValueType.LONG);
+                code.add((f, pc) -> {
+                    ((IntList) list.eval(f)).set(index.eval(f), v.eval(f));
+                    return pc + 1;
+                });
+            } else {
+                DoubleNode v = doubleValue(a.value());
+                code.add((f, pc) -> {
+                    ((DoubleList) list.eval(f)).set(index.eval(f), v.eval(f));
+                    return pc + 1;
+                });
+            }
+        } finally {
+            target = null;
+        }
+    }
+
+    /**
+     * An argument of print(), which writes itself to the output buffer.
+     */
+    @FunctionalInterface
+    private interface PrintNode {
+        void print(Frame f, PyPrint out);
+    }
+
+    /**
+     * print(a, b, sep=s, end=e) writes through PyPrint like the compiled translation.
+     */
+    private void print(Expr.Call call) {
+        Expr sepArg = call.keyword("sep");
+        Expr endArg = call.keyword("end");
+        StringNode sep = sepArg != null ? stringArgument(sepArg) : f -> " ";
+        StringNode end = endArg != null ? stringArgument(endArg) : f -> "\n";
+        List<PrintNode> args = new ArrayList<>();
+        for (Expr arg : call.positional()) {
+            args.add(printArgument(arg));
+        }
+        PrintNode[] nodes = args.toArray(new PrintNode[0]);
+        code.add((f, pc) -> {
+            PyPrint out = PyPrint.line(sep.eval(f));
+            for (PrintNode node : nodes) {
+                node.print(f, out);
+            }
+            out.end(end.eval(f));
+            return pc + 1;
+        });
+    }
+
+    private PrintNode printArgument(Expr e) {
+        ValueType type = types.typeOf(e);
+        switch (type) {
+            case INT, LONG -> {
+                LongNode v = integer(e, type);
+                return (f, out) -> out.arg(v.eval(f));
+            }
+            case DOUBLE -> {
+                DoubleNode v = real(e);
+                return (f, out) -> out.arg(v.eval(f));
+            }
+            case BOOLEAN -> {
+                BooleanNode v = booleanValue(e);
+                return (f, out) -> out.arg(v.eval(f));
+            }
+            case STRING -> {
+                StringNode v = stringValue(e);
+                return (f, out) -> out.arg(v.eval(f));
+            }
+            case INT_LIST, DOUBLE_LIST -> {
+                ListNode v = list(e);
+                return (f, out) -> out.arg((Object) v.eval(f));
+            }
+            default -> throw new UnsupportedOperationException("BigInteger arithmetic");
+        }
+    }
+
+    private StringNode stringArgument(Expr e) {
+        if (types.typeOf(e) != ValueType.STRING) {
+            throw new UnsupportedOperationException("sep and end of print() must be strings");
+        }
+        return stringValue(e);
+    }
+
+    private void expressionStatement(Expr e) {
+        if (e instanceof Expr.Call call && "print".equals(call.func())) {
+            print(call);
+            return;
+        }
+        if (e instanceof Expr.Call c && functions.containsKey(c.func())) {
+            // A call for its effect, whether or not the function returns a value.
+            CallNode call = call(c);
+            code.add((f, pc) -> {
+                call.eval(f);
+                return pc + 1;
+            });
+            return;
+        }
+        if (e instanceof Expr.Method m) {
+            listAppend(m);
+            return;
+        }
+        // Evaluated for its effect, e.g. an overflow or a division by zero.
+        StringNode value = text(e);
+        code.add((f, pc) -> {
+            value.eval(f);
+            return pc + 1;
+        });
+    }
+
+    /**
+     * lst.append(x), the one list method.
+     */
+    private void listAppend(Expr.Method m) {
+        ValueType type = listType(m.target());
+        if (!"append".equals(m.name()) || m.args().size() != 1) {
+            throw new IllegalArgumentException("Unsupported list method '" + m.name() + "' (only append(x) is supported)");
+        }
+        ListNode list = list(m.target());
+        if (type == ValueType.INT_LIST) {
+            LongNode v = longValue(m.args().getFirst(), ValueType.LONG);
+            code.add((f, pc) -> {
+                ((IntList) list.eval(f)).append(v.eval(f));
+                return pc + 1;
+            });
+        } else {
+            DoubleNode v = doubleValue(m.args().getFirst());
+            code.add((f, pc) -> {
+                ((DoubleList) list.eval(f)).append(v.eval(f));
+                return pc + 1;
+            });
+        }
+    }
+
+    /**
+     * for var in range(start, end, step): unless start is already past end, var = start, then
+     * loop while var < end (var > end for a negative step), adding step after each iteration (the
+     * bounds are evaluated each time, as in the Java translation).
+     */
+    private void forStatement(Stmt.For f) {
+        ValueType type = typeOf(f.var());
+        if (type != ValueType.INT && type != ValueType.LONG && type != ValueType.DOUBLE) {
+            throw new UnsupportedOperationException("for loop over " + type);
+        }
+        int slot = slot(f.var());
+
+        Target head = new Target();
+        Target next = new Target();
+        Target done = new Target();
+        Target exit = new Target();
+        int sign = f.stepSign();
+        BooleanNode entered;
+        BooleanNode inRange;
+        Instruction step;
+        Instruction back;
+        if (type == ValueType.DOUBLE) {
+            DoubleNode start = doubleValue(f.start());
+            DoubleNode end = doubleValue(f.end());
+            DoubleNode by = doubleValue(f.step());
+            if (sign == 0) {
+                code.add((fr, pc) -> {
+                    PyMath.checkStep(by.eval(fr));
+                    return pc + 1;
+                });
+            }
+            entered = switch (sign) {
+                case 1 -> fr -> start.eval(fr) < end.eval(fr);
+                case -1 -> fr -> start.eval(fr) > end.eval(fr);
+                default -> fr -> by.eval(fr) > 0 ? start.eval(fr) < end.eval(fr) : start.eval(fr) > end.eval(fr);
+            };
+            inRange = switch (sign) {
+                case 1 -> fr -> fr.doubles[slot] < end.eval(fr);
+                case -1 -> fr -> fr.doubles[slot] > end.eval(fr);
+                default -> fr -> by.eval(fr) > 0 ? fr.doubles[slot] < end.eval(fr) : fr.doubles[slot] > end.eval(fr);
+            };
+            step = (fr, pc) -> {
+                fr.doubles[slot] += by.eval(fr);
+                return pc + 1;
+            };
+            back = (fr, pc) -> {
+                fr.doubles[slot] -= by.eval(fr);
+                return pc + 1;
+            };
+        } else {
+            LongNode start = longValue(f.start(), type);
+            LongNode end = longValue(f.end(), type);
+            LongNode by = longValue(f.step(), type);
+            if (sign == 0) {
+                code.add((fr, pc) -> {
+                    PyMath.checkStep(by.eval(fr));
+                    return pc + 1;
+                });
+            }
+            entered = switch (sign) {
+                case 1 -> fr -> start.eval(fr) < end.eval(fr);
+                case -1 -> fr -> start.eval(fr) > end.eval(fr);
+                default -> fr -> by.eval(fr) > 0 ? start.eval(fr) < end.eval(fr) : start.eval(fr) > end.eval(fr);
+            };
+            inRange = switch (sign) {
+                case 1 -> fr -> fr.longs[slot] < end.eval(fr);
+                case -1 -> fr -> fr.longs[slot] > end.eval(fr);
+                default -> fr -> by.eval(fr) > 0 ? fr.longs[slot] < end.eval(fr) : fr.longs[slot] > end.eval(fr);
+            };
+            if (type == ValueType.INT) {
+                step = (fr, pc) -> {
+                    fr.longs[slot] = (int) (fr.longs[slot] + by.eval(fr));
+                    return pc + 1;
+                };
+                back = (fr, pc) -> {
+                    fr.longs[slot] = (int) (fr.longs[slot] - by.eval(fr));
+                    return pc + 1;
+                };
+            } else {
+                step = (fr, pc) -> {
+                    fr.longs[slot] += by.eval(fr);
+                    return pc + 1;
+                };
+                back = (fr, pc) -> {
+                    fr.longs[slot] -= by.eval(fr);
+                    return pc + 1;
+                };
+            }
+        }
+        // An empty range leaves var as it was (start is a literal or a variable, see IROptimizer,
+        // so reading it twice is cheap). When the range runs out, the last step is taken back, so
+        // var ends at its last value as in Python; break leaves it where it is.
+        jumpIfFalse(entered, exit);
+        code.add(store(f.var(), f.start()));
+        place(head);
+        jumpIfFalse(inRange, done);
+        loop(f.body(), exit, next);
+        place(next);
+        code.add(step);
+        backEdge(f, head, exit);
+        place(done);
+        code.add(back);
+        place(exit);
+    }
+
+    /**
+     * for var in lst, as PythonToJavaConverter.emitForEach translates it: a hidden index counts
+     * from 0 to the size of the list, and var is set to each element. A list that is not a
+     * variable is evaluated once, into a hidden slot.
+     */
+    private void forEachStatement(Stmt.ForEach f) {
+        ValueType listType = types.typeOf(f.iterable());
+        if (!listType.isList()) {
+            throw new IllegalArgumentException("Only 'for ... in range(...)' and 'for ... in <list>' loops are supported");
+        }
+        ValueType type = typeOf(f.var());
+        ValueType element = listType.elementType();
+        if (type != element && type != ValueType.BIG && type != ValueType.OBJECT
+                && !(type == ValueType.DOUBLE && listType == ValueType.INT_LIST)) {
+            throw new IllegalArgumentException("Loop variable '" + f.var() + "' holds both " + type.pythonName()
+                    + " and the " + element.pythonName() + " elements of the list");
+        }
+        ListNode iterable = list(f.iterable());
+        int index = longCount++;
+        ListNode items;
+        if (f.iterable() instanceof Expr.Name) {
+            items = iterable;
+            code.add((fr, pc) -> {
+                fr.longs[index] = 0;
+                return pc + 1;
+            });
+        } else {
+            int slot = objectCount++;
+            items = fr -> (PySequence) fr.objects[slot];
+            code.add((fr, pc) -> {
+                fr.objects[slot] = iterable.eval(fr);
+                fr.longs[index] = 0;
+                return pc + 1;
+            });
+        }
+
+        int slot = slot(f.var());
+        Instruction next = switch (type) {
+            case LONG -> (fr, pc) -> {
+                fr.longs[slot] = ((IntList) items.eval(fr)).get(fr.longs[index]);
+                return pc + 1;
+            };
+            case DOUBLE -> listType == ValueType.INT_LIST
+                    ? (fr, pc) -> {
+                        fr.doubles[slot] = ((IntList) items.eval(fr)).get(fr.longs[index]);
+                        return pc + 1;
+                    }
+                    : (fr, pc) -> {
+                        fr.doubles[slot] = ((DoubleList) items.eval(fr)).get(fr.longs[index]);
+                        return pc + 1;
+                    };
+            default -> throw new UnsupportedOperationException("Loop variable of type " + type);
+        };
+
+        Target head = new Target();
+        Target step = new Target();
+        Target exit = new Target();
+        place(head);
+        jumpIfFalse(fr -> fr.longs[index] < items.eval(fr).size(), exit);
+        code.add(next);
+        loop(f.body(), exit, step);
+        place(step);
+        code.add((fr, pc) -> {
+            fr.longs[index]++;
+            return pc + 1;
+        });
+        backEdge(f, head, exit);
+        place(exit);
+    }
+
+    // --------------------- Control flow --------------------- //
+
+    private void place(Target t) {
+        t.pc = code.size();
+    }
+
+    private void jump(Target t) {
+        code.add((f, pc) -> t.pc);
+    }
+
+    private void jumpIfFalse(BooleanNode condition, Target t) {
+        code.add((f, pc) -> condition.eval(f) ? pc + 1 : t.pc);
+    }
+
+    /**
+     * Adds the jump from the end of a loop back to its head, which counts the iterations and
+     * switches over to the compiled loop once it is ready.
+     */
+    private void backEdge(Stmt loop, Target head, Target exit) {
+        if (!(loop instanceof Stmt.ForEach)) {
+            code.add(new HotLoop(statementIndex, loop, slots, head, exit));
+            return;
+        }
+        // Loops over lists stay interpreted: generateLoop compiles while and for loops. The
+        // instructions are built before setLoopChecks is called, so the back-edge looks at
+        // loopChecks when it runs.
+        int[] ticks = new int[1];
+        code.add((f, pc) -> {
+            if (loopChecks && (++ticks[0] & (PyBudget.INTERVAL - 1)) == 0) {
+                PyBudget.check();
+            }
+            return head.pc;
+        });
+    }
+
+    /**
+     * The back-edge of a loop.
+     */
+    private final class HotLoop implements Instruction {
+        private final int statementIndex;
+        private final Stmt loop;
+        // The slots of the frame the loop runs in: the script's, or its function's.
+        private final HashMap<String, Integer> frameSlots;
+        private final Target head;
+        private final Target exit;
+        private int count;
+        private int ticks;
+        private Future<MethodHandle> compiled;
+
+        HotLoop(int statementIndex, Stmt loop, HashMap<String, Integer> frameSlots, Target head, Target exit) {
+            this.statementIndex = statementIndex;
+            this.loop = loop;
+            this.frameSlots = frameSlots;
+            this.head = head;
+            this.exit = exit;
+        }
+
+        @Override
+        public int execute(Frame f, int pc) {
+            if (loopChecks && (++ticks & (PyBudget.INTERVAL - 1)) == 0) {
+                PyBudget.check();
+            }
+            if (compiled == null) {
+                if (++count >= COMPILE_THRESHOLD) {
+                    compiled = COMPILER.submit(this::compile);
+                }
+                return head.pc;
+            }
+            if (compiled.state() != Future.State.SUCCESS || compiled.resultNow() == null) {
+                // Not compiled yet, or the loop cannot be compiled: keep interpreting it.
+                return head.pc;
+            }
+            MethodHandle run = compiled.resultNow();
+            try {
+                run.invokeExact(f.longs, f.doubles, f.booleans, f.objects);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+            return exit.pc;
+        }
+
+        // Generates the loop's class and defines it in a class loader of its own, which keeps the
+        // Python lines of its frames in stack traces. Returns null if it cannot be compiled.
+        private MethodHandle compile() throws ReflectiveOperationException {
+            byte[] bytes;
+            try {
+                bytes = new BytecodeGenerator(program, inference, exact).setLoopChecks(loopChecks)
+                        .generateLoop("TranslatedLoop", statementIndex, loop, name -> slotOf(frameSlots, name));
+            } catch (UnsupportedOperationException e) {
+                return null;
+            }
+            Class<?> cls = Class.forName("TranslatedLoop", true,
+                    new CompiledScript.ScriptLoader(Map.of("TranslatedLoop", bytes)));
+            return MethodHandles.publicLookup().findStatic(cls, "run", MethodType.methodType(void.class,
+                    long[].class, double[].class, boolean[].class, Object[].class));
+        }
+    }
+
+    // --------------------- Functions --------------------- //
+
+    /**
+     * Builds the body of a function, in its scope: its variables are looked up under their
+     * scoped names, as in PythonToJavaConverter.emitFunction, and get slots in its own frame.
+     */
+    private void function(Stmt.Def d) {
+        Function fn = functions.get(d.name());
+        swap(fn);
+        function = d;
+        try {
+            block(d.body());
+            if (inference.returnsValue(d.name())) {
+                // Python would return None, as in the Java translation.
+                String message = d.name() + "() ended without returning a value";
+                code.add((f, pc) -> {
+                    throw new IllegalStateException(message);
+                });
+            }
+            fn.instructionLines = lineTable();
+        } finally {
+            function = null;
+            swap(fn);
+        }
+        fn.instructions = fn.code.toArray(new Instruction[0]);
+        if (d.memoized()) {
+            memo(fn);
+        }
+    }
+
+    // Exchanges the variables and instructions being built with the function's.
+    private void swap(Function fn) {
+        HashMap<String, Integer> s = slots;
+        slots = fn.slots;
+        fn.slots = s;
+        int n = longCount;
+        longCount = fn.longCount;
+        fn.longCount = n;
+        n = doubleCount;
+        doubleCount = fn.doubleCount;
+        fn.doubleCount = n;
+        n = booleanCount;
+        booleanCount = fn.booleanCount;
+        fn.booleanCount = n;
+        n = objectCount;
+        objectCount = fn.objectCount;
+        fn.objectCount = n;
+        List<Integer> strings = stringSlots;
+        stringSlots = fn.stringSlots;
+        fn.stringSlots = strings;
+        List<Instruction> instructions = code;
+        code = fn.code;
+        fn.code = instructions;
+        List<Integer> l = lines;
+        lines = fn.lines;
+        fn.lines = l;
+    }
+
+    private void returnStatement(Stmt.Return r) {
+        boolean returnsValue = inference.returnsValue(function.name());
+        if (r.value() == null) {
+            if (returnsValue) {
+                throw new IllegalArgumentException("Function '" + function.name() + "' returns None on some paths and a value on others");
+            }
+            code.add((f, pc) -> RETURNED);
+            return;
+        }
+        // An overflow in the returned value names the function, which then returns BigIntegers.
+        ValueType type = inference.returnType(function.name());
+        target = function.name();
+        try {
+            switch (type) {
+                case INT, LONG -> {
+                    LongNode v = longValue(r.value(), type);
+                    code.add((f, pc) -> {
+                        f.longResult = v.eval(f);
+                        return RETURNED;
+                    });
+                }
+                case DOUBLE -> {
+                    DoubleNode v = doubleValue(r.value());
+                    code.add((f, pc) -> {
+                        f.doubleResult = v.eval(f);
+                        return RETURNED;
+                    });
+                }
+                case BOOLEAN -> {
+                    BooleanNode v = booleanValue(r.value());
+                    code.add((f, pc) -> {
+                        f.booleanResult = v.eval(f);
+                        return RETURNED;
+                    });
+                }
+                case STRING -> {
+                    StringNode v = stringValue(r.value());
+                    code.add((f, pc) -> {
+                        f.objectResult = v.eval(f);
+                        return RETURNED;
+                    });
+                }
+                case INT_LIST, DOUBLE_LIST -> {
+                    ListNode v = listValue(r.value(), type);
+                    code.add((f, pc) -> {
+                        f.objectResult = v.eval(f);
+                        return RETURNED;
+                    });
+                }
+                default -> throw new UnsupportedOperationException("Function returning " + type);
+            }
+        } finally {
+            target = null;
+        }
+    }
+
+    /**
+     * @return A node that calls one of the script's functions with the arguments converted to
+     *         its parameter types, or null if the script defines no such function.
+     */
+    private CallNode call(Expr.Call c) {
+        Function fn = functions.get(c.func());
+        if (fn == null) {
+            return null;
+        }
+        if (fn.parameterTypes.size() != c.args().size()) {
+            throw new IllegalArgumentException(c.func() + "() takes " + fn.parameterTypes.size() + " arguments, not " + c.args().size());
+        }
+        Argument[] arguments = new Argument[c.args().size()];
+        for (int i = 0; i < arguments.length; i++) {
+            Expr arg = c.args().get(i);
+            ValueType type = fn.parameterTypes.get(i);
+            int slot = fn.parameterSlots[i];
+            arguments[i] = switch (type) {
+                case INT, LONG -> {
+                    LongNode v = longValue(arg, type);
+                    yield (caller, callee) -> callee.longs[slot] = v.eval(caller);
+                }
+                case DOUBLE -> {
+                    DoubleNode v = doubleValue(arg);
+                    yield (caller, callee) -> callee.doubles[slot] = v.eval(caller);
+                }
+                case BOOLEAN -> {
+                    BooleanNode v = booleanValue(arg);
+                    yield (caller, callee) -> callee.booleans[slot] = v.eval(caller);
+                }
+                case STRING -> {
+                    StringNode v = stringValue(arg);
+                    yield (caller, callee) -> callee.objects[slot] = v.eval(caller);
+                }
+                case INT_LIST, DOUBLE_LIST -> {
+                    ListNode v = listValue(arg, type);
+                    yield (caller, callee) -> callee.objects[slot] = v.eval(caller);
+                }
+                default -> throw new UnsupportedOperationException("Parameter of type " + type);
+            };
+        }
+        return f -> invoke(fn, f, arguments);
+    }
+
+    // Runs a call of fn on a new frame, looking it up in the memo table first if fn is memoized,
+    // and running its compiled method instead once there is one.
+    private Frame invoke(Function fn, Frame caller, Argument[] arguments) {
+        Frame f = new Frame(fn.longCount, fn.doubleCount, fn.booleanCount, fn.objectCount);
+        for (int slot : fn.stringSlots) {
+            f.objects[slot] = "";
+        }
+        for (Argument a : arguments) {
+            a.pass(caller, f);
+        }
+        if (fn.memo != null && recall(fn, f)) {
+            return f;
+        }
+        MethodHandle compiled = fn.compiled != null ? fn.compiled : promote(fn);
+        if (compiled != null) {
+            callCompiled(compiled, fn, f);
+            return f;
+        }
+        if (fn.budgetChecks) {
+            // Recursion does not go through a loop; the calls are counted instead.
+            PyBudget.call();
+        }
+        Instruction[] code = fn.instructions;
+        int pc = 0;
+        try {
+            while (pc < code.length) {
+                pc = code[pc].execute(f, pc);
+            }
+        } catch (RuntimeException | Error e) {
+            SourceMap.locate(e, fn.def.name(), fn.instructionLines[pc]);
+            throw e;
+        }
+        if (fn.memo != null) {
+            remember(fn, f);
+        }
+        return f;
+    }
+
+    /**
+     * Counts a call of fn. Once a function has been called {@link #COMPILE_THRESHOLD} times, the
+     * functions are compiled in the background.
+     * @return fn's compiled method, once it is ready; null while fn is interpreted.
+     */
+    private MethodHandle promote(Function fn) {
+        if (fn.memo != null) {
+            return null;
+        }
+        if (compiledFunctions == null) {
+            if (++fn.calls >= COMPILE_THRESHOLD) {
+                compiledFunctions = COMPILER.submit(this::compileFunctions);
+            }
+            return null;
+        }
+        if (compiledFunctions.state() != Future.State.SUCCESS || compiledFunctions.resultNow() == null) {
+            // Not compiled yet, or the functions cannot be compiled: keep interpreting them.
+            return null;
+        }
+        fn.compiled = compiledFunctions.resultNow().get(fn.def.name());
+        return fn.compiled;
+    }
+
+    // Calls a compiled function with the arguments passed to the callee's frame, and puts its
+    // result in the frame. The method's frames and line$ give an error its Python line.
+    private static void callCompiled(MethodHandle compiled, Function fn, Frame f) {
+        Object[] arguments = new Object[fn.parameterSlots.length];
+        for (int i = 0; i < arguments.length; i++) {
+            int slot = fn.parameterSlots[i];
+            arguments[i] = switch (fn.parameterTypes.get(i)) {
+                case INT -> (int) f.longs[slot];
+                case LONG -> f.longs[slot];
+                case DOUBLE -> f.doubles[slot];
+                case BOOLEAN -> f.booleans[slot];
+                default -> f.objects[slot];
+            };
+        }
+        Object result;
+        try {
+            result = (Object) compiled.invokeExact(arguments);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        switch (result) {
+            case null -> {
+                // A function without a result.
+            }
+            case Integer v -> f.longResult = v;
+            case Long v -> f.longResult = v;
+            case Double v -> f.doubleResult = v;
+            case Boolean v -> f.booleanResult = v;
+            default -> f.objectResult = result;
+        }
+    }
+
+    // Generates the functions' class and defines it in a class loader of its own, as HotLoop does.
+    // Returns the method of each function that is not memoized, taking its arguments in an
+    // Object[] and returning its result boxed, or null if the functions cannot be compiled.
+    private Map<String, MethodHandle> compileFunctions() throws ReflectiveOperationException {
+        byte[] bytes;
+        try {
+            bytes = new BytecodeGenerator(program, inference, exact).setLoopChecks(loopChecks)
+                    .generateFunctions("TranslatedFunctions");
+        } catch (UnsupportedOperationException e) {
+            return null;
+        }
+        Class<?> cls = Class.forName("TranslatedFunctions", true,
+                new CompiledScript.ScriptLoader(Map.of("TranslatedFunctions", bytes)));
+        // The methods are not public, as in the script's class.
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(cls, MethodHandles.lookup());
+        Map<String, MethodHandle> methods = new HashMap<>();
+        for (Function fn : functions.values()) {
+            Class<?>[] parameters = new Class<?>[fn.parameterTypes.size()];
+            for (int i = 0; i < parameters.length; i++) {
+                parameters[i] = javaClass(fn.parameterTypes.get(i));
+            }
+            String name = fn.def.name();
+            Class<?> returns = inference.returnsValue(name) ? javaClass(inference.returnType(name)) : void.class;
+            MethodHandle method = lookup.findStatic(cls, ExprEmitter.javaName(name),
+                    MethodType.methodType(returns, parameters));
+            methods.put(name, method.asSpreader(Object[].class, parameters.length)
+                    .asType(MethodType.methodType(Object.class, Object[].class)));
+        }
+        return methods;
+    }
+
+    // The Java class of the values of a type that functions take and return in the interpreter.
+    private static Class<?> javaClass(ValueType type) {
+        return switch (type) {
+            case BOOLEAN -> boolean.class;
+            case INT -> int.class;
+            case LONG -> long.class;
+            case DOUBLE -> double.class;
+            case STRING -> String.class;
+            case INT_LIST -> IntList.class;
+            case DOUBLE_LIST -> DoubleList.class;
+            default -> throw new IllegalArgumentException("Function value of type " + type);
+        };
+    }
+
+    // --------------------- Memoized functions --------------------- //
+
+    /**
+     * Gives a memoized function its PyMemo table: keyed by up to three int, float or bool
+     * arguments, or by the boxed arguments, as in PythonToJavaConverter.appendMemo.
+     */
+    private void memo(Function fn) {
+        boolean primitive = !fn.parameterTypes.isEmpty() && fn.parameterTypes.size() <= 3;
+        for (ValueType t : fn.parameterTypes) {
+            primitive &= t == ValueType.INT || t == ValueType.LONG || t == ValueType.BOOLEAN || t == ValueType.DOUBLE;
+        }
+        fn.primitiveKeys = primitive;
+        fn.memoType = inference.returnsValue(fn.def.name()) ? inference.returnType(fn.def.name()) : ValueType.BOOLEAN;
+        fn.memo = new PyMemo(primitive ? fn.parameterTypes.size() : 0);
+    }
+
+    // Looks the arguments in the callee's frame up, and sets its result if they are found.
+    private static boolean recall(Function fn, Frame f) {
+        if (!fn.primitiveKeys) {
+            if (!fn.memo.containsKey(boxedKey(fn, f))) {
+                return false;
+            }
+            Object value = fn.memo.objectValue();
+            switch (fn.memoType) {
+                case INT, LONG -> f.longResult = (Long) value;
+                case DOUBLE -> f.doubleResult = (Double) value;
+                case BOOLEAN -> f.booleanResult = (Boolean) value;
+                default -> f.objectResult = value;
+            }
+            return true;
+        }
+        boolean found = switch (fn.parameterSlots.length) {
+            case 1 -> fn.memo.contains(key(fn, f, 0));
+            case 2 -> fn.memo.contains(key(fn, f, 0), key(fn, f, 1));
+            default -> fn.memo.contains(key(fn, f, 0), key(fn, f, 1), key(fn, f, 2));
+        };
+        if (found) {
+            switch (fn.memoType) {
+                case INT, LONG -> f.longResult = fn.memo.longValue();
+                case DOUBLE -> f.doubleResult = fn.memo.doubleValue();
+                case BOOLEAN -> f.booleanResult = fn.memo.booleanValue();
+                default -> f.objectResult = fn.memo.objectValue();
+            }
+        }
+        return found;
+    }
+
+    // Stores the result of a call under its arguments.
+    private static void remember(Function fn, Frame f) {
+        ValueType returns = fn.memoType;
+        if (!fn.primitiveKeys) {
+            Object value = switch (returns) {
+                case INT, LONG -> f.longResult;
+                case DOUBLE -> f.doubleResult;
+                case BOOLEAN -> f.booleanResult;
+                default -> f.objectResult;
+            };
+            fn.memo.putValue(value, boxedKey(fn, f));
+            return;
+        }
+        long k0 = key(fn, f, 0);
+        long k1 = fn.parameterSlots.length > 1 ? key(fn, f, 1) : 0;
+        long k2 = fn.parameterSlots.length > 2 ? key(fn, f, 2) : 0;
+        switch (fn.parameterSlots.length) {
+            case 1 -> {
+                switch (returns) {
+                    case INT, LONG -> fn.memo.putLong(f.longResult, k0);
+                    case DOUBLE -> fn.memo.putDouble(f.doubleResult, k0);
+                    case BOOLEAN -> fn.memo.putBoolean(f.booleanResult, k0);
+                    default -> fn.memo.putObject(f.objectResult, k0);
+                }
+            }
+            case 2 -> {
+                switch (returns) {
+                    case INT, LONG -> fn.memo.putLong(f.longResult, k0, k1);
+                    case DOUBLE -> fn.memo.putDouble(f.doubleResult, k0, k1);
+                    case BOOLEAN -> fn.memo.putBoolean(f.booleanResult, k0, k1);
+                    default -> fn.memo.putObject(f.objectResult, k0, k1);
+                }
+            }
+            default -> {
+                switch (returns) {
+                    case INT, LONG -> fn.memo.putLong(f.longResult, k0, k1, k2);
+                    case DOUBLE -> fn.memo.putDouble(f.doubleResult, k0, k1, k2);
+                    case BOOLEAN -> fn.memo.putBoolean(f.booleanResult, k0, k1, k2);
+                    default -> fn.memo.putObject(f.objectResult, k0, k1, k2);
+                }
+            }
+        }
+    }
+
+    // The memo key of argument i: ints and bools as longs, floats as PyMemo.key.
+    private static long key(Function fn, Frame f, int i) {
+        int slot = fn.parameterSlots[i];
+        return switch (fn.parameterTypes.get(i)) {
+            case DOUBLE -> PyMemo.key(f.doubles[slot]);
+            case BOOLEAN -> f.booleans[slot] ? 1 : 0;
+            default -> f.longs[slot];
+        };
+    }
+
+    private static Object[] boxedKey(Function fn, Frame f) {
+        Object[] key = new Object[fn.parameterSlots.length];
+        for (int i = 0; i < key.length; i++) {
+            int slot = fn.parameterSlots[i];
+            key[i] = switch (fn.parameterTypes.get(i)) {
+                case INT, LONG -> f.longs[slot];
+                case DOUBLE -> f.doubles[slot];
+                case BOOLEAN -> f.booleans[slot];
+                default -> f.objects[slot];
+            };
+        }
+        return key;
+    }
+
+    // --------------------- Values --------------------- //
+
+    /**
+     * @return A node computing e converted to INT or LONG, as a long.
+     */
+    private LongNode longValue(Expr e, ValueType to) {
+        ValueType from = types.typeOf(e);
+        switch (from) {
+            case BOOLEAN -> {
+                BooleanNode b = booleanValue(e);
+                return f -> b.eval(f) ? 1 : 0;
+            }
+            case INT, LONG -> {
+                LongNode v = integer(e, from);
+                return from == ValueType.LONG && to == ValueType.INT ? wrapInt(v) : v;
+            }
+            case DOUBLE -> {
+                DoubleNode d = real(e);
+                if (to == ValueType.INT) {
+                    return f -> (int) d.eval(f);
+                }
+                return f -> (long) d.eval(f);
+            }
+            default -> throw new UnsupportedOperationException("Conversion from " + from + " to " + to);
+        }
+    }
+
+    /**
+     * @return A node computing e converted to a double.
+     */
+    private DoubleNode doubleValue(Expr e) {
+        ValueType from = types.typeOf(e);
+        switch (from) {
+            case BOOLEAN -> {
+                BooleanNode b = booleanValue(e);
+                return f -> b.eval(f) ? 1.0 : 0.0;
+            }
+            case INT, LONG -> {
+                LongNode v = integer(e, from);
+                return f -> (double) v.eval(f);
+            }
+            case DOUBLE -> {
+                return real(e);
+            }
+            default -> throw new UnsupportedOperationException("Conversion from " + from + " to DOUBLE");
+        }
+    }
+
+    /**
+     * @return A node computing e, which is typed INT or LONG. Int results are wrapped to 32 bits.
+     */
+    private LongNode integer(Expr e, ValueType type) {
+        boolean isInt = type == ValueType.INT;
+        switch (e) {
+            case Expr.Num n -> {
+                long value;
+                try {
+                    value = isInt ? Integer.parseInt(n.text()) : Long.parseLong(n.text());
+                } catch (NumberFormatException x) {
+                    throw new UnsupportedOperationException("Literal " + n.text());
+                }
+                return f -> value;
+            }
+            case Expr.Name n -> {
+                int slot = slot(n.id());
+                return f -> f.longs[slot];
+            }
+            case Expr.Unary u -> {
+                LongNode v = longValue(u.operand(), type);
+                switch (u.op()) {
+                    case "-" -> {
+                        if (exact && !isInt && !(u.operand() instanceof Expr.Num)) {
+                            String site = site(u);
+                            return f -> PyMath.neg(v.eval(f), site);
+                        }
+                        LongNode negated = f -> -v.eval(f);
+                        return isInt ? wrapInt(negated) : negated;
+                    }
+                    case "~" -> {
+                        return f -> ~v.eval(f);
+                    }
+                    case "+" -> {
+                        return v;
+                    }
+                    default -> throw new UnsupportedOperationException("Operator " + u.op());
+                }
+            }
+            case Expr.Binary b -> {
+                return integerBinary(b, type);
+            }
+            case Expr.Call c -> {
+                return integerCall(c, type);
+            }
+            case Expr.Index i -> {
+                ListNode list = list(i.target());
+                LongNode index = index(i.index());
+                return f -> ((IntList) list.eval(f)).get(index.eval(f));
+            }
+            default -> throw new UnsupportedOperationException("Integer value of " + e);
+        }
+    }
+
+    private LongNode integerBinary(Expr.Binary b, ValueType type) {
+        boolean isInt = type == ValueType.INT;
+        if (exact && !isInt) {
+            // Operations that can overflow a long are checked; the rest cannot overflow.
+            String op = b.op();
+            if (op.equals("+") || op.equals("-") || op.equals("*") || op.equals("//") || op.equals("**") || op.equals("<<")) {
+                LongNode l = longValue(b.left(), ValueType.LONG);
+                LongNode r = longValue(b.right(), ValueType.LONG);
+                String site = site(b);
+                return switch (op) {
+                    case "+" -> f -> PyMath.add(l.eval(f), r.eval(f), site);
+                    case "-" -> f -> PyMath.sub(l.eval(f), r.eval(f), site);
+                    case "*" -> f -> PyMath.mul(l.eval(f), r.eval(f), site);
+                    case "//" -> f -> PyMath.floorDiv(l.eval(f), r.eval(f), site);
+                    case "**" -> f -> PyMath.pow(l.eval(f), r.eval(f), site);
+                    default -> f -> PyMath.shiftLeft(l.eval(f), r.eval(f), site);
+                };
+            }
+        }
+        if ("**".equals(b.op())) {
+            DoubleNode l = doubleValue(b.left());
+            DoubleNode r = doubleValue(b.right());
+            if (isInt) {
+                return f -> (int) Math.pow(l.eval(f), r.eval(f));
+            }
+            return f -> (long) Math.pow(l.eval(f), r.eval(f));
+        }
+        LongNode l = longValue(b.left(), type);
+        if ("<<".equals(b.op()) || ">>".equals(b.op())) {
+            // The shift distance is an int, even for long shifts.
+            LongNode r = longValue(b.right(), ValueType.INT);
+            boolean left = "<<".equals(b.op());
+            // Int shifts use the low 5 bits of the distance, long shifts the low 6.
+            if (isInt && left) {
+                return f -> (int) l.eval(f) << (int) r.eval(f);
+            } else if (isInt) {
+                return f -> (int) l.eval(f) >> (int) r.eval(f);
+            } else if (left) {
+                return f -> l.eval(f) << (int) r.eval(f);
+            }
+            return f -> l.eval(f) >> (int) r.eval(f);
+        }
+        LongNode r = longValue(b.right(), type);
+        LongNode result = switch (b.op()) {
+            case "+" -> f -> l.eval(f) + r.eval(f);
+            case "-" -> f -> l.eval(f) - r.eval(f);
+            case "*" -> f -> l.eval(f) * r.eval(f);
+            // Python floors the quotient, and its remainder takes the sign of the divisor.
+            case "//" -> f -> Math.floorDiv(l.eval(f), r.eval(f));
+            case "%" -> f -> Math.floorMod(l.eval(f), r.eval(f));
+            case "&" -> f -> l.eval(f) & r.eval(f);
+            case "|" -> f -> l.eval(f) | r.eval(f);
+            case "^" -> f -> l.eval(f) ^ r.eval(f);
+            default -> throw new UnsupportedOperationException("Operator " + b.op());
+        };
+        // Int arithmetic is done in longs and wrapped back to 32 bits, which gives the int result.
+        return isInt ? wrapInt(result) : result;
+    }
+
+    private LongNode integerCall(Expr.Call c, ValueType type) {
+        boolean isInt = type == ValueType.INT;
+        switch (c.func()) {
+            case "int" -> {
+                Expr arg = single(c);
+                if (types.typeOf(arg) == ValueType.STRING) {
+                    StringNode s = stringValue(arg);
+                    if (isInt) {
+                        return f -> Integer.parseInt(s.eval(f).trim());
+                    }
+                    return f -> Long.parseLong(s.eval(f).trim());
+                }
+                return longValue(arg, type);
+            }
+            case "round" -> {
+                Expr arg = single(c);
+                if (types.typeOf(arg).isIntegral()) {
+                    return longValue(arg, type);
+                }
+                // Python rounds halves to even, like Math.rint.
+                DoubleNode d = doubleValue(arg);
+                if (isInt) {
+                    return f -> (int) Math.rint(d.eval(f));
+                }
+                return f -> (long) Math.rint(d.eval(f));
+            }
+            case "abs" -> {
+                LongNode v = longValue(single(c), type);
+                if (exact && !isInt) {
+                    String site = site(c);
+                    return f -> PyMath.abs(v.eval(f), site);
+                }
+                LongNode abs = f -> Math.abs(v.eval(f));
+                return isInt ? wrapInt(abs) : abs;
+            }
+            case "len" -> {
+                Expr arg = single(c);
+                ValueType t = types.typeOf(arg);
+                if (t.isList()) {
+                    ListNode list = list(arg);
+                    return f -> list.eval(f).size();
+                }
+                if (t == ValueType.STRING) {
+                    StringNode s = stringValue(arg);
+                    return f -> s.eval(f).length();
+                }
+                throw new IllegalArgumentException("object of type '" + t.pythonName() + "' has no len()");
+            }
+            case "min", "max" -> {
+                if (c.args().size() == 1 && types.typeOf(c.args().getFirst()).isList()) {
+                    ListNode list = list(c.args().getFirst());
+                    if ("min".equals(c.func())) {
+                        return f -> ((IntList) list.eval(f)).min();
+                    }
+                    return f -> ((IntList) list.eval(f)).max();
+                }
+                LongNode result = longValue(c.args().getFirst(), type);
+                boolean min = "min".equals(c.func());
+                for (int i = 1; i < c.args().size(); i++) {
+                    LongNode a = result;
+                    LongNode b = longValue(c.args().get(i), type);
+                    if (min) {
+                        result = f -> Math.min(a.eval(f), b.eval(f));
+                    } else {
+                        result = f -> Math.max(a.eval(f), b.eval(f));
+                    }
+                }
+                return result;
+            }
+            default -> {
+                CallNode call = call(c);
+                if (call == null) {
+                    throw new UnsupportedOperationException("Call of " + c.func() + "()");
+                }
+                return f -> call.eval(f).longResult;
+            }
+        }
+    }
+
+    /**
+     * @return A node computing e, which is typed DOUBLE.
+     */
+    private DoubleNode real(Expr e) {
+        switch (e) {
+            case Expr.Num n -> {
+                double value = Double.parseDouble(n.text());
+                return f -> value;
+            }
+            case Expr.Name n -> {
+                int slot = slot(n.id());
+                return f -> f.doubles[slot];
+            }
+            case Expr.Unary u -> {
+                DoubleNode v = doubleValue(u.operand());
+                return switch (u.op()) {
+                    case "-" -> f -> -v.eval(f);
+                    case "+" -> v;
+                    default -> throw new UnsupportedOperationException("Operator " + u.op() + " on a float");
+                };
+            }
+            case Expr.Binary b -> {
+                DoubleNode l = doubleValue(b.left());
+                DoubleNode r = doubleValue(b.right());
+                return switch (b.op()) {
+                    case "+" -> f -> l.eval(f) + r.eval(f);
+                    case "-" -> f -> l.eval(f) - r.eval(f);
+                    case "*" -> f -> l.eval(f) * r.eval(f);
+                    case "/" -> f -> l.eval(f) / r.eval(f);
+                    case "//" -> f -> Math.floor(l.eval(f) / r.eval(f));
+                    case "%" -> f -> PyMath.floorMod(l.eval(f), r.eval(f));
+                    case "**" -> f -> Math.pow(l.eval(f), r.eval(f));
+                    default -> throw new UnsupportedOperationException("Operator " + b.op() + " on a float");
+                };
+            }
+            case Expr.Call c -> {
+                switch (c.func()) {
+                    case "float" -> {
+                        Expr arg = single(c);
+                        if (types.typeOf(arg) == ValueType.STRING) {
+                            StringNode s = stringValue(arg);
+                            return f -> Double.parseDouble(s.eval(f).trim());
+                        }
+                        return doubleValue(arg);
+                    }
+                    case "abs" -> {
+                        DoubleNode v = doubleValue(single(c));
+                        return f -> Math.abs(v.eval(f));
+                    }
+                    case "min", "max" -> {
+                        if (c.args().size() == 1 && types.typeOf(c.args().getFirst()).isList()) {
+                            ListNode list = list(c.args().getFirst());
+                            if ("min".equals(c.func())) {
+                                return f -> ((DoubleList) list.eval(f)).min();
+                            }
+                            return f -> ((DoubleList) list.eval(f)).max();
+                        }
+                        DoubleNode result = doubleValue(c.args().getFirst());
+                        boolean min = "min".equals(c.func());
+                        for (int i = 1; i < c.args().size(); i++) {
+                            DoubleNode a = result;
+                            DoubleNode b = doubleValue(c.args().get(i));
+                            if (min) {
+                                result = f -> Math.min(a.eval(f), b.eval(f));
+                            } else {
+                                result = f -> Math.max(a.eval(f), b.eval(f));
+                            }
+                        }
+                        return result;
+                    }
+                    default -> {
+                        CallNode call = call(c);
+                        if (call == null) {
+                            throw new UnsupportedOperationException("Call of " + c.func() + "()");
+                        }
+                        return f -> call.eval(f).doubleResult;
+                    }
+                }
+            }
+            case Expr.Index i -> {
+                ListNode list = list(i.target());
+                LongNode index = index(i.index());
+                return f -> ((DoubleList) list.eval(f)).get(index.eval(f));
+            }
+            default -> throw new UnsupportedOperationException("Float value of " + e);
+        }
+    }
+
+    /**
+     * @return A node computing e, which is typed BOOLEAN.
+     */
+    private BooleanNode booleanValue(Expr e) {
+        switch (e) {
+            case Expr.Bool b -> {
+                boolean value = b.value();
+                return f -> value;
+            }
+            case Expr.Name n -> {
+                int slot = slot(n.id());
+                return f -> f.booleans[slot];
+            }
+            case Expr.Call c when functions.containsKey(c.func()) -> {
+                CallNode call = call(c);
+                return f -> call.eval(f).booleanResult;
+            }
+            case Expr.Binary b -> {
+                // & | ^ on two booleans evaluate both sides.
+                BooleanNode l = booleanValue(b.left());
+                BooleanNode r = booleanValue(b.right());
+                return switch (b.op()) {
+                    case "&" -> f -> l.eval(f) & r.eval(f);
+                    case "|" -> f -> l.eval(f) | r.eval(f);
+                    case "^" -> f -> l.eval(f) ^ r.eval(f);
+                    default -> throw new UnsupportedOperationException("Operator " + b.op() + " on booleans");
+                };
+            }
+            default -> {
+                return condition(e);
+            }
+        }
+    }
+
+    /**
+     * @return A node computing the Python truth value of e.
+     */
+    private BooleanNode condition(Expr e) {
+        switch (e) {
+            case Expr.Unary u when "not".equals(u.op()) -> {
+                BooleanNode v = condition(u.operand());
+                return f -> !v.eval(f);
+            }
+            case Expr.BoolOp b -> {
+                BooleanNode l = condition(b.left());
+                BooleanNode r = condition(b.right());
+                if ("and".equals(b.op())) {
+                    return f -> l.eval(f) && r.eval(f);
+                }
+                return f -> l.eval(f) || r.eval(f);
+            }
+            case Expr.Compare c -> {
+                // a < b < c is a < b and b < c.
+                BooleanNode result = null;
+                for (int i = 0; i < c.ops().size(); i++) {
+                    BooleanNode pair = comparePair(c.ops().get(i), c.operands().get(i), c.operands().get(i + 1));
+                    BooleanNode before = result;
+                    if (before == null) {
+                        result = pair;
+                    } else {
+                        result = f -> before.eval(f) && pair.eval(f);
+                    }
+                }
+                return result;
+            }
+            case Expr.Call c when "bool".equals(c.func()) -> {
+                return condition(single(c));
+            }
+            default -> {
+                ValueType type = types.typeOf(e);
+                switch (type) {
+                    case BOOLEAN -> {
+                        return booleanValue(e);
+                    }
+                    case INT, LONG -> {
+                        LongNode v = integer(e, type);
+                        return f -> v.eval(f) != 0;
+                    }
+                    case DOUBLE -> {
+                        DoubleNode v = real(e);
+                        return f -> v.eval(f) != 0.0;
+                    }
+                    case STRING -> {
+                        StringNode v = stringValue(e);
+                        return f -> !v.eval(f).isEmpty();
+                    }
+                    case INT_LIST, DOUBLE_LIST -> {
+                        ListNode v = list(e);
+                        return f -> !v.eval(f).isEmpty();
+                    }
+                    default -> throw new UnsupportedOperationException("Condition of type " + type);
+                }
+            }
+        }
+    }
+
+    private BooleanNode comparePair(String op, Expr left, Expr right) {
+        if ("in".equals(op) || "not in".equals(op)) {
+            BooleanNode test = contains(left, right);
+            return "in".equals(op) ? test : f -> !test.eval(f);
+        }
+        String javaOp = switch (op) {
+            case "is" -> "==";
+            case "is not" -> "!=";
+            case "==", "!=", "<", ">", "<=", ">=" -> op;
+            default -> throw new IllegalArgumentException("Unsupported comparison '" + op + "'");
+        };
+        ValueType l = types.typeOf(left);
+        ValueType r = types.typeOf(right);
+        if (l.isList() || r.isList()) {
+            // Lists are equal if their elements are.
+            if (!l.isList() || !r.isList() || !"==".equals(javaOp) && !"!=".equals(javaOp)) {
+                throw new IllegalArgumentException("Lists can only be compared to lists, with == and !=");
+            }
+            ValueType common = ValueType.join(l, r);
+            ListNode a = listValue(left, common);
+            ListNode b = listValue(right, common);
+            if ("==".equals(javaOp)) {
+                return f -> a.eval(f).equals(b.eval(f));
+            }
+            return f -> !a.eval(f).equals(b.eval(f));
+        }
+        if (l == ValueType.STRING || r == ValueType.STRING) {
+            if (l != r) {
+                throw new UnsupportedOperationException("Comparison of " + l + " and " + r);
+            }
+            StringNode a = stringValue(left);
+            StringNode b = stringValue(right);
+            return switch (javaOp) {
+                case "==" -> f -> a.eval(f).equals(b.eval(f));
+                case "!=" -> f -> !a.eval(f).equals(b.eval(f));
+                case "<" -> f -> a.eval(f).compareTo(b.eval(f)) < 0;
+                case ">" -> f -> a.eval(f).compareTo(b.eval(f)) > 0;
+                case "<=" -> f -> a.eval(f).compareTo(b.eval(f)) <= 0;
+                default -> f -> a.eval(f).compareTo(b.eval(f)) >= 0;
+            };
+        }
+        ValueType common = ValueType.promote(numeric(l), numeric(r));
+        if (common == ValueType.DOUBLE) {
+            DoubleNode a = doubleValue(left);
+            DoubleNode b = doubleValue(right);
+            return switch (javaOp) {
+                case "==" -> f -> a.eval(f) == b.eval(f);
+                case "!=" -> f -> a.eval(f) != b.eval(f);
+                case "<" -> f -> a.eval(f) < b.eval(f);
+                case ">" -> f -> a.eval(f) > b.eval(f);
+                case "<=" -> f -> a.eval(f) <= b.eval(f);
+                default -> f -> a.eval(f) >= b.eval(f);
+            };
+        }
+        if (!common.isIntegral() || common == ValueType.BIG) {
+            throw new UnsupportedOperationException("Comparison of " + common);
+        }
+        LongNode a = longValue(left, common);
+        LongNode b = longValue(right, common);
+        return switch (javaOp) {
+            case "==" -> f -> a.eval(f) == b.eval(f);
+            case "!=" -> f -> a.eval(f) != b.eval(f);
+            case "<" -> f -> a.eval(f) < b.eval(f);
+            case ">" -> f -> a.eval(f) > b.eval(f);
+            case "<=" -> f -> a.eval(f) <= b.eval(f);
+            default -> f -> a.eval(f) >= b.eval(f);
+        };
+    }
+
+    /**
+     * @return A node computing whether item is in container: an element of a list, or a
+     *         substring of a string.
+     */
+    private BooleanNode contains(Expr item, Expr container) {
+        ValueType t = types.typeOf(container);
+        if (t.isList()) {
+            ListNode list = list(container);
+            if (t == ValueType.INT_LIST) {
+                LongNode v = longValue(item, ValueType.LONG);
+                return f -> ((IntList) list.eval(f)).contains(v.eval(f));
+            }
+            DoubleNode v = doubleValue(item);
+            return f -> ((DoubleList) list.eval(f)).contains(v.eval(f));
+        }
+        if (t == ValueType.STRING && types.typeOf(item) == ValueType.STRING) {
+            StringNode text = stringValue(container);
+            StringNode part = stringValue(item);
+            return f -> text.eval(f).contains(part.eval(f));
+        }
+        throw new IllegalArgumentException("'in' needs a list or a str on its right, not " + t.pythonName());
+    }
+
+    /**
+     * @return A node computing e, which is typed STRING.
+     */
+    private StringNode stringValue(Expr e) {
+        switch (e) {
+            case Expr.Str s -> {
+                String value = s.value();
+                return f -> value;
+            }
+            case Expr.Name n -> {
+                int slot = slot(n.id());
+                return f -> (String) f.objects[slot];
+            }
+            case Expr.Binary b when "+".equals(b.op()) -> {
+                return concatenation(List.of(b));
+            }
+            case Expr.Binary b when "*".equals(b.op()) -> {
+                // "ab" * 3 repeats the string.
+                boolean leftIsString = types.typeOf(b.left()) == ValueType.STRING;
+                StringNode s = stringValue(leftIsString ? b.left() : b.right());
+                Expr count = leftIsString ? b.right() : b.left();
+                ValueType countType = types.typeOf(count);
+                if (countType == ValueType.STRING || countType == ValueType.DOUBLE) {
+                    throw new UnsupportedOperationException("String repeated by " + countType);
+                }
+                LongNode n = longValue(count, ValueType.INT);
+                return f -> s.eval(f).repeat((int) n.eval(f));
+            }
+            case Expr.Call c when "str".equals(c.func()) -> {
+                return str(single(c));
+            }
+            case Expr.Call c when functions.containsKey(c.func()) -> {
+                CallNode call = call(c);
+                return f -> (String) call.eval(f).objectResult;
+            }
+            default -> throw new UnsupportedOperationException("String value of " + e);
+        }
+    }
+
+    /**
+     * @return A node computing str(e): Python's text of floats and bools (see PyPrint.str).
+     */
+    private StringNode str(Expr e) {
+        switch (types.typeOf(e)) {
+            case DOUBLE -> {
+                DoubleNode v = real(e);
+                return f -> PyPrint.str(v.eval(f));
+            }
+            case BOOLEAN -> {
+                BooleanNode v = booleanValue(e);
+                return f -> PyPrint.str(v.eval(f));
+            }
+            default -> {
+                return text(e);
+            }
+        }
+    }
+
+    /**
+     * @return A node computing e converted to a string, as Java's string conversion does.
+     */
+    private StringNode text(Expr e) {
+        ValueType type = types.typeOf(e);
+        switch (type) {
+            case INT, LONG -> {
+                LongNode v = integer(e, type);
+                return f -> Long.toString(v.eval(f));
+            }
+            case DOUBLE -> {
+                DoubleNode v = real(e);
+                return f -> Double.toString(v.eval(f));
+            }
+            case BOOLEAN -> {
+                BooleanNode v = booleanValue(e);
+                return f -> String.valueOf(v.eval(f));
+            }
+            case STRING -> {
+                return stringValue(e);
+            }
+            case INT_LIST, DOUBLE_LIST -> {
+                ListNode v = list(e);
+                return f -> String.valueOf(v.eval(f));
+            }
+            default -> throw new UnsupportedOperationException("BigInteger arithmetic");
+        }
+    }
+
+    /**
+     * @return A node computing e converted to a list of the given type. A literal is built as
+     *         the wider list right away, and a list of ints is widened by copying it, as in
+     *         ExprEmitter.convertList.
+     */
+    private ListNode listValue(Expr e, ValueType to) {
+        if (e instanceof Expr.ListLiteral l) {
+            return listLiteral(l, to);
+        }
+        ValueType from = listType(e);
+        ListNode v = list(e);
+        if (from == to) {
+            return v;
+        }
+        if (from == ValueType.INT_LIST && to == ValueType.DOUBLE_LIST) {
+            return f -> DoubleList.copyOf((IntList) v.eval(f));
+        }
+        throw new UnsupportedOperationException("Conversion from " + from + " to " + to);
+    }
+
+    /**
+     * @return A node computing e, which is typed INT_LIST or DOUBLE_LIST.
+     */
+    private ListNode list(Expr e) {
+        ValueType type = listType(e);
+        switch (e) {
+            case Expr.ListLiteral l -> {
+                return listLiteral(l, type);
+            }
+            case Expr.Name n -> {
+                int slot = slot(n.id());
+                return f -> (PySequence) f.objects[slot];
+            }
+            case Expr.Slice s -> {
+                ListNode list = list(s.target());
+                LongNode lower = s.lower() != null ? index(s.lower()) : f -> PySequence.NONE;
+                LongNode upper = s.upper() != null ? index(s.upper()) : f -> PySequence.NONE;
+                LongNode step = s.step() != null ? index(s.step()) : f -> 1;
+                if (type == ValueType.INT_LIST) {
+                    return f -> ((IntList) list.eval(f)).slice(lower.eval(f), upper.eval(f), step.eval(f));
+                }
+                return f -> ((DoubleList) list.eval(f)).slice(lower.eval(f), upper.eval(f), step.eval(f));
+            }
+            case Expr.Binary b when "+".equals(b.op()) -> {
+                ListNode l = listValue(b.left(), type);
+                ListNode r = listValue(b.right(), type);
+                if (type == ValueType.INT_LIST) {
+                    return f -> ((IntList) l.eval(f)).concat((IntList) r.eval(f));
+                }
+                return f -> ((DoubleList) l.eval(f)).concat((DoubleList) r.eval(f));
+            }
+            case Expr.Binary b when "*".equals(b.op()) -> {
+                // lst * n and n * lst both repeat the list.
+                boolean listFirst = types.typeOf(b.left()).isList();
+                ListNode list = list(listFirst ? b.left() : b.right());
+                LongNode n = longValue(listFirst ? b.right() : b.left(), ValueType.LONG);
+                if (type == ValueType.INT_LIST) {
+                    return f -> ((IntList) list.eval(f)).repeat(n.eval(f));
+                }
+                return f -> ((DoubleList) list.eval(f)).repeat(n.eval(f));
+            }
+            case Expr.Call c when functions.containsKey(c.func()) -> {
+                CallNode call = call(c);
+                return f -> (PySequence) call.eval(f).objectResult;
+            }
+            default -> throw new UnsupportedOperationException("List value of " + e);
+        }
+    }
+
+    /**
+     * [a, b] becomes a new list with a and b appended, which holds what IntList.of(a, b) does.
+     */
+    private ListNode listLiteral(Expr.ListLiteral l, ValueType type) {
+        if (type == ValueType.INT_LIST) {
+            LongNode[] elements = new LongNode[l.elements().size()];
+            for (int i = 0; i < elements.length; i++) {
+                elements[i] = longValue(l.elements().get(i), ValueType.LONG);
+            }
+            return f -> {
+                IntList list = new IntList();
+                for (LongNode element : elements) {
+                    list.append(element.eval(f));
+                }
+                return list;
+            };
+        }
+        DoubleNode[] elements = new DoubleNode[l.elements().size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = doubleValue(l.elements().get(i));
+        }
+        return f -> {
+            DoubleList list = new DoubleList();
+            for (DoubleNode element : elements) {
+                list.append(element.eval(f));
+            }
+            return list;
+        };
+    }
+
+    /**
+     * @return The type of e, which has to be a list of ints or floats.
+     */
+    private ValueType listType(Expr e) {
+        ValueType t = types.typeOf(e);
+        if (!t.isList()) {
+            throw new IllegalArgumentException("'" + t.pythonName() + "' object is not a list");
+        }
+        if (t != ValueType.INT_LIST && t != ValueType.DOUBLE_LIST) {
+            throw new UnsupportedOperationException("Lists other than lists of ints and floats");
+        }
+        return t;
+    }
+
+    /**
+     * @return A node computing a list index or slice bound, which has to be an int, as a long.
+     */
+    private LongNode index(Expr e) {
+        ValueType t = types.typeOf(e);
+        if (!t.isIntegral() && t != ValueType.BOOLEAN) {
+            throw new IllegalArgumentException("List indices must be integers, not " + t.pythonName());
+        }
+        return longValue(e, ValueType.LONG);
+    }
+
+    /**
+     * @return A node concatenating the string conversions of the parts. Parts that are string
+     *         concatenations themselves are flattened, which gives the same string.
+     */
+    private StringNode concatenation(List<Expr> parts) {
+        List<StringNode> nodes = new ArrayList<>();
+        for (Expr part : parts) {
+            flatten(part, nodes);
+        }
+        StringNode[] pieces = nodes.toArray(new StringNode[0]);
+        return f -> {
+            StringBuilder sb = new StringBuilder();
+            for (StringNode piece : pieces) {
+                sb.append(piece.eval(f));
+            }
+            return sb.toString();
+        };
+    }
+
+    private void flatten(Expr e, List<StringNode> nodes) {
+        if (e instanceof Expr.Binary b && "+".equals(b.op()) && types.typeOf(e) == ValueType.STRING) {
+            flatten(b.left(), nodes);
+            flatten(b.right(), nodes);
+        } else {
+            nodes.add(text(e));
+        }
+    }
+
+    // --------------------- Helpers --------------------- //
+
+    private static LongNode wrapInt(LongNode v) {
+        return f -> (int) v.eval(f);
+    }
+
+    private static Expr single(Expr.Call c) {
+        if (c.args().size() != 1) {
+            throw new IllegalArgumentException(c.func() + "() expects exactly one argument");
+        }
+        return c.args().getFirst();
+    }
+
+    // Booleans and strings take part in arithmetic as ints, as in ExprEmitter.
+    private static ValueType numeric(ValueType t) {
+        return t == ValueType.BOOLEAN || t == ValueType.STRING ? ValueType.INT : t;
+    }
+
+    /**
+     * @return The variables an overflow in e should promote, as ExprEmitter names them.
+     */
+    private String site(Expr e) {
+        if (target != null) return target;
+        LinkedHashSet<String> names = new LinkedHashSet<>();
+        collectNames(e, names);
+        names.add(ExprEmitter.expressionSite(e));
+        return String.join(",", names);
+    }
+
+    private static void collectNames(Expr e, Set<String> names) {
+        switch (e) {
+            case Expr.Name n -> names.add(n.id());
+            case Expr.Unary u -> collectNames(u.operand(), names);
+            case Expr.Binary b -> {
+                collectNames(b.left(), names);
+                collectNames(b.right(), names);
+            }
+            case Expr.BoolOp b -> {
+                collectNames(b.left(), names);
+                collectNames(b.right(), names);
+            }
+            case Expr.Compare c -> c.operands().forEach(o -> collectNames(o, names));
+            case Expr.Call c -> c.args().forEach(a -> collectNames(a, names));
+            case Expr.Keyword k -> collectNames(k.value(), names);
+            case Expr.ListLiteral l -> l.elements().forEach(x -> collectNames(x, names));
+            case Expr.Index i -> {
+                collectNames(i.target(), names);
+                collectNames(i.index(), names);
+            }
+            case Expr.Slice l -> {
+                collectNames(l.target(), names);
+                for (Expr part : new Expr[]{l.lower(), l.upper(), l.step()}) {
+                    if (part != null) collectNames(part, names);
+                }
+            }
+            case Expr.Method m -> {
+                collectNames(m.target(), names);
+                m.args().forEach(a -> collectNames(a, names));
+            }
+            case Expr.Num n -> {
+            }
+            case Expr.Str s -> {
+            }
+            case Expr.Bool b -> {
+            }
+        }
+    }
+
+    // --------------------- Variables --------------------- //
+
+    /**
+     * @return The index of a variable's current Java variable in the array for its type.
+     */
+    private int slot(String var) {
+        String name = javaVar(var);
+        ValueType type = typeOf(var);
+        if (name == null || type == null) {
+            throw new UnsupportedOperationException("Variable " + var + " is never assigned");
+        }
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = switch (type) {
+                case INT, LONG -> longCount++;
+                case DOUBLE -> doubleCount++;
+                case BOOLEAN -> booleanCount++;
+                case STRING -> {
+                    stringSlots.add(objectCount);
+                    yield objectCount++;
+                }
+                // Lists start as null; the script assigns them before it reads them.
+                case INT_LIST, DOUBLE_LIST -> objectCount++;
+                case BIG -> throw new UnsupportedOperationException("BigInteger arithmetic");
+                case OBJECT, BOOLEAN_LIST, STRING_LIST, BIG_LIST, OBJECT_LIST -> throw new UnsupportedOperationException("Lists other than lists of ints and floats");
+            };
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    // The slot of a Java variable, for compiled loops.
+    private static int slotOf(HashMap<String, Integer> slots, String javaName) {
+        Integer slot = slots.get(javaName);
+        if (slot == null) {
+            throw new IllegalStateException("No slot for " + javaName);
+        }
+        return slot;
+    }
+
+    private ValueType typeOf(String var) {
+        return varTypes.computeIfAbsent(scoped(var), v -> inference.type(v, versions.getOrDefault(v, 0)));
+    }
+
+    private String javaVar(String var) {
+        return javaNames.computeIfAbsent(scoped(var), v -> inference.javaName(v, versions.getOrDefault(v, 0)));
+    }
+
+    // Inside a function, its variables are typed under their scoped names (see TypeInference).
+    private String scoped(String var) {
+        return function != null ? TypeInference.scoped(function.name(), var) : var;
+    }
+}
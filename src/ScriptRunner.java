@@ -0,0 +1,154 @@
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ScriptRunner runs Python scripts side by side in this JVM, each with its output captured.
+ * <pre>
+ *   try (ScriptRunner runner = new ScriptRunner()) {
+ *       for (ScriptRunner.Result r : runner.runAll(sources)) {
+ *           System.out.print(r.stdout());
+ *       }
+ *   }
+ * </pre>
+ * Runs do not share anything that could make them interfere: every run prints into its own
+ * buffer (see {@link ThreadOutput}), and compiled classes are hidden classes, which only share
+ * a definition when they have no static state (see {@link CompiledScript#entryPoint()}). Class
+ * names come from a hash of the script, so different scripts never collide, and hidden classes get
+ * a unique name when they are defined. Scripts that were already compiled are taken from the
+ * shared compilation cache.
+ */
+public class ScriptRunner implements AutoCloseable {
+
+    private final Executor executor;
+
+    // The executor to shut down on close, if this runner created it.
+    private final ExecutorService owned;
+
+    /**
+     * The outcome of one run.
+     * @param stdout      What the script printed.
+     * @param stderr      Translation, compilation and runtime errors.
+     * @param exitStatus  0 if the script ran to completion, 1 otherwise.
+     * @param queuedNanos Time from submission until the run started.
+     * @param runNanos    Time the run took: translation, compilation and execution.
+     * @param metrics     The time and sizes of the phases of the run, or null if it did not start.
+     */
+    public record Result(String stdout, String stderr, int exitStatus, long queuedNanos, long runNanos,
+                         Metrics metrics) {
+    }
+
+    /**
+     * Creates a runner with one thread per core.
+     */
+    public ScriptRunner() {
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread t = new Thread(r, "script-runner");
+            t.setDaemon(true);
+            return t;
+        });
+        this.executor = pool;
+        this.owned = pool;
+    }
+
+    /**
+     * Creates a runner that runs scripts on the given executor, e.g. a virtual-thread executor.
+     * The executor is not shut down by {@link #close()}.
+     */
+    public ScriptRunner(Executor executor) {
+        this.executor = executor;
+        this.owned = null;
+    }
+
+    /**
+     * Runs a script on the runner's executor. Cancelling the returned future stops the run at the
+     * next check of one of its loops, if loops are checked (-Dtranslator.cancellable=true or a limit,
+     * see {@link PyBudget}); a run that has not started yet does not start.
+     * @param pythonSource The raw Python source.
+     * @return The result, completed when the run is over.
+     */
+    public CompletableFuture<Result> submit(String pythonSource) {
+        long submitted = System.nanoTime();
+        PyBudget budget = Main.newBudget();
+        CompletableFuture<Result> result = CompletableFuture.supplyAsync(
+                () -> run(pythonSource, null, submitted, budget), executor);
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                budget.cancel();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Runs all scripts in parallel and waits for them.
+     * @param pythonSources The raw Python sources.
+     * @return The results, in the order of the sources.
+     */
+    public List<Result> runAll(List<String> pythonSources) {
+        List<CompletableFuture<Result>> runs = new ArrayList<>();
+        for (String source : pythonSources) {
+            runs.add(submit(source));
+        }
+        List<Result> results = new ArrayList<>();
+        for (CompletableFuture<Result> run : runs) {
+            results.add(run.join());
+        }
+        return results;
+    }
+
+    /**
+     * Runs a script on the calling thread.
+     * @param pythonSource The raw Python source.
+     * @return The result of the run.
+     */
+    public static Result run(String pythonSource) {
+        return run(pythonSource, null, System.nanoTime(), Main.newBudget());
+    }
+
+    /**
+     * Runs a script on the calling thread.
+     * @param pythonSource The raw Python source.
+     * @param name         The name of the script in its metrics, e.g. a file name.
+     * @return The result of the run.
+     */
+    public static Result run(String pythonSource, String name) {
+        return run(pythonSource, name, System.nanoTime(), Main.newBudget());
+    }
+
+    private static Result run(String pythonSource, String name, long submitted, PyBudget budget) {
+        Metrics metrics = new Metrics(name);
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        long start = System.nanoTime();
+        int status = 1;
+        OutputStream out = ThreadOutput.OUT.redirect(stdout);
+        OutputStream err = ThreadOutput.ERR.redirect(stderr);
+        try {
+            status = Main.runScript(pythonSource, false, metrics, budget);
+        } catch (RuntimeException | Error e) {
+            // Anything the script runner did not handle is reported as a failed run.
+            System.err.println("Internal error: " + e);
+            metrics.finish(1);
+        } finally {
+            ThreadOutput.OUT.redirect(out);
+            ThreadOutput.ERR.redirect(err);
+        }
+        long end = System.nanoTime();
+        return new Result(stdout.toString(StandardCharsets.UTF_8), stderr.toString(StandardCharsets.UTF_8),
+                status, start - submitted, end - start, metrics);
+    }
+
+    @Override
+    public void close() {
+        if (owned != null) {
+            owned.shutdown();
+        }
+    }
+}
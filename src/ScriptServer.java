@@ -0,0 +1,229 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScriptServer keeps one JVM running and executes the Python scripts sent to it, so requests
+ * after the first do not pay for JVM start-up, class loading and JIT warm-up. The compilation
+ * cache, the hot-loop compiler and the javac instance (with its file managers) are shared by all
+ * requests.
+ * <p>
+ * Requests come over a Unix domain socket, or over stdin when no socket path is given.
+ * Both use the same framing, with big-endian ints and UTF-8 text:
+ * <pre>
+ *   request:  int id, int length, source bytes
+ *   response: int id, int status, int length, stdout bytes, int length, stderr bytes
+ * </pre>
+ * A socket connection may send any number of requests; responses come back in the order the
+ * scripts finish, so they carry the id of their request. Status is 0 if the script ran to
+ * completion and 1 otherwise.
+ * <p>
+ * Every request runs on its own virtual thread, through {@link ScriptRunner#run(String, String)}.
+ * Its classes are hidden classes, which are unloaded once no request uses them any more. At most -Dtranslator.maxConcurrent scripts run at a time;
+ * further requests wait. With -Dtranslator.timeLimitMillis or -Dtranslator.iterationLimit a script
+ * whose loops run past the limit is stopped and fails (see {@link PyBudget}), so a runaway script
+ * cannot hold its slot forever. On shutdown (end of stdin, or SIGTERM/SIGINT) no new requests are
+ * accepted, connected clients can send no more requests, and the running ones get
+ * -Dtranslator.shutdownSeconds to finish; then they are interrupted, which stops scripts whose
+ * loops are checked.
+ * <p>
+ * With -Dtranslator.metrics every request's {@link Metrics} are reported as it finishes, and the
+ * {@link MetricsSummary} of all requests when the server shuts down.
+ */
+public class ScriptServer {
+
+    // Scripts running at the same time.
+    private static final int MAX_CONCURRENT = Integer.getInteger("translator.maxConcurrent",
+            Runtime.getRuntime().availableProcessors());
+
+    // How long shutdown waits for running scripts.
+    private static final long SHUTDOWN_SECONDS = Long.getLong("translator.shutdownSeconds", 30);
+
+    // Requests larger than this are rejected instead of read.
+    private static final int MAX_SOURCE_BYTES = Integer.getInteger("translator.maxSourceBytes", 16 * 1024 * 1024);
+
+    private final ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor();
+    private final Semaphore slots = new Semaphore(MAX_CONCURRENT);
+    private final MetricsSummary summary = new MetricsSummary();
+    private volatile boolean stopping = false;
+
+    // Open socket connections, whose reading ends are closed on shutdown.
+    private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Starts the server.
+     * @param args The path of the Unix domain socket to listen on, or nothing to read requests from stdin.
+     */
+    public static void main(String[] args) {
+        ScriptServer server = new ScriptServer();
+        try {
+            if (args.length > 0) {
+                server.listen(Path.of(args[0]));
+            } else {
+                server.serve(System.in, new DataOutputStream(System.out));
+                server.shutdown();
+            }
+        } catch (IOException e) {
+            System.err.println("Server error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Accepts connections on a Unix domain socket until the JVM is shut down.
+     * @param socket The path of the socket file. A stale file from an earlier server is replaced.
+     * @throws IOException If the socket cannot be opened.
+     */
+    public void listen(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        channel.bind(UnixDomainSocketAddress.of(socket));
+
+        // On SIGTERM/SIGINT stop accepting, let the running scripts finish and remove the socket file.
+        Thread acceptor = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            stopping = true;
+            try {
+                channel.close();
+                acceptor.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_SECONDS));
+                Files.deleteIfExists(socket);
+            } catch (IOException | InterruptedException e) {
+                System.err.println("Error during shutdown: " + e.getMessage());
+            }
+        }));
+        System.err.println("Listening on " + socket);
+
+        while (!stopping) {
+            SocketChannel connection;
+            try {
+                connection = channel.accept();
+            } catch (IOException e) {
+                // The channel was closed by the shutdown hook.
+                break;
+            }
+            connections.add(connection);
+            requests.execute(() -> {
+                try (connection) {
+                    serve(Channels.newInputStream(connection),
+                            new DataOutputStream(Channels.newOutputStream(connection)));
+                } catch (IOException e) {
+                    System.err.println("Connection error: " + e.getMessage());
+                } finally {
+                    connections.remove(connection);
+                }
+            });
+        }
+        shutdown();
+    }
+
+    /**
+     * Reads requests from one client until it closes its end, and runs each on a virtual thread.
+     * Returns once the responses to all of them have been written.
+     */
+    void serve(InputStream input, DataOutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        // The scripts of this client; waiting for them before returning keeps the connection open.
+        try (ExecutorService client = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (!stopping) {
+                int id;
+                try {
+                    id = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0 || length > MAX_SOURCE_BYTES) {
+                    respond(output, id, 1, new byte[0],
+                            ("Request too large: " + length + " bytes\n").getBytes(StandardCharsets.UTF_8));
+                    break;
+                }
+                byte[] source = new byte[length];
+                in.readFully(source);
+                client.execute(() -> execute(id, new String(source, StandardCharsets.UTF_8), output));
+            }
+        }
+    }
+
+    /**
+     * Runs one script once a slot is free and writes its response.
+     */
+    private void execute(int id, String source, DataOutputStream output) {
+        ScriptRunner.Result result;
+        try {
+            slots.acquire();
+            try {
+                result = ScriptRunner.run(source, "request " + id);
+            } finally {
+                slots.release();
+            }
+        } catch (InterruptedException e) {
+            result = new ScriptRunner.Result("", "Interrupted\n", 1, 0, 0, null);
+        }
+        if (result.metrics() != null) {
+            summary.add(result.metrics());
+            Metrics.report(result.metrics().toJson());
+        }
+        try {
+            respond(output, id, result.exitStatus(), result.stdout().getBytes(StandardCharsets.UTF_8),
+                    result.stderr().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.err.println("Error writing response " + id + ": " + e.getMessage());
+        }
+    }
+
+    private static void respond(DataOutputStream output, int id, int status, byte[] stdout, byte[] stderr)
+            throws IOException {
+        // Scripts of one client finish on different threads; each response is written as a whole.
+        synchronized (output) {
+            output.writeInt(id);
+            output.writeInt(status);
+            output.writeInt(stdout.length);
+            output.write(stdout);
+            output.writeInt(stderr.length);
+            output.write(stderr);
+            output.flush();
+        }
+    }
+
+    /**
+     * Stops taking connections and requests, and waits for the running scripts to finish.
+     */
+    public void shutdown() {
+        stopping = true;
+        // Clients waiting between requests would keep their connection open; ending its input
+        // makes them read end-of-stream. Responses to their running scripts are still written.
+        for (SocketChannel connection : connections) {
+            try {
+                connection.shutdownInput();
+            } catch (IOException e) {
+                // The client has gone already.
+            }
+        }
+        requests.shutdown();
+        try {
+            if (!requests.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                System.err.println("Shutting down with scripts still running");
+                requests.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            requests.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        Metrics.report(summary.toJson());
+    }
+}
@@ -0,0 +1,202 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScriptWatcher runs a script, and runs it again every time its file is saved ("--watch file").
+ * <p>
+ * Work from the previous version is reused where the script did not change:
+ * <ul>
+ *   <li>The new file is compared with the previous one line by line. The lines between the
+ *       unchanged start and the unchanged end of the file are lexed again; the other lines keep
+ *       their tokens, renumbered if lines were inserted or removed.</li>
+ *   <li>The converter carries on from the last checkpoint before the first top-level statement
+ *       that changed, with the Java code emitted before it (see
+ *       {@link PythonToJavaConverter#convert(PythonToJavaConverter)}).</li>
+ *   <li>The script is compiled and run again only if its Java code changed: saving a file after
+ *       editing only comments runs nothing. The code records the line of every statement, for
+ *       errors, so adding or removing lines before a statement does change it.</li>
+ * </ul>
+ * The saving is limited to lexing the unchanged lines and emitting the unchanged top-level
+ * statements at the start of the script. Types are inferred over the whole script, so every
+ * version is still built into a statement tree, optimized and typed as a whole, however small the
+ * change; a change that changes the types of variables is converted from the start.
+ * <p>
+ * Runs are the ones of {@link Main}, with its options; -Dtranslator.timeLimitMillis stops a run
+ * that loops forever, so that the next save is picked up.
+ */
+public class ScriptWatcher {
+
+    // Editors write a file in several steps; a change is handled once no event came for this long.
+    private static final long SETTLE_MILLIS = Long.getLong("translator.watchSettleMillis", 50);
+
+    private final Path file;
+
+    // The previous version: its lines, the tokens of each line (none for blank lines), and the
+    // converter and Java code of the last version that was translated.
+    private List<String> sourceLines = List.of();
+    private List<List<Interpreter.Token>> lineTokens = List.of();
+    private PythonToJavaConverter converter;
+    private String methods;
+    private String javaCode;
+
+    /**
+     * @param file The Python script to watch.
+     */
+    public ScriptWatcher(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * Watches the script named on the command line until the JVM is stopped.
+     * @param args The path of the script.
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: --watch <file>");
+            return;
+        }
+        try {
+            new ScriptWatcher(Path.of(args[0])).watch();
+        } catch (IOException | ClosedWatchServiceException e) {
+            System.err.println("Watch error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the script, then runs it again after every change, until the thread is interrupted.
+     * @throws IOException If the script's directory cannot be watched.
+     * @throws InterruptedException If the thread is interrupted while waiting for a change.
+     */
+    public void watch() throws IOException, InterruptedException {
+        // Files cannot be watched themselves; their directory is, for events naming the file.
+        Path directory = file.toAbsolutePath().getParent();
+        try (WatchService watcher = directory.getFileSystem().newWatchService()) {
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            update();
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                do {
+                    changed |= namesFile(key);
+                    if (!key.reset()) {
+                        System.err.println(directory + " can no longer be watched");
+                        return;
+                    }
+                    key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                if (changed) {
+                    update();
+                }
+            }
+        }
+    }
+
+    // Whether the events of the key are about the watched file. Lost events may have been.
+    private boolean namesFile(WatchKey key) {
+        boolean names = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            names |= event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context());
+        }
+        return names;
+    }
+
+    /**
+     * Translates the current version of the script and runs it if its Java code changed.
+     */
+    public void update() {
+        String source;
+        try {
+            source = Files.readString(file);
+        } catch (IOException e) {
+            System.err.println("Error reading " + file + ": " + e.getMessage());
+            return;
+        }
+        Metrics metrics = new Metrics(file.toString());
+        Main.Translation translation = translate(source, metrics);
+        if (translation != null) {
+            Main.runScript(source, translation, false, metrics, Main.newBudget());
+            Metrics.report(metrics.toJson());
+        }
+    }
+
+    /**
+     * Lexes the lines that changed since the previous version and converts the script from the
+     * first top-level statement that changed.
+     * @return The translation, or null if it failed or its Java code is the same as the previous one's.
+     */
+    Main.Translation translate(String source, Metrics metrics) {
+        // 1) Lex the lines between the lines the two versions start and end with.
+        Metrics.Span lex = metrics.start(Metrics.Phase.LEX);
+        List<String> lines = Arrays.asList(source.split("\n"));
+        int first = 0;
+        while (first < lines.size() && first < sourceLines.size() && lines.get(first).equals(sourceLines.get(first))) {
+            first++;
+        }
+        int same = 0;
+        while (same < lines.size() - first && same < sourceLines.size() - first
+                && lines.get(lines.size() - 1 - same).equals(sourceLines.get(sourceLines.size() - 1 - same))) {
+            same++;
+        }
+        int end = lines.size() - same;
+        int shift = lines.size() - sourceLines.size();
+
+        List<List<Interpreter.Token>> tokens = new ArrayList<>(lines.size());
+        tokens.addAll(lineTokens.subList(0, first));
+        for (int i = first; i < end; i++) {
+            tokens.add(Interpreter.lexLine(lines.get(i), i + 1));
+        }
+        for (List<Interpreter.Token> line : lineTokens.subList(lineTokens.size() - same, lineTokens.size())) {
+            for (Interpreter.Token t : line) {
+                t.line += shift;
+            }
+            tokens.add(line);
+        }
+        sourceLines = lines;
+        lineTokens = tokens;
+        List<List<Interpreter.Token>> code = tokens.stream().filter(line -> !line.isEmpty()).toList();
+        lex.end();
+        metrics.translated(source, code);
+
+        // 2) Convert from the first top-level statement that changed.
+        PythonToJavaConverter next = Main.newConverter(code);
+        String nextCode;
+        Metrics.Span convert = metrics.start(Metrics.Phase.CONVERT);
+        try {
+            nextCode = next.convert(converter);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Translation failed: " + e.getMessage());
+            return null;
+        } finally {
+            convert.end();
+        }
+        metrics.converted(nextCode, next.methods());
+
+        String from = next.resumedAt() == 0 ? "the start"
+                : "line " + next.statementLine(next.resumedAt()) + " (statement " + (next.resumedAt() + 1)
+                        + " of " + next.statementCount() + ")";
+        System.err.println(file + ": lexed " + (end - first) + " of " + lines.size() + " lines again, converted from " + from);
+
+        // 3) Run the script only if its Java code changed.
+        boolean changed = !nextCode.equals(javaCode) || !next.methods().equals(methods);
+        converter = next;
+        methods = next.methods();
+        javaCode = nextCode;
+        if (!changed) {
+            System.err.println(file + ": the Java code did not change, the script is not run again");
+            return null;
+        }
+        return new Main.Translation(next, nextCode);
+    }
+}
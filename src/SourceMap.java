@@ -0,0 +1,295 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * SourceMap maps the lines of a script's Java translation back to the Python lines they were
+ * translated from, so that errors and stack traces point at the script rather than at the
+ * generated class. Translated classes carry the map themselves: their LineNumberTable holds
+ * Python lines and their SourceFile is {@link #SOURCE_FILE}, so a stack trace reads
+ * <pre>
+ *   at TranslatedJavaCode_3f2a.main(script.py:12)
+ * </pre>
+ * {@link BytecodeGenerator} writes the Python lines directly; the classes javac compiles from the
+ * Java source are rewritten by {@link #apply(byte[])}.
+ */
+public final class SourceMap {
+
+    /**
+     * The SourceFile attribute of translated classes.
+     */
+    public static final String SOURCE_FILE = "script.py";
+
+    // Class file constant pool tags, for skipping over the pool.
+    private static final int UTF8 = 1, LONG = 5, DOUBLE = 6, METHOD_HANDLE = 15;
+
+    // pythonLines[l] is the Python line of Java line l (counting from 1); index 0 is unused.
+    private final int[] pythonLines;
+
+    /**
+     * @param pythonLines The Python line of each Java line, indexed by the Java line (counting
+     *                    from 1), or 0 where a Java line has none. Such a line gets the Python
+     *                    line of the next Java line that has one: the class and method headers
+     *                    belong to the code they open. Trailing lines get the last Python line.
+     */
+    public SourceMap(int[] pythonLines) {
+        this.pythonLines = Arrays.copyOf(pythonLines, pythonLines.length);
+        int next = 0;
+        for (int i = this.pythonLines.length - 1; i > 0; i--) {
+            if (this.pythonLines[i] == 0) {
+                this.pythonLines[i] = next;
+            } else {
+                next = this.pythonLines[i];
+            }
+        }
+        int last = 0;
+        for (int i = 1; i < this.pythonLines.length; i++) {
+            if (this.pythonLines[i] == 0) {
+                this.pythonLines[i] = last;
+            } else {
+                last = this.pythonLines[i];
+            }
+        }
+    }
+
+    /**
+     * @return The Python line the given Java line was translated from, or 0 if it is not known.
+     */
+    public int pythonLine(int javaLine) {
+        if (javaLine <= 0 || pythonLines.length <= 1) {
+            return 0;
+        }
+        return pythonLines[Math.min(javaLine, pythonLines.length - 1)];
+    }
+
+    /**
+     * @return The Python line of the innermost frame of translated code in the exception's stack
+     *         trace, or 0 if there is none (e.g. the script ran in the interpreter).
+     */
+    public static int pythonLine(Throwable e) {
+        for (StackTraceElement frame : e.getStackTrace()) {
+            if (SOURCE_FILE.equals(frame.getFileName()) && frame.getLineNumber() > 0) {
+                return frame.getLineNumber();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Puts the given Python line on top of the stack trace of e, where {@link #pythonLine(Throwable)}
+     * finds it as in a stack trace of visible translated code, unless a function that was called
+     * has put its own line there already. The interpreter calls this with the line of the
+     * instruction that failed. Translated code, whose frames are left out of stack traces when
+     * it is a hidden class, calls it from a handler around every method with the line of the
+     * statement that was running, which the method keeps in its local line$.
+     * @param function The function that was running, or main.
+     * @param line     The Python line, or 0 if it is not known.
+     */
+    public static void locate(Throwable e, String function, int line) {
+        if (line > 0 && pythonLine(e) == 0) {
+            StackTraceElement[] trace = e.getStackTrace();
+            StackTraceElement[] located = new StackTraceElement[trace.length + 1];
+            located[0] = new StackTraceElement("script", function, SOURCE_FILE, line);
+            System.arraycopy(trace, 0, located, 1, trace.length);
+            e.setStackTrace(located);
+        }
+    }
+
+    // --------------------- Rewriting class files --------------------- //
+
+    /**
+     * Rewrites a class file compiled from the translation's Java source: every LineNumberTable
+     * entry gets the Python line of its Java line, and the SourceFile becomes {@link #SOURCE_FILE}.
+     * Nothing else changes; the code and the constant pool indexes it uses stay the same.
+     * @param classFile The class file javac produced.
+     * @return The rewritten class file.
+     */
+    public byte[] apply(byte[] classFile) {
+        ByteBuffer in = ByteBuffer.wrap(classFile);
+        in.position(8);
+        int poolCount = in.getShort() & 0xFFFF;
+        String[] utf8 = new String[poolCount];
+        for (int i = 1; i < poolCount; i++) {
+            int tag = in.get();
+            switch (tag) {
+                case UTF8 -> {
+                    int length = in.getShort() & 0xFFFF;
+                    utf8[i] = new String(classFile, in.position(), length, StandardCharsets.UTF_8);
+                    in.position(in.position() + length);
+                }
+                case LONG, DOUBLE -> {
+                    in.position(in.position() + 8);
+                    i++;
+                }
+                case METHOD_HANDLE -> in.position(in.position() + 3);
+                // Class, String, MethodType, Module and Package hold one index.
+                case 7, 8, 16, 19, 20 -> in.position(in.position() + 2);
+                // Integer, Float, the member references, NameAndType, Dynamic and InvokeDynamic hold four bytes.
+                case 3, 4, 9, 10, 11, 12, 17, 18 -> in.position(in.position() + 4);
+                default -> throw new IllegalArgumentException("Unknown constant pool tag " + tag);
+            }
+        }
+        int poolEnd = in.position();
+
+        // Line numbers are patched in place, in a copy.
+        byte[] out = classFile.clone();
+        ByteBuffer patched = ByteBuffer.wrap(out);
+        in.position(in.position() + 6);
+        int interfaces = in.getShort() & 0xFFFF;
+        in.position(in.position() + 2 * interfaces);
+        for (int members = 0; members < 2; members++) {
+            int count = in.getShort() & 0xFFFF;
+            for (int m = 0; m < count; m++) {
+                in.position(in.position() + 6);
+                int attributes = in.getShort() & 0xFFFF;
+                for (int a = 0; a < attributes; a++) {
+                    String name = utf8[in.getShort() & 0xFFFF];
+                    int length = in.getInt();
+                    int end = in.position() + length;
+                    if ("Code".equals(name)) {
+                        remapCode(in, patched, utf8);
+                    }
+                    in.position(end);
+                }
+            }
+        }
+
+        // The SourceFile attribute points at a new Utf8 constant, added at the end of the pool.
+        int sourceFileAt = -1;
+        int attributes = in.getShort() & 0xFFFF;
+        for (int a = 0; a < attributes; a++) {
+            String name = utf8[in.getShort() & 0xFFFF];
+            int length = in.getInt();
+            if ("SourceFile".equals(name)) {
+                sourceFileAt = in.position();
+            }
+            in.position(in.position() + length);
+        }
+        if (sourceFileAt < 0) {
+            return out;
+        }
+        byte[] sourceFile = SOURCE_FILE.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer result = ByteBuffer.allocate(out.length + 3 + sourceFile.length);
+        result.put(out, 0, 8).putShort((short) (poolCount + 1)).put(out, 10, poolEnd - 10);
+        result.put((byte) UTF8).putShort((short) sourceFile.length).put(sourceFile);
+        int shift = result.position() - poolEnd;
+        result.put(out, poolEnd, out.length - poolEnd);
+        result.putShort(sourceFileAt + shift, (short) poolCount);
+        return result.array();
+    }
+
+    // Reads a Code attribute from in, just after its length, and patches its LineNumberTable in out.
+    private void remapCode(ByteBuffer in, ByteBuffer out, String[] utf8) {
+        in.position(in.position() + 4);
+        int codeLength = in.getInt();
+        in.position(in.position() + codeLength);
+        int handlers = in.getShort() & 0xFFFF;
+        in.position(in.position() + 8 * handlers);
+        int attributes = in.getShort() & 0xFFFF;
+        for (int a = 0; a < attributes; a++) {
+            String name = utf8[in.getShort() & 0xFFFF];
+            int length = in.getInt();
+            int end = in.position() + length;
+            if ("LineNumberTable".equals(name)) {
+                int entries = in.getShort() & 0xFFFF;
+                for (int e = 0; e < entries; e++) {
+                    // Each entry is a start pc and a line.
+                    int at = in.position() + 2;
+                    out.putShort(at, (short) pythonLine(in.getShort(at) & 0xFFFF));
+                    in.position(at + 2);
+                }
+            }
+            in.position(end);
+        }
+    }
+
+    // --------------------- Recording --------------------- //
+
+    /**
+     * The Python line of each line of a Java text while it is emitted. The emitter calls
+     * {@link #mark} when it starts the code of a statement; every Java line from there on
+     * belongs to that statement's Python line, until the next mark.
+     */
+    static final class Lines {
+        // The text, which the emitter appends to.
+        private final StringBuilder buffer;
+        // python[l] is the Python line of Java line l of the text (counting from 0), or 0 if it was not marked.
+        private int[] python = new int[64];
+        // Newlines counted so far, and how much of the buffer they were counted in.
+        private int count;
+        private int scanned;
+
+        Lines(StringBuilder buffer) {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Marks where the code of a statement starts: at the end of the buffer, after a newline.
+         */
+        void mark(int pythonLine) {
+            scan(buffer.length());
+            if (pythonLine > 0) {
+                set(count, pythonLine);
+            }
+        }
+
+        /**
+         * Takes over the lines of another text, which was just appended to the buffer.
+         */
+        void appended(Lines other) {
+            scan(buffer.length() - other.buffer.length());
+            int[] lines = other.toArray();
+            for (int i = 0; i < lines.length; i++) {
+                if (lines[i] > 0) {
+                    set(count + i, lines[i]);
+                }
+            }
+            count += lines.length;
+            scanned = buffer.length();
+        }
+
+        /**
+         * @param buffer This buffer, or one that holds the text this one held when it was copied.
+         * @return A copy of the lines of the text so far, for the given buffer.
+         */
+        Lines copy(StringBuilder buffer) {
+            scan(buffer.length());
+            Lines copy = new Lines(buffer);
+            copy.python = python.clone();
+            copy.count = count;
+            copy.scanned = scanned;
+            return copy;
+        }
+
+        /**
+         * @return The Python line of every Java line of the text. Lines before the first mark are
+         *         0; every other line has the Python line of the last mark before it.
+         */
+        int[] toArray() {
+            scan(buffer.length());
+            int[] lines = Arrays.copyOf(python, count);
+            for (int i = 1; i < lines.length; i++) {
+                if (lines[i] == 0) {
+                    lines[i] = lines[i - 1];
+                }
+            }
+            return lines;
+        }
+
+        private void scan(int end) {
+            for (int i = scanned; i < end; i++) {
+                if (buffer.charAt(i) == '\n') {
+                    count++;
+                }
+            }
+            scanned = Math.max(scanned, end);
+        }
+
+        private void set(int javaLine, int pythonLine) {
+            if (javaLine >= python.length) {
+                python = Arrays.copyOf(python, Math.max(python.length * 2, javaLine + 1));
+            }
+            python[javaLine] = pythonLine;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.util.List;
+
+/**
+ * Stmt is the statement level of the intermediate representation built by {@link IRBuilder}.
+ * A script is a list of statements; blocks are nested lists. Code is emitted from this form
+ * after {@link IROptimizer} has rewritten it.
+ */
+public sealed interface Stmt {
+
+    /**
+     * @return The line of the Python source the statement starts on (1 for the first line), or 0
+     *         if it has none. A statement the optimizer adds has the line of the one it came from.
+     */
+    int line();
+
+    /**
+     * @return The last line of the statements of a block, nested ones included; 0 if it is empty.
+     */
+    static int lastLine(List<Stmt> block) {
+        int last = 0;
+        for (Stmt s : block) {
+            int inner = switch (s) {
+                case If f -> Math.max(lastLine(f.body()), lastLine(f.orElse()));
+                case For f -> lastLine(f.body());
+                case ForEach f -> lastLine(f.body());
+                case While w -> lastLine(w.body());
+                case Def d -> lastLine(d.body());
+                default -> 0;
+            };
+            last = Math.max(last, Math.max(s.line(), inner));
+        }
+        return last;
+    }
+
+    /**
+     * @return True if a statement of the block, nested ones included, is a return.
+     */
+    static boolean returns(List<Stmt> block) {
+        for (Stmt s : block) {
+            boolean found = switch (s) {
+                case If f -> returns(f.body()) || returns(f.orElse());
+                case For f -> returns(f.body());
+                case ForEach f -> returns(f.body());
+                case While w -> returns(w.body());
+                case Return r -> true;
+                default -> false;
+            };
+            if (found) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * target = value. Augmented assignments (x += e) are lowered to x = x + e.
+     */
+    record Assign(String target, Expr value, int line) implements Stmt {
+    }
+
+    /**
+     * target[index] = value. Augmented assignments (a[i] += e) are lowered to a[i] = a[i] + e.
+     */
+    record SetItem(String target, Expr index, Expr value, int line) implements Stmt {
+    }
+
+    /**
+     * A value computed once and never reassigned, such as a hoisted loop bound.
+     * It is emitted as a final local.
+     */
+    record Hoisted(String name, Expr value, int line) implements Stmt {
+    }
+
+    /**
+     * An expression evaluated for its effect, e.g. print(x).
+     */
+    record ExprStmt(Expr expr, int line) implements Stmt {
+    }
+
+    /**
+     * if/else. An elif chain is an If whose orElse holds just the next If.
+     */
+    record If(Expr condition, List<Stmt> body, List<Stmt> orElse, int line) implements Stmt {
+
+        /**
+         * @return The If that orElse consists of, which is emitted as "else if", or null.
+         */
+        public If elif() {
+            return orElse.size() == 1 && orElse.getFirst() instanceof If next ? next : null;
+        }
+    }
+
+    /**
+     * for var in range(start, end, step).
+     */
+    record For(String var, Expr start, Expr end, Expr step, List<Stmt> body, int line) implements Stmt {
+
+        /**
+         * @return 1 if the step is a positive constant, -1 if it is a negative constant, 0 if
+         *         its sign is only known when the loop runs or it is 0, which range() rejects
+         *         then. The loop runs while var &lt; end for a positive step, and while
+         *         var &gt; end for a negative one.
+         */
+        public int stepSign() {
+            Expr s = step;
+            int sign = 1;
+            if (s instanceof Expr.Unary u && "-".equals(u.op())) {
+                sign = -1;
+                s = u.operand();
+            }
+            if (!(s instanceof Expr.Num n)) {
+                return 0;
+            }
+            return (int) Math.signum(Double.parseDouble(n.text().replace("_", ""))) * sign;
+        }
+    }
+
+    /**
+     * for var in iterable, over the elements of a list.
+     */
+    record ForEach(String var, Expr iterable, List<Stmt> body, int line) implements Stmt {
+    }
+
+    record While(Expr condition, List<Stmt> body, int line) implements Stmt {
+    }
+
+    record Break(int line) implements Stmt {
+    }
+
+    record Continue(int line) implements Stmt {
+    }
+
+    /**
+     * def name(params): body, at the top level of the script. A function decorated with
+     * functools.lru_cache or functools.cache is memoized.
+     */
+    record Def(String name, List<String> params, List<Stmt> body, boolean memoized, int line) implements Stmt {
+    }
+
+    /**
+     * return value, or a bare return (value is null).
+     */
+    record Return(Expr value, int line) implements Stmt {
+    }
+}
@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.function.Consumer;
+
+/**
+ * ThreadOutput replaces System.out and System.err with print streams that write to a stream
+ * chosen per thread. Scripts print through System.out, so this is what lets several scripts
+ * run at the same time in one JVM (see ScriptServer) without their output getting mixed.
+ * <p>
+ * A thread that has not redirected its output writes to the original System.out or System.err.
+ */
+public final class ThreadOutput extends PrintStream {
+
+    // Installed the first time either is used.
+    public static final ThreadOutput OUT = install(System.out, System::setOut);
+    public static final ThreadOutput ERR = install(System.err, System::setErr);
+
+    private final Router router;
+
+    private ThreadOutput(Router router) {
+        super(router, true);
+        this.router = router;
+    }
+
+    private static ThreadOutput install(PrintStream original, Consumer<PrintStream> setter) {
+        ThreadOutput output = new ThreadOutput(new Router(original));
+        setter.accept(output);
+        return output;
+    }
+
+    /**
+     * @return The stream the current thread's output goes to.
+     */
+    public OutputStream target() {
+        OutputStream target = router.target.get();
+        return target != null ? target : router.fallback;
+    }
+
+    /**
+     * Sends the current thread's output to target until it is redirected again.
+     * @param target The stream to write to, or null for the original stream.
+     * @return The stream the thread wrote to before, to be passed back here when the redirection ends.
+     */
+    public OutputStream redirect(OutputStream target) {
+        flush();
+        OutputStream previous = router.target.get();
+        if (target == null) {
+            router.target.remove();
+        } else {
+            router.target.set(target);
+        }
+        return previous;
+    }
+
+    /**
+     * Writes every byte to the current thread's target.
+     */
+    private static class Router extends OutputStream {
+
+        private final PrintStream fallback;
+        private final ThreadLocal<OutputStream> target = new ThreadLocal<>();
+
+        Router(PrintStream fallback) {
+            this.fallback = fallback;
+        }
+
+        private OutputStream current() {
+            OutputStream out = target.get();
+            return out != null ? out : fallback;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            current().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            current().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            current().flush();
+        }
+    }
+}
@@ -0,0 +1,313 @@
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * TokenBuffer is a compact, allocation-free representation of lexed Python code.
+ * Instead of one Token object (and one String) per token, it keeps parallel primitive
+ * arrays of kind, symbol, start offset, length and indent that all point into the
+ * original char buffer. Keywords, separators and operators map to the preallocated
+ * constants in {@link TokenTable}, so their text never has to be copied.
+ * <p>
+ * {@link IRBuilder} parses the buffer through {@link #tokenLines()}, which reads the arrays
+ * directly. {@link #lines()} and {@link #line(int)} give a List-of-Token view, so code written
+ * against {@link Interpreter.Token} keeps working on top of a buffer.
+ */
+public class TokenBuffer implements Interpreter.TokenSink {
+
+    private static final Interpreter.Kind[] KINDS = Interpreter.Kind.values();
+
+    private final char[] source;
+
+    // kind[i] is the ordinal of the token's Interpreter.Kind; symbol[i] is its
+    // TokenTable id for keywords, separators and operators, or -1.
+    private int[] kind = new int[64];
+    private int[] symbol = new int[64];
+    private int[] start = new int[64];
+    private int[] length = new int[64];
+    private int[] indent = new int[64];
+    private int size = 0;
+
+    // lineStart[i] is the index of the first token of line i; lineStart[lineCount] == size.
+    // sourceLine[i] is the line of the source that line i was lexed from (blank lines are not recorded).
+    private int[] lineStart = new int[16];
+    private int[] sourceLine = new int[16];
+    private int lineCount = 0;
+    private int currentIndent = 0;
+    private int currentSourceLine = 0;
+
+    /**
+     * @param source The char buffer the token offsets point into. It is not copied.
+     */
+    public TokenBuffer(char[] source) {
+        this.source = source;
+    }
+
+    // --------------------- Building (used by the lexer) --------------------- //
+
+    /**
+     * Starts a new line; every token added until {@link #endLine()} gets this indent.
+     * @param sourceLine The line of the source, counting from 1.
+     */
+    void beginLine(int indent, int sourceLine) {
+        currentIndent = indent;
+        currentSourceLine = sourceLine;
+    }
+
+    /**
+     * Appends a token covering source[start, start + length) to the current line.
+     */
+    @Override
+    public void token(Interpreter.Kind tokenKind, int tokenSymbol, int tokenStart, int tokenLength) {
+        if (size == kind.length) {
+            int capacity = size * 2;
+            kind = Arrays.copyOf(kind, capacity);
+            symbol = Arrays.copyOf(symbol, capacity);
+            start = Arrays.copyOf(start, capacity);
+            length = Arrays.copyOf(length, capacity);
+            indent = Arrays.copyOf(indent, capacity);
+        }
+        kind[size] = tokenKind.ordinal();
+        symbol[size] = tokenSymbol;
+        start[size] = tokenStart;
+        length[size] = tokenLength;
+        indent[size] = currentIndent;
+        size++;
+    }
+
+    /**
+     * Marks the tokens added since the previous call as one line. Empty lines are not recorded.
+     */
+    void endLine() {
+        int first = lineCount == 0 ? 0 : lineStart[lineCount];
+        if (first == size) {
+            return;
+        }
+        if (lineCount + 2 > lineStart.length) {
+            lineStart = Arrays.copyOf(lineStart, lineStart.length * 2);
+            sourceLine = Arrays.copyOf(sourceLine, lineStart.length);
+        }
+        lineStart[lineCount] = first;
+        sourceLine[lineCount] = currentSourceLine;
+        lineCount++;
+        lineStart[lineCount] = size;
+    }
+
+    /**
+     * Appends the lines of another buffer over the same source, which was lexed from the text
+     * that follows this buffer's. Its source lines are numbered on from this buffer's.
+     */
+    void append(TokenBuffer next) {
+        int tokens = size + next.size;
+        if (tokens > kind.length) {
+            kind = Arrays.copyOf(kind, tokens);
+            symbol = Arrays.copyOf(symbol, tokens);
+            start = Arrays.copyOf(start, tokens);
+            length = Arrays.copyOf(length, tokens);
+            indent = Arrays.copyOf(indent, tokens);
+        }
+        System.arraycopy(next.kind, 0, kind, size, next.size);
+        System.arraycopy(next.symbol, 0, symbol, size, next.size);
+        System.arraycopy(next.start, 0, start, size, next.size);
+        System.arraycopy(next.length, 0, length, size, next.size);
+        System.arraycopy(next.indent, 0, indent, size, next.size);
+
+        int lines = lineCount + next.lineCount;
+        if (lines + 1 > lineStart.length) {
+            lineStart = Arrays.copyOf(lineStart, lines + 1);
+            sourceLine = Arrays.copyOf(sourceLine, lines + 1);
+        }
+        for (int i = 0; i < next.lineCount; i++) {
+            lineStart[lineCount + i] = size + next.lineStart[i];
+            sourceLine[lineCount + i] = currentSourceLine + next.sourceLine[i];
+        }
+        size = tokens;
+        lineCount = lines;
+        lineStart[lineCount] = size;
+        currentSourceLine += next.currentSourceLine;
+    }
+
+    // --------------------- Primitive access --------------------- //
+
+    public int size() {
+        return size;
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @return The index of the first token of the given line.
+     */
+    public int lineStart(int line) {
+        return lineStart[line];
+    }
+
+    /**
+     * @return The line of the source the given line was lexed from, counting from 1.
+     */
+    public int sourceLine(int line) {
+        return sourceLine[line];
+    }
+
+    /**
+     * @return The index one past the last token of the given line.
+     */
+    public int lineEnd(int line) {
+        return lineStart[line + 1];
+    }
+
+    public Interpreter.Kind kind(int token) {
+        return KINDS[kind[token]];
+    }
+
+    /**
+     * @return The token's TokenTable symbol id, or -1 if its text is a slice of the source.
+     */
+    public int symbol(int token) {
+        return symbol[token];
+    }
+
+    public int start(int token) {
+        return start[token];
+    }
+
+    public int length(int token) {
+        return length[token];
+    }
+
+    public int indent(int token) {
+        return indent[token];
+    }
+
+    /**
+     * Compares a token's text with the given string without materializing the token.
+     */
+    public boolean textEquals(int token, String text) {
+        if (length[token] != text.length()) return false;
+        for (int i = 0; i < text.length(); i++) {
+            if (source[start[token] + i] != text.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The token's text: the shared constant for fixed tokens, a new String otherwise.
+     */
+    public String text(int token) {
+        if (symbol[token] >= 0) return TokenTable.TEXT[symbol[token]];
+        return new String(source, start[token], length[token]);
+    }
+
+    // --------------------- Line view --------------------- //
+
+    /**
+     * @return A read-only view of the whole buffer as lines for {@link IRBuilder}. The lines
+     *         read the arrays; no Token objects are created.
+     */
+    public List<TokenLine> tokenLines() {
+        return new AbstractList<>() {
+            @Override
+            public TokenLine get(int index) {
+                return new Line(index);
+            }
+
+            @Override
+            public int size() {
+                return lineCount;
+            }
+        };
+    }
+
+    /**
+     * One line of the buffer; token i of the line is token lineStart[line] + i of the buffer.
+     */
+    private final class Line implements TokenLine {
+        private final int line;
+        private final int from;
+
+        Line(int line) {
+            this.line = line;
+            this.from = lineStart[line];
+        }
+
+        @Override
+        public int size() {
+            return lineStart[line + 1] - from;
+        }
+
+        @Override
+        public Interpreter.Kind kind(int token) {
+            return KINDS[kind[from + token]];
+        }
+
+        @Override
+        public String text(int token) {
+            return TokenBuffer.this.text(from + token);
+        }
+
+        @Override
+        public boolean is(int token, Interpreter.Kind tokenKind, String text) {
+            return kind[from + token] == tokenKind.ordinal() && textEquals(from + token, text);
+        }
+
+        @Override
+        public int indent() {
+            return indent[from];
+        }
+
+        @Override
+        public int line() {
+            return sourceLine[line];
+        }
+    }
+
+    // --------------------- Token view --------------------- //
+
+    /**
+     * @return A Token for the given index. Tokens are created on access and not cached.
+     */
+    public Interpreter.Token token(int index) {
+        return new Interpreter.Token(text(index), indent[index], KINDS[kind[index]]);
+    }
+
+    /**
+     * @return A read-only view of one line as a list of tokens.
+     */
+    public List<Interpreter.Token> line(int line) {
+        final int from = lineStart[line];
+        final int to = lineStart[line + 1];
+        return new AbstractList<>() {
+            @Override
+            public Interpreter.Token get(int index) {
+                Interpreter.Token token = token(from + index);
+                token.line = sourceLine[line];
+                return token;
+            }
+
+            @Override
+            public int size() {
+                return to - from;
+            }
+        };
+    }
+
+    /**
+     * @return A read-only view of the whole buffer as a list of token lines,
+     *         in the shape returned by {@link Interpreter#lexer(String)}.
+     */
+    public List<List<Interpreter.Token>> lines() {
+        return new AbstractList<>() {
+            @Override
+            public List<Interpreter.Token> get(int index) {
+                return line(index);
+            }
+
+            @Override
+            public int size() {
+                return lineCount;
+            }
+        };
+    }
+}
@@ -0,0 +1,84 @@
+import java.util.List;
+
+/**
+ * TokenLine is a read-only view of the tokens of one lexed line, which is what {@link IRBuilder}
+ * and {@link ExpressionParser} parse. Tokens are addressed by their index on the line.
+ * <p>
+ * {@link TokenBuffer} implements it over its arrays, so code lexed by
+ * {@link Interpreter#lexCompact(char[])} is parsed without a Token object per token;
+ * {@link #of(List)} wraps a line of {@link Interpreter.Token}s.
+ */
+public interface TokenLine {
+
+    /**
+     * @return The number of tokens on the line.
+     */
+    int size();
+
+    Interpreter.Kind kind(int token);
+
+    /**
+     * @return The token's text. Keywords, separators and operators share their text; other
+     *         tokens may get a new String on every call.
+     */
+    String text(int token);
+
+    /**
+     * @return True if the token is the given keyword, separator or operator.
+     */
+    boolean is(int token, Interpreter.Kind kind, String text);
+
+    /**
+     * @return The indentation level of the line.
+     */
+    int indent();
+
+    /**
+     * @return The line of the source the tokens are on, counting from 1; 0 if they were not lexed from a source.
+     */
+    int line();
+
+    /**
+     * @param tokens The tokens of a line, at least one.
+     * @return A view of the tokens.
+     */
+    static TokenLine of(List<Interpreter.Token> tokens) {
+        return new Tokens(tokens);
+    }
+
+    /**
+     * A line of Token objects, as returned by {@link Interpreter#lexer(String)}.
+     */
+    record Tokens(List<Interpreter.Token> tokens) implements TokenLine {
+
+        @Override
+        public int size() {
+            return tokens.size();
+        }
+
+        @Override
+        public Interpreter.Kind kind(int token) {
+            return tokens.get(token).kind;
+        }
+
+        @Override
+        public String text(int token) {
+            return tokens.get(token).value;
+        }
+
+        @Override
+        public boolean is(int token, Interpreter.Kind kind, String text) {
+            return tokens.get(token).is(kind, text);
+        }
+
+        @Override
+        public int indent() {
+            return tokens.getFirst().indentLevel;
+        }
+
+        @Override
+        public int line() {
+            return tokens.getFirst().line;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * TokenTable holds the preallocated text of every fixed token (keywords, separators
+ * and operators) and classifies raw characters against them without allocating.
+ * <p>
+ * Keywords are found through a perfect hash: a multiplier, found once by {@link #findSeed},
+ * puts every keyword in its own slot, so a lookup is one hash, one array read and one
+ * comparison. Operators are matched longest-first.
+ */
+public final class TokenTable {
+
+    // All fixed token texts. A token's symbol id is its index in this array.
+    static final String[] TEXT = {
+            // Python keywords.
+            "False", "None", "True", "and", "as", "assert", "async", "await", "break",
+            "class", "continue", "def", "del", "elif", "else", "except", "finally", "for",
+            "from", "global", "if", "import", "in", "is", "lambda", "nonlocal", "not",
+            "or", "pass", "raise", "return", "try", "while", "with", "yield",
+            // Separators (delimiters that are not operators).
+            "(", ")", "[", "]", "{", "}", ",", ":", ".", ";", "@",
+            // Operators, three-character ones first so that matching is longest-first.
+            "**=", "//=", ">>=", "<<=",
+            "==", "!=", "<=", ">=", "+=", "-=", "*=", "/=", "%=", "&=", "|=", "^=",
+            "**", "//", "->", "<<", ">>",
+            "+", "-", "*", "/", "%", "<", ">", "=", "&", "|", "^", "~"
+    };
+
+    static final int KEYWORD_COUNT = 35;
+    static final int SEPARATOR_END = KEYWORD_COUNT + 11;
+
+    // Perfect hash table over the keywords: slot -> symbol id, or -1. Its size, the smallest power
+    // of two that has room for the keywords, and the first multiplier findSeed finds for it
+    // (85597 * 0x9E3779B1); searching for them at startup took tens of milliseconds.
+    private static final int KEYWORD_BITS = 6;
+    private static final int KEYWORD_SEED = 0xDAEC234D;
+    private static final int KEYWORD_SHIFT = 32 - KEYWORD_BITS;
+    private static final int[] KEYWORD_SLOTS = buildSlots(KEYWORD_SEED, KEYWORD_SHIFT);
+
+    static {
+        // A new keyword needs a new multiplier: run with -ea to check it against the search.
+        if (KEYWORD_SLOTS == null) {
+            throw new ExceptionInInitializerError("Keywords collide under the multiplier; search again with findSeed");
+        }
+        assert findSeed(KEYWORD_BITS) == KEYWORD_SEED : "findSeed(" + KEYWORD_BITS + ") found another multiplier";
+    }
+
+    private TokenTable() {
+    }
+
+    /**
+     * Searches for a multiplier that puts every keyword in a slot of its own in a table of
+     * 2^bits slots.
+     * @return The first one found, or 0 if there is none.
+     */
+    static int findSeed(int bits) {
+        for (int seed = 1; seed < 1_000_000; seed += 2) {
+            if (buildSlots(seed * 0x9E3779B1, 32 - bits) != null) {
+                return seed * 0x9E3779B1;
+            }
+        }
+        return 0;
+    }
+
+    private static int[] buildSlots(int seed, int shift) {
+        int[] slots = new int[1 << (32 - shift)];
+        java.util.Arrays.fill(slots, -1);
+        for (int id = 0; id < KEYWORD_COUNT; id++) {
+            int slot = (TEXT[id].hashCode() * seed) >>> shift;
+            if (slots[slot] != -1) return null;
+            slots[slot] = id;
+        }
+        return slots;
+    }
+
+    /**
+     * Looks up a keyword.
+     * @return The keyword's symbol id, or -1 if text[start, start + length) is not a keyword.
+     */
+    static int keyword(char[] text, int start, int length) {
+        // Same hash as String.hashCode(), computed over the char range.
+        int h = 0;
+        for (int i = 0; i < length; i++) {
+            h = 31 * h + text[start + i];
+        }
+        int id = KEYWORD_SLOTS[(h * KEYWORD_SEED) >>> KEYWORD_SHIFT];
+        if (id < 0 || TEXT[id].length() != length) return -1;
+        for (int i = 0; i < length; i++) {
+            if (TEXT[id].charAt(i) != text[start + i]) return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Matches the longest separator or operator starting at text[pos], not reaching past end.
+     * @return Its symbol id, or -1 if no fixed token starts here.
+     */
+    static int punctuation(char[] text, int pos, int end) {
+        for (int id = KEYWORD_COUNT; id < TEXT.length; id++) {
+            String t = TEXT[id];
+            if (pos + t.length() > end) continue;
+            boolean match = true;
+            for (int i = 0; i < t.length() && match; i++) {
+                match = t.charAt(i) == text[pos + i];
+            }
+            if (match) {
+                // Separators are all one character, so checking them first never hides a longer operator.
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    static boolean isKeyword(int symbol) {
+        return symbol >= 0 && symbol < KEYWORD_COUNT;
+    }
+
+    static boolean isSeparator(int symbol) {
+        return symbol >= KEYWORD_COUNT && symbol < SEPARATOR_END;
+    }
+}
@@ -0,0 +1,785 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TypeInference runs over a whole script before any code is emitted and decides, for every
+ * variable, its Java type and the block where it has to be declared.
+ * <p>
+ * The analysis is flow-sensitive at the top level of the script: an assignment there that does
+ * not read the variable itself kills every earlier value, so it starts a new version of the
+ * variable. Each version is typed on its own, so reusing a name for an unrelated value later in
+ * the script does not widen the earlier uses. Versions of the same name that end up with the
+ * same type share one Java variable; a version with a different type gets its own
+ * (e.g. number and number_double).
+ * <p>
+ * Types come from the BOOLEAN &lt; INT &lt; LONG &lt; BIG &lt; DOUBLE lattice. All assignments to a version
+ * are joined, and the assignments are re-evaluated until nothing changes, so values flowing
+ * around loop back-edges and out of branches widen the type as needed. Each version ends up
+ * with the narrowest primitive type that holds every value it is given.
+ * <p>
+ * A Java variable is declared once, in the innermost block that contains every use of it. If
+ * that block can run more than once (it is inside a loop) and the variable may be read before
+ * it is written in that block, the declaration is moved out of the outermost such loop so the
+ * value survives between iterations.
+ * <p>
+ * Functions (def) are typed together with the script. Their variables are local to them and
+ * named "function.variable" here; a parameter is given the value of the argument at every call,
+ * and the function's return type is the join of everything it returns, so a recursive call
+ * simply refers to a type that is still being solved. Inside a function every variable has a
+ * single version.
+ * <p>
+ * A list is typed by its elements (see {@link ValueType}). Changing a list in place, with
+ * lst.append(x) or lst[i] = x, is typed as an assignment of the list with x added, which widens
+ * the element type as needed. Two variables that may refer to the same list object, because one
+ * was assigned from the other or passed as a function argument, get the same list type, so a
+ * change through one is seen through the other.
+ */
+public class TypeInference implements ExprEmitter.Functions {
+
+    /**
+     * A Java variable that has to be declared at the start of a block.
+     */
+    public record Declaration(String javaName, ValueType type) {
+    }
+
+    private final List<Stmt> program;
+    private final boolean exact;
+    private final Set<String> bigVariables;
+
+    // Block tree: block 0 is the script itself; every if/elif/else/for/while body gets the next id.
+    private final List<Integer> blockParent = new ArrayList<>();
+    private final List<Integer> blockDepth = new ArrayList<>();
+    private final List<Boolean> blockIsLoop = new ArrayList<>();
+
+    // The script's functions, the function being walked (null for the script itself), the names
+    // local to it (its parameters and every variable it assigns), and the functions that return a value.
+    private final HashMap<String, Stmt.Def> functions = new HashMap<>();
+    private Stmt.Def function;
+    private Set<String> locals;
+    private final HashSet<String> returnsValue = new HashSet<>();
+
+    // Current version of every name while walking, and the top-level statement where each new version starts.
+    private final HashMap<String, Integer> currentVersion = new HashMap<>();
+    private final HashMap<Integer, String> newVersionAt = new HashMap<>();
+
+    // Per-version facts ("name#version" -> info), in order of first appearance.
+    private final LinkedHashMap<String, VarInfo> versions = new LinkedHashMap<>();
+
+    // Versions that are assigned somewhere, parameters included.
+    private final HashSet<String> written = new HashSet<>();
+
+    // Every value assigned to a version, in program order. Names inside the values are versioned too.
+    private final List<String> assignedVars = new ArrayList<>();
+    private final List<Expr> assignedValues = new ArrayList<>();
+    private final HashSet<String> assignedSet = new HashSet<>();
+
+    // For versions last written by a top-level statement: the value written. Until a nested block
+    // writes the version again, a top-level read is known to see exactly this value.
+    private final HashMap<String, Expr> straightLine = new HashMap<>();
+
+    // Top-level reads of a version with a known value, by the name that stands for them in typed
+    // values ("x#0=3"), and the value known at each of them.
+    private final HashMap<String, Expr> knownReads = new HashMap<>();
+
+    // Pairs of versions that may refer to the same list.
+    private final List<String[]> aliases = new ArrayList<>();
+
+    // Types the values assigned while solving.
+    private ExprEmitter typer;
+
+    // Results: type of each version, Java variable of each version, and declaration points.
+    private final HashMap<String, ValueType> types = new HashMap<>();
+    private final HashMap<String, String> javaNames = new HashMap<>();
+    private final HashSet<String> inline = new HashSet<>();
+    private final HashMap<Integer, List<Declaration>> declarations = new HashMap<>();
+
+    /**
+     * What the walk learned about one version of a variable, or about one Java variable.
+     */
+    private static class VarInfo {
+        int lca = -1;              // innermost block containing every use
+        int firstBlock;            // block of the first use in program order
+        boolean firstIsWrite;      // whether that first use is an assignment
+    }
+
+    /**
+     * @param program      The script's statements, as built by {@link IRBuilder}.
+     * @param exact        True if integers are typed for exact arithmetic (longs, see {@link PyMath}).
+     * @param bigVariables Variables that must hold BigIntegers because they overflowed a long.
+     *                     Integer values flowing into them and out of them are BigIntegers too.
+     */
+    public TypeInference(List<Stmt> program, boolean exact, Set<String> bigVariables) {
+        this.program = program;
+        this.exact = exact;
+        this.bigVariables = bigVariables;
+    }
+
+    /**
+     * Walks the script and computes types and declaration points.
+     * @return this, for chaining.
+     * @throws IllegalArgumentException If the script cannot be typed (e.g. a variable holds both str and int).
+     */
+    public TypeInference run() {
+        walk();
+        solveTypes();
+        placeDeclarations();
+        return this;
+    }
+
+    /**
+     * @return The variables and expressions (see {@link ExprEmitter#expressionSite}) that overflowed
+     *         a long in an earlier run, and are computed in BigIntegers.
+     */
+    public Set<String> promoted() {
+        return bigVariables;
+    }
+
+    /**
+     * @return The name whose new version starts with the given top-level statement, or null.
+     */
+    public String newVersionAt(int statementIndex) {
+        return newVersionAt.get(statementIndex);
+    }
+
+    /**
+     * @return The inferred type of the given version of a variable.
+     */
+    public ValueType type(String name, int version) {
+        return types.getOrDefault(key(name, version), ValueType.INT);
+    }
+
+    /**
+     * @return The Java variable that holds the given version of a variable.
+     */
+    public String javaName(String name, int version) {
+        return javaNames.getOrDefault(key(name, version), ExprEmitter.javaName(unscoped(name)));
+    }
+
+    /**
+     * @return The Java variables that must be declared (with a default value) at the start of the block.
+     */
+    public List<Declaration> declarationsAt(int blockId) {
+        return declarations.getOrDefault(blockId, List.of());
+    }
+
+    /**
+     * @param javaName The Java variable, as {@link #scoped} names it inside a function.
+     * @return True if the Java variable is declared by its first assignment, e.g. "int x = 5;".
+     */
+    public boolean declaredInline(String javaName) {
+        return inline.contains(javaName);
+    }
+
+    /**
+     * @return The types of the function's parameters, or null if the script defines no such function.
+     */
+    @Override
+    public List<ValueType> parameterTypes(String name) {
+        Stmt.Def def = functions.get(name);
+        if (def == null) {
+            return null;
+        }
+        List<ValueType> params = new ArrayList<>();
+        for (String p : def.params()) {
+            params.add(types.getOrDefault(key(scoped(name, p), 0), ValueType.INT));
+        }
+        return params;
+    }
+
+    /**
+     * @return The type the function returns.
+     * @throws IllegalArgumentException If the function does not return a value.
+     */
+    @Override
+    public ValueType returnType(String name) {
+        if (!returnsValue.contains(name)) {
+            throw new IllegalArgumentException("Function '" + name + "' does not return a value");
+        }
+        return types.getOrDefault(returnKey(name), ValueType.INT);
+    }
+
+    /**
+     * @return True if the function has a return statement with a value.
+     */
+    public boolean returnsValue(String name) {
+        return returnsValue.contains(name);
+    }
+
+    /**
+     * @return True if the other inference, typically of another version of the script, decided
+     *         everything the converter looks up the same way: the functions and their parameters,
+     *         and the type, Java variable and declaration of every variable.
+     */
+    public boolean sameDecisions(TypeInference other) {
+        if (!functions.keySet().equals(other.functions.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, Stmt.Def> e : functions.entrySet()) {
+            if (!e.getValue().params().equals(other.functions.get(e.getKey()).params())) {
+                return false;
+            }
+        }
+        return types.equals(other.types) && javaNames.equals(other.javaNames) && inline.equals(other.inline)
+                && declarations.equals(other.declarations) && newVersionAt.equals(other.newVersionAt)
+                && returnsValue.equals(other.returnsValue);
+    }
+
+    /**
+     * @return The name under which a variable local to a function is typed, e.g. "fib.n".
+     */
+    public static String scoped(String function, String name) {
+        return function + "." + name;
+    }
+
+    // The variable name without its function.
+    private static String unscoped(String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    private static String key(String name, int version) {
+        return name + "#" + version;
+    }
+
+    // The values a function returns are typed as assignments to this key. An overflow in a
+    // return value names the function, which makes it return BigIntegers.
+    private static String returnKey(String function) {
+        return function + "#return";
+    }
+
+    // The Python variable of a key, without version and function; overflow sites use these names.
+    private static String variable(String key) {
+        return unscoped(key.substring(0, key.indexOf('#')));
+    }
+
+    // --------------------- Walking the script --------------------- //
+
+    /**
+     * Walks the statement tree in the order the converter emits it, recording every read and write.
+     * Blocks get ids in the same order as the converter opens them.
+     */
+    private void walk() {
+        // Functions can be called before their def, e.g. by a function defined earlier.
+        for (Stmt s : program) {
+            if (s instanceof Stmt.Def d) {
+                functions.put(d.name(), d);
+            }
+        }
+        int block = newBlock(-1, false);
+        for (int i = 0; i < program.size(); i++) {
+            statement(program.get(i), block, i);
+        }
+    }
+
+    private void walkBlock(List<Stmt> body, int block) {
+        for (Stmt s : body) {
+            statement(s, block, -1);
+        }
+    }
+
+    /**
+     * @param index The statement's index in the script if it is a top-level statement.
+     */
+    private void statement(Stmt s, int block, int index) {
+        switch (s) {
+            case Stmt.Assign a -> {
+                reads(a.value(), block);
+                write(a.target(), a.value(), block, index);
+            }
+            case Stmt.Hoisted h -> {
+                reads(h.value(), block);
+                write(h.name(), h.value(), block, index);
+            }
+            case Stmt.SetItem a -> {
+                reads(new Expr.Index(new Expr.Name(a.target()), a.index()), block);
+                reads(a.value(), block);
+                changeList(a.target(), a.value(), block);
+            }
+            case Stmt.ExprStmt e -> reads(e.expr(), block);
+            case Stmt.If f -> {
+                reads(f.condition(), block);
+                walkBlock(f.body(), newBlock(block, false));
+                if (f.elif() != null) {
+                    // An elif is part of the same statement; its condition is evaluated in this block.
+                    statement(f.elif(), block, -1);
+                } else if (!f.orElse().isEmpty()) {
+                    walkBlock(f.orElse(), newBlock(block, false));
+                }
+            }
+            case Stmt.While w -> {
+                reads(w.condition(), block);
+                walkBlock(w.body(), newBlock(block, true));
+            }
+            case Stmt.For f -> {
+                // The range arguments are read, then the loop variable is written, before the body runs.
+                Expr bounds = new Expr.Binary("+", new Expr.Binary("+", f.start(), f.end()), f.step());
+                reads(bounds, block);
+                write(f.var(), bounds, block, index);
+                walkBlock(f.body(), newBlock(block, true));
+            }
+            case Stmt.ForEach f -> {
+                // The list is read on every iteration, and the loop variable is given its next
+                // element at the start of the body.
+                reads(f.iterable(), block);
+                if (block == 0) {
+                    newVersion(f.var(), f.iterable(), index);
+                }
+                int body = newBlock(block, true);
+                write(f.var(), new Expr.Index(f.iterable(), new Expr.Num("0", false)), body, -1);
+                walkBlock(f.body(), body);
+            }
+            case Stmt.Break b -> {
+            }
+            case Stmt.Continue c -> {
+            }
+            case Stmt.Def d -> function(d);
+            case Stmt.Return r -> {
+                if (r.value() != null) {
+                    reads(r.value(), block);
+                    returnsValue.add(function.name());
+                    assign(returnKey(function.name()), versioned(r.value(), false));
+                    alias(returnKey(function.name()), r.value());
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks a function body. It is a block tree of its own, whose root block holds the parameters.
+     */
+    private void function(Stmt.Def d) {
+        function = d;
+        locals = new HashSet<>(d.params());
+        collectAssigned(d.body(), locals);
+        int root = newBlock(-1, false);
+        for (String p : d.params()) {
+            use(current(p), root, true);
+        }
+        walkBlock(d.body(), root);
+        function = null;
+        locals = null;
+    }
+
+    private static void collectAssigned(List<Stmt> body, Set<String> names) {
+        for (Stmt s : body) {
+            switch (s) {
+                case Stmt.Assign a -> names.add(a.target());
+                case Stmt.Hoisted h -> names.add(h.name());
+                case Stmt.If f -> {
+                    collectAssigned(f.body(), names);
+                    collectAssigned(f.orElse(), names);
+                }
+                case Stmt.While w -> collectAssigned(w.body(), names);
+                case Stmt.For f -> {
+                    names.add(f.var());
+                    collectAssigned(f.body(), names);
+                }
+                case Stmt.ForEach f -> {
+                    names.add(f.var());
+                    collectAssigned(f.body(), names);
+                }
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a call of one of the script's functions: each argument is assigned to its parameter.
+     */
+    private void call(Stmt.Def def, Expr.Call c, int block) {
+        if (c.args().size() != def.params().size()) {
+            throw new IllegalArgumentException(def.name() + "() takes " + def.params().size()
+                    + " arguments, not " + c.args().size());
+        }
+        for (int i = 0; i < c.args().size(); i++) {
+            String param = key(scoped(def.name(), def.params().get(i)), 0);
+            assign(param, versioned(c.args().get(i), block == 0));
+            alias(param, c.args().get(i));
+        }
+    }
+
+    private void assign(String key, Expr typed) {
+        assignedVars.add(key);
+        assignedValues.add(typed);
+        assignedSet.add(key);
+    }
+
+    /**
+     * Records that key may refer to the same list as value, if value is a variable.
+     */
+    private void alias(String key, Expr value) {
+        if (value instanceof Expr.Name n) {
+            aliases.add(new String[]{key, current(n.id())});
+        }
+    }
+
+    /**
+     * Records lst.append(value) or lst[i] = value: the list is typed as if assigned [value], which
+     * joins with everything else it is assigned.
+     */
+    private void changeList(String list, Expr value, int block) {
+        assign(current(list), versioned(new Expr.ListLiteral(List.of(value)), block == 0));
+    }
+
+    private int newBlock(int parent, boolean loop) {
+        blockParent.add(parent);
+        blockDepth.add(parent < 0 ? 0 : blockDepth.get(parent) + 1);
+        blockIsLoop.add(loop);
+        return blockParent.size() - 1;
+    }
+
+    private void reads(Expr e, int block) {
+        switch (e) {
+            case Expr.Name n -> {
+                if (function != null && !locals.contains(n.id())) {
+                    throw new IllegalArgumentException("Function '" + function.name() + "' reads the global variable '"
+                            + n.id() + "'; functions can only use their parameters and their own variables");
+                }
+                use(current(n.id()), block, false);
+            }
+            case Expr.Unary u -> reads(u.operand(), block);
+            case Expr.Binary b -> {
+                reads(b.left(), block);
+                reads(b.right(), block);
+            }
+            case Expr.BoolOp b -> {
+                reads(b.left(), block);
+                reads(b.right(), block);
+            }
+            case Expr.Compare c -> c.operands().forEach(o -> reads(o, block));
+            case Expr.Call c -> {
+                c.args().forEach(a -> reads(a, block));
+                Stmt.Def def = functions.get(c.func());
+                if (def != null) {
+                    call(def, c, block);
+                }
+            }
+            case Expr.Keyword k -> reads(k.value(), block);
+            case Expr.ListLiteral l -> l.elements().forEach(x -> reads(x, block));
+            case Expr.Index i -> {
+                reads(i.target(), block);
+                reads(i.index(), block);
+            }
+            case Expr.Slice l -> {
+                reads(l.target(), block);
+                for (Expr part : new Expr[]{l.lower(), l.upper(), l.step()}) {
+                    if (part != null) reads(part, block);
+                }
+            }
+            case Expr.Method m -> {
+                reads(m.target(), block);
+                m.args().forEach(a -> reads(a, block));
+                if ("append".equals(m.name()) && m.target() instanceof Expr.Name n && m.args().size() == 1) {
+                    changeList(n.id(), m.args().getFirst(), block);
+                }
+            }
+            case Expr.Num n -> {
+            }
+            case Expr.Str s -> {
+            }
+            case Expr.Bool b -> {
+            }
+        }
+    }
+
+    private void write(String var, Expr value, int block, int statementIndex) {
+        if (block == 0) {
+            newVersion(var, value, statementIndex);
+        }
+        Expr typed = versioned(value, block == 0);
+        String key = current(var);
+        use(key, block, true);
+        assign(key, typed);
+        alias(key, value);
+        if (block == 0) {
+            straightLine.put(key, typed);
+        } else {
+            straightLine.remove(key);
+        }
+    }
+
+    /**
+     * At the top level nothing loops back, so an assignment that does not read the old value
+     * replaces it for good: starts a new version of var, unless value reads var.
+     */
+    private void newVersion(String var, Expr value, int statementIndex) {
+        if (currentVersion.containsKey(var) && !readsName(value, var)) {
+            currentVersion.put(var, currentVersion.get(var) + 1);
+            newVersionAt.put(statementIndex, var);
+        }
+    }
+
+    /**
+     * @return The key of the current version of a name, creating version 0 on first sight.
+     */
+    private String current(String name) {
+        String scopedName = function != null ? scoped(function.name(), name) : name;
+        return key(scopedName, currentVersion.computeIfAbsent(scopedName, k -> 0));
+    }
+
+    private void use(String key, int block, boolean isWrite) {
+        if (isWrite) {
+            written.add(key);
+        }
+        VarInfo info = versions.get(key);
+        if (info == null) {
+            info = new VarInfo();
+            info.lca = block;
+            info.firstBlock = block;
+            info.firstIsWrite = isWrite;
+            versions.put(key, info);
+        } else {
+            info.lca = commonAncestor(info.lca, block);
+        }
+    }
+
+    private int commonAncestor(int a, int b) {
+        while (blockDepth.get(a) > blockDepth.get(b)) a = blockParent.get(a);
+        while (blockDepth.get(b) > blockDepth.get(a)) b = blockParent.get(b);
+        while (a != b) {
+            a = blockParent.get(a);
+            b = blockParent.get(b);
+        }
+        return a;
+    }
+
+    /**
+     * Replaces every name in e by the key of its current version, for typing. In straight-line
+     * top-level code, a name whose value is known is typed as that value instead, so that
+     * y = x copies the type x has at this point rather than the type x is widened to later
+     * (see {@link #knownType}).
+     */
+    private Expr versioned(Expr e, boolean topLevel) {
+        return switch (e) {
+            case Expr.Name n -> {
+                String key = current(n.id());
+                Expr known = topLevel ? straightLine.get(key) : null;
+                if (known == null) {
+                    yield new Expr.Name(key);
+                }
+                String read = key + "=" + knownReads.size();
+                knownReads.put(read, known);
+                yield new Expr.Name(read);
+            }
+            case Expr.Unary u -> new Expr.Unary(u.op(), versioned(u.operand(), topLevel));
+            case Expr.Binary b -> new Expr.Binary(b.op(), versioned(b.left(), topLevel), versioned(b.right(), topLevel));
+            case Expr.BoolOp b -> new Expr.BoolOp(b.op(), versioned(b.left(), topLevel), versioned(b.right(), topLevel));
+            case Expr.Compare c -> new Expr.Compare(c.ops(), c.operands().stream().map(o -> versioned(o, topLevel)).toList());
+            case Expr.Call c -> new Expr.Call(c.func(), c.args().stream().map(a -> versioned(a, topLevel)).toList());
+            case Expr.Keyword k -> new Expr.Keyword(k.name(), versioned(k.value(), topLevel));
+            case Expr.ListLiteral l -> new Expr.ListLiteral(l.elements().stream().map(x -> versioned(x, topLevel)).toList());
+            case Expr.Index i -> new Expr.Index(versioned(i.target(), topLevel), versioned(i.index(), topLevel));
+            case Expr.Slice l -> new Expr.Slice(versioned(l.target(), topLevel), versionedPart(l.lower(), topLevel),
+                    versionedPart(l.upper(), topLevel), versionedPart(l.step(), topLevel));
+            case Expr.Method m -> new Expr.Method(versioned(m.target(), topLevel), m.name(),
+                    m.args().stream().map(a -> versioned(a, topLevel)).toList());
+            case Expr.Num n -> n;
+            case Expr.Str s -> s;
+            case Expr.Bool b -> b;
+        };
+    }
+
+    private Expr versionedPart(Expr e, boolean topLevel) {
+        return e == null ? null : versioned(e, topLevel);
+    }
+
+    private static boolean readsName(Expr e, String name) {
+        return switch (e) {
+            case Expr.Name n -> n.id().equals(name);
+            case Expr.Unary u -> readsName(u.operand(), name);
+            case Expr.Binary b -> readsName(b.left(), name) || readsName(b.right(), name);
+            case Expr.BoolOp b -> readsName(b.left(), name) || readsName(b.right(), name);
+            case Expr.Compare c -> c.operands().stream().anyMatch(o -> readsName(o, name));
+            case Expr.Call c -> c.args().stream().anyMatch(a -> readsName(a, name));
+            case Expr.Keyword k -> readsName(k.value(), name);
+            case Expr.ListLiteral l -> l.elements().stream().anyMatch(x -> readsName(x, name));
+            case Expr.Index i -> readsName(i.target(), name) || readsName(i.index(), name);
+            case Expr.Slice l -> readsName(l.target(), name) || (l.lower() != null && readsName(l.lower(), name))
+                    || (l.upper() != null && readsName(l.upper(), name)) || (l.step() != null && readsName(l.step(), name));
+            case Expr.Method m -> readsName(m.target(), name) || m.args().stream().anyMatch(a -> readsName(a, name));
+            case Expr.Num n -> false;
+            case Expr.Str s -> false;
+            case Expr.Bool b -> false;
+        };
+    }
+
+    // --------------------- Solving --------------------- //
+
+    /**
+     * Joins the types of all assignments until a fixed point is reached. An assignment whose
+     * value still depends on a version without a type is postponed; if everything left is
+     * postponed (e.g. x = x + 1 is the only assignment to x), the unknown versions are taken as int.
+     * An empty list literal says nothing about the elements, so e = [] is typed by what is
+     * appended to e; a list that only ever gets [] is a list of ints.
+     */
+    private void solveTypes() {
+        typer = new ExprEmitter(this::knownType, ExprEmitter::javaName, exact).setFunctions(this).setPromoted(bigVariables);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < assignedVars.size(); i++) {
+                if (isEmptyList(assignedValues.get(i)) || dependsOnUntyped(assignedValues.get(i))) continue;
+                changed |= joinType(assignedVars.get(i), typer.typeOf(assignedValues.get(i)));
+            }
+            for (String[] alias : aliases) {
+                ValueType a = types.get(alias[0]);
+                ValueType b = types.get(alias[1]);
+                if (a != null && b != null && a != b && a.isList() && b.isList()) {
+                    changed |= joinType(alias[0], b);
+                    changed |= joinType(alias[1], a);
+                }
+            }
+            for (int i = 0; i < assignedVars.size() && !changed; i++) {
+                if (isEmptyList(assignedValues.get(i)) && !types.containsKey(assignedVars.get(i))) {
+                    changed = joinType(assignedVars.get(i), ValueType.INT_LIST);
+                }
+            }
+            if (!changed) {
+                // Break a cycle of untyped versions by typing the first one with unknowns as int.
+                for (int i = 0; i < assignedVars.size() && !changed; i++) {
+                    if (!types.containsKey(assignedVars.get(i))) {
+                        changed = joinType(assignedVars.get(i), typer.typeOf(assignedValues.get(i)));
+                    }
+                }
+            }
+        }
+
+        // A version that is only ever read is a name the script never assigns, or reads at the top
+        // level before its first assignment: Python's NameError, reported before anything runs.
+        for (String key : versions.keySet()) {
+            if (!written.contains(key)) {
+                throw new IllegalArgumentException("name '" + variable(key) + "' is not defined");
+            }
+            // The parameters of a function that is never called have no type yet.
+            types.putIfAbsent(key, ValueType.INT);
+        }
+    }
+
+    /**
+     * The type of a version read in typed values. A top-level read of a known value has the type
+     * of that value, except for a list: a list can be changed after it is assigned, so it always
+     * has the type of its version.
+     */
+    private ValueType knownType(String name) {
+        Expr known = knownReads.get(name);
+        if (known == null) {
+            return types.get(name);
+        }
+        ValueType own = types.get(name.substring(0, name.indexOf('=')));
+        if (own != null && own.isList()) {
+            return own;
+        }
+        return typer.typeOf(known);
+    }
+
+    private boolean joinType(String key, ValueType t) {
+        if (bigVariables.contains(variable(key))) {
+            if (t.isIntegral()) t = ValueType.BIG;
+            if (t == ValueType.INT_LIST) t = ValueType.BIG_LIST;
+        }
+        ValueType old = types.get(key);
+        ValueType joined;
+        try {
+            joined = ValueType.join(old, t);
+        } catch (IllegalArgumentException e) {
+            String what = key.endsWith("#return") ? "Return value of '" : "Variable '";
+            throw new IllegalArgumentException(what + variable(key) + "': " + e.getMessage());
+        }
+        if (joined == old) return false;
+        types.put(key, joined);
+        return true;
+    }
+
+    private static boolean isEmptyList(Expr e) {
+        return e instanceof Expr.ListLiteral l && l.elements().isEmpty();
+    }
+
+    private boolean dependsOnUntyped(Expr e) {
+        return switch (e) {
+            case Expr.Name n -> {
+                Expr known = knownReads.get(n.id());
+                if (known != null) {
+                    yield dependsOnUntyped(known) || dependsOnUntyped(new Expr.Name(n.id().substring(0, n.id().indexOf('='))));
+                }
+                yield !types.containsKey(n.id()) && assignedSet.contains(n.id());
+            }
+            case Expr.Unary u -> dependsOnUntyped(u.operand());
+            case Expr.Binary b -> dependsOnUntyped(b.left()) || dependsOnUntyped(b.right());
+            case Expr.BoolOp b -> dependsOnUntyped(b.left()) || dependsOnUntyped(b.right());
+            case Expr.Compare c -> c.operands().stream().anyMatch(this::dependsOnUntyped);
+            case Expr.Call c -> {
+                String result = returnKey(c.func());
+                yield (functions.containsKey(c.func()) && !types.containsKey(result) && assignedSet.contains(result))
+                        || c.args().stream().anyMatch(this::dependsOnUntyped);
+            }
+            case Expr.Keyword k -> dependsOnUntyped(k.value());
+            case Expr.ListLiteral l -> l.elements().stream().anyMatch(this::dependsOnUntyped);
+            case Expr.Index i -> dependsOnUntyped(i.target()) || dependsOnUntyped(i.index());
+            case Expr.Slice l -> dependsOnUntyped(l.target());
+            case Expr.Method m -> dependsOnUntyped(m.target()) || m.args().stream().anyMatch(this::dependsOnUntyped);
+            case Expr.Num n -> false;
+            case Expr.Str s -> false;
+            case Expr.Bool b -> false;
+        };
+    }
+
+    /**
+     * Maps versions to Java variables and chooses the declaring block of each (see the class comment).
+     */
+    private void placeDeclarations() {
+        // Versions of one name with the same type share a Java variable. The type of the first
+        // version keeps the plain name; other types get the Java type as a suffix.
+        LinkedHashMap<String, VarInfo> javaVars = new LinkedHashMap<>();
+        HashMap<String, ValueType> javaTypes = new HashMap<>();
+        HashMap<String, ValueType> firstType = new HashMap<>();
+        // Inside a function, Java variables are keyed by their scoped name, since every function
+        // declares its own.
+        for (Map.Entry<String, VarInfo> e : versions.entrySet()) {
+            String name = e.getKey().substring(0, e.getKey().indexOf('#'));
+            ValueType t = types.get(e.getKey());
+            ValueType plain = firstType.computeIfAbsent(name, k -> t);
+            String javaName = ExprEmitter.javaName(unscoped(name)) + (t == plain ? "" : "_" + t.name().toLowerCase());
+            javaNames.put(e.getKey(), javaName);
+            int dot = name.lastIndexOf('.');
+            if (dot >= 0) {
+                javaName = scoped(name.substring(0, dot), javaName);
+            }
+            javaTypes.put(javaName, t);
+
+            // Versions are recorded in program order, so the first one decides how the variable starts.
+            VarInfo info = e.getValue();
+            VarInfo merged = javaVars.get(javaName);
+            if (merged == null) {
+                merged = new VarInfo();
+                merged.lca = info.lca;
+                merged.firstBlock = info.firstBlock;
+                merged.firstIsWrite = info.firstIsWrite;
+                javaVars.put(javaName, merged);
+            } else {
+                merged.lca = commonAncestor(merged.lca, info.lca);
+            }
+        }
+
+        for (Map.Entry<String, VarInfo> e : javaVars.entrySet()) {
+            VarInfo info = e.getValue();
+            if (info.firstIsWrite && info.firstBlock == info.lca) {
+                // Every execution of the block assigns the variable before anything reads it.
+                inline.add(e.getKey());
+                continue;
+            }
+
+            // Otherwise hoist out of the outermost enclosing loop, so values survive across iterations.
+            int declBlock = info.lca;
+            for (int b = info.lca; b > 0; b = blockParent.get(b)) {
+                if (blockIsLoop.get(b)) declBlock = blockParent.get(b);
+            }
+            declarations.computeIfAbsent(declBlock, k -> new ArrayList<>())
+                    .add(new Declaration(unscoped(e.getKey()), javaTypes.get(e.getKey())));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * ValueType is the static type the translator gives to a Python value,
+ * together with the Java type it is emitted as.
+ * <p>
+ * The numeric types form a lattice BOOLEAN &lt; INT &lt; LONG &lt; BIG &lt; DOUBLE; {@link #join}
+ * gives the narrowest type that can hold values of both of its arguments. BIG is a Python int
+ * that has overflowed a long and is held in a BigInteger.
+ * <p>
+ * A list has the type of its elements: a list of bools, ints or floats is held in a list backed
+ * by a primitive array (BooleanList, IntList, DoubleList), a list of strs or BigIntegers in a
+ * PyList. Lists join by joining their element types; a list never joins with a value that is
+ * not a list.
+ * <p>
+ * Elements of different Python types, such as an int and a float or an int and a str, make a
+ * list of mixed types: a PyList&lt;Object&gt;, whose elements are OBJECT and keep their own type, so
+ * [1, 2.5] prints as Python prints it. Such an element can be printed, compared for equality,
+ * stored and tested for truth, but not used in arithmetic.
+ */
+public enum ValueType {
+    BOOLEAN("boolean", "false"),
+    INT("int", "0"),
+    LONG("long", "0L"),
+    BIG("java.math.BigInteger", "java.math.BigInteger.ZERO"),
+    DOUBLE("double", "0.0"),
+    STRING("String", "\"\""),
+    OBJECT("Object", "null"),
+    BOOLEAN_LIST("BooleanList", "null"),
+    INT_LIST("IntList", "null"),
+    DOUBLE_LIST("DoubleList", "null"),
+    STRING_LIST("PyList<String>", "null"),
+    BIG_LIST("PyList<java.math.BigInteger>", "null"),
+    OBJECT_LIST("PyList<Object>", "null");
+
+    // The Java type name used in declarations.
+    public final String javaName;
+
+    // The value a variable of this type starts with when it must be declared before its first assignment.
+    public final String defaultValue;
+
+    ValueType(String javaName, String defaultValue) {
+        this.javaName = javaName;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * @return True for types that take part in arithmetic.
+     */
+    public boolean isNumeric() {
+        return this == INT || this == LONG || this == BIG || this == DOUBLE;
+    }
+
+    /**
+     * @return True for the types of Python ints.
+     */
+    public boolean isIntegral() {
+        return this == INT || this == LONG || this == BIG;
+    }
+
+    /**
+     * @return True for the list types.
+     */
+    public boolean isList() {
+        return elementType() != null;
+    }
+
+    /**
+     * @return The type of the elements of a list type, or null if this is not a list type.
+     *         The elements of an IntList are longs.
+     */
+    public ValueType elementType() {
+        return switch (this) {
+            case BOOLEAN_LIST -> BOOLEAN;
+            case INT_LIST -> LONG;
+            case DOUBLE_LIST -> DOUBLE;
+            case STRING_LIST -> STRING;
+            case BIG_LIST -> BIG;
+            case OBJECT_LIST -> OBJECT;
+            default -> null;
+        };
+    }
+
+    /**
+     * @return The type of a list whose elements have the given type.
+     * @throws IllegalArgumentException If element is itself a list type: lists of lists are not supported.
+     */
+    public static ValueType listOf(ValueType element) {
+        return switch (element) {
+            case BOOLEAN -> BOOLEAN_LIST;
+            case INT, LONG -> INT_LIST;
+            case DOUBLE -> DOUBLE_LIST;
+            case STRING -> STRING_LIST;
+            case BIG -> BIG_LIST;
+            case OBJECT -> OBJECT_LIST;
+            default -> throw new IllegalArgumentException("Lists of lists are not supported");
+        };
+    }
+
+    /**
+     * @return The Python name of the type, for error messages.
+     */
+    public String pythonName() {
+        return switch (this) {
+            case BOOLEAN -> "bool";
+            case INT, LONG, BIG -> "int";
+            case DOUBLE -> "float";
+            case STRING -> "str";
+            case OBJECT -> "object";
+            case OBJECT_LIST -> "list";
+            default -> "list of " + elementType().pythonName();
+        };
+    }
+
+    /**
+     * The result type of arithmetic on two numeric operands (Python's int/float promotion).
+     * Booleans take part in arithmetic as ints.
+     */
+    public static ValueType promote(ValueType a, ValueType b) {
+        if (a == DOUBLE || b == DOUBLE) return DOUBLE;
+        if (a == BIG || b == BIG) return BIG;
+        if (a == LONG || b == LONG) return LONG;
+        return INT;
+    }
+
+    /**
+     * Joins the types of two values stored in the same variable. Lists whose element types do
+     * not join become a list of mixed types, and an element of one joins with any other value.
+     * @param a The type so far, or null if there is none yet.
+     * @param b The type of the new value.
+     * @throws IllegalArgumentException If a string and a number meet, or a list and a value that is not a list.
+     */
+    public static ValueType join(ValueType a, ValueType b) {
+        if (a == null || a == b) return b;
+        if (a.isList() && b.isList()) {
+            return listOf(joinElements(a.elementType(), b.elementType()));
+        }
+        if ((a == OBJECT || b == OBJECT) && !a.isList() && !b.isList()) {
+            return OBJECT;
+        }
+        if (a == STRING || b == STRING || a.isList() || b.isList()) {
+            throw new IllegalArgumentException("a variable cannot hold both " + a.javaName + " and " + b.javaName);
+        }
+        return promote(a, b);
+    }
+
+    /**
+     * Joins the types of two elements of the same list.
+     * @param a The element type so far, or null if there is none yet.
+     * @param b The type of the new element.
+     * @return Their join if they are the same Python type, otherwise OBJECT.
+     * @throws IllegalArgumentException If b is a list: lists of lists are not supported.
+     */
+    public static ValueType joinElements(ValueType a, ValueType b) {
+        if (b.isList()) {
+            throw new IllegalArgumentException("Lists of lists are not supported");
+        }
+        // Widening would change how an element prints: 1 in a list of floats prints as 1.0.
+        if (a != null && !a.pythonName().equals(b.pythonName())) {
+            return OBJECT;
+        }
+        try {
+            return join(a, b);
+        } catch (IllegalArgumentException e) {
+            return OBJECT;
+        }
+    }
+}
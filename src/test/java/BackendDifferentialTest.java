@@ -0,0 +1,254 @@
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaFileObject;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandle;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs every script in the differential/ test resources with each backend and compares what it
+ * prints with the script's .out file, which is the output of CPython. A backend that does not
+ * support a script (e.g. the interpreter, for BigIntegers) is skipped for it, as Main falls back
+ * to javac then.
+ */
+class BackendDifferentialTest {
+
+    private static final String CLASS_NAME = "DifferentialScript";
+
+    /**
+     * A way of running a translated script, as Main chooses with translator.backend and
+     * translator.execution.
+     */
+    enum Backend {
+        INTERPRETER {
+            @Override
+            Run prepare(PythonToJavaConverter converter, String javaCode) {
+                ScriptInterpreter interpreter = converter.interpreter();
+                return new Run(interpreter::run, SourceMap::pythonLine);
+            }
+        },
+        BYTECODE {
+            @Override
+            Run prepare(PythonToJavaConverter converter, String javaCode) throws ReflectiveOperationException {
+                byte[] bytecode = converter.compile(CLASS_NAME);
+                return compiled(new CompiledScript(CLASS_NAME, Map.of(CLASS_NAME, bytecode)));
+            }
+        },
+        JAVAC {
+            @Override
+            Run prepare(PythonToJavaConverter converter, String javaCode) throws ReflectiveOperationException {
+                String source = Main.buildJavaSource(CLASS_NAME, converter.methods(), javaCode);
+                DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+                Map<String, byte[]> classes = Main.JavaCompilerHolder.COMPILER.compile(CLASS_NAME, source, diagnostics);
+                assertNotNull(classes, () -> "javac failed: " + diagnostics.getDiagnostics());
+                SourceMap map = Main.sourceMap(converter);
+                classes.replaceAll((name, bytes) -> map.apply(bytes));
+                return compiled(new CompiledScript(CLASS_NAME, classes));
+            }
+        };
+
+        /**
+         * @throws UnsupportedOperationException If this backend cannot run the script.
+         */
+        abstract Run prepare(PythonToJavaConverter converter, String javaCode) throws ReflectiveOperationException;
+
+        private static Run compiled(CompiledScript script) throws ReflectiveOperationException {
+            MethodHandle main = script.entryPoint();
+            return new Run(() -> {
+                main.invokeExact(new String[]{});
+            }, script::errorLine);
+        }
+    }
+
+    /**
+     * A script ready to run, and how to find the Python line of an error that stops it.
+     */
+    record Run(Body body, ToIntFunction<Throwable> errorLine) {
+    }
+
+    @FunctionalInterface
+    interface Body {
+        void run() throws Throwable;
+    }
+
+    static Stream<Arguments> scripts() throws IOException, URISyntaxException {
+        Path directory = Path.of(BackendDifferentialTest.class.getResource("/differential").toURI());
+        List<String> names;
+        try (Stream<Path> files = Files.list(directory)) {
+            names = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".py"))
+                    .sorted()
+                    .toList();
+        }
+        return names.stream()
+                .flatMap(name -> Arrays.stream(Backend.values()).map(backend -> Arguments.of(name, backend)));
+    }
+
+    @ParameterizedTest(name = "{0} ({1})")
+    @MethodSource("scripts")
+    void printsWhatPythonPrints(String script, Backend backend) throws Throwable {
+        String python = resource(script);
+        String expected = resource(script.replace(".py", ".out"));
+        assertEquals(expected, run(python, backend));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void rejectsZeroRangeStep(Backend backend) throws Throwable {
+        String python = """
+                print("start")
+                step = 0
+                for i in range(1, 5, step):
+                    print(i)
+                """;
+        Run run = prepare(python, Set.of(), backend);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> capture(run));
+        assertEquals(3, run.errorLine().applyAsInt(e));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void reportsLineOfError(Backend backend) throws Throwable {
+        String python = """
+                def f(x):
+                    y = x + 1
+                    return 10 // (y - 4)
+
+                for i in range(5):
+                    print(f(i))
+                """;
+        Run run = prepare(python, Set.of(), backend);
+        ArithmeticException e = assertThrows(ArithmeticException.class, () -> capture(run));
+        assertEquals(3, run.errorLine().applyAsInt(e));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void findsLineOfErrorWithoutRunningAgain(Backend backend) throws Throwable {
+        String python = """
+                def f(x):
+                    if x > 2:
+                        return 1
+                    elif x == 0:
+                        return 10 // x
+                    return x
+
+                print("once")
+                i = 3
+                while i >= 0:
+                    y = f(i)
+                    i = i - 1
+                """;
+        Run run = prepare(python, Set.of(), backend);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream stdout = ThreadOutput.OUT.redirect(output);
+        try {
+            ArithmeticException e = assertThrows(ArithmeticException.class, () -> run.body().run());
+            assertEquals(5, run.errorLine().applyAsInt(e));
+        } finally {
+            PyPrint.flush();
+            ThreadOutput.OUT.redirect(stdout);
+        }
+        assertEquals("once\n", output.toString(StandardCharsets.UTF_8));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Backend.class)
+    void testsTruthOfAndOrOperandsInConditions(Backend backend) throws Throwable {
+        String python = """
+                a = 3
+                s = ""
+                if a and s:
+                    print("no")
+                while s or a > 0:
+                    a = a - 1
+                print(a, a < 1 and not s, False and 3, True or 3)
+                """;
+        assertEquals("0 True False True\n", run(python, backend));
+    }
+
+    @Test
+    void rejectsAndOrValueOfOperandsThatAreNotBool() {
+        // Python gives the operand, so print(True and 3) prints 3, not True.
+        PythonToJavaConverter converter = Main.newConverter(Interpreter.lexCompact("print(True and 3)\n".toCharArray()));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, converter::convert);
+        assertEquals("'and' of bool and int values is only supported in conditions", e.getMessage());
+    }
+
+    @Test
+    void rejectsMinMaxOfIntAndFloat() {
+        // Python gives the argument itself, so max(1.5, 2) prints 2, not 2.0.
+        PythonToJavaConverter converter = Main.newConverter(Interpreter.lexCompact("print(max(1.5, 2))\n".toCharArray()));
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, converter::convert);
+        assertEquals("max() of float and int values is not supported", e.getMessage());
+    }
+
+    // Runs the script as Main does: a long that overflows becomes a BigInteger, and the script
+    // is run again from the start. Only the output of the last run is returned.
+    private static String run(String python, Backend backend) throws Throwable {
+        Set<String> bigVariables = new HashSet<>();
+        while (true) {
+            Run run = prepare(python, bigVariables, backend);
+            try {
+                return capture(run);
+            } catch (PyMath.Overflow overflow) {
+                if (overflow.variables.isEmpty() || !bigVariables.addAll(Arrays.asList(overflow.variables.split(",")))) {
+                    throw overflow;
+                }
+            }
+        }
+    }
+
+    private static Run prepare(String python, Set<String> bigVariables, Backend backend)
+            throws ReflectiveOperationException {
+        PythonToJavaConverter converter = Main.newConverter(Interpreter.lexCompact(python.toCharArray()))
+                .promoteToBigInteger(bigVariables);
+        String javaCode = converter.convert();
+        try {
+            return backend.prepare(converter, javaCode);
+        } catch (UnsupportedOperationException e) {
+            return Assumptions.abort(backend + " does not support this script: " + e.getMessage());
+        }
+    }
+
+    private static String capture(Run run) throws Throwable {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream stdout = ThreadOutput.OUT.redirect(output);
+        try {
+            run.body().run();
+        } finally {
+            PyPrint.flush();
+            ThreadOutput.OUT.redirect(stdout);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String resource(String name) throws IOException {
+        try (var in = BackendDifferentialTest.class.getResourceAsStream("/differential/" + name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compiles batches in which some scripts fail, and checks that each error is reported against
+ * the script it comes from while the other scripts still compile.
+ */
+class BatchCompilerTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void reportsJavacErrorsAgainstTheirScript() throws IOException {
+        // A list of strs leaves these scripts to javac; the nonce keeps them out of the cache.
+        String nonce = Long.toString(System.nanoTime());
+        Path before = script("before.py", "words = [\"" + nonce + "\"]\nprint(words)\n");
+        Path broken = script("broken.py", """
+                def f():
+                    return 1
+                    print(2)
+                words = ["%s"]
+                print(f(), words)
+                """.formatted(nonce));
+        Path after = script("after.py", "words = [\"" + nonce + "\", \"b\"]\nprint(len(words))\n");
+        Path untranslatable = script("untranslatable.py", "print(y)\n");
+
+        List<BatchCompiler.Unit> units = BatchCompiler.compile(List.of(before, broken, after, untranslatable));
+
+        assertEquals("javac", units.get(0).compiledBy);
+        assertNotNull(units.get(0).script);
+        assertEquals("javac", units.get(2).compiledBy);
+        assertTrue(units.get(0).errors.isEmpty() && units.get(2).errors.isEmpty());
+
+        BatchCompiler.Unit failed = units.get(1);
+        assertNull(failed.script);
+        assertEquals(1, failed.errors.size(), failed.errors.toString());
+        String error = failed.errors.getFirst();
+        assertTrue(error.startsWith("Compilation failed: Line 3 (Java line "), error);
+        assertTrue(error.endsWith("unreachable statement"), error);
+
+        assertNull(units.get(3).script);
+        assertEquals(List.of("Translation failed: name 'y' is not defined"), units.get(3).errors);
+    }
+
+    private Path script(String name, String text) throws IOException {
+        return Files.writeString(directory.resolve(name), text);
+    }
+}
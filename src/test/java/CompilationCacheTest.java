@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Checks the keys, the LRU eviction of the memory tier and the disk tier of the cache.
+ */
+class CompilationCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void evictsLeastRecentlyUsedScripts() {
+        CompilationCache cache = new CompilationCache(250, null);
+        CompiledScript a = script("A", 100);
+        CompiledScript b = script("B", 100);
+        cache.put("a", a);
+        cache.put("b", b);
+        // Using a makes b the least recently used.
+        assertSame(a, cache.get("a"));
+        cache.put("c", script("C", 100));
+
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.evictions());
+        assertEquals(3, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void keepsScriptLargerThanBound() {
+        CompilationCache cache = new CompilationCache(10, null);
+        CompiledScript big = script("Big", 100);
+        cache.put("big", big);
+        assertSame(big, cache.get("big"));
+    }
+
+    @Test
+    void readsScriptsWrittenByAnotherCache() {
+        CompiledScript written = script("Stored", 40);
+        new CompilationCache(1024, directory).put("key", written);
+
+        CompilationCache cache = new CompilationCache(1024, directory);
+        CompiledScript read = cache.get("key");
+        assertNotNull(read);
+        assertEquals("Stored", read.className);
+        assertArrayEquals(written.classes.get("Stored"), read.classes.get("Stored"));
+        assertEquals(1, cache.diskHits());
+        // Now it is in memory too.
+        assertSame(read, cache.get("key"));
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    void treatsCorruptEntryAsMiss() throws IOException {
+        Files.write(directory.resolve("key.bin"), new byte[]{0, 5, 'x'});
+        CompilationCache cache = new CompilationCache(1024, directory);
+        assertNull(cache.get("key"));
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void keysScriptFileAsItsText() throws IOException {
+        Path file = directory.resolve("script.py");
+        Files.writeString(file, "x = 1\r\nprint(x)");
+        assertEquals(Main.cacheKey("x = 1\nprint(x)\n"), Main.cacheKey(Interpreter.readText(file)));
+        assertNotEquals(CompilationCache.key("print(1)\n"), CompilationCache.key("print(1)\n", "LONG"));
+    }
+
+    private static CompiledScript script(String name, int size) {
+        byte[] bytes = new byte[size];
+        bytes[0] = (byte) name.hashCode();
+        return new CompiledScript(name, Map.of(name, bytes));
+    }
+}
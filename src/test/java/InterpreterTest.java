@@ -0,0 +1,91 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that every lexer gives the same tokens, on the same lines, for the same text.
+ */
+class InterpreterTest {
+
+    private static final String SCRIPT = """
+            # A comment, then a blank line.
+
+            def f(x, y):
+                if x >= y and not x == 0:
+                    return x // 2
+                elif x != -1:
+            \treturn y ** 2
+                return 0
+            total = 0
+            for i in range(1, 10, 2):
+                total = total + f(i, 3.5e-2)  # trailing comment
+            print("sum:", total, 'done', [1, 2][0])
+            """;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void lexersAgreeOnSmallText() throws IOException {
+        assertLexersAgree(SCRIPT);
+    }
+
+    @Test
+    void lexersAgreeOnTextLexedInParallel() throws IOException {
+        String text = SCRIPT.repeat(Interpreter.PARALLEL_LEX_THRESHOLD / SCRIPT.length() + 2);
+        assertTrue(text.length() >= Interpreter.PARALLEL_LEX_THRESHOLD);
+        assertLexersAgree(text);
+    }
+
+    @Test
+    void readsFileAsText() throws IOException {
+        Path file = directory.resolve("script.py");
+        Files.writeString(file, "a = 1\r\nprint(a)\rprint(a)");
+        assertEquals("a = 1\nprint(a)\nprint(a)\n", Interpreter.readText(file));
+        Files.writeString(file, "");
+        assertEquals("", Interpreter.readText(file));
+    }
+
+    private void assertLexersAgree(String text) throws IOException {
+        List<String> expected = describe(Interpreter.lexSequential(text));
+        assertEquals(expected, describe(Interpreter.lexParallel(text)));
+
+        TokenBuffer buffer = Interpreter.lexCompact(text.toCharArray());
+        List<List<Interpreter.Token>> compact = new ArrayList<>();
+        for (int line = 0; line < buffer.lineCount(); line++) {
+            compact.add(buffer.line(line));
+        }
+        assertEquals(expected, describe(compact));
+
+        Path file = directory.resolve("lexed.py");
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+        List<List<Interpreter.Token>> streamed = new ArrayList<>();
+        try (Interpreter.LineStream stream = Interpreter.stream(file.toString())) {
+            stream.forEachRemaining(streamed::add);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        assertEquals(expected, describe(streamed));
+    }
+
+    // One string per token, with everything the converter reads of it.
+    private static List<String> describe(List<? extends List<Interpreter.Token>> lines) {
+        List<String> tokens = new ArrayList<>();
+        for (List<Interpreter.Token> line : lines) {
+            for (Interpreter.Token t : line) {
+                tokens.add(t.line + ":" + t.indentLevel + ":" + t.kind + ":" + t.value);
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,47 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs scripts through Main as the command line does, with the backend and execution mode that
+ * the system properties choose.
+ */
+class MainTest {
+
+    @Test
+    void printsOnceWhenRunStartsOverAfterOverflow() {
+        String python = """
+                print("before")
+                x = 1
+                for i in range(70):
+                    x = x * 2
+                print(x)
+                print("after")
+                """;
+        Metrics first = new Metrics("overflow");
+        assertEquals("before\n1180591620717411303424\nafter\n", run(python, first));
+        assertEquals(0, first.status());
+        assertEquals(2, first.translations());
+
+        // The next run holds x in a BigInteger from the start, or finds that translation compiled.
+        Metrics second = new Metrics("overflow");
+        assertEquals("before\n1180591620717411303424\nafter\n", run(python, second));
+        assertTrue(second.translations() <= 1, () -> second.translations() + " translations");
+    }
+
+    private static String run(String python, Metrics metrics) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream stdout = ThreadOutput.OUT.redirect(output);
+        try {
+            Main.runScript(python, false, metrics);
+        } finally {
+            ThreadOutput.OUT.redirect(stdout);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
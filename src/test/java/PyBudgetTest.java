@@ -0,0 +1,90 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks what the budget of a run counts, and when its clock starts.
+ */
+class PyBudgetTest {
+
+    @AfterEach
+    void exitBudget() {
+        PyBudget.exit(null);
+    }
+
+    @Test
+    void stopsLoopsAtIterationLimit() {
+        new PyBudget(0, 3 * PyBudget.INTERVAL).enter();
+        PyBudget.start();
+        for (int i = 0; i < 3; i++) {
+            PyBudget.check();
+        }
+        PyBudget.Exceeded e = assertThrows(PyBudget.Exceeded.class, PyBudget::check);
+        assertEquals("more than " + 3 * PyBudget.INTERVAL + " loop iterations", e.getMessage());
+    }
+
+    @Test
+    void doesNotCountCallsAsLoopIterations() {
+        new PyBudget(0, PyBudget.INTERVAL).enter();
+        PyBudget.start();
+        assertDoesNotThrow(() -> {
+            for (int i = 0; i < 100 * PyBudget.INTERVAL; i++) {
+                PyBudget.call();
+            }
+        });
+        PyBudget.check();
+    }
+
+    @Test
+    void stopsCallsWhenCancelled() {
+        PyBudget budget = new PyBudget(0, 0);
+        budget.enter();
+        PyBudget.start();
+        budget.cancel();
+        assertThrows(PyBudget.Exceeded.class, () -> {
+            for (int i = 0; i < PyBudget.INTERVAL; i++) {
+                PyBudget.call();
+            }
+        });
+    }
+
+    @Test
+    void startsClockWithScript() throws InterruptedException {
+        new PyBudget(20, 0).enter();
+        // Time spent translating and compiling, before the script starts, is not counted.
+        Thread.sleep(50);
+        PyBudget.check();
+        PyBudget.start();
+        PyBudget.check();
+        Thread.sleep(50);
+        PyBudget.Exceeded e = assertThrows(PyBudget.Exceeded.class, PyBudget::check);
+        assertEquals("time limit of 20 ms exceeded", e.getMessage());
+    }
+
+    @Test
+    void countsCallsOfEachThreadByItsOwnBudget() throws InterruptedException {
+        PyBudget other = new PyBudget(0, 0);
+        other.cancel();
+        Thread thread = new Thread(() -> {
+            other.enter();
+            PyBudget.start();
+            for (int i = 0; i < PyBudget.INTERVAL - 1; i++) {
+                PyBudget.call();
+            }
+        });
+        thread.start();
+        thread.join();
+        // The other thread's calls leave this budget's count where it was.
+        PyBudget budget = new PyBudget(0, 0);
+        budget.enter();
+        PyBudget.start();
+        budget.cancel();
+        for (int i = 0; i < PyBudget.INTERVAL - 1; i++) {
+            PyBudget.call();
+        }
+        assertThrows(PyBudget.Exceeded.class, PyBudget::call);
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the memo table finds every result it was given, as it grows and as a recursive
+ * call adds results while the caller's key is still missing.
+ */
+class PyMemoTest {
+
+    @Test
+    void findsResultsAfterGrowing() {
+        PyMemo memo = new PyMemo(2);
+        for (long i = 0; i < 1000; i++) {
+            assertFalse(memo.contains(i, -i));
+            assertEquals(i * i, memo.putLong(i * i, i, -i));
+        }
+        for (long i = 0; i < 1000; i++) {
+            assertTrue(memo.contains(i, -i));
+            assertEquals(i * i, memo.longValue());
+        }
+        assertFalse(memo.contains(1, 1));
+    }
+
+    @Test
+    void putsResultAfterRecursiveCallsGrewTable() {
+        PyMemo memo = new PyMemo(1);
+        assertFalse(memo.contains(100));
+        // The body of f(100) calls f(0) .. f(99), which grows the table before f(100) is put.
+        for (long i = 0; i < 100; i++) {
+            memo.putObject("r" + i, i);
+        }
+        memo.putObject("r100", 100);
+        for (long i = 0; i <= 100; i++) {
+            assertTrue(memo.contains(i));
+            assertEquals("r" + i, memo.objectValue());
+        }
+    }
+
+    @Test
+    void keysFloatsAndBoolsAsPythonDoes() {
+        PyMemo memo = new PyMemo(3);
+        memo.putDouble(2.5, PyMemo.key(-0.0), 1, 0);
+        assertTrue(memo.contains(PyMemo.key(0.0), 1, 0));
+        assertEquals(2.5, memo.doubleValue());
+
+        memo.putBoolean(true, 7, 8, 9);
+        assertTrue(memo.contains(7, 8, 9));
+        assertTrue(memo.booleanValue());
+        assertFalse(memo.contains(7, 9, 8));
+    }
+
+    @Test
+    void keysBoxedArgumentsByValue() {
+        PyMemo memo = new PyMemo(0);
+        assertFalse(memo.containsKey("a", 1L));
+        memo.putValue(3.0, "a", 1L);
+        assertTrue(memo.containsKey(new String("a"), 1L));
+        assertEquals(3.0, memo.objectValue());
+        assertFalse(memo.containsKey("a", 2L));
+    }
+}
@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares what PyPrint writes with what CPython prints for the same values.
+ */
+class PyPrintTest {
+
+    // Each value is given by its bits, and the text is CPython's repr of it.
+    @ParameterizedTest(name = "{1}")
+    @CsvSource({
+            "0x0000000000000001, 5e-324",
+            "0x0000000000000002, 1e-323",
+            "0x0010000000000000, 2.2250738585072014e-308",
+            "0x000fffffffffffff, 2.225073858507201e-308",
+            "0x7fefffffffffffff, 1.7976931348623157e+308",
+            "0x4341c37937e08000, 1e+16",
+            "0x4341c37937e07fff, 9999999999999998.0",
+            "0x3f1a36e2eb1c432d, 0.0001",
+            "0x3f1a36e2eb1c432c, 9.999999999999999e-05",
+            "0x3ee4f8b588e368f1, 1e-05",
+            "0x4480f0cf064dd592, 1e+22",
+            "0x44b52d02c7e14af6, 1e+23",
+            "0x411637958edef660, 364005.38952240907",
+            "0xc1a624dcbab5b373, -185757277.3548847",
+            "0x3fb999999999999a, 0.1",
+            "0x3fd3333333333334, 0.30000000000000004",
+            "0x8000000000000000, -0.0",
+            "0x437b69b4ba630f35, 1.2345678901234568e+17",
+            "0x4059000000000000, 100.0",
+            "0x3ff8000000000000, 1.5",
+            "0x7ff0000000000000, inf",
+            "0xfff0000000000000, -inf",
+            "0x7ff8000000000000, nan",
+    })
+    void printsFloatsAsPythonsRepr(String bits, String repr) {
+        double v = Double.longBitsToDouble(Long.parseUnsignedLong(bits.substring(2), 16));
+        assertEquals(repr, PyPrint.str(v));
+        assertEquals(repr + "\n", printed(() -> PyPrint.line().arg(v).end()));
+    }
+
+    @Test
+    void printsBoolsAndSeparators() {
+        assertEquals("True False 3\n", printed(() -> PyPrint.line().arg(true).arg(false).arg(3L).end()));
+        assertEquals("x,1.5;", printed(() -> PyPrint.line(",").arg("x").arg(1.5).end(";")));
+    }
+
+    private static String printed(Runnable print) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream stdout = ThreadOutput.OUT.redirect(output);
+        try {
+            print.run();
+        } finally {
+            PyPrint.flush();
+            ThreadOutput.OUT.redirect(stdout);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Runs scripts whose functions and loops get hot in the interpreter, and so are switched over to
+ * compiled code while the script runs, and checks that they print what Python prints.
+ */
+class ScriptInterpreterTest {
+
+    @Test
+    void promotesRecursiveFunction() {
+        String python = """
+                def fib(n):
+                    if n < 2:
+                        return n
+                    return fib(n - 1) + fib(n - 2)
+                print(fib(27))
+                print(fib(10))
+                """;
+        assertEquals("196418\n55\n", run(python));
+    }
+
+    @Test
+    void compilesLoopsOfFunctions() {
+        String python = """
+                def spin(n):
+                    k = 0
+                    total = 0.5
+                    while k < n:
+                        k = k + 1
+                        total = total + k
+                    return total
+
+                def search(n, wanted):
+                    for i in range(n):
+                        if i * i >= wanted:
+                            return i
+                    return -1
+
+                print(spin(200000))
+                s = 0
+                for j in range(3000):
+                    s = s + search(100, j)
+                print(s)
+                """;
+        assertEquals("20000100000.5\n110990\n", run(python));
+    }
+
+    @Test
+    void reportsLineOfErrorInPromotedFunction() {
+        String python = """
+                def f(items, x):
+                    k = x // 1000000
+                    return items[k]
+
+                nums = [5, 7]
+                t = 0
+                for i in range(4000000):
+                    t = t + f(nums, i)
+                print(t)
+                """;
+        ScriptInterpreter interpreter = Main.newConverter(Interpreter.lexCompact(python.toCharArray())).interpreter();
+        IndexOutOfBoundsException e = assertThrows(IndexOutOfBoundsException.class, () -> capture(interpreter));
+        assertEquals(3, SourceMap.pythonLine(e));
+    }
+
+    private static String run(String python) {
+        return capture(Main.newConverter(Interpreter.lexCompact(python.toCharArray())).interpreter());
+    }
+
+    private static String capture(ScriptInterpreter interpreter) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        OutputStream stdout = ThreadOutput.OUT.redirect(output);
+        try {
+            interpreter.run();
+        } finally {
+            PyPrint.flush();
+            ThreadOutput.OUT.redirect(stdout);
+        }
+        return output.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,84 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Sends framed requests to the server as a client does, and reads back its framed responses.
+ */
+class ScriptServerTest {
+
+    /**
+     * One response: int id, int status, then stdout and stderr, each as int length and UTF-8 bytes.
+     */
+    record Response(int status, String stdout, String stderr) {
+    }
+
+    @Test
+    void answersEveryRequestUnderItsId() throws IOException {
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(requests);
+        request(out, 7, "print(6 * 7)\n");
+        request(out, 3, "x = [1]\nprint(x[5])\n");
+        request(out, 9, "print(\"hé\")\n");
+
+        Map<Integer, Response> responses = serve(requests.toByteArray());
+        assertEquals(3, responses.size());
+        assertEquals(new Response(0, "42\n", ""), responses.get(7));
+        assertEquals(1, responses.get(3).status());
+        assertTrue(responses.get(3).stderr().contains("line 2"), responses.get(3).stderr());
+        assertEquals(new Response(0, "hé\n", ""), responses.get(9));
+    }
+
+    @Test
+    void rejectsRequestWithBadLength() throws IOException {
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(requests);
+        request(out, 1, "print(1)\n");
+        out.writeInt(2);
+        out.writeInt(-5);
+        // Nothing after a bad length can be framed, so this request is never read.
+        request(out, 3, "print(3)\n");
+
+        Map<Integer, Response> responses = serve(requests.toByteArray());
+        assertEquals(2, responses.size());
+        assertEquals(new Response(0, "1\n", ""), responses.get(1));
+        assertEquals(new Response(1, "", "Request too large: -5 bytes\n"), responses.get(2));
+    }
+
+    private static void request(DataOutputStream out, int id, String source) throws IOException {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(id);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static Map<Integer, Response> serve(byte[] requests) throws IOException {
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+        new ScriptServer().serve(new ByteArrayInputStream(requests), new DataOutputStream(responses));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(responses.toByteArray()));
+        Map<Integer, Response> byId = new HashMap<>();
+        while (in.available() > 0) {
+            int id = in.readInt();
+            int status = in.readInt();
+            byId.put(id, new Response(status, text(in), text(in)));
+        }
+        return byId;
+    }
+
+    private static String text(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Translates successive versions of a script as the watcher does when the file is saved, and
+ * checks that each gives the code a translation from the start gives.
+ */
+class ScriptWatcherTest {
+
+    private final ScriptWatcher watcher = new ScriptWatcher(Path.of("watched.py"));
+
+    @Test
+    void resumesAfterUnchangedStatements() {
+        String start = script(30);
+        translate(start + "print(total)\n");
+
+        Main.Translation edited = translate(start + "print(total, total + 1)\n");
+        assertTrue(edited.converter().resumedAt() > 0, () -> "resumed at " + edited.converter().resumedAt());
+        assertSameAsFromStart(start + "print(total, total + 1)\n", edited);
+    }
+
+    @Test
+    void convertsFromStartWhenTypesChange() {
+        String start = script(30);
+        translate(start + "print(total)\n");
+
+        // f0 is now called with a float too, which changes how it and every call of it are translated.
+        String text = start + "print(f0(0.5))\n";
+        Main.Translation edited = translate(text);
+        assertEquals(0, edited.converter().resumedAt());
+        assertSameAsFromStart(text, edited);
+    }
+
+    @Test
+    void doesNotRunAgainWhenOnlyCommentsChange() {
+        String text = script(5) + "print(total)\n";
+        translate(text);
+        assertNull(watcher.translate(text.replace("\n", "  # note\n"), new Metrics("watched")));
+    }
+
+    // A script of n functions, each called once, that sets total.
+    private static String script(int n) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            text.append("def f").append(i).append("(x):\n")
+                    .append("    return x + ").append(i).append("\n")
+                    .append("y").append(i).append(" = f").append(i).append("(").append(i).append(")\n")
+                    .append("print(y").append(i).append(")\n");
+        }
+        return text.append("total = 1\n").toString();
+    }
+
+    private Main.Translation translate(String text) {
+        Main.Translation translation = watcher.translate(text, new Metrics("watched"));
+        assertNotNull(translation);
+        return translation;
+    }
+
+    private static void assertSameAsFromStart(String text, Main.Translation translation) {
+        PythonToJavaConverter fresh = Main.newConverter(Interpreter.lexCompact(text.toCharArray()));
+        assertEquals(fresh.convert(), translation.javaCode());
+        assertEquals(fresh.methods(), translation.converter().methods());
+    }
+}
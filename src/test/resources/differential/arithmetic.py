@@ -0,0 +1,16 @@
+a = 17
+b = -5
+print(a // b, a % b, -a // b, -a % b, a // -b)
+print(a / b, a * b, a - b, a ** 2)
+x = -7.5
+y = 2
+print(x % y, 7.5 % -2, -7.5 % 2, 6.0 % -3)
+print(x // y, 7.5 // -2)
+z = 5.25
+print(z % 1.0, -z % 1.0)
+print(a > b, a == 17, not a == 17)
+print(abs(b), abs(x), min(a, b), max(x, 2.5))
+h = 0.0
+for i in range(5000):
+    h = h + i / 2.0
+print(h)
@@ -0,0 +1,12 @@
+f = 1
+for i in range(1, 31):
+    f = f * i
+print(f)
+a = 0
+b = 1
+for i in range(100):
+    c = a + b
+    a = b
+    b = c
+print(a)
+print(a % 1000000007, a // 3)
@@ -0,0 +1,40 @@
+from functools import lru_cache
+
+def fib(n):
+    if n < 2:
+        return n
+    return fib(n - 1) + fib(n - 2)
+
+@lru_cache(maxsize=None)
+def mfib(n):
+    if n < 2:
+        return n
+    return mfib(n - 1) + mfib(n - 2)
+
+def avg(a, b):
+    return (a + b) / 2
+
+def greet(name, times):
+    for i in range(times):
+        print("hi", name)
+
+def is_even(k):
+    return k % 2 == 0
+
+def label(k):
+    if is_even(k):
+        return "even"
+    return "odd"
+
+total = 0
+for i in range(20):
+    total = total + fib(i)
+print(total)
+print(mfib(80))
+print(avg(3, 4.5))
+greet("bob", 2)
+print(label(7), label(10))
+x = 0
+while x < 3000:
+    x = x + fib(5)
+print(x)
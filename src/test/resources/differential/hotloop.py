@@ -0,0 +1,13 @@
+w = [1, 2, 3]
+f = [0.5]
+j = 0
+acc = 0
+while j < 300000:
+    acc = acc + len(w) + w[j % 3]
+    for v in w[0:2]:
+        acc = acc + v
+    if j % 1000 == 0:
+        f.append(j / 1000)
+        w[1] = w[1] + 1
+    j = j + 1
+print(acc, len(f), f[-1], w)
@@ -0,0 +1,71 @@
+a = [3, 1, 4, 1, 5]
+a.append(9)
+print(a)
+print(len(a), a[0], a[-1], a[1:3], a[::2])
+a[2] = a[2] * 10
+print(a)
+total = 0
+for x in a:
+    total = total + x
+print(total)
+print(min(a), max(a))
+print(4 in a, 40 in a, 7 not in a)
+b = a + [2, 6]
+print(b)
+print([0, 1] * 3)
+print(a == [3, 1, 40, 1, 5, 9], a != b)
+f = [1.5, 2.5]
+f.append(3.0)
+g = f + [2.0, 0.5]
+print(g)
+print(len(g))
+e = []
+if e:
+    print("nonempty")
+else:
+    print("empty")
+e.append(2.5)
+if e:
+    print("now", e)
+s = 0.0
+for y in [1, 2, 3]:
+    s = s + y / 2
+print(s)
+for z in f:
+    print(z)
+print(str(a), "ab" in "cabd")
+i = 0
+while i < 3000:
+    a.append(i % 7)
+    i = i + 1
+print(len(a), a[2000])
+def grow(xs, n):
+    for k in range(n):
+        xs.append(k * 2)
+    return xs
+w = grow([1], 3)
+print(len(grow(w, 2)), w)
+j = 0
+acc = 0
+while j < 2000:
+    acc = acc + len(w) + w[j % 3]
+    for v in w[0:2]:
+        acc = acc + v
+    j = j + 1
+print(acc)
+def total(xs):
+    s = 0
+    for x in xs:
+        s = s + x
+    return s
+
+def scaled(xs, k):
+    out = []
+    for x in xs:
+        out.append(x * k)
+    return out
+
+a = [1, 2, 3]
+print(total(a), scaled(a, 2), total(scaled(a, 3)))
+b = [1.5, 2.0]
+print(b, max(b), min(a))
@@ -0,0 +1,21 @@
+from functools import cache, lru_cache
+
+@lru_cache(maxsize=None)
+def paths(r, c):
+    if r == 0 or c == 0:
+        return 1
+    return paths(r - 1, c) + paths(r, c - 1)
+
+@lru_cache(maxsize=None)
+def shout(word):
+    return word + "!"
+
+@cache
+def once(k):
+    print("computing", k)
+
+print(paths(16, 16))
+print(shout("hey"), shout("hey"))
+once(3)
+once(3)
+once(4)
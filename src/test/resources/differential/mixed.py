@@ -0,0 +1,7 @@
+# Elements of different types keep their own type.
+mixed = [1, 2.5]
+print(mixed, [True, 1])
+mixed.append(3)
+print(mixed, len(mixed), mixed[2])
+words = ["a", 1]
+print(words, words[0] == "a")
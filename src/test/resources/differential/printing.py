@@ -0,0 +1,15 @@
+a = 0.1 + 0.2
+b = 1e-05
+c = 3 > 2
+print(a, b, c)
+print(1e16, 1e15, 2.5, -0.0, 100.0)
+print("x", 3, sep=",")
+s = str(b) + " " + str(c) + " " + str(1.5) + " " + str(7)
+print(s)
+xs = [1.5, 2.0, 1e-7]
+print(xs)
+ys = [1, 2]
+print(ys, len(ys))
+print(str(xs))
+print(c == False, not c)
+print(1/3, 2/3, 10/4)
@@ -0,0 +1,41 @@
+c = 0
+for i in range(5):
+    c = c + 1
+print(i)
+for j in range(10, 0, -3):
+    print(j)
+print(j)
+n = 0
+for k in range(2, 20, 4):
+    n = n + k
+print(k, n)
+for m in range(100):
+    if m == 7:
+        break
+print(m)
+for p in range(6):
+    if p % 2 == 0:
+        continue
+    print(p)
+print(p)
+step = 2
+for q in range(1, 10, step):
+    c = c + q
+print(q)
+step = -2
+for q in range(10, 1, step):
+    c = c - q
+print(q)
+r = 42
+for r in range(0):
+    c = 0
+print(r, c)
+t = 0
+for u in range(3):
+    for v in range(u, 3):
+        t = t + u * v
+print(t, u, v)
+w = 0
+while w < 10:
+    w = w + 3
+print(w)